@@ -0,0 +1,83 @@
+package com.psddev.dari.benchmark;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.psddev.dari.util.ObjectUtils;
+
+/**
+ * Throughput of the common conversions through {@link ObjectUtils#to},
+ * which run on the hot paths such as resolving references.
+ *
+ * <p>Run with {@code java -jar benchmark/target/benchmarks.jar} after
+ * packaging.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class ConverterBenchmark {
+
+    private final UUID id = UUID.randomUUID();
+    private final String idString = id.toString();
+    private final Map<String, Object> reference = Collections.<String, Object>singletonMap("_ref", idString);
+    private final String longString = "1451606400000";
+    private final String intString = "12345";
+    private final String booleanString = "true";
+    private final String dateString = "2016-01-01T00:00:00Z";
+
+    @Benchmark
+    public UUID uuidToUuid() {
+        return ObjectUtils.to(UUID.class, id);
+    }
+
+    @Benchmark
+    public UUID stringToUuid() {
+        return ObjectUtils.to(UUID.class, idString);
+    }
+
+    @Benchmark
+    public UUID referenceToId() {
+        return ObjectUtils.to(UUID.class, reference.get("_ref"));
+    }
+
+    @Benchmark
+    public long stringToLong() {
+        return ObjectUtils.to(long.class, longString);
+    }
+
+    @Benchmark
+    public int stringToInt() {
+        return ObjectUtils.to(int.class, intString);
+    }
+
+    @Benchmark
+    public boolean stringToBoolean() {
+        return ObjectUtils.to(boolean.class, booleanString);
+    }
+
+    @Benchmark
+    public Date millisStringToDate() {
+        return ObjectUtils.to(Date.class, longString);
+    }
+
+    @Benchmark
+    public Date formattedStringToDate() {
+        return ObjectUtils.to(Date.class, dateString);
+    }
+}
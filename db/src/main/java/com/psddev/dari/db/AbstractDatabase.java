@@ -1068,6 +1068,7 @@ public abstract class AbstractDatabase<C> implements Database {
         if (hasValidates) {
             for (State state : validates) {
                 state.setStatus(StateStatus.SAVED);
+                state.getExtras().put(State.SAVED_TYPE_ID_EXTRA, state.getTypeId());
                 state.fireTrigger(new AfterSaveTrigger());
             }
         }
@@ -1389,6 +1390,7 @@ public abstract class AbstractDatabase<C> implements Database {
 
         if (idUuid != null) {
             objectState.setStatus(StateStatus.SAVED);
+            objectState.getExtras().put(State.SAVED_TYPE_ID_EXTRA, typeIdUuid);
         }
 
         objectState.getExtras().put(Database.CREATOR_EXTRA, this);
@@ -148,6 +148,12 @@ public class AsyncDatabaseWriter<E> extends AsyncConsumer<E> {
         calculateNextCommitSize();
     }
 
+    // Removes just enough items from the queue to fill the next commit.
+    @Override
+    protected int getDrainSize() {
+        return Math.max(1, nextCommitSize - toBeCommitted.size());
+    }
+
     @Override
     protected void consume(E item) {
         lastItem = item;
@@ -0,0 +1,518 @@
+package com.psddev.dari.db;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import com.psddev.dari.util.CompactMap;
+import com.psddev.dari.util.ObjectUtils;
+
+/**
+ * Compact binary encoding of the simple value maps that are stored in the
+ * {@link SqlDatabase#DATA_COLUMN}.
+ *
+ * <p>The encoded bytes start with {@link #FORMAT} and a version byte,
+ * followed by a symbol table of all map keys used in the document, and
+ * then the root map. Map keys are written as indexes into the symbol table,
+ * integers as zig-zag varints, and strings that are canonical UUIDs as
+ * their raw 16 bytes. Other numbers, such as {@link java.math.BigDecimal},
+ * are written as strings, the same as in the JSON format. Decoding
+ * produces the same value types as {@link ObjectUtils#fromJson(byte[])}:
+ * {@link CompactMap}, {@link ArrayList}, {@link String}, {@link Long},
+ * {@link Double}, {@link Boolean}, and {@code null}.</p>
+ */
+abstract class BinaryDataUtils {
+
+    /** Format byte that identifies binary encoded data. */
+    public static final byte FORMAT = 'b';
+
+    private static final byte VERSION = 1;
+
+    private static final int NULL_TAG = 0;
+    private static final int TRUE_TAG = 1;
+    private static final int FALSE_TAG = 2;
+    private static final int LONG_TAG = 3;
+    private static final int DOUBLE_TAG = 4;
+    private static final int STRING_TAG = 5;
+    private static final int UUID_TAG = 6;
+    private static final int LIST_TAG = 7;
+    private static final int MAP_TAG = 8;
+
+    /** Encodes the given {@code values} into binary data. */
+    public static byte[] encode(Map<String, Object> values) {
+        Map<String, Integer> symbols = new LinkedHashMap<String, Integer>();
+
+        collectSymbols(symbols, values);
+
+        Output output = new Output();
+
+        output.writeByte(FORMAT);
+        output.writeByte(VERSION);
+        output.writeVarint(symbols.size());
+
+        for (String symbol : symbols.keySet()) {
+            output.writeString(symbol);
+        }
+
+        writeValue(output, symbols, values);
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Decodes the given binary {@code data}, which must start with
+     * {@link #FORMAT}, into a map.
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> decode(byte[] data) {
+        Input input = new Input(data, 0);
+        String[] symbols = readHeader(input);
+        Object values = readValue(input, symbols);
+
+        if (!(values instanceof Map)) {
+            throw new IllegalStateException("Binary data doesn't contain a map!");
+        }
+
+        return (Map<String, Object>) values;
+    }
+
+    /**
+     * Decodes the given binary {@code data}, which must start with
+     * {@link #FORMAT}, into a map that only decodes each top-level value
+     * when it's first accessed. The returned map supports removal, but
+     * not additions.
+     */
+    public static Map<String, Object> decodeLazily(byte[] data) {
+        Input input = new Input(data, 0);
+        String[] symbols = readHeader(input);
+
+        if (input.readByte() != MAP_TAG) {
+            throw new IllegalStateException("Binary data doesn't contain a map!");
+        }
+
+        int mapSize = input.readVarint();
+        Map<String, Integer> positions = new LinkedHashMap<String, Integer>(mapSize);
+
+        for (int i = 0; i < mapSize; ++ i) {
+            positions.put(symbols[input.readVarint()], input.position);
+            skipValue(input);
+        }
+
+        return new LazyMap(data, symbols, positions);
+    }
+
+    // Reads the format, the version, and the symbol table.
+    private static String[] readHeader(Input input) {
+        if (input.readByte() != FORMAT) {
+            throw new IllegalArgumentException("Not binary data!");
+        }
+
+        byte version = input.readByte();
+
+        if (version != VERSION) {
+            throw new IllegalStateException(String.format(
+                    "Unknown binary data version! ([%s])", version));
+        }
+
+        int symbolsSize = input.readVarint();
+        String[] symbols = new String[symbolsSize];
+
+        for (int i = 0; i < symbolsSize; ++ i) {
+            symbols[i] = input.readString();
+        }
+
+        return symbols;
+    }
+
+    private static void collectSymbols(Map<String, Integer> symbols, Object value) {
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                String key = String.valueOf(entry.getKey());
+
+                if (!symbols.containsKey(key)) {
+                    symbols.put(key, symbols.size());
+                }
+
+                collectSymbols(symbols, entry.getValue());
+            }
+
+        } else if (value instanceof List) {
+            for (Object item : (List<?>) value) {
+                collectSymbols(symbols, item);
+            }
+
+        } else if (value != null
+                && !(value instanceof Boolean)
+                && !(value instanceof Number)
+                && !(value instanceof CharSequence)
+                && !(value instanceof Character)) {
+            collectSymbols(symbols, normalize(value));
+        }
+    }
+
+    // Normalizes the given value the same way the JSON format would.
+    private static Object normalize(Object value) {
+        return ((List<?>) ObjectUtils.fromJson(ObjectUtils.toJson(Arrays.asList(value)))).get(0);
+    }
+
+    private static void writeValue(Output output, Map<String, Integer> symbols, Object value) {
+        if (value == null) {
+            output.writeByte(NULL_TAG);
+
+        } else if (value instanceof Boolean) {
+            output.writeByte((Boolean) value ? TRUE_TAG : FALSE_TAG);
+
+        } else if (value instanceof Long
+                || value instanceof Integer
+                || value instanceof Short
+                || value instanceof Byte) {
+            long longValue = ((Number) value).longValue();
+
+            output.writeByte(LONG_TAG);
+            output.writeVarlong((longValue << 1) ^ (longValue >> 63));
+
+        } else if (value instanceof Double
+                || value instanceof Float) {
+            output.writeByte(DOUBLE_TAG);
+            output.writeLong(Double.doubleToRawLongBits(((Number) value).doubleValue()));
+
+        // Other numbers, such as BigDecimal, are written as strings, the same
+        // as in the JSON format, so that they keep their scale.
+        } else if (value instanceof Number
+                || value instanceof CharSequence
+                || value instanceof Character) {
+            writeString(output, value.toString());
+
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+
+            output.writeByte(MAP_TAG);
+            output.writeVarint(map.size());
+
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                output.writeVarint(symbols.get(String.valueOf(entry.getKey())));
+                writeValue(output, symbols, entry.getValue());
+            }
+
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+
+            output.writeByte(LIST_TAG);
+            output.writeVarint(list.size());
+
+            for (Object item : list) {
+                writeValue(output, symbols, item);
+            }
+
+        } else {
+            writeValue(output, symbols, normalize(value));
+        }
+    }
+
+    private static void writeString(Output output, String string) {
+        UUID uuid = toCanonicalUuid(string);
+
+        if (uuid != null) {
+            output.writeByte(UUID_TAG);
+            output.writeLong(uuid.getMostSignificantBits());
+            output.writeLong(uuid.getLeastSignificantBits());
+
+        } else {
+            output.writeByte(STRING_TAG);
+            output.writeString(string);
+        }
+    }
+
+    private static Object readValue(Input input, String[] symbols) {
+        int tag = input.readByte();
+
+        switch (tag) {
+            case NULL_TAG :
+                return null;
+
+            case TRUE_TAG :
+                return Boolean.TRUE;
+
+            case FALSE_TAG :
+                return Boolean.FALSE;
+
+            case LONG_TAG :
+                long zigZag = input.readVarlong();
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+
+            case DOUBLE_TAG :
+                return Double.longBitsToDouble(input.readLong());
+
+            case STRING_TAG :
+                return input.readString();
+
+            case UUID_TAG :
+                return new UUID(input.readLong(), input.readLong()).toString();
+
+            case LIST_TAG :
+                int listSize = input.readVarint();
+                List<Object> list = new ArrayList<Object>(listSize);
+
+                for (int i = 0; i < listSize; ++ i) {
+                    list.add(readValue(input, symbols));
+                }
+
+                return list;
+
+            case MAP_TAG :
+                int mapSize = input.readVarint();
+                Map<String, Object> map = mapSize <= 8
+                        ? new CompactMap<String, Object>()
+                        : new LinkedHashMap<String, Object>(mapSize);
+
+                for (int i = 0; i < mapSize; ++ i) {
+                    String key = symbols[input.readVarint()];
+                    map.put(key, readValue(input, symbols));
+                }
+
+                return map;
+
+            default :
+                throw new IllegalStateException(String.format(
+                        "Unknown binary data tag! ([%s])", tag));
+        }
+    }
+
+    private static void skipValue(Input input) {
+        int tag = input.readByte();
+
+        switch (tag) {
+            case NULL_TAG :
+            case TRUE_TAG :
+            case FALSE_TAG :
+                return;
+
+            case LONG_TAG :
+                input.readVarlong();
+                return;
+
+            case DOUBLE_TAG :
+                input.position += 8;
+                return;
+
+            case STRING_TAG :
+                input.position += input.readVarint();
+                return;
+
+            case UUID_TAG :
+                input.position += 16;
+                return;
+
+            case LIST_TAG :
+                for (int i = 0, size = input.readVarint(); i < size; ++ i) {
+                    skipValue(input);
+                }
+                return;
+
+            case MAP_TAG :
+                for (int i = 0, size = input.readVarint(); i < size; ++ i) {
+                    input.readVarint();
+                    skipValue(input);
+                }
+                return;
+
+            default :
+                throw new IllegalStateException(String.format(
+                        "Unknown binary data tag! ([%s])", tag));
+        }
+    }
+
+    // Returns the UUID if the given string is its canonical, lower-case
+    // form, so that it can be restored exactly on decode.
+    private static UUID toCanonicalUuid(String string) {
+        if (string.length() != 36) {
+            return null;
+        }
+
+        for (int i = 0; i < 36; ++ i) {
+            char letter = string.charAt(i);
+
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (letter != '-') {
+                    return null;
+                }
+
+            } else if (!((letter >= '0' && letter <= '9') || (letter >= 'a' && letter <= 'f'))) {
+                return null;
+            }
+        }
+
+        return UUID.fromString(string);
+    }
+
+    private static final class Output {
+
+        private byte[] bytes = new byte[256];
+        private int length;
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        public void writeByte(int value) {
+            ensure(1);
+            bytes[length] = (byte) value;
+            ++ length;
+        }
+
+        public void writeVarint(int value) {
+            writeVarlong(value & 0xFFFFFFFFL);
+        }
+
+        public void writeVarlong(long value) {
+            ensure(10);
+
+            while ((value & ~0x7FL) != 0) {
+                bytes[length] = (byte) ((value & 0x7F) | 0x80);
+                ++ length;
+                value >>>= 7;
+            }
+
+            bytes[length] = (byte) value;
+            ++ length;
+        }
+
+        public void writeLong(long value) {
+            ensure(8);
+
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[length] = (byte) (value >>> shift);
+                ++ length;
+            }
+        }
+
+        public void writeString(String value) {
+            byte[] stringBytes = value.getBytes(StandardCharsets.UTF_8);
+
+            writeVarint(stringBytes.length);
+            ensure(stringBytes.length);
+            System.arraycopy(stringBytes, 0, bytes, length, stringBytes.length);
+            length += stringBytes.length;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    private static final class Input {
+
+        private final byte[] bytes;
+        private int position;
+
+        public Input(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        public byte readByte() {
+            byte value = bytes[position];
+            ++ position;
+            return value;
+        }
+
+        public int readVarint() {
+            return (int) readVarlong();
+        }
+
+        public long readVarlong() {
+            long value = 0L;
+
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IllegalStateException("Malformed varint in binary data!");
+        }
+
+        public long readLong() {
+            long value = 0L;
+
+            for (int i = 0; i < 8; ++ i) {
+                value = (value << 8) | (readByte() & 0xFF);
+            }
+
+            return value;
+        }
+
+        public String readString() {
+            int stringLength = readVarint();
+            String value = new String(bytes, position, stringLength, StandardCharsets.UTF_8);
+
+            position += stringLength;
+            return value;
+        }
+    }
+
+    private static final class LazyMap extends AbstractMap<String, Object> {
+
+        private final byte[] data;
+        private final String[] symbols;
+        private final Map<String, Integer> positions;
+
+        public LazyMap(byte[] data, String[] symbols, Map<String, Integer> positions) {
+            this.data = data;
+            this.symbols = symbols;
+            this.positions = positions;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return positions.containsKey(key);
+        }
+
+        @Override
+        public Object get(Object key) {
+            Integer position = positions.get(key);
+
+            return position != null ? readValue(new Input(data, position), symbols) : null;
+        }
+
+        @Override
+        public Object remove(Object key) {
+            Integer position = positions.remove(key);
+
+            return position != null ? readValue(new Input(data, position), symbols) : null;
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return Collections.unmodifiableSet(positions.keySet());
+        }
+
+        @Override
+        public int size() {
+            return positions.size();
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+            for (Map.Entry<String, Integer> entry : positions.entrySet()) {
+                values.put(entry.getKey(), readValue(new Input(data, entry.getValue()), symbols));
+            }
+
+            return Collections.unmodifiableMap(values).entrySet();
+        }
+    }
+}
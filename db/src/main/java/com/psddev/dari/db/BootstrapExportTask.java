@@ -0,0 +1,600 @@
+package com.psddev.dari.db;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.psddev.dari.util.AsyncConsumer;
+import com.psddev.dari.util.AsyncQueue;
+import com.psddev.dari.util.IoUtils;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.StringUtils;
+import com.psddev.dari.util.Task;
+
+/**
+ * Exports a bootstrap package into a directory of compressed chunk files,
+ * using multiple threads.
+ *
+ * <p>The records of each concrete type are partitioned into ID ranges, and
+ * each partition is written by one of the workers in chunks. The manifest
+ * in the directory records the chunks and the last ID written for each
+ * partition, so that running the export again into the same directory
+ * resumes where it left off. Use {@link BootstrapPackage.Static#importContents(Database, File, boolean, int, int)}
+ * to read it back.</p>
+ */
+class BootstrapExportTask extends Task {
+
+    public static final String EXECUTOR_PREFIX = "Bootstrap Export";
+    public static final String MANIFEST_FILE = "manifest.json";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BootstrapExportTask.class);
+    private static final String HEAD_FILE = "head.jsonl";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int PAGE_SIZE = 1000;
+
+    private static final String PACKAGE_NAME_KEY = "packageName";
+    private static final String COMPRESSION_KEY = "compression";
+    private static final String HEAD_KEY = "head";
+    private static final String PARTITIONS_KEY = "partitions";
+    private static final String COMPLETE_KEY = "complete";
+
+    private final Database database;
+    private final BootstrapPackage pkg;
+    private final Set<ObjectType> additionalTypes;
+    private final String projectName;
+    private final File directory;
+    private final Compression compression;
+    private final int numWorkers;
+    private final int rangesPerType;
+    private final int chunkSize;
+    private final List<Partition> partitions = new ArrayList<Partition>();
+    private String head;
+
+    /**
+     * @param compression If {@code null}, defaults to {@link Compression#GZIP}.
+     * @param numWorkers Number of threads that write the partitions.
+     * @param rangesPerType Number of ID ranges that the records of each
+     *        concrete type are split into.
+     * @param chunkSize Number of records in each chunk file, which is also
+     *        how often the progress is checkpointed in the manifest.
+     */
+    public BootstrapExportTask(
+            Database database,
+            BootstrapPackage pkg,
+            Set<ObjectType> additionalTypes,
+            String projectName,
+            File directory,
+            Compression compression,
+            int numWorkers,
+            int rangesPerType,
+            int chunkSize) {
+
+        super(EXECUTOR_PREFIX, EXECUTOR_PREFIX + " " + pkg.getName());
+        this.database = database;
+        this.pkg = pkg;
+        this.additionalTypes = additionalTypes;
+        this.projectName = projectName;
+        this.directory = directory;
+        this.compression = compression != null ? compression : Compression.GZIP;
+        this.numWorkers = Math.max(1, numWorkers);
+        this.rangesPerType = Math.max(1, rangesPerType);
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    @Override
+    protected void doTask() throws IOException {
+        IoUtils.createDirectories(directory);
+
+        BootstrapPackage.ExportPlan plan;
+
+        if (readManifest()) {
+            LOGGER.info("Resuming export of " + pkg.getName() + " into " + directory);
+            plan = BootstrapPackage.Static.writeHeaders(database, pkg, additionalTypes, new StringWriter(), projectName);
+
+        } else {
+            LOGGER.info("Exporting " + pkg.getName() + " into " + directory);
+            head = HEAD_FILE + compression.getExtension();
+            File headFile = new File(directory, head);
+            File temporaryFile = new File(directory, head + TEMPORARY_SUFFIX);
+            Writer writer = openWriter(temporaryFile);
+
+            try {
+                plan = BootstrapPackage.Static.writeHeaders(database, pkg, additionalTypes, writer, projectName);
+                BootstrapPackage.Static.writeMappingRecords(plan, writer);
+
+            } finally {
+                writer.close();
+            }
+
+            IoUtils.rename(temporaryFile, headFile);
+
+            boolean signed = isIdComparisonSigned(database);
+
+            for (UUID typeId : plan.getConcreteTypeIds()) {
+                for (int i = 0; i < rangesPerType; ++ i) {
+                    partitions.add(new Partition(partitions.size(), typeId, getRangeStart(i, rangesPerType, signed), getRangeStart(i + 1, rangesPerType, signed)));
+                }
+            }
+
+            writeManifest(false);
+        }
+
+        AsyncQueue<Partition> partitionQueue = new AsyncQueue<Partition>();
+        List<Exporter> exporters = new ArrayList<Exporter>();
+
+        for (int i = 0; i < numWorkers; ++ i) {
+            Exporter exporter = new Exporter(partitionQueue, plan);
+            exporters.add(exporter);
+            exporter.submit();
+        }
+
+        setProgressTotal(partitions.size());
+
+        for (Partition partition : partitions) {
+            if (!partition.isDone()) {
+                partitionQueue.add(partition);
+            }
+        }
+
+        partitionQueue.closeAutomatically();
+
+        // block until exporters are done
+        boolean done = false;
+        while (!done) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (!shouldContinue()) {
+                for (Task exporter : exporters) {
+                    exporter.stop();
+                }
+                break;
+            }
+            done = true;
+            for (Task exporter : exporters) {
+                if (exporter.isRunning()) {
+                    done = false;
+                    break;
+                }
+            }
+        }
+
+        for (Partition partition : partitions) {
+            if (!partition.isDone()) {
+                LOGGER.warn("Export of " + pkg.getName() + " into " + directory + " is incomplete. Run it again to resume.");
+                return;
+            }
+        }
+
+        writeManifest(true);
+        LOGGER.info("Done with export of " + pkg.getName() + ".");
+    }
+
+    // Reads the partitions from the manifest in the directory, if it's for
+    // the same package.
+    private boolean readManifest() throws IOException {
+        File manifestFile = new File(directory, MANIFEST_FILE);
+
+        if (!manifestFile.exists()) {
+            return false;
+        }
+
+        Map<String, Object> manifest = readManifest(directory);
+
+        if (!pkg.getName().equals(manifest.get(PACKAGE_NAME_KEY))) {
+            throw new IllegalStateException(String.format(
+                    "[%s] already contains an export of [%s]!",
+                    directory, manifest.get(PACKAGE_NAME_KEY)));
+        }
+
+        head = ObjectUtils.to(String.class, manifest.get(HEAD_KEY));
+
+        for (Object partition : ObjectUtils.to(List.class, manifest.get(PARTITIONS_KEY))) {
+            partitions.add(new Partition(partitions.size(), ObjectUtils.to(Map.class, partition)));
+        }
+
+        return true;
+    }
+
+    // Writes the manifest to a temporary file first so that a crash never
+    // leaves a partial one behind.
+    private synchronized void writeManifest(boolean complete) throws IOException {
+        Map<String, Object> manifest = new LinkedHashMap<String, Object>();
+        List<Object> partitionMaps = new ArrayList<Object>();
+        long donePartitions = 0;
+        long rows = 0;
+
+        for (Partition partition : partitions) {
+            partitionMaps.add(partition.toMap());
+            rows += partition.rows;
+            if (partition.isDone()) {
+                ++ donePartitions;
+            }
+        }
+
+        setProgressIndex(donePartitions);
+        setProgress(String.format("%,d of %,d partitions exported, %,d rows", donePartitions, partitions.size(), rows));
+
+        manifest.put(PACKAGE_NAME_KEY, pkg.getName());
+        manifest.put(COMPRESSION_KEY, compression.name());
+        manifest.put(HEAD_KEY, head);
+        manifest.put(PARTITIONS_KEY, partitionMaps);
+        manifest.put(COMPLETE_KEY, complete);
+
+        File manifestFile = new File(directory, MANIFEST_FILE);
+        File temporaryFile = new File(directory, MANIFEST_FILE + TEMPORARY_SUFFIX);
+        OutputStream output = new FileOutputStream(temporaryFile);
+
+        try {
+            output.write(ObjectUtils.toJson(manifest, true).getBytes(StringUtils.UTF_8));
+
+        } finally {
+            output.close();
+        }
+
+        IoUtils.rename(temporaryFile, manifestFile);
+    }
+
+    private Writer openWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(compression.compress(new FileOutputStream(file)), StringUtils.UTF_8));
+    }
+
+    /**
+     * Returns {@code true} if the given {@code database} compares the IDs
+     * as signed longs, so that {@code ffffffff-...} sorts before
+     * {@code 00000000-...}.
+     */
+    static boolean isIdComparisonSigned(Database database) {
+        while (true) {
+            if (database instanceof ForwardingDatabase) {
+                database = ((ForwardingDatabase) database).getDelegate();
+
+            } else if (database instanceof AggregateDatabase) {
+                database = ((AggregateDatabase) database).getDefaultReadDelegate();
+
+            } else {
+                return database instanceof SqlDatabase
+                        && ((SqlDatabase) database).getVendor().isUuidComparisonSigned();
+            }
+        }
+    }
+
+    /**
+     * Returns the UUID that starts the given {@code index} out of the given
+     * number of ranges that split the whole ID space evenly by the most
+     * significant bits, or {@code null} if it's at either end.
+     *
+     * <p>The ranges must increase in the order that the database compares
+     * the IDs in, or the predicates would overlap or skip the rows around
+     * the sign boundary, so the {@code signed} ranges start at
+     * {@code 80000000-...} instead.</p>
+     */
+    static UUID getRangeStart(int index, int ranges, boolean signed) {
+        if (index <= 0 || index >= ranges) {
+            return null;
+        }
+
+        long start = (Long.divideUnsigned(-1L, ranges) + 1) * index;
+
+        return new UUID(signed ? start ^ Long.MIN_VALUE : start, 0L);
+    }
+
+    /**
+     * Restricts the given {@code query} to the IDs from the given
+     * {@code startId} inclusive to the given {@code endId} exclusive.
+     */
+    static void addRangePredicates(Query<?> query, UUID startId, UUID endId) {
+        if (startId != null) {
+            query.and("_id >= ?", startId);
+        }
+
+        if (endId != null) {
+            query.and("_id < ?", endId);
+        }
+    }
+
+    /**
+     * Reads the manifest in the given {@code directory}.
+     *
+     * @return Never {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> readManifest(File directory) throws IOException {
+        Object manifest = ObjectUtils.fromJson(IoUtils.toString(new File(directory, MANIFEST_FILE), StringUtils.UTF_8));
+
+        if (!(manifest instanceof Map)) {
+            throw new IOException(String.format(
+                    "[%s] doesn't contain a valid manifest!",
+                    directory));
+        }
+
+        return (Map<String, Object>) manifest;
+    }
+
+    /**
+     * Returns the head file listed in the given {@code manifest} read from
+     * the given {@code directory}.
+     */
+    static File getHeadFile(File directory, Map<String, Object> manifest) {
+        return new File(directory, ObjectUtils.to(String.class, manifest.get(HEAD_KEY)));
+    }
+
+    /**
+     * Returns all chunk files listed in the given {@code manifest} read from
+     * the given {@code directory}.
+     */
+    static List<File> getChunkFiles(File directory, Map<String, Object> manifest) {
+        List<File> files = new ArrayList<File>();
+
+        for (Object partition : ObjectUtils.to(List.class, manifest.get(PARTITIONS_KEY))) {
+            for (Object chunk : ObjectUtils.to(List.class, ((Map<?, ?>) partition).get(Partition.CHUNKS_KEY))) {
+                files.add(new File(directory, ObjectUtils.to(String.class, chunk)));
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * Returns {@code true} if all partitions listed in the given
+     * {@code manifest} have been exported.
+     */
+    static boolean isComplete(Map<String, Object> manifest) {
+        return Boolean.TRUE.equals(ObjectUtils.to(Boolean.class, manifest.get(COMPLETE_KEY)));
+    }
+
+    /**
+     * Opens a reader for the given export {@code file}, decompressing it
+     * based on its extension.
+     */
+    static BufferedReader openReader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(openInputStream(file), StringUtils.UTF_8));
+    }
+
+    /**
+     * Opens an input stream for the given export {@code file},
+     * decompressing it based on its extension.
+     */
+    static InputStream openInputStream(File file) throws IOException {
+        return Compression.fromFileName(file.getName()).decompress(new FileInputStream(file));
+    }
+
+    /** How the head and the chunk files are compressed. */
+    public enum Compression {
+
+        NONE("") {
+            @Override
+            public OutputStream compress(OutputStream output) {
+                return output;
+            }
+
+            @Override
+            public InputStream decompress(InputStream input) {
+                return input;
+            }
+        },
+
+        GZIP(".gz") {
+            @Override
+            public OutputStream compress(OutputStream output) throws IOException {
+                return new GZIPOutputStream(output, 65536);
+            }
+
+            @Override
+            public InputStream decompress(InputStream input) throws IOException {
+                return new GZIPInputStream(input, 65536);
+            }
+        },
+
+        /** Requires the optional {@code org.iq80.snappy} dependency. */
+        SNAPPY(".snappy") {
+            @Override
+            public OutputStream compress(OutputStream output) throws IOException {
+                return new org.iq80.snappy.SnappyOutputStream(output);
+            }
+
+            @Override
+            public InputStream decompress(InputStream input) throws IOException {
+                return new org.iq80.snappy.SnappyInputStream(input);
+            }
+        };
+
+        private final String extension;
+
+        Compression(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public abstract OutputStream compress(OutputStream output) throws IOException;
+
+        public abstract InputStream decompress(InputStream input) throws IOException;
+
+        /**
+         * Returns the compression that matches the extension of the given
+         * {@code fileName}.
+         */
+        public static Compression fromFileName(String fileName) {
+            for (Compression compression : values()) {
+                if (compression != NONE && fileName.endsWith(compression.getExtension())) {
+                    return compression;
+                }
+            }
+
+            return NONE;
+        }
+    }
+
+    // ID range of a concrete type along with its progress.
+    private static class Partition {
+
+        public static final String CHUNKS_KEY = "chunks";
+
+        private static final String TYPE_ID_KEY = "typeId";
+        private static final String START_ID_KEY = "startId";
+        private static final String END_ID_KEY = "endId";
+        private static final String LAST_ID_KEY = "lastId";
+        private static final String ROWS_KEY = "rows";
+        private static final String DONE_KEY = "done";
+
+        private final int index;
+        private final UUID typeId;
+        private final UUID startId;
+        private final UUID endId;
+        private final List<String> chunks;
+        private volatile UUID lastId;
+        private volatile long rows;
+        private volatile boolean done;
+
+        public Partition(int index, UUID typeId, UUID startId, UUID endId) {
+            this.index = index;
+            this.typeId = typeId;
+            this.startId = startId;
+            this.endId = endId;
+            this.chunks = Collections.synchronizedList(new ArrayList<String>());
+        }
+
+        public Partition(int index, Map<?, ?> map) {
+            this(index,
+                    ObjectUtils.to(UUID.class, map.get(TYPE_ID_KEY)),
+                    ObjectUtils.to(UUID.class, map.get(START_ID_KEY)),
+                    ObjectUtils.to(UUID.class, map.get(END_ID_KEY)));
+
+            for (Object chunk : ObjectUtils.to(List.class, map.get(CHUNKS_KEY))) {
+                chunks.add(ObjectUtils.to(String.class, chunk));
+            }
+
+            this.lastId = ObjectUtils.to(UUID.class, map.get(LAST_ID_KEY));
+            this.rows = ObjectUtils.to(long.class, map.get(ROWS_KEY));
+            this.done = ObjectUtils.to(boolean.class, map.get(DONE_KEY));
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+
+            map.put(TYPE_ID_KEY, typeId != null ? typeId.toString() : null);
+            map.put(START_ID_KEY, startId != null ? startId.toString() : null);
+            map.put(END_ID_KEY, endId != null ? endId.toString() : null);
+            map.put(LAST_ID_KEY, lastId != null ? lastId.toString() : null);
+            map.put(ROWS_KEY, rows);
+            map.put(DONE_KEY, done);
+
+            synchronized (chunks) {
+                map.put(CHUNKS_KEY, new ArrayList<String>(chunks));
+            }
+
+            return map;
+        }
+
+        // Creates a query for the records in this partition after the
+        // given afterId, sorted by ID.
+        public Query<?> createQuery(BootstrapPackage.ExportPlan plan, UUID afterId) {
+            Query<?> query = plan.createQuery(typeId);
+
+            if (afterId != null) {
+                query.and("_id > ?", afterId);
+                addRangePredicates(query, null, endId);
+
+            } else {
+                addRangePredicates(query, startId, endId);
+            }
+
+            return query.sortAscending("_id");
+        }
+    }
+
+    // Writes each partition into chunk files, checkpointing after each one.
+    private class Exporter extends AsyncConsumer<Partition> {
+
+        private final BootstrapPackage.ExportPlan plan;
+
+        public Exporter(AsyncQueue<Partition> input, BootstrapPackage.ExportPlan plan) {
+            super(EXECUTOR_PREFIX, input);
+            this.plan = plan;
+        }
+
+        @Override
+        protected void consume(Partition partition) throws IOException {
+            Set<UUID> seenIds = new HashSet<UUID>();
+
+            while (shouldContinue()) {
+                String chunk = String.format("partition-%05d-%05d.jsonl%s", partition.index, partition.chunks.size(), compression.getExtension());
+                File chunkFile = new File(directory, chunk);
+                File temporaryFile = new File(directory, chunk + TEMPORARY_SUFFIX);
+                Writer writer = openWriter(temporaryFile);
+                UUID lastId = partition.lastId;
+                long chunkRows = 0;
+
+                try {
+                    while (chunkRows < chunkSize) {
+                        int limit = (int) Math.min(PAGE_SIZE, chunkSize - chunkRows);
+                        List<?> items = partition.createQuery(plan, lastId).select(0, limit).getItems();
+
+                        if (items.isEmpty()) {
+                            break;
+                        }
+
+                        lastId = BootstrapPackage.Static.writeRecords(plan, items, writer, seenIds);
+                        chunkRows += items.size();
+
+                        if (items.size() < limit) {
+                            break;
+                        }
+                    }
+
+                } finally {
+                    writer.close();
+                }
+
+                if (chunkRows > 0) {
+                    IoUtils.rename(temporaryFile, chunkFile);
+                    partition.chunks.add(chunk);
+                    partition.lastId = lastId;
+                    partition.rows += chunkRows;
+
+                } else {
+                    IoUtils.delete(temporaryFile);
+                }
+
+                if (chunkRows < chunkSize) {
+                    partition.done = true;
+                    writeManifest(false);
+                    break;
+                }
+
+                writeManifest(false);
+            }
+        }
+    }
+}
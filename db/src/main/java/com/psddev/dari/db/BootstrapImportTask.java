@@ -1,10 +1,12 @@
 package com.psddev.dari.db;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -12,12 +14,14 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.psddev.dari.util.AsyncConsumer;
 import com.psddev.dari.util.AsyncQueue;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.Task;
@@ -28,6 +32,7 @@ class BootstrapImportTask extends Task {
     public static final String EXECUTOR_PREFIX = "Bootstrap Import";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BootstrapImportTask.class);
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(1);
 
     private final Database database;
     private final String filename;
@@ -36,18 +41,47 @@ class BootstrapImportTask extends Task {
     private final int queueSize;
     private final int numWriters;
     private final int commitSize;
+    private final int numParsers;
+    private final AsyncQueue<String> lineQueue;
+    private final List<Parser> parsers = new ArrayList<Parser>();
+    private final List<File> chunkFiles;
     private final AsyncQueue<Record> saveQueue;
     private final List<AsyncDatabaseWriter<Record>> savers = new ArrayList<AsyncDatabaseWriter<Record>>();
     private final List<AsyncDatabaseWriter<Record>> deleters = new ArrayList<AsyncDatabaseWriter<Record>>();
     private AsyncQueue<Record> deleteQueue;
-    private final Map<UUID, ObjectType> unknownTypes = new HashMap<UUID, ObjectType>();
-    private boolean needsTranslation;
-    private final Pattern uuidPattern = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}", Pattern.CASE_INSENSITIVE);
-    private final Map<UUID, UUID> remoteToLocalIdMap = new HashMap<UUID, UUID>();
-    private final Map<String, String> remoteToLocalIdStringMap = new HashMap<String, String>();
+    private final Map<UUID, ObjectType> unknownTypes = new ConcurrentHashMap<UUID, ObjectType>();
+    private volatile boolean needsTranslation;
+    private final Map<UUID, UUID> remoteToLocalIdMap = new ConcurrentHashMap<UUID, UUID>();
+    private final Map<String, String> remoteToLocalIdStringMap = new ConcurrentHashMap<String, String>();
+    private final AtomicLong importedRows = new AtomicLong();
+    private ObjectType objType;
+    private final Set<String> typeNames = new HashSet<String>();
+    private boolean isAllTypes;
+    private final Map<String, String> typeMapTypeFields = new HashMap<String, String>();
+    private volatile boolean afterMappingRecords;
     private static final TypeReference<Map<String, Object>> MAP_STRING_OBJECT_TYPE = new TypeReference<Map<String, Object>>() { };
 
     public BootstrapImportTask(Database database, String filename, InputStream fileInputStream, boolean deleteFirst, int numWriters, int commitSize) {
+        this(database, filename, fileInputStream, deleteFirst, numWriters, commitSize, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param numParsers Number of threads that parse the lines and
+     *        translate the IDs in them. The lines are read and the object
+     *        types and the other mapping records are imported on the task
+     *        thread regardless.
+     */
+    public BootstrapImportTask(Database database, String filename, InputStream fileInputStream, boolean deleteFirst, int numWriters, int commitSize, int numParsers) {
+        this(database, filename, fileInputStream, deleteFirst, numWriters, commitSize, numParsers, Collections.<File>emptyList());
+    }
+
+    /**
+     * @param fileInputStream Head of a parallel export, which contains the
+     *        headers and the object types.
+     * @param chunkFiles Chunks of a parallel export, which are read in
+     *        parallel after the given {@code fileInputStream}.
+     */
+    public BootstrapImportTask(Database database, String filename, InputStream fileInputStream, boolean deleteFirst, int numWriters, int commitSize, int numParsers, List<File> chunkFiles) {
         super(EXECUTOR_PREFIX, EXECUTOR_PREFIX + " " + filename);
         this.database = database;
         this.filename = filename;
@@ -56,6 +90,9 @@ class BootstrapImportTask extends Task {
         this.numWriters = numWriters;
         this.commitSize = commitSize;
         this.queueSize = numWriters * commitSize;
+        this.numParsers = Math.max(1, numParsers);
+        this.chunkFiles = chunkFiles;
+        this.lineQueue = new AsyncQueue<String>(new ArrayBlockingQueue<String>(queueSize));
         this.saveQueue = new AsyncQueue<Record>(new ArrayBlockingQueue<Record>(queueSize));
         if (deleteFirst) {
             this.deleteQueue = new AsyncQueue<Record>(new ArrayBlockingQueue<Record>(queueSize));
@@ -76,7 +113,13 @@ class BootstrapImportTask extends Task {
                     deleter.submit();
                 }
             }
+            for (int i = 0; i < numParsers; i++) {
+                Parser parser = new Parser();
+                parsers.add(parser);
+                parser.submit();
+            }
             tasks.addAll(deleters);
+            tasks.addAll(parsers);
             tasks.addAll(savers);
 
             BufferedReader reader = new BufferedReader(new InputStreamReader(fileInputStream));
@@ -113,9 +156,6 @@ class BootstrapImportTask extends Task {
             }
             UUID localObjTypeId = database.getEnvironment().getTypeByClass(ObjectType.class).getId();
             UUID globalsId = new UUID(-1L, -1L);
-            Set<String> typeNames = new HashSet<String>();
-            boolean isAllTypes = false;
-            Map<String, String> typeMapTypeFields = new HashMap<String, String>();
             if (headers.get(BootstrapPackage.Static.TYPES_HEADER).trim().equals(BootstrapPackage.Static.ALL_TYPES_HEADER_VALUE)) {
                 isAllTypes = true;
                 if (deleteFirst) {
@@ -197,9 +237,9 @@ class BootstrapImportTask extends Task {
                 }
             }
             LOGGER.info("Importing data from " + filename + " . . . ");
-            int numRows = 0;
-            boolean afterObjectTypes = false;
-            ObjectType objType = database.getEnvironment().getTypeByClass(ObjectType.class);
+            long startTime = System.nanoTime();
+            long lastProgressTime = startTime;
+            objType = database.getEnvironment().getTypeByClass(ObjectType.class);
             while (null != (line = reader.readLine())) {
                 if (!shouldContinue()) {
                     break;
@@ -214,91 +254,64 @@ class BootstrapImportTask extends Task {
                 if (!line.startsWith("{") || !line.endsWith("}")) {
                     throw new RuntimeException("Invalid line in input file: " + line);
                 }
-                line = translateIds(line);
-                Map<String, Object> stateMap = ObjectUtils.to(MAP_STRING_OBJECT_TYPE, ObjectUtils.fromJson(line));
-                UUID globalId = new UUID(-1L, -1L);
-                UUID zeroTypeId = new UUID(0L, 0L);
-                try {
-                    UUID id = ObjectUtils.to(UUID.class, stateMap.get("_id"));
-                    if (id == null) {
-                        LOGGER.error("Invalid line in input file: " + line);
-                        continue;
-                    }
-                    if (id.equals(globalId)) {
-                        LOGGER.debug("Not importing " + globalId);
-                        continue;
-                    }
-                    ObjectType type = database.getEnvironment().getTypeByName(ObjectUtils.to(String.class, stateMap.get("_type")));
-                    if (type == null) {
-                        if (zeroTypeId.equals(ObjectUtils.to(UUID.class, stateMap.get("_type")))) {
-                            LOGGER.debug("Not importing type " + zeroTypeId);
-                        } else {
-                            LOGGER.error("Unknown type in line: " + line);
-                        }
-                        continue;
-                    }
-                    Record record = null;
-                    if (!objType.equals(type)) {
-                        for (ObjectIndex index : type.getIndexes()) {
-                            if (index.isUnique()) {
-                                Object uniqueValue = stateMap.get(index.getField());
-                                if (!ObjectUtils.isBlank(uniqueValue)) {
-                                    record = (Record) Query.fromAll().using(database).noCache().where(index.getUniqueName() + " = ?", uniqueValue).first();
-                                    if (record != null) {
-                                        addTranslatedId(ObjectUtils.to(UUID.class, stateMap.get("_id")), record.getId());
-                                        stateMap.put("_id", record.getId());
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    if (record == null) {
-                        Object obj = type.createObject(id);
-                        if (obj instanceof Record) {
-                            record = (Record) obj;
-                        } else {
-                            LOGGER.error("Unknown type in line: " + line);
-                            continue;
-                        }
-                    }
 
-                    if (!afterObjectTypes && !objType.equals(type)) {
-                        afterObjectTypes = true;
-                        // this is the first line after all of the objectTypes, potentially need to re-parse it.
-                        prepareIdTranslation();
-                        line = translateIds(line);
-                        stateMap = ObjectUtils.to(MAP_STRING_OBJECT_TYPE, ObjectUtils.fromJson(line));
-                    }
+                // The object types and the records of the other mapping
+                // types come first and may change how the IDs in the rest
+                // of the lines are translated, so they're imported in order
+                // on this thread before any line is handed to the parsers.
+                if (afterMappingRecords) {
+                    lineQueue.add(line);
+                } else {
+                    importLine(line);
+                }
 
-                    if ((typeMapTypeFields.containsKey(ObjectUtils.to(String.class, stateMap.get("_type"))) || objType.equals(type)) && record.getState().isNew()) {
-                        String typeMapField = typeMapTypeFields.get(ObjectUtils.to(String.class, stateMap.get("_type")));
-                        Object localObj;
-                        if (objType.equals(type)) {
-                            localObj = database.getEnvironment().getTypeByName(ObjectUtils.to(String.class, stateMap.get("internalName")));
-                        } else {
-                            localObj = Query.fromType(type).where(typeMapField + " = ?", ObjectUtils.to(String.class, stateMap.get(typeMapField))).first();
-                        }
-                        if (localObj instanceof Recordable) {
-                            UUID localId = ((Recordable) localObj).getState().getId();
-                            addTranslatedId(ObjectUtils.to(UUID.class, stateMap.get("_id")), localId);
-                            stateMap.put("_id", localId);
-                        }
-                        if (localObj == null || isAllTypes || typeNames.contains(type.getInternalName())) {
-                            record.getState().setResolveToReferenceOnly(true);
-                            record.getState().setValues(stateMap);
-                            saveQueue.add(record);
-                        }
-                    } else {
-                        record.getState().setResolveToReferenceOnly(true);
-                        record.getState().setValues(stateMap);
-                        saveQueue.add(record);
+                long now = System.nanoTime();
+                if (now - lastProgressTime > PROGRESS_INTERVAL) {
+                    lastProgressTime = now;
+                    updateProgress(startTime);
+                }
+            }
+
+            // The chunks don't contain any mapping records, and the ones in
+            // the head have all been imported above, so all of the chunk
+            // lines can be parsed in parallel.
+            if (!chunkFiles.isEmpty() && shouldContinue()) {
+                if (!afterMappingRecords) {
+                    afterMappingRecords = true;
+                    prepareIdTranslation();
+                }
+                AsyncQueue<File> chunkQueue = new AsyncQueue<File>();
+                for (int i = 0; i < numParsers; i++) {
+                    ChunkReader chunkReader = new ChunkReader(chunkQueue);
+                    tasks.add(chunkReader);
+                    chunkReader.submit();
+                }
+                for (File chunkFile : chunkFiles) {
+                    if (!shouldContinue()) {
+                        break;
                     }
+                    chunkQueue.add(chunkFile);
+                }
+                chunkQueue.closeAutomatically();
+            }
 
-                    setProgressIndex(++numRows);
-                } catch (RuntimeException t) {
-                    LOGGER.error("Error when saving state at " + stateMap.get("_id") + ": ", t);
+            // block until parsers are done
+            lineQueue.closeAutomatically();
+            boolean parsed = false;
+            while (!parsed && shouldContinue()) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    continue;
                 }
+                parsed = true;
+                for (Task parser : parsers) {
+                    if (parser.isRunning()) {
+                        parsed = false;
+                        break;
+                    }
+                }
+                updateProgress(startTime);
             }
         } catch (RuntimeException e) {
             for (Task task : tasks) {
@@ -307,6 +320,7 @@ class BootstrapImportTask extends Task {
             throw e;
         } finally {
             // block until all tasks are done
+            lineQueue.closeAutomatically();
             saveQueue.closeAutomatically();
             fileInputStream.close();
             if (deleteQueue != null) {
@@ -337,6 +351,118 @@ class BootstrapImportTask extends Task {
         }
     }
 
+    // Parses the given line, translates its IDs, and queues the resulting
+    // record to be saved.
+    private void importLine(String line) {
+        line = translateIds(line);
+        Map<String, Object> stateMap = ObjectUtils.to(MAP_STRING_OBJECT_TYPE, ObjectUtils.fromJson(line));
+        UUID globalId = new UUID(-1L, -1L);
+        UUID zeroTypeId = new UUID(0L, 0L);
+        try {
+            UUID id = ObjectUtils.to(UUID.class, stateMap.get("_id"));
+            if (id == null) {
+                LOGGER.error("Invalid line in input file: " + line);
+                return;
+            }
+            if (id.equals(globalId)) {
+                LOGGER.debug("Not importing " + globalId);
+                return;
+            }
+            ObjectType type = database.getEnvironment().getTypeByName(ObjectUtils.to(String.class, stateMap.get("_type")));
+            if (type == null) {
+                if (zeroTypeId.equals(ObjectUtils.to(UUID.class, stateMap.get("_type")))) {
+                    LOGGER.debug("Not importing type " + zeroTypeId);
+                } else {
+                    LOGGER.error("Unknown type in line: " + line);
+                }
+                return;
+            }
+            Record record = null;
+            if (!objType.equals(type)) {
+                for (ObjectIndex index : type.getIndexes()) {
+                    if (index.isUnique()) {
+                        Object uniqueValue = stateMap.get(index.getField());
+                        if (!ObjectUtils.isBlank(uniqueValue)) {
+                            record = (Record) Query.fromAll().using(database).noCache().where(index.getUniqueName() + " = ?", uniqueValue).first();
+                            if (record != null) {
+                                addTranslatedId(ObjectUtils.to(UUID.class, stateMap.get("_id")), record.getId());
+                                stateMap.put("_id", record.getId());
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            if (record == null) {
+                Object obj = type.createObject(id);
+                if (obj instanceof Record) {
+                    record = (Record) obj;
+                } else {
+                    LOGGER.error("Unknown type in line: " + line);
+                    return;
+                }
+            }
+
+            if (!afterMappingRecords && !isMappingType(type, stateMap)) {
+                afterMappingRecords = true;
+                // this is the first line after all of the mapping records, potentially need to re-parse it.
+                prepareIdTranslation();
+                line = translateIds(line);
+                stateMap = ObjectUtils.to(MAP_STRING_OBJECT_TYPE, ObjectUtils.fromJson(line));
+            }
+
+            if (isMappingType(type, stateMap) && record.getState().isNew()) {
+                String typeMapField = typeMapTypeFields.get(ObjectUtils.to(String.class, stateMap.get("_type")));
+                Object localObj;
+                if (objType.equals(type)) {
+                    localObj = database.getEnvironment().getTypeByName(ObjectUtils.to(String.class, stateMap.get("internalName")));
+                } else {
+                    localObj = Query.fromType(type).where(typeMapField + " = ?", ObjectUtils.to(String.class, stateMap.get(typeMapField))).first();
+                }
+                if (localObj instanceof Recordable) {
+                    UUID localId = ((Recordable) localObj).getState().getId();
+                    addTranslatedId(ObjectUtils.to(UUID.class, stateMap.get("_id")), localId);
+                    stateMap.put("_id", localId);
+                }
+                if (localObj == null || isAllTypes || typeNames.contains(type.getInternalName())) {
+                    record.getState().setResolveToReferenceOnly(true);
+                    record.getState().setValues(stateMap);
+                    saveQueue.add(record);
+                }
+            } else {
+                record.getState().setResolveToReferenceOnly(true);
+                record.getState().setValues(stateMap);
+                saveQueue.add(record);
+            }
+
+            importedRows.incrementAndGet();
+        } catch (RuntimeException t) {
+            LOGGER.error("Error when saving state at " + stateMap.get("_id") + ": ", t);
+        }
+    }
+
+    // Returns true if the records of the given type may translate the IDs in
+    // the other lines, like the object types and the type-mapped records.
+    private boolean isMappingType(ObjectType type, Map<String, Object> stateMap) {
+        return objType.equals(type) || typeMapTypeFields.containsKey(ObjectUtils.to(String.class, stateMap.get("_type")));
+    }
+
+    // Reports the number of rows imported so far and the rate.
+    private void updateProgress(long startTime) {
+        long rows = importedRows.get();
+        long total = getProgressTotal();
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+
+        setProgressIndex(rows);
+        setProgress(String.format(
+                "%,d%s rows imported, %,.0f rows/s, %,d lines waiting to be parsed, %,d records waiting to be saved",
+                rows,
+                total > 0 ? String.format(" of %,d", total) : "",
+                seconds > 0 ? rows / seconds : 0.0,
+                lineQueue.getAddSuccessCount() - lineQueue.getRemoveCount(),
+                saveQueue.getAddSuccessCount() - saveQueue.getRemoveCount()));
+    }
+
     private void prepareIdTranslation() {
         needsTranslation = !remoteToLocalIdMap.isEmpty();
         for (Map.Entry<UUID, UUID> entry : remoteToLocalIdMap.entrySet()) {
@@ -354,34 +480,129 @@ class BootstrapImportTask extends Task {
         if (!needsTranslation) {
             return line;
         }
-        StringBuilder newLine = new StringBuilder();
-        Matcher idMatcher = uuidPattern.matcher(line);
+        StringBuilder newLine = null;
         int cursor = 0;
-        boolean found = false;
-        while (idMatcher.find()) {
-            int start = idMatcher.start();
-            int end = idMatcher.end();
-            newLine.append(line.substring(cursor, start));
+        for (int start; (start = indexOfUuid(line, cursor)) >= 0;) {
+            int end = start + UUID_LENGTH;
             String remoteId = line.substring(start, end);
-            String localId;
-            if ((localId = remoteToLocalIdStringMap.get(remoteId)) != null) {
-                found = true;
+            String localId = remoteToLocalIdStringMap.get(remoteId);
+            if (localId != null) {
+                if (newLine == null) {
+                    newLine = new StringBuilder(line.length());
+                }
+                newLine.append(line, cursor, start);
                 newLine.append(localId);
+                cursor = end;
+                ObjectType unknownType;
+                if ((unknownType = unknownTypes.remove(UUID.fromString(localId))) != null) {
+                    saveQueue.add(unknownType);
+                }
+            } else if (newLine != null) {
+                newLine.append(line, cursor, end);
+                cursor = end;
             } else {
-                newLine.append(remoteId);
-            }
-            cursor = end;
-            ObjectType unknownType;
-            if (localId != null && (unknownType = unknownTypes.remove(UUID.fromString(localId))) != null) {
-                saveQueue.add(unknownType);
+                cursor = end;
             }
         }
-        if (found) {
-            newLine.append(line.substring(cursor));
+        if (newLine != null) {
+            newLine.append(line, cursor, line.length());
             return newLine.toString();
         } else {
             return line;
         }
     }
 
+    private static final int UUID_LENGTH = 36;
+
+    /**
+     * Returns the index of the first UUID in the given {@code string} at or
+     * after the given {@code fromIndex}, or {@code -1} if there isn't one.
+     * Matches the same as the {@code [0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-
+     * [0-9a-f]{4}-[0-9a-f]{12}} pattern case-insensitively, but only looks
+     * closely at the characters around the dashes.
+     */
+    static int indexOfUuid(String string, int fromIndex) {
+        int length = string.length();
+        for (int dash = string.indexOf('-', fromIndex + 8); dash >= 0 && dash + 28 <= length; dash = string.indexOf('-', dash + 1)) {
+            int start = dash - 8;
+            if (isUuidAt(string, start)) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isUuidAt(String string, int start) {
+        for (int i = 0; i < UUID_LENGTH; ++ i) {
+            char c = string.charAt(start + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Parses the lines after the object types.
+    private class Parser extends AsyncConsumer<String> {
+
+        public Parser() {
+            super(EXECUTOR_PREFIX, lineQueue);
+            saveQueue.addProducer(this);
+        }
+
+        @Override
+        protected void consume(String line) {
+            importLine(line);
+        }
+
+        @Override
+        protected void finished() {
+            try {
+                super.finished();
+            } finally {
+                saveQueue.removeProducer(this);
+            }
+        }
+    }
+
+    // Reads the lines in the chunks of a parallel export.
+    private class ChunkReader extends AsyncConsumer<File> {
+
+        public ChunkReader(AsyncQueue<File> input) {
+            super(EXECUTOR_PREFIX, input);
+            lineQueue.addProducer(this);
+        }
+
+        @Override
+        protected void consume(File chunkFile) throws IOException {
+            BufferedReader reader = BootstrapExportTask.openReader(chunkFile);
+            try {
+                for (String line; shouldContinue() && (line = reader.readLine()) != null;) {
+                    line = line.trim();
+                    if ("".equals(line) || line.startsWith("#")) {
+                        continue;
+                    }
+                    if (!line.startsWith("{") || !line.endsWith("}")) {
+                        throw new RuntimeException("Invalid line in " + chunkFile + ": " + line);
+                    }
+                    lineQueue.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        @Override
+        protected void finished() {
+            try {
+                super.finished();
+            } finally {
+                lineQueue.removeProducer(this);
+            }
+        }
+    }
 }
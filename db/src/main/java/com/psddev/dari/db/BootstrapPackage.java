@@ -1,5 +1,6 @@
 package com.psddev.dari.db;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Writer;
@@ -9,6 +10,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -17,6 +19,7 @@ import java.util.UUID;
 import org.joda.time.DateTime;
 
 import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Task;
 
 public class BootstrapPackage extends Record {
 
@@ -134,6 +137,93 @@ public class BootstrapPackage extends Record {
 
     }
 
+    /**
+     * What {@link Static#writeHeaders} decided should be exported, so that
+     * the records can be written separately from the headers.
+     */
+    static final class ExportPlan {
+
+        private final Database database;
+        private final BootstrapPackage pkg;
+        private final ObjectType objectType;
+        private final Set<ObjectType> exportTypes;
+        private final Set<ObjectType> typeMaps;
+        private final boolean needsObjectTypeMap;
+        private final Set<UUID> concreteTypeIds;
+        private final Map<UUID, Map<String, ObjectType>> followReferences;
+        private final Query<?> query;
+
+        public ExportPlan(
+                Database database,
+                BootstrapPackage pkg,
+                ObjectType objectType,
+                Set<ObjectType> exportTypes,
+                Set<ObjectType> typeMaps,
+                boolean needsObjectTypeMap,
+                Set<UUID> concreteTypeIds,
+                Map<UUID, Map<String, ObjectType>> followReferences,
+                Query<?> query) {
+
+            this.database = database;
+            this.pkg = pkg;
+            this.objectType = objectType;
+            this.exportTypes = exportTypes;
+            this.typeMaps = typeMaps;
+            this.needsObjectTypeMap = needsObjectTypeMap;
+            this.concreteTypeIds = concreteTypeIds;
+            this.followReferences = followReferences;
+            this.query = query;
+        }
+
+        public Database getDatabase() {
+            return database;
+        }
+
+        public BootstrapPackage getPackage() {
+            return pkg;
+        }
+
+        public ObjectType getObjectType() {
+            return objectType;
+        }
+
+        public Set<ObjectType> getExportTypes() {
+            return exportTypes;
+        }
+
+        public Set<ObjectType> getTypeMaps() {
+            return typeMaps;
+        }
+
+        public boolean isNeedsObjectTypeMap() {
+            return needsObjectTypeMap;
+        }
+
+        /**
+         * Returns the IDs of the concrete types whose records should be
+         * exported, which is a single {@code null} for the init package.
+         */
+        public Set<UUID> getConcreteTypeIds() {
+            return concreteTypeIds;
+        }
+
+        public Map<UUID, Map<String, ObjectType>> getFollowReferences() {
+            return followReferences;
+        }
+
+        /**
+         * Creates a query for all records of the given concrete
+         * {@code typeId}, or all records if it's {@code null}.
+         */
+        public Query<?> createQuery(UUID typeId) {
+            Query<?> concreteQuery = query.clone();
+            if (typeId != null) {
+                concreteQuery.where("_type = ?", typeId);
+            }
+            return concreteQuery.noCache().resolveToReferenceOnly();
+        }
+    }
+
     public static final class Static {
         public static final String INIT_NAME = " _init";
 
@@ -146,6 +236,7 @@ public class BootstrapPackage extends Record {
         public static final String ALL_TYPES_HEADER_VALUE = "ALL";
 
         private static final int MAX_SEEN_REFERENCE_IDS_SIZE = 100000;
+        private static final int EXPORT_CHUNK_SIZE = 50000;
 
         public static BootstrapPackage getPackage(Database database, String name) {
             return getPackagesMap(database).get(name);
@@ -262,6 +353,53 @@ public class BootstrapPackage extends Record {
         }
 
         public static void writeContents(Database database, BootstrapPackage pkg, Set<ObjectType> additionalTypes, Writer writer, String projectName) throws IOException {
+            ExportPlan plan = writeHeaders(database, pkg, additionalTypes, writer, projectName);
+
+            writeMappingRecords(plan, writer);
+
+            // Then everything else
+            for (UUID typeId : plan.getConcreteTypeIds()) {
+                writeRecords(plan, plan.createQuery(typeId).iterable(100), writer, new HashSet<UUID>());
+            }
+
+            writer.flush();
+        }
+
+        /**
+         * Starts exporting the given {@code pkg} into the given
+         * {@code directory} using multiple threads. The records of each
+         * concrete type are split into ID ranges, and each range is written
+         * into compressed chunk files. If the directory already contains an
+         * incomplete export of the same package, it's resumed from the last
+         * chunk written.
+         *
+         * @param compression {@code gzip}, {@code snappy}, or {@code none}.
+         *        If {@code null}, defaults to {@code gzip}.
+         * @param numWorkers Number of threads that write the chunks.
+         * @return The task that's doing the export.
+         * @see #importContents(Database, File, boolean, int, int)
+         */
+        public static Task writeContents(Database database, BootstrapPackage pkg, Set<ObjectType> additionalTypes, File directory, String projectName, String compression, int numWorkers) {
+            BootstrapExportTask exporter = new BootstrapExportTask(
+                    database,
+                    pkg,
+                    additionalTypes,
+                    projectName,
+                    directory,
+                    compression != null ? BootstrapExportTask.Compression.valueOf(compression.toUpperCase(Locale.ENGLISH)) : null,
+                    numWorkers,
+                    numWorkers,
+                    EXPORT_CHUNK_SIZE);
+            exporter.submit();
+            return exporter;
+        }
+
+        /**
+         * Writes the headers for the given {@code pkg} along with the blank
+         * line that separates them from the data, and returns the plan that
+         * describes which records should follow.
+         */
+        static ExportPlan writeHeaders(Database database, BootstrapPackage pkg, Set<ObjectType> additionalTypes, Writer writer, String projectName) throws IOException {
             boolean first = true;
             boolean needsObjectTypeMap = false;
             Set<ObjectType> typeMaps = new HashSet<ObjectType>();
@@ -438,8 +576,25 @@ public class BootstrapPackage extends Record {
             writer.write('\n');
             writer.flush();
 
+            if (pkg.isInit()) {
+                concreteTypeIds.clear(); // should already be empty
+                concreteTypeIds.add(null);
+            }
+            query.getOptions().put(SqlDatabase.USE_JDBC_FETCH_SIZE_QUERY_OPTION, false);
+
+            return new ExportPlan(database, pkg, objType, exportTypes, typeMaps, needsObjectTypeMap, concreteTypeIds, followReferences, query);
+        }
+
+        /**
+         * Writes the ObjectType records and the records of the other mapping
+         * types, which must precede everything else.
+         */
+        static void writeMappingRecords(ExportPlan plan, Writer writer) throws IOException {
+            Database database = plan.getDatabase();
+            ObjectType objType = plan.getObjectType();
+
             // ObjectType records first
-            if (exportTypes.isEmpty() || exportTypes.contains(objType) || needsObjectTypeMap) {
+            if (plan.getExportTypes().isEmpty() || plan.getExportTypes().contains(objType) || plan.isNeedsObjectTypeMap()) {
                 for (Object r : Query.fromType(objType).using(database).noCache().resolveToReferenceOnly().iterable(100)) {
                     writer.write(ObjectUtils.toJson(((Recordable) r).getState().getSimpleValues(true)));
                     writer.write('\n');
@@ -447,70 +602,73 @@ public class BootstrapPackage extends Record {
             }
 
             // Then other mapping types
-            for (ObjectType typeMapType : typeMaps) {
+            for (ObjectType typeMapType : plan.getTypeMaps()) {
                 for (Object r : Query.fromType(typeMapType).using(database).noCache().resolveToReferenceOnly().iterable(100)) {
                     writer.write(ObjectUtils.toJson(((Recordable) r).getState().getSimpleValues(true)));
                     writer.write('\n');
                 }
             }
+        }
 
-            // Then everything else
-            if (pkg.isInit()) {
-                concreteTypeIds.clear(); // should already be empty
-                concreteTypeIds.add(null);
-            }
+        /**
+         * Writes the given {@code objects}, followed by any references that
+         * the plan says should be followed and that aren't in the given
+         * {@code seenIds} yet.
+         *
+         * @return ID of the last object written, or {@code null} if nothing
+         *         was written.
+         */
+        static UUID writeRecords(ExportPlan plan, Iterable<?> objects, Writer writer, Set<UUID> seenIds) throws IOException {
+            Database database = plan.getDatabase();
+            boolean isInit = plan.getPackage().isInit();
+            Map<UUID, Map<String, ObjectType>> followReferences = plan.getFollowReferences();
             UUID lastTypeId = null;
-            Set<UUID> seenIds = new HashSet<UUID>();
-            query.getOptions().put(SqlDatabase.USE_JDBC_FETCH_SIZE_QUERY_OPTION, false);
-            for (UUID typeId : concreteTypeIds) {
-                Query<?> concreteQuery = query.clone();
-                if (typeId != null) {
-                    concreteQuery.where("_type = ?", typeId);
-                }
-                for (Object o : concreteQuery.noCache().resolveToReferenceOnly().iterable(100)) {
-                    if (o instanceof Recordable) {
-                        Recordable r = (Recordable) o;
-                        writer.write(ObjectUtils.toJson(r.getState().getSimpleValues(true)));
-                        writer.write('\n');
-                        if (!pkg.isInit()) {
-                            if (lastTypeId == null || !lastTypeId.equals(r.getState().getTypeId())) {
-                                seenIds.clear();
-                            } else if (seenIds.size() > MAX_SEEN_REFERENCE_IDS_SIZE) {
-                                seenIds.clear();
-                            }
-                            lastTypeId = r.getState().getTypeId();
-                            Map<String, ObjectType> followReferencesFieldMap;
-                            if ((followReferencesFieldMap = followReferences.get(r.getState().getTypeId())) != null) {
-                                for (Map.Entry<String, ObjectType> entry : followReferencesFieldMap.entrySet()) {
-                                    Object reference = r.getState().getRawValue(entry.getKey());
-                                    Set<UUID> referenceIds = new HashSet<UUID>();
-                                    if (reference instanceof Collection) {
-                                        for (Object referenceObj : ((Collection<?>) reference)) {
-                                            if (referenceObj instanceof Recordable) {
-                                                UUID referenceUUID = ObjectUtils.to(UUID.class, ((Recordable) referenceObj).getState().getId());
-                                                if (referenceUUID != null) {
-                                                    if (!seenIds.contains(referenceUUID)) {
-                                                        referenceIds.add(referenceUUID);
-                                                    }
+            UUID lastId = null;
+
+            for (Object o : objects) {
+                if (o instanceof Recordable) {
+                    Recordable r = (Recordable) o;
+                    writer.write(ObjectUtils.toJson(r.getState().getSimpleValues(true)));
+                    writer.write('\n');
+                    lastId = r.getState().getId();
+                    if (!isInit) {
+                        if (lastTypeId != null && !lastTypeId.equals(r.getState().getTypeId())) {
+                            seenIds.clear();
+                        } else if (seenIds.size() > MAX_SEEN_REFERENCE_IDS_SIZE) {
+                            seenIds.clear();
+                        }
+                        lastTypeId = r.getState().getTypeId();
+                        Map<String, ObjectType> followReferencesFieldMap;
+                        if ((followReferencesFieldMap = followReferences.get(r.getState().getTypeId())) != null) {
+                            for (Map.Entry<String, ObjectType> entry : followReferencesFieldMap.entrySet()) {
+                                Object reference = r.getState().getRawValue(entry.getKey());
+                                Set<UUID> referenceIds = new HashSet<UUID>();
+                                if (reference instanceof Collection) {
+                                    for (Object referenceObj : ((Collection<?>) reference)) {
+                                        if (referenceObj instanceof Recordable) {
+                                            UUID referenceUUID = ObjectUtils.to(UUID.class, ((Recordable) referenceObj).getState().getId());
+                                            if (referenceUUID != null) {
+                                                if (!seenIds.contains(referenceUUID)) {
+                                                    referenceIds.add(referenceUUID);
                                                 }
                                             }
                                         }
-                                    } else if (reference instanceof Recordable) {
-                                        UUID referenceUUID = ObjectUtils.to(UUID.class, ((Recordable) reference).getState().getId());
-                                        if (referenceUUID != null) {
-                                            if (!seenIds.contains(referenceUUID)) {
-                                                referenceIds.add(referenceUUID);
-                                            }
+                                    }
+                                } else if (reference instanceof Recordable) {
+                                    UUID referenceUUID = ObjectUtils.to(UUID.class, ((Recordable) reference).getState().getId());
+                                    if (referenceUUID != null) {
+                                        if (!seenIds.contains(referenceUUID)) {
+                                            referenceIds.add(referenceUUID);
                                         }
                                     }
-                                    if (!referenceIds.isEmpty()) {
-                                        for (Object ref : Query.fromType(entry.getValue()).noCache().using(database).where("_id = ?", referenceIds).selectAll()) {
-                                            if (ref instanceof Recordable) {
-                                                Recordable refr = (Recordable) ref;
-                                                seenIds.add(refr.getState().getId());
-                                                writer.write(ObjectUtils.toJson(refr.getState().getSimpleValues(true)));
-                                                writer.write('\n');
-                                            }
+                                }
+                                if (!referenceIds.isEmpty()) {
+                                    for (Object ref : Query.fromType(entry.getValue()).noCache().using(database).where("_id = ?", referenceIds).selectAll()) {
+                                        if (ref instanceof Recordable) {
+                                            Recordable refr = (Recordable) ref;
+                                            seenIds.add(refr.getState().getId());
+                                            writer.write(ObjectUtils.toJson(refr.getState().getSimpleValues(true)));
+                                            writer.write('\n');
                                         }
                                     }
                                 }
@@ -520,12 +678,39 @@ public class BootstrapPackage extends Record {
                 }
             }
 
-            writer.flush();
+            return lastId;
         }
 
         public static void importContents(Database database, String filename, InputStream fileInputStream, boolean deleteFirst, int numWriters, int commitSize) throws IOException {
             BootstrapImportTask importer = new BootstrapImportTask(database, filename, fileInputStream, deleteFirst, numWriters, commitSize);
             importer.submit();
         }
+
+        /**
+         * Starts importing the contents of the given {@code directory},
+         * which must contain a complete export written by
+         * {@link #writeContents(Database, BootstrapPackage, Set, File, String, String, int)}.
+         * The chunks are read and parsed in parallel.
+         */
+        public static void importContents(Database database, File directory, boolean deleteFirst, int numWriters, int commitSize) throws IOException {
+            Map<String, Object> manifest = BootstrapExportTask.readManifest(directory);
+
+            if (!BootstrapExportTask.isComplete(manifest)) {
+                throw new IllegalStateException(String.format(
+                        "[%s] doesn't contain a complete export!",
+                        directory));
+            }
+
+            BootstrapImportTask importer = new BootstrapImportTask(
+                    database,
+                    directory.getName(),
+                    BootstrapExportTask.openInputStream(BootstrapExportTask.getHeadFile(directory, manifest)),
+                    deleteFirst,
+                    numWriters,
+                    commitSize,
+                    Runtime.getRuntime().availableProcessors(),
+                    BootstrapExportTask.getChunkFiles(directory, manifest));
+            importer.submit();
+        }
     }
 }
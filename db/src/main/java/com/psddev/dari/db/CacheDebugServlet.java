@@ -0,0 +1,69 @@
+package com.psddev.dari.db;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.psddev.dari.util.DebugFilter;
+
+/** Debug servlet for inspecting the sizes of the database caches. */
+@DebugFilter.Path("db-cache")
+@SuppressWarnings("serial")
+public class CacheDebugServlet extends HttpServlet {
+
+    // --- HttpServlet support ---
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+        List<CacheWeights.Summary> summaries = CacheWeights.getAll();
+
+        new DebugFilter.PageWriter(getServletContext(), request, response) { {
+            startPage("Database", "Caches");
+
+                writeStart("p");
+                    writeHtml("Live caches grouped by name. The sizes are estimated from the lengths of the serialized data. The hit rates count the lookups that found a usable value since startup, including the ranges within the Read Partial entries.");
+                writeEnd();
+
+                if (summaries.isEmpty()) {
+                    writeStart("p", "class", "alert alert-info");
+                        writeHtml("No caches!");
+                    writeEnd();
+
+                } else {
+                    writeStart("table", "class", "table table-condensed table-striped");
+                        writeStart("thead");
+                            writeStart("tr");
+                                writeStart("th").writeHtml("Name").writeEnd();
+                                writeStart("th").writeHtml("Instances").writeEnd();
+                                writeStart("th").writeHtml("Entries").writeEnd();
+                                writeStart("th").writeHtml("Estimated Size (KB)").writeEnd();
+                                writeStart("th").writeHtml("Lookups").writeEnd();
+                                writeStart("th").writeHtml("Hit Rate").writeEnd();
+                                writeStart("th").writeHtml("Evictions").writeEnd();
+                            writeEnd();
+                        writeEnd();
+
+                        writeStart("tbody");
+                            for (CacheWeights.Summary summary : summaries) {
+                                writeStart("tr");
+                                    writeStart("td").writeHtml(summary.getName()).writeEnd();
+                                    writeStart("td").writeHtml(summary.getCaches()).writeEnd();
+                                    writeStart("td").writeHtml(summary.getSize()).writeEnd();
+                                    writeStart("td").writeHtml(summary.getBytes() / 1024L).writeEnd();
+                                    writeStart("td").writeHtml(summary.getHitCount() + summary.getMissCount()).writeEnd();
+                                    writeStart("td").writeHtml(String.format("%.1f%%", summary.getHitRate() * 100.0)).writeEnd();
+                                    writeStart("td").writeHtml(summary.getEvictionCount()).writeEnd();
+                                writeEnd();
+                            }
+                        writeEnd();
+                    writeEnd();
+                }
+
+            endPage();
+        } };
+    }
+}
@@ -0,0 +1,246 @@
+package com.psddev.dari.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.PaginatedResult;
+
+/**
+ * Estimates the retained sizes of the values in the database caches so that
+ * they can be bounded by bytes instead of entry counts, and keeps track of
+ * those caches for {@link CacheDebugServlet}.
+ *
+ * <p>The estimates are rough: each object is weighed by the length of its
+ * serialized data ({@link AbstractDatabase#DATA_LENGTH_EXTRA}) when it's
+ * known, and lists and maps are weighed by the sum of their items.</p>
+ */
+final class CacheWeights {
+
+    static final long ENTRY_BYTES = 64L;
+    static final long DEFAULT_OBJECT_BYTES = 1024L;
+
+    private static final Map<Cache<?, ?>, Registration> CACHES = Collections.synchronizedMap(new WeakHashMap<>());
+    private static final Map<String, Lookups> LOOKUPS = new ConcurrentHashMap<>();
+
+    private CacheWeights() {
+    }
+
+    /**
+     * Creates a builder for a cache that's bounded to the given
+     * {@code maximumBytes}, or to the given {@code maximumSize} entries if
+     * the bytes aren't specified.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> CacheBuilder<K, V> newBuilder(Long maximumBytes, long maximumSize, Weigher<? super K, ? super V> weigher) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+
+        if (maximumBytes != null) {
+            return builder.maximumWeight(maximumBytes).weigher(weigher);
+
+        } else {
+            return (CacheBuilder<K, V>) builder.maximumSize(maximumSize);
+        }
+    }
+
+    /**
+     * Registers the given {@code cache} under the given {@code name} so that
+     * it shows up in {@link #getAll}. The cache is only weakly referenced,
+     * so the given {@code weigher} must not refer back to it.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V, C extends Cache<K, V>> C register(String name, C cache, Weigher<? super K, ? super V> weigher) {
+        CACHES.put(cache, new Registration(name, (Weigher<Object, Object>) weigher));
+        return cache;
+    }
+
+    /**
+     * Records a lookup in the cache with the given {@code name}, for the
+     * caches whose own statistics don't reflect whether a usable value was
+     * found.
+     */
+    public static void recordLookup(String name, boolean hit) {
+        Lookups lookups = LOOKUPS.computeIfAbsent(name, n -> new Lookups());
+
+        (hit ? lookups.hits : lookups.misses).increment();
+    }
+
+    /**
+     * Returns the summaries of all registered caches, grouped by their
+     * names.
+     *
+     * @return Never {@code null}.
+     */
+    public static List<Summary> getAll() {
+        Map<String, Summary> summaries = new TreeMap<>();
+
+        synchronized (CACHES) {
+            for (Map.Entry<Cache<?, ?>, Registration> entry : CACHES.entrySet()) {
+                Cache<?, ?> cache = entry.getKey();
+
+                if (cache != null) {
+                    Registration registration = entry.getValue();
+
+                    summaries.computeIfAbsent(registration.name, Summary::new).add(cache, registration.weigher);
+                }
+            }
+        }
+
+        for (Summary summary : summaries.values()) {
+            Lookups lookups = LOOKUPS.get(summary.name);
+
+            if (lookups != null) {
+                summary.hitCount = lookups.hits.sum();
+                summary.missCount = lookups.misses.sum();
+            }
+        }
+
+        return new ArrayList<>(summaries.values());
+    }
+
+    /** Estimates the number of bytes retained by the given {@code value}. */
+    public static long weigh(Object value) {
+        if (value == null) {
+            return ENTRY_BYTES;
+
+        } else if (value instanceof Recordable) {
+            return ENTRY_BYTES + weighData(((Recordable) value).getState().getExtras());
+
+        } else if (value instanceof FunnelCachedObject) {
+            return ENTRY_BYTES + weighData(((FunnelCachedObject) value).getExtras());
+
+        } else if (value instanceof PaginatedResult) {
+            return ENTRY_BYTES + weigh(((PaginatedResult<?>) value).getItems());
+
+        } else if (value instanceof Collection) {
+            long weight = ENTRY_BYTES;
+
+            for (Object item : (Collection<?>) value) {
+                weight += weigh(item);
+            }
+
+            return weight;
+
+        } else if (value instanceof Map) {
+            return ENTRY_BYTES + weigh(((Map<?, ?>) value).values());
+
+        } else {
+            return ENTRY_BYTES;
+        }
+    }
+
+    /**
+     * Estimates the number of bytes retained by the given {@code value}
+     * and clamps it for use in a {@link Weigher}.
+     */
+    public static int weighInt(Object value) {
+        return (int) Math.min(weigh(value), Integer.MAX_VALUE);
+    }
+
+    private static long weighData(Map<String, Object> extras) {
+        Long length = extras != null ? ObjectUtils.to(Long.class, extras.get(AbstractDatabase.DATA_LENGTH_EXTRA)) : null;
+
+        return length != null ? length : DEFAULT_OBJECT_BYTES;
+    }
+
+    private static class Registration {
+
+        public final String name;
+        public final Weigher<Object, Object> weigher;
+
+        public Registration(String name, Weigher<Object, Object> weigher) {
+            this.name = name;
+            this.weigher = weigher;
+        }
+    }
+
+    private static class Lookups {
+
+        public final LongAdder hits = new LongAdder();
+        public final LongAdder misses = new LongAdder();
+    }
+
+    /** Statistics about all the caches that share a name. */
+    public static class Summary {
+
+        private final String name;
+        private int caches;
+        private long size;
+        private long bytes;
+        private long hitCount;
+        private long missCount;
+        private long evictionCount;
+
+        public Summary(String name) {
+            this.name = name;
+        }
+
+        private void add(Cache<?, ?> cache, Weigher<Object, Object> weigher) {
+            ++ caches;
+            size += cache.size();
+
+            for (Map.Entry<?, ?> entry : cache.asMap().entrySet()) {
+                bytes += weigher.weigh(entry.getKey(), entry.getValue());
+            }
+
+            CacheStats stats = cache.stats();
+
+            hitCount += stats.hitCount();
+            missCount += stats.missCount();
+            evictionCount += stats.evictionCount();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** Returns the number of live caches. */
+        public int getCaches() {
+            return caches;
+        }
+
+        /** Returns the number of entries across all live caches. */
+        public long getSize() {
+            return size;
+        }
+
+        /** Returns the estimated bytes retained across all live caches. */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the number of lookups that found a usable value, as
+         * recorded by {@link CacheWeights#recordLookup} if there are any,
+         * or as counted by the caches themselves otherwise.
+         */
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public double getHitRate() {
+            long requestCount = hitCount + missCount;
+
+            return requestCount > 0 ? (double) hitCount / requestCount : 0.0;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+    }
+}
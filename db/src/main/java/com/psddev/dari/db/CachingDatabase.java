@@ -1,16 +1,20 @@
 package com.psddev.dari.db;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.PaginatedResult;
 import com.psddev.dari.util.Settings;
@@ -34,29 +38,95 @@ PaginatedResult<Article> result = Query.from(Article.class).using(caching).selec
  * <li>{@code Query.from(Article.class).using(caching).where("_id = ?", result.getItems().get(0));}</li>
  * </ul>
  *
+ * <p>By default, every {@link #save} flushes the entire cache, so an
+ * instance should only be used for a short time, e.g. a single request.
+ * In the {@linkplain #setGenerational generational mode}, each cached query
+ * result records the generations of the types that it could contain, and
+ * every write bumps the generations of the affected types instead, so that
+ * stale results are refused on lookup. The writes are tracked locally and
+ * through the {@linkplain Database#addUpdateNotifier update notifications}
+ * from the delegate, which makes it safe to share a single instance across
+ * requests and threads.</p>
+ *
  * <p>All methods are thread-safe.</p>
  */
 public class CachingDatabase extends ForwardingDatabase {
 
+    public static final String GENERATIONAL_SUB_SETTING = "generational";
+
     private static final String CACHE_SIZE_SETTING = "dari/cachingDatabaseMaximumSize";
+    private static final String CACHE_BYTES_SETTING = "dari/cachingDatabaseMaximumBytes";
     private static final long DEFAULT_CACHE_SIZE = 1000L;
+    private static final long DEFAULT_CACHE_BYTES = 16L * 1024L * 1024L;
+    private static final String CACHE_NAME_PREFIX = "Caching Database: ";
+
+    private static final Weigher<Object, Object> OBJECT_WEIGHER = (key, value) -> CacheWeights.weighInt(value);
+    private static final Weigher<Object, Entry<?>> ENTRY_WEIGHER = (key, entry) -> CacheWeights.weighInt(entry.value);
+    private static final Weigher<Object, Map<Range, Entry<PaginatedResult<?>>>> PARTIAL_WEIGHER = (key, subCache) -> {
+        long weight = CacheWeights.ENTRY_BYTES;
+
+        for (Entry<PaginatedResult<?>> entry : subCache.values()) {
+            weight += CacheWeights.weigh(entry.value);
+        }
+
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    };
 
     private static final Object MISSING = new Object();
 
-    private final Cache<UUID, Object> objectCache = CacheBuilder.newBuilder().maximumSize(getCacheSize()).build();
-    private final Cache<UUID, Object> referenceCache = CacheBuilder.newBuilder().maximumSize(getCacheSize()).build();
-    private final Cache<Query<?>, List<?>> readAllCache = CacheBuilder.newBuilder().maximumSize(getCacheSize()).build();
-    private final Cache<Query<?>, Long> readCountCache = CacheBuilder.newBuilder().maximumSize(getCacheSize()).build();
-    private final Cache<Query<?>, Object> readFirstCache = CacheBuilder.newBuilder().maximumSize(getCacheSize()).build();
-    private final LoadingCache<Query<?>, Map<Range, PaginatedResult<?>>> readPartialCache = CacheBuilder.newBuilder().maximumSize(getCacheSize()).build(
-            new CacheLoader<Query<?>, Map<Range, PaginatedResult<?>>>() {
-                @Override
-                public Map<Range, PaginatedResult<?>> load(Query<?> key) throws Exception {
-                    return new ConcurrentHashMap<>();
-                }
-            });
+    private final Cache<UUID, Object> objectCache = createObjectCache("Objects");
+    private final Cache<UUID, Object> referenceCache = createObjectCache("References");
+    private final Cache<Query<?>, Entry<List<?>>> readAllCache = createQueryCache("Read All");
+    private final Cache<Query<?>, Entry<Long>> readCountCache = createQueryCache("Read Count");
+    private final Cache<Query<?>, Entry<Object>> readFirstCache = createQueryCache("Read First");
+    private final LoadingCache<Query<?>, Map<Range, Entry<PaginatedResult<?>>>> readPartialCache = CacheWeights.register(
+            CACHE_NAME_PREFIX + "Read Partial",
+            CacheWeights.<Query<?>, Map<Range, Entry<PaginatedResult<?>>>>newBuilder(getCacheBytes(), getCacheSize(), PARTIAL_WEIGHER).build(
+                    new CacheLoader<Query<?>, Map<Range, Entry<PaginatedResult<?>>>>() {
+                        @Override
+                        public Map<Range, Entry<PaginatedResult<?>>> load(Query<?> key) throws Exception {
+                            return new ConcurrentHashMap<>();
+                        }
+                    }),
+            PARTIAL_WEIGHER);
     private final Cache<UUID, Boolean> idOnlyQueryIds = CacheBuilder.newBuilder().maximumSize(getCacheSize()).build();
 
+    private volatile boolean generational;
+    private final ConcurrentMap<UUID, AtomicLong> typeGenerations = new ConcurrentHashMap<>();
+    private final AtomicLong anyGeneration = new AtomicLong();
+    private final ThreadLocal<Set<UUID>> uncommittedTypeIds = ThreadLocal.withInitial(HashSet::new);
+
+    private final UpdateNotifier<Object> updateNotifier = new UpdateNotifier<Object>() {
+
+        @Override
+        public void onUpdate(Object object) {
+            if (object instanceof Recordable) {
+                State state = ((Recordable) object).getState();
+
+                invalidate(state.getId(), state.getTypeId());
+            }
+        }
+    };
+
+    // Cached value along with the generations of the types that it could
+    // depend on at the time it was read.
+    private static class Entry<V> {
+
+        public final V value;
+        public final UUID[] typeIds;
+        public final long[] generations;
+
+        public Entry(V value, UUID[] typeIds, long[] generations) {
+            this.value = value;
+            this.typeIds = typeIds;
+            this.generations = generations;
+        }
+
+        public <N> Entry<N> withValue(N newValue) {
+            return new Entry<>(newValue, typeIds, generations);
+        }
+    }
+
     private static class Range {
 
         public final long offset;
@@ -115,12 +185,104 @@ public class CachingDatabase extends ForwardingDatabase {
         return referenceCache.asMap();
     }
 
+    /**
+     * Returns {@code true} if the cached query results are invalidated
+     * by the generations of the types that they could contain, instead of
+     * being flushed on every save.
+     */
+    public boolean isGenerational() {
+        return generational;
+    }
+
+    /**
+     * Sets whether the cached query results should be invalidated by the
+     * generations of the types that they could contain, instead of being
+     * flushed on every save.
+     */
+    public synchronized void setGenerational(boolean generational) {
+        if (this.generational != generational) {
+            flush();
+
+            Database delegate = getDelegate();
+
+            if (delegate != null) {
+                if (generational) {
+                    delegate.addUpdateNotifier(updateNotifier);
+
+                } else {
+                    delegate.removeUpdateNotifier(updateNotifier);
+                }
+            }
+
+            this.generational = generational;
+        }
+    }
+
     // --- ForwardingDatabase support ---
 
+    @Override
+    public void initialize(String settingsKey, Map<String, Object> settings) {
+        super.initialize(settingsKey, settings);
+        setGenerational(ObjectUtils.to(boolean.class, settings.get(GENERATIONAL_SUB_SETTING)));
+    }
+
+    @Override
+    public synchronized void setDelegate(Database delegate) {
+        Database oldDelegate = getDelegate();
+
+        if (generational && oldDelegate != null) {
+            oldDelegate.removeUpdateNotifier(updateNotifier);
+        }
+
+        super.setDelegate(delegate);
+
+        if (generational && delegate != null) {
+            flush();
+            delegate.addUpdateNotifier(updateNotifier);
+        }
+    }
+
     private long getCacheSize() {
         return Settings.getOrDefault(long.class, CACHE_SIZE_SETTING, DEFAULT_CACHE_SIZE);
     }
 
+    // Caches are bounded by bytes unless only the legacy entry count
+    // setting is specified.
+    private Long getCacheBytes() {
+        if (Settings.get(CACHE_BYTES_SETTING) == null && Settings.get(CACHE_SIZE_SETTING) != null) {
+            return null;
+
+        } else {
+            return Settings.getOrDefault(long.class, CACHE_BYTES_SETTING, DEFAULT_CACHE_BYTES);
+        }
+    }
+
+    private Cache<UUID, Object> createObjectCache(String name) {
+        name = CACHE_NAME_PREFIX + name;
+
+        return CacheWeights.register(
+                name,
+                CacheWeights.<UUID, Object>newBuilder(getCacheBytes(), getCacheSize(), OBJECT_WEIGHER).build(),
+                OBJECT_WEIGHER);
+    }
+
+    private <V> Cache<Query<?>, Entry<V>> createQueryCache(String name) {
+        name = CACHE_NAME_PREFIX + name;
+
+        return CacheWeights.register(
+                name,
+                CacheWeights.<Query<?>, Entry<V>>newBuilder(getCacheBytes(), getCacheSize(), ENTRY_WEIGHER).build(),
+                ENTRY_WEIGHER);
+    }
+
+    // Records whether a lookup in the cache with the given name found a
+    // usable value, since stale entries and the partial ranges don't show
+    // up in the cache's own statistics.
+    private <V> V recordLookup(String name, V value) {
+        CacheWeights.recordLookup(CACHE_NAME_PREFIX + name, value != null);
+        return value;
+    }
+
     private boolean isCacheDisabled(Query<?> query) {
         if (query.isCache()) {
             return query.as(QueryOptions.class).isDisabled();
@@ -129,6 +291,122 @@ public class CachingDatabase extends ForwardingDatabase {
         }
     }
 
+    // Captures the current generations of the types that the results of the
+    // given query could contain. Must be called before reading from the
+    // delegate so that any concurrent writes make the entry stale.
+    private <V> Entry<V> createEntry(Query<?> query) {
+        if (!generational) {
+            return new Entry<>(null, null, null);
+        }
+
+        Set<UUID> typeIds = query.getConcreteTypeIds(this);
+
+        if (typeIds.isEmpty()) {
+            return new Entry<>(null, null, new long[] { anyGeneration.get() });
+        }
+
+        UUID[] typeIdsArray = typeIds.toArray(new UUID[typeIds.size()]);
+        long[] generations = new long[typeIdsArray.length];
+
+        for (int i = 0, length = typeIdsArray.length; i < length; ++ i) {
+            AtomicLong generation = typeGenerations.get(typeIdsArray[i]);
+            generations[i] = generation != null ? generation.get() : 0L;
+        }
+
+        return new Entry<>(null, typeIdsArray, generations);
+    }
+
+    // Returns the value of the given entry if it's still current.
+    private <V> V getValue(Entry<V> entry) {
+        if (entry == null) {
+            return null;
+
+        } else if (entry.generations == null) {
+            return entry.value;
+
+        } else if (entry.typeIds == null) {
+            return entry.generations[0] == anyGeneration.get() ? entry.value : null;
+        }
+
+        for (int i = 0, length = entry.typeIds.length; i < length; ++ i) {
+            AtomicLong generation = typeGenerations.get(entry.typeIds[i]);
+
+            if ((generation != null ? generation.get() : 0L) != entry.generations[i]) {
+                return null;
+            }
+        }
+
+        return entry.value;
+    }
+
+    // Queries are mutable, so they must be copied before being used as keys
+    // in a cache that outlives the caller.
+    private Query<?> createKey(Query<?> query) {
+        return generational ? query.clone() : query;
+    }
+
+    // Bumps the generation of the given type and evicts the object with the
+    // given ID.
+    private void invalidate(UUID id, UUID typeId) {
+        anyGeneration.incrementAndGet();
+
+        if (typeId != null) {
+            typeGenerations.computeIfAbsent(typeId, k -> new AtomicLong()).incrementAndGet();
+        }
+
+        if (id != null) {
+            objectCache.invalidate(id);
+            referenceCache.invalidate(id);
+        }
+    }
+
+    // Returns the type ID that the given state was last read or written as,
+    // which must be read before the write, since the write may change it.
+    private UUID getSavedTypeId(State state) {
+        return generational ? (UUID) state.getExtra(State.SAVED_TYPE_ID_EXTRA) : null;
+    }
+
+    // Invalidates after a write, and remembers the type so that it can be
+    // invalidated again when the writes are committed, since reads between
+    // the write and the commit can still see the old data. If the write
+    // changed the type, the previous type is invalidated as well, since
+    // the cached results for it may still contain the object.
+    private void invalidateWrite(State state, UUID savedTypeId) {
+        if (generational) {
+            UUID typeId = state.getTypeId();
+            Set<UUID> typeIds = uncommittedTypeIds.get();
+
+            invalidate(state.getId(), typeId);
+
+            if (typeId != null) {
+                typeIds.add(typeId);
+            }
+
+            if (savedTypeId != null && !savedTypeId.equals(typeId)) {
+                invalidate(null, savedTypeId);
+                typeIds.add(savedTypeId);
+            }
+
+            state.getExtras().put(State.SAVED_TYPE_ID_EXTRA, typeId);
+        }
+    }
+
+    private void invalidateCommitted() {
+        if (!generational) {
+            return;
+        }
+
+        Set<UUID> typeIds = uncommittedTypeIds.get();
+
+        if (!typeIds.isEmpty()) {
+            for (UUID typeId : typeIds) {
+                invalidate(null, typeId);
+            }
+
+            typeIds.clear();
+        }
+    }
+
     private Object findCachedObject(UUID id, Query<?> query) {
         Object object = objectCache.getIfPresent(id);
 
@@ -199,11 +477,12 @@ public class CachingDatabase extends ForwardingDatabase {
             }
         }
 
-        List<?> list = readAllCache.getIfPresent(query);
+        List<?> list = recordLookup("Read All", getValue(readAllCache.getIfPresent(query)));
 
         if (list == null) {
+            Entry<List<?>> entry = createEntry(query);
             list = super.readAll(query);
-            readAllCache.put(query, list);
+            readAllCache.put(createKey(query), entry.withValue(list));
 
             for (Object item : list) {
                 cacheObject(item);
@@ -220,32 +499,41 @@ public class CachingDatabase extends ForwardingDatabase {
             return super.readCount(query);
         }
 
-        Long count = readCountCache.getIfPresent(query);
+        Long count = recordLookup("Read Count", getValue(readCountCache.getIfPresent(query)));
 
         if (count == null) {
+            Entry<Long> entry;
+
             COUNT: {
-                if (readAllCache != null) {
-                    List<?> list = readAllCache.getIfPresent(query);
+                Entry<List<?>> allEntry = readAllCache.getIfPresent(query);
+                List<?> list = getValue(allEntry);
 
-                    if (list != null) {
-                        count = (long) list.size();
-                        break COUNT;
-                    }
+                if (list != null) {
+                    count = (long) list.size();
+                    entry = allEntry.withValue(count);
+                    break COUNT;
                 }
 
-                if (readPartialCache != null) {
-                    Map<Range, PaginatedResult<?>> subCache = readPartialCache.getIfPresent(query);
+                Map<Range, Entry<PaginatedResult<?>>> subCache = readPartialCache.getIfPresent(query);
 
-                    if (subCache != null && !subCache.isEmpty()) {
-                        count = subCache.values().iterator().next().getCount();
-                        break COUNT;
+                if (subCache != null) {
+                    for (Entry<PaginatedResult<?>> partialEntry : subCache.values()) {
+                        PaginatedResult<?> result = getValue(partialEntry);
+
+                        if (result != null) {
+                            count = result.getCount();
+                            entry = partialEntry.withValue(count);
+                            break COUNT;
+                        }
                     }
                 }
 
+                entry = createEntry(query);
                 count = super.readCount(query);
+                entry = entry.withValue(count);
             }
 
-            readCountCache.put(query, count);
+            readCountCache.put(createKey(query), entry);
         }
 
         return count;
@@ -275,16 +563,17 @@ public class CachingDatabase extends ForwardingDatabase {
             }
         }
 
-        Object first = readFirstCache.getIfPresent(query);
+        Object first = recordLookup("Read First", getValue(readFirstCache.getIfPresent(query)));
 
         if (first == null) {
+            Entry<Object> entry = createEntry(query);
             first = super.readFirst(query);
             if (first == null) {
                 first = MISSING;
             } else {
                 cacheObject(first);
             }
-            readFirstCache.put(query, first);
+            readFirstCache.put(createKey(query), entry.withValue(first));
         }
 
         return first != MISSING ? (T) first : null;
@@ -297,14 +586,22 @@ public class CachingDatabase extends ForwardingDatabase {
             return super.readPartial(query, offset, limit);
         }
 
-        Map<Range, PaginatedResult<?>> subCache = readPartialCache.getUnchecked(query);
+        Map<Range, Entry<PaginatedResult<?>>> subCache = readPartialCache.getIfPresent(query);
+
+        if (subCache == null) {
+            subCache = readPartialCache.getUnchecked(createKey(query));
+        }
 
         Range range = new Range(offset, limit);
-        PaginatedResult<?> result = subCache.get(range);
+        PaginatedResult<?> result = recordLookup("Read Partial", getValue(subCache.get(range)));
 
         if (result == null) {
+            Entry<PaginatedResult<?>> entry = createEntry(query);
             result = super.readPartial(query, offset, limit);
-            subCache.put(range, result);
+            subCache.put(range, entry.withValue(result));
+
+            // Put the sub-cache back so that its weight is recalculated.
+            readPartialCache.put(createKey(query), subCache);
 
             for (Object item : result.getItems()) {
                 cacheObject(item);
@@ -314,14 +611,111 @@ public class CachingDatabase extends ForwardingDatabase {
         return (PaginatedResult<T>) result;
     }
 
+    @Override
+    public boolean commitWrites() {
+        try {
+            return super.commitWrites();
+
+        } finally {
+            invalidateCommitted();
+        }
+    }
+
+    @Override
+    public boolean commitWritesEventually() {
+        try {
+            return super.commitWritesEventually();
+
+        } finally {
+            invalidateCommitted();
+        }
+    }
+
+    @Override
+    public boolean endWrites() {
+        try {
+            return super.endWrites();
+
+        } finally {
+            invalidateCommitted();
+        }
+    }
+
     @Override
     public void save(State state) {
+        UUID savedTypeId = getSavedTypeId(state);
+
         super.save(state);
-        flush();
+
+        if (generational) {
+            invalidateWrite(state, savedTypeId);
+
+        } else {
+            flush();
+        }
+    }
+
+    @Override
+    public void saveUnsafely(State state) {
+        UUID savedTypeId = getSavedTypeId(state);
+
+        super.saveUnsafely(state);
+        invalidateWrite(state, savedTypeId);
+    }
+
+    @Override
+    public void index(State state) {
+        UUID savedTypeId = getSavedTypeId(state);
+
+        super.index(state);
+        invalidateWrite(state, savedTypeId);
+    }
+
+    @Override
+    public void indexAll(ObjectIndex index) {
+        super.indexAll(index);
+
+        if (generational) {
+            anyGeneration.incrementAndGet();
+            typeGenerations.values().forEach(AtomicLong::incrementAndGet);
+            flush();
+        }
+    }
+
+    @Override
+    public void recalculate(State state, ObjectIndex... indexes) {
+        UUID savedTypeId = getSavedTypeId(state);
+
+        super.recalculate(state, indexes);
+        invalidateWrite(state, savedTypeId);
+    }
+
+    @Override
+    public void delete(State state) {
+        UUID savedTypeId = getSavedTypeId(state);
+
+        super.delete(state);
+        invalidateWrite(state, savedTypeId);
+    }
+
+    @Override
+    public void deleteByQuery(Query<?> query) {
+        super.deleteByQuery(query);
+
+        if (generational) {
+            for (UUID typeId : query.getConcreteTypeIds(this)) {
+                invalidate(null, typeId);
+            }
+
+            anyGeneration.incrementAndGet();
+            objectCache.invalidateAll();
+            referenceCache.invalidateAll();
+        }
     }
 
     /**
-     * Flush the entire cache. This is executed after every .save() to avoid inconsistent results.
+     * Flush the entire cache. In the default mode, this is executed after
+     * every .save() to avoid inconsistent results.
      */
     protected void flush() {
         objectCache.invalidateAll();
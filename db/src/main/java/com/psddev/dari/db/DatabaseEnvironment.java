@@ -5,6 +5,7 @@ import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.beans.SimpleBeanInfo;
+import java.io.File;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Date;
@@ -31,6 +32,7 @@ import com.psddev.dari.util.Lazy;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.Once;
 import com.psddev.dari.util.PeriodicCache;
+import com.psddev.dari.util.Settings;
 import com.psddev.dari.util.Task;
 import com.psddev.dari.util.TypeDefinition;
 
@@ -39,6 +41,14 @@ public class DatabaseEnvironment implements ObjectStruct {
     public static final String GLOBAL_FIELDS_FIELD = "globalFields";
     public static final String GLOBAL_INDEXES_FIELD = "globalIndexes";
 
+    /**
+     * Setting for the path to the directory where the snapshot of how the
+     * types were initialized is saved, so that the types whose classes
+     * haven't changed don't have to be initialized again on the next
+     * startup.
+     */
+    public static final String TYPE_SNAPSHOT_DIRECTORY_SETTING = "dari/typeSnapshotDirectory";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseEnvironment.class);
 
     private final Database database;
@@ -90,6 +100,7 @@ public class DatabaseEnvironment implements ObjectStruct {
     private volatile Date lastTypesUpdate;
     private volatile TypesCache permanentTypes = new TypesCache();
     private final ThreadLocal<TypesCache> temporaryTypesLocal = new ThreadLocal<TypesCache>();
+    private TypeSnapshot typeSnapshot;
 
     /** Aggregate of all maps used to cache type information. */
     private static class TypesCache {
@@ -274,6 +285,8 @@ public class DatabaseEnvironment implements ObjectStruct {
                 ObjectType rootType = getRootType();
                 State rootTypeState;
 
+                TypeSnapshot snapshot = getTypeSnapshot();
+
                 if (rootType != null) {
                     rootTypeState = rootType.getState();
 
@@ -333,7 +346,7 @@ public class DatabaseEnvironment implements ObjectStruct {
                             type = new ObjectType();
                             type.getState().setDatabase(database);
 
-                        } else {
+                        } else if (snapshot == null) {
                             type.getState().clear();
                         }
 
@@ -384,6 +397,76 @@ public class DatabaseEnvironment implements ObjectStruct {
                         ObjectType.modifyAll(database, modification);
                     }
 
+                    // Skip the types that haven't changed since they were
+                    // last initialized.
+                    Map<ObjectType, String> fingerprints = new HashMap<ObjectType, String>();
+                    Map<ObjectType, String> originalValuesHashes = new HashMap<ObjectType, String>();
+
+                    if (snapshot != null) {
+                        snapshot.setEnvironmentFingerprint(snapshot.fingerprintEnvironment(this, globalModifications, typeModifications.keySet()));
+
+                        Set<ObjectType> coreTypes = new HashSet<ObjectType>();
+
+                        for (ObjectType coreType : new ObjectType[] { rootType, getTypeByClass(ObjectField.class) }) {
+                            coreTypes.add(coreType);
+
+                            List<Class<?>> modifications = typeModifications.get(coreType);
+
+                            if (modifications != null) {
+                                for (Class<?> modification : modifications) {
+                                    coreTypes.add(getTypeByClass(modification));
+                                }
+                            }
+                        }
+
+                        int skipped = 0;
+
+                        for (Iterator<Map.Entry<ObjectType, List<Class<?>>>> i = typeModifications.entrySet().iterator(); i.hasNext();) {
+                            Map.Entry<ObjectType, List<Class<?>>> entry = i.next();
+                            ObjectType type = entry.getKey();
+                            State typeState = type.getState();
+                            Class<?> objectClass = type.getObjectClass();
+
+                            if (objectClass == null) {
+                                continue;
+                            }
+
+                            String fingerprint = snapshot.fingerprint(objectClass, entry.getValue());
+
+                            fingerprints.put(type, fingerprint);
+
+                            if (typeState.isNew()) {
+                                continue;
+                            }
+
+                            String valuesHash = TypeSnapshot.hashValues(typeState.getSimpleValues());
+
+                            if (!coreTypes.contains(type) && snapshot.isUnchanged(type, fingerprint, valuesHash)) {
+                                type.registerAfterCreate(objectClass);
+
+                                for (Class<?> modification : entry.getValue()) {
+                                    type.registerAfterCreate(modification);
+                                }
+
+                                i.remove();
+                                ++ skipped;
+
+                            } else {
+
+                                // The root type was already initialized
+                                // above, so its values aren't the originals.
+                                if (!type.equals(rootType)) {
+                                    originalValuesHashes.put(type, valuesHash);
+                                }
+
+                                typeState.clear();
+                                type.setObjectClassName(objectClass.getName());
+                            }
+                        }
+
+                        LOGGER.info("Skipped initializing [{}] unchanged types in [{}]", skipped, database.getName());
+                    }
+
                     // Initialize all types.
                     List<Class<?>> rootTypeModifications = typeModifications.remove(rootType);
                     initializeAndModify(temporaryTypes, rootType, rootTypeModifications);
@@ -410,8 +493,30 @@ public class DatabaseEnvironment implements ObjectStruct {
                         initializeAndModify(temporaryTypes, entry.getKey(), entry.getValue());
                     }
 
+                    // Record how the types were initialized, and don't save
+                    // the ones that ended up the same as before.
+                    if (snapshot != null) {
+                        for (Map.Entry<ObjectType, String> entry : fingerprints.entrySet()) {
+                            ObjectType type = entry.getKey();
+
+                            if (typeModifications.containsKey(type) || originalValuesHashes.containsKey(type)) {
+                                String valuesHash = TypeSnapshot.hashValues(type.getState().getSimpleValues());
+
+                                snapshot.put(type, entry.getValue(), valuesHash);
+
+                                if (valuesHash.equals(originalValuesHashes.get(type))) {
+                                    temporaryTypes.changed.remove(type.getId());
+                                }
+                            }
+                        }
+                    }
+
                     database.commitWrites();
 
+                    if (snapshot != null) {
+                        snapshot.write();
+                    }
+
                 } finally {
                     database.endWrites();
                 }
@@ -445,6 +550,10 @@ public class DatabaseEnvironment implements ObjectStruct {
             temporaryTypesLocal.remove();
         }
 
+        if (initializeClasses) {
+            preloadIndexSymbols(database);
+        }
+
         ObjectType singletonType = getTypeByClass(Singleton.class);
 
         if (singletonType != null) {
@@ -478,6 +587,57 @@ public class DatabaseEnvironment implements ObjectStruct {
         }
     }
 
+    // Returns the snapshot of how the types were initialized, or null if
+    // the directory for it isn't configured.
+    private TypeSnapshot getTypeSnapshot() {
+        if (typeSnapshot == null) {
+            String directory = Settings.get(String.class, TYPE_SNAPSHOT_DIRECTORY_SETTING);
+
+            if (ObjectUtils.isBlank(directory)) {
+                return null;
+            }
+
+            String name = ObjectUtils.firstNonBlank(getDatabase().getName(), "default");
+
+            typeSnapshot = TypeSnapshot.read(new File(directory, "types-" + name.replaceAll("[^A-Za-z0-9._-]", "_") + ".json"));
+        }
+
+        return typeSnapshot;
+    }
+
+    // Resolves the symbols for all index names in the SQL databases up
+    // front, so that the first saves don't have to do it one at a time.
+    private void preloadIndexSymbols(Object database) {
+        if (database instanceof ForwardingDatabase) {
+            preloadIndexSymbols(((ForwardingDatabase) database).getDelegate());
+
+        } else if (database instanceof Iterable) {
+            for (Object subDatabase : (Iterable<?>) database) {
+                preloadIndexSymbols(subDatabase);
+            }
+
+        } else if (database instanceof SqlDatabase) {
+            Set<String> names = new HashSet<String>();
+
+            for (ObjectIndex index : getIndexes()) {
+                names.add(index.getUniqueName());
+            }
+
+            for (ObjectType type : getTypes()) {
+                for (ObjectIndex index : type.getIndexes()) {
+                    names.add(index.getUniqueName());
+                }
+            }
+
+            try {
+                ((SqlDatabase) database).getSymbolIds(names);
+
+            } catch (RuntimeException error) {
+                LOGGER.warn(String.format("Can't preload index symbols in [%s]!", ((SqlDatabase) database).getName()), error);
+            }
+        }
+    }
+
     private static void initializeAndModify(TypesCache temporaryTypes, ObjectType type, List<Class<?>> modifications) {
         State typeState = type.getState();
         Map<String, Object> typeOriginals = typeState.getSimpleValues();
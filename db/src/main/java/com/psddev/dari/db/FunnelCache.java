@@ -5,9 +5,9 @@ import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListenableFutureTask;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -21,15 +21,20 @@ import com.psddev.dari.util.Stats;
 public class FunnelCache<T extends Database> {
 
     private static final Stats STATS = new Stats("Funnel Cache");
+    private static final String CACHE_NAME = "Funnel Cache";
 
     private static final String CACHE_EXPIRE_MILLISECONDS_SUB_SETTING = "funnelCacheExpireMillis";
     private static final String CACHE_REFRESH_MILLISECONDS_SUB_SETTING = "funnelCacheRefreshMillis";
     private static final String CONCURRENCY_LEVEL_SUB_SETTING = "funnelCacheConcurrencyLevel";
     private static final String CACHE_SIZE_SUB_SETTING = "funnelCacheSize";
+    private static final String CACHE_BYTES_SUB_SETTING = "funnelCacheMaximumBytes";
     private static final long DEFAULT_CACHE_EXPIRE_MILLISECONDS = 1500;
     private static final long DEFAULT_CACHE_REFRESH_MILLISECONDS = 1000;
     private static final int DEFAULT_CONCURRENCY_LEVEL = 20;
     private static final long DEFAULT_CACHE_SIZE = 10000;
+    private static final long DEFAULT_CACHE_BYTES = 64L * 1024L * 1024L;
+
+    private static final Weigher<Object, List<FunnelCachedObject>> WEIGHER = (producer, objects) -> CacheWeights.weighInt(objects);
 
     private final T database;
     private final LoadingCache<FunnelCachedObjectProducer<T>, List<FunnelCachedObject>> objectCache;
@@ -38,17 +43,24 @@ public class FunnelCache<T extends Database> {
         this.database = db;
 
         Long cacheSize = ObjectUtils.to(Long.class, settings.get(CACHE_SIZE_SUB_SETTING));
+        Long cacheBytes = ObjectUtils.to(Long.class, settings.get(CACHE_BYTES_SUB_SETTING));
         Integer concurrencyLevel = ObjectUtils.to(Integer.class, settings.get(CONCURRENCY_LEVEL_SUB_SETTING));
         Long expireMilliseconds = ObjectUtils.to(Long.class, settings.get(CACHE_EXPIRE_MILLISECONDS_SUB_SETTING));
         Long refreshMilliseconds = ObjectUtils.to(Long.class, settings.get(CACHE_REFRESH_MILLISECONDS_SUB_SETTING));
 
-        objectCache = CacheBuilder
-                .newBuilder()
-                .maximumSize(cacheSize != null ? cacheSize : DEFAULT_CACHE_SIZE)
+        // Bounded by bytes unless only the legacy entry count is specified.
+        if (cacheBytes == null && cacheSize == null) {
+            cacheBytes = DEFAULT_CACHE_BYTES;
+        }
+
+        objectCache = CacheWeights
+                .<FunnelCachedObjectProducer<T>, List<FunnelCachedObject>>newBuilder(cacheBytes, cacheSize != null ? cacheSize : DEFAULT_CACHE_SIZE, WEIGHER)
                 .concurrencyLevel(concurrencyLevel != null ? concurrencyLevel : DEFAULT_CONCURRENCY_LEVEL)
                 .expireAfterWrite(expireMilliseconds != null ? expireMilliseconds : DEFAULT_CACHE_EXPIRE_MILLISECONDS, TimeUnit.MILLISECONDS)
                 .refreshAfterWrite(refreshMilliseconds != null ? refreshMilliseconds : DEFAULT_CACHE_REFRESH_MILLISECONDS, TimeUnit.MILLISECONDS)
                 .build(new FunnelCacheLoader());
+
+        CacheWeights.register(CACHE_NAME, objectCache, WEIGHER);
     }
 
     public final List<FunnelCachedObject> get(final FunnelCachedObjectProducer<T> producer) {
@@ -0,0 +1,53 @@
+package com.psddev.dari.db;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.psddev.dari.util.PaginatedResult;
+
+/**
+ * Paginated result returned by {@link Query#selectAfter}, which carries the
+ * sort key values and the ID of its last item as the keyset for reading the
+ * next page.
+ *
+ * <p>The offsets are always relative to the start of this page, and the
+ * count is only calculated on demand since it requires a separate
+ * query.</p>
+ */
+public class KeysetPaginatedResult<E> extends PaginatedResult<E> {
+
+    private final Query<E> query;
+    private final List<Object> nextKeyset;
+    private Long count;
+
+    public KeysetPaginatedResult(Query<E> query, int limit, List<E> items, List<Object> nextKeyset) {
+        super(0L, limit, 0L, items);
+
+        this.query = query;
+        this.nextKeyset = nextKeyset != null ? Collections.unmodifiableList(nextKeyset) : null;
+    }
+
+    /**
+     * Returns the keyset that should be passed to {@link Query#selectAfter}
+     * to read the next page.
+     *
+     * @return {@code null} if there aren't any more items.
+     */
+    public List<Object> getNextKeyset() {
+        return nextKeyset;
+    }
+
+    /** Returns the number of all items matching the original query. */
+    @Override
+    public long getCount() {
+        if (count == null) {
+            count = query.count();
+        }
+        return count;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextKeyset != null;
+    }
+}
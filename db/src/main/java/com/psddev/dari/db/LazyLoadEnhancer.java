@@ -36,6 +36,7 @@ public class LazyLoadEnhancer extends ClassEnhancer {
     private boolean alreadyEnhanced;
     private final Set<String> transientFields = new HashSet<>();
     private final Set<String> recordableFields = new HashSet<>();
+    private final Set<String> instanceFields = new HashSet<>();
 
     // --- ClassEnhancer support ---
 
@@ -86,6 +87,10 @@ public class LazyLoadEnhancer extends ClassEnhancer {
             transientFields.add(name);
 
         } else {
+            if ((access & (Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC)) == 0) {
+                instanceFields.add(name);
+            }
+
             Class<?> objectClass = findRecordableClass(Type.getType(desc).getClassName());
 
             if (objectClass != null) {
@@ -114,9 +119,35 @@ public class LazyLoadEnhancer extends ClassEnhancer {
             return visitor;
 
         } else {
+            // Lazily loaded values are never set during construction.
+            boolean constructor = name.equals("<init>");
+
             return new MethodVisitor(Opcodes.ASM5, visitor) {
                 @Override
                 public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                    if (!constructor
+                            && opcode == Opcodes.PUTFIELD
+                            && owner.equals(enhancedClassName)
+                            && instanceFields.contains(name)) {
+
+                        // Duplicates the object below the value to call
+                        // State#beforeFieldSet on it, and long and double
+                        // values take up two slots.
+                        if (Type.getType(desc).getSize() == 2) {
+                            visitInsn(Opcodes.DUP2_X1);
+                            visitInsn(Opcodes.POP2);
+                            visitInsn(Opcodes.DUP_X2);
+
+                        } else {
+                            visitInsn(Opcodes.SWAP);
+                            visitInsn(Opcodes.DUP_X1);
+                        }
+
+                        visitMethodInsn(Opcodes.INVOKEINTERFACE, "com/psddev/dari/db/Recordable", "getState", "()Lcom/psddev/dari/db/State;", true);
+                        visitLdcInsn(name);
+                        visitMethodInsn(Opcodes.INVOKEVIRTUAL, "com/psddev/dari/db/State", "beforeFieldSet", "(Ljava/lang/String;)V", false);
+                    }
+
                     if (!transientFields.contains(name)
                             && !name.startsWith("this$")) {
                         if (opcode == Opcodes.GETFIELD) {
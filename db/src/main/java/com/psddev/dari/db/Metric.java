@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -15,7 +16,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.Settings;
 import com.psddev.dari.util.Task;
+import com.psddev.dari.util.UuidUtils;
 
 @Metric.Embedded
 public class Metric extends Record {
@@ -76,6 +79,21 @@ public class Metric extends Record {
         return metricAccess;
     }
 
+    // Uses the value read in a batch by Static#preFetchMetricValues if there
+    // is one that isn't too old, and otherwise reads it by itself.
+    private Double getMetricValue(String dimension, Long startTimestamp, Long endTimestamp) throws SQLException {
+        UUID dimensionId = getMetricAccess().getDimensionId(dimension);
+        String valueKey = Static.getValueExtraKey(getMetricAccess(), dimensionId, startTimestamp, endTimestamp);
+        Static.PreFetchedValue preFetched = Static.findPreFetchedValue(getOwner(), valueKey, System.nanoTime());
+
+        if (preFetched != null) {
+            return preFetched.value;
+        }
+
+        Static.preFetchMetrics(getOwner(), dimensionId, startTimestamp, endTimestamp);
+        return getMetricAccess().getMetric(getOwner().getId(), dimension, startTimestamp, endTimestamp);
+    }
+
     /**
      * Increases the metric value by the given {@code amount}.
      */
@@ -92,6 +110,7 @@ public class Metric extends Record {
      */
     public void incrementDimensionAt(double amount, String dimension, DateTime time) {
         try {
+            Static.clearValues(getOwner(), getMetricAccess());
             getMetricAccess().incrementMetric(owner.getId(), time, dimension, amount);
         } catch (SQLException e) {
             throw new DatabaseException(getMetricAccess().getDatabase(), "Error in MetricAccess.incrementMetric() : " + e.getLocalizedMessage());
@@ -118,6 +137,7 @@ public class Metric extends Record {
         } catch (SQLException e) {
             throw new DatabaseException(getMetricAccess().getDatabase(), "Error in MetricAccess.getDimensionId() : " + e.getLocalizedMessage());
         }
+        Static.clearValues(getOwner(), getMetricAccess());
         MetricIncrementQueue.queueIncrement(getOwner().getId(), dimensionId, time, getMetricAccess(), amount, within);
     }
 
@@ -180,6 +200,7 @@ public class Metric extends Record {
      */
     public void setDimensionAt(double amount, String dimension, DateTime time) {
         try {
+            Static.clearValues(getOwner(), getMetricAccess());
             getMetricAccess().setMetric(getOwner().getId(), time, dimension, amount);
         } catch (SQLException e) {
             throw new DatabaseException(getMetricAccess().getDatabase(), "Error in MetricAccess.setMetric() : " + e.getLocalizedMessage());
@@ -189,6 +210,7 @@ public class Metric extends Record {
     /** Deletes all metric values. */
     public void deleteAll() {
         try {
+            Static.clearValues(getOwner(), getMetricAccess());
             getMetricAccess().deleteMetric(getOwner().getId());
         } catch (SQLException e) {
             throw new DatabaseException(getMetricAccess().getDatabase(), "Error in MetricAccess.deleteMetric() : " + e.getLocalizedMessage());
@@ -207,8 +229,7 @@ public class Metric extends Record {
         try {
             Long startTimestamp = (start == null ? null : start.getMillis());
             Long endTimestamp = (end == null ? null : end.getMillis());
-            Static.preFetchMetrics(getOwner(), getMetricAccess().getDimensionId(dimension), startTimestamp, endTimestamp);
-            Double metricValue = getMetricAccess().getMetric(getOwner().getId(), dimension, startTimestamp, endTimestamp);
+            Double metricValue = getMetricValue(dimension, startTimestamp, endTimestamp);
             return metricValue == null ? 0.0 : metricValue;
         } catch (SQLException e) {
             throw new DatabaseException(getMetricAccess().getDatabase(), "Error in MetricAccess.getMetric() : " + e.getLocalizedMessage());
@@ -255,8 +276,7 @@ public class Metric extends Record {
         try {
             Long startTimestamp = (start == null ? null : start.getMillis());
             Long endTimestamp = (end == null ? null : end.getMillis());
-            Static.preFetchMetrics(getOwner(), getMetricAccess().getDimensionId(dimension), startTimestamp, endTimestamp);
-            Double metricValue = getMetricAccess().getMetric(getOwner().getId(), dimension, startTimestamp, endTimestamp);
+            Double metricValue = getMetricValue(dimension, startTimestamp, endTimestamp);
             return metricValue == null;
         } catch (SQLException e) {
             throw new DatabaseException(getMetricAccess().getDatabase(), "Error in MetricAccess.getMetric() : " + e.getLocalizedMessage());
@@ -416,6 +436,109 @@ public class Metric extends Record {
     public static class Static {
 
         private static final String EXTRA_METRICS_FETCHED_PREFIX = "dari.metric.preFetched.";
+        private static final String EXTRA_METRIC_VALUE_PREFIX = "dari.metric.value.";
+
+        /**
+         * Setting for the number of seconds that the values read by
+         * {@link #preFetchMetricValues} are used for.
+         */
+        public static final String PRE_FETCHED_VALUE_MAXIMUM_AGE_SETTING = "dari/metricPreFetchedValueMaximumAge";
+
+        private static final double DEFAULT_PRE_FETCHED_VALUE_MAXIMUM_AGE = 10.0;
+
+        /**
+         * Reads the sums of all metric fields on the given {@code objects}
+         * between the given {@code start} and {@code end} in one query per
+         * field, instead of one query per object when each value is first
+         * used. Useful for list views that show counts.
+         *
+         * <p>The values are only used for the number of seconds in the
+         * {@value #PRE_FETCHED_VALUE_MAXIMUM_AGE_SETTING} setting, 10 by
+         * default, since the objects may be cached and outlive the request
+         * that read them.</p>
+         *
+         * @param objects Can't be {@code null}.
+         * @param start If {@code null}, beginning of time.
+         * @param end If {@code null}, end of time.
+         */
+        public static void preFetchMetricValues(Iterable<?> objects, DateTime start, DateTime end) {
+            Long startTimestamp = (start == null ? null : start.getMillis());
+            Long endTimestamp = (end == null ? null : end.getMillis());
+            double maximumAge = Settings.getOrDefault(double.class, PRE_FETCHED_VALUE_MAXIMUM_AGE_SETTING, DEFAULT_PRE_FETCHED_VALUE_MAXIMUM_AGE);
+            Map<MetricAccess, List<State>> statesByMetricAccess = new LinkedHashMap<MetricAccess, List<State>>();
+
+            for (Object object : objects) {
+                State state = State.getInstance(object);
+                if (state == null || state.getType() == null) {
+                    continue;
+                }
+                List<ObjectField> fields = new ArrayList<ObjectField>(state.getType().getMetricFields());
+                fields.addAll(state.getDatabase().getEnvironment().getMetricFields());
+                for (ObjectField field : fields) {
+                    MetricAccess mdb = MetricAccess.Static.getMetricAccess(state.getDatabase(), state.getType(), field);
+                    if (mdb != null) {
+                        List<State> states = statesByMetricAccess.get(mdb);
+                        if (states == null) {
+                            states = new ArrayList<State>();
+                            statesByMetricAccess.put(mdb, states);
+                        }
+                        states.add(state);
+                    }
+                }
+            }
+
+            for (Map.Entry<MetricAccess, List<State>> entry : statesByMetricAccess.entrySet()) {
+                MetricAccess mdb = entry.getKey();
+                List<State> states = entry.getValue();
+                Set<UUID> ids = new HashSet<UUID>();
+                for (State state : states) {
+                    ids.add(state.getId());
+                }
+                try {
+                    Map<UUID, Double> values = mdb.getMetricSums(ids, startTimestamp, endTimestamp);
+                    String valueKey = getValueExtraKey(mdb, UuidUtils.ZERO_UUID, startTimestamp, endTimestamp);
+                    long expiration = System.nanoTime() + (long) (maximumAge * 1e9);
+                    for (State state : states) {
+                        state.getExtras().put(valueKey, new PreFetchedValue(values.get(state.getId()), expiration));
+                    }
+                } catch (SQLException ex) {
+                    LOGGER.warn("Exception when prefetching Metrics for " + ids.size() + " objects: " + ex.getLocalizedMessage());
+                }
+            }
+        }
+
+        private static String getValueExtraKey(MetricAccess mdb, UUID dimensionId, Long startTimestamp, Long endTimestamp) {
+            return EXTRA_METRIC_VALUE_PREFIX + mdb.getSymbolId() + '.' + dimensionId + '.' + ObjectUtils.to(String.class, startTimestamp) + '.' + ObjectUtils.to(String.class, endTimestamp);
+        }
+
+        // Returns the value read in a batch, or null if there isn't one or
+        // if it's expired, in which case it's also removed.
+        static PreFetchedValue findPreFetchedValue(State state, String valueKey, long now) {
+            Object extra = state.getExtra(valueKey);
+
+            if (!(extra instanceof PreFetchedValue)) {
+                return null;
+            }
+
+            PreFetchedValue preFetched = (PreFetchedValue) extra;
+
+            if (now - preFetched.expiration >= 0) {
+                state.getExtras().remove(valueKey, preFetched);
+                return null;
+            }
+
+            return preFetched;
+        }
+
+        // Forgets the values read in a batch once the metric changes.
+        private static void clearValues(State state, MetricAccess mdb) {
+            String prefix = EXTRA_METRIC_VALUE_PREFIX + mdb.getSymbolId() + '.';
+            for (Iterator<String> i = state.getExtras().keySet().iterator(); i.hasNext();) {
+                if (i.next().startsWith(prefix)) {
+                    i.remove();
+                }
+            }
+        }
 
         /**
          * Resummarize all metric values in the given field (all dimensions)
@@ -473,6 +596,19 @@ public class Metric extends Record {
             }
         }
 
+        // Value read in a batch along with the System#nanoTime after which
+        // it's no longer used.
+        static final class PreFetchedValue {
+
+            public final Double value;
+            public final long expiration;
+
+            public PreFetchedValue(Double value, long expiration) {
+                this.value = value;
+                this.expiration = expiration;
+            }
+        }
+
         public static Iterator<DistinctIds> getDistinctIdsBetween(Database database, ObjectType type, ObjectField field, DateTime start, DateTime end) {
             Long startTimestamp = (start == null ? null : start.getMillis());
             Long endTimestamp = (end == null ? null : end.getMillis());
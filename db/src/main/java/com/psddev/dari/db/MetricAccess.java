@@ -6,6 +6,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -27,6 +28,7 @@ import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
 import com.psddev.dari.util.AsyncConsumer;
 import com.psddev.dari.util.AsyncQueue;
 import com.psddev.dari.util.CompactMap;
@@ -57,6 +59,7 @@ class MetricAccess {
 
     private static final int QUERY_TIMEOUT = 3;
     private static final int DIMENSION_CACHE_SIZE = 1000;
+    private static final int MULTI_ID_BATCH_SIZE = 500;
 
     private static final String CACHE_MIN = "min";
     private static final String CACHE_MAX = "max";
@@ -254,6 +257,87 @@ class MetricAccess {
         return Static.getMetricTimelineByIdAndDimension(getDatabase(), id, getTypeId(), getSymbolId(), getDimensionId(dimensionValue), startTimestamp, endTimestamp, metricInterval, false);
     }
 
+    /**
+     * Returns the metric values associated with the given
+     * {@code dimensionValue} for all the given {@code ids}, reading them in
+     * one grouped query per batch of IDs instead of one query per ID.
+     *
+     * @return Never {@code null}. IDs without any data are missing.
+     */
+    public Map<UUID, Double> getMetrics(Collection<UUID> ids, String dimensionValue, Long startTimestamp, Long endTimestamp) throws SQLException {
+        Map<UUID, Double> values = new HashMap<UUID, Double>();
+        UUID dimensionId = getDimensionId(dimensionValue);
+        CachingDatabase cachingDb = Static.getCachingDatabase();
+
+        for (List<UUID> batch : Iterables.partition(new HashSet<UUID>(ids), MULTI_ID_BATCH_SIZE)) {
+            Map<UUID, byte[][]> datas = Static.getMaxMinDataByIdsAndDimension(getDatabase(), batch, getTypeId(), getSymbolId(), dimensionId, startTimestamp, endTimestamp, false);
+
+            for (UUID id : batch) {
+                byte[][] data = datas.get(id);
+                byte[] maxData = data != null ? data[0] : null;
+                byte[] minData = data != null ? data[1] : null;
+
+                // Warm the same cache that the single ID reads use.
+                if (startTimestamp != null) {
+                    putCachedData(cachingDb, id, dimensionId, startTimestamp, minData, CACHE_MIN);
+                }
+                putCachedData(cachingDb, id, dimensionId, endTimestamp, maxData, CACHE_MAX);
+
+                if (maxData != null) {
+                    double maxCumulativeAmount = Static.amountFromBytes(maxData, CUMULATIVEAMOUNT_POSITION);
+                    if (startTimestamp == null) {
+                        values.put(id, maxCumulativeAmount);
+                    } else {
+                        double minCumulativeAmount = Static.amountFromBytes(minData, CUMULATIVEAMOUNT_POSITION);
+                        double minAmount = Static.amountFromBytes(minData, AMOUNT_POSITION);
+                        values.put(id, maxCumulativeAmount - (minCumulativeAmount - minAmount));
+                    }
+                }
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Returns the sums of the metric values in all dimensions for all the
+     * given {@code ids}.
+     *
+     * @return Never {@code null}. IDs without any data are missing.
+     * @see #getMetrics
+     */
+    public Map<UUID, Double> getMetricSums(Collection<UUID> ids, Long startTimestamp, Long endTimestamp) throws SQLException {
+        return getMetrics(ids, null, startTimestamp, endTimestamp);
+    }
+
+    /**
+     * Returns the metric timelines associated with the given
+     * {@code dimensionValue} for all the given {@code ids}, reading them in
+     * one grouped query per batch of IDs instead of one query per ID.
+     *
+     * @return Never {@code null}. Contains an entry for each of the given
+     *         {@code ids}.
+     */
+    public Map<UUID, Map<DateTime, Double>> getMetricTimelines(Collection<UUID> ids, String dimensionValue, Long startTimestamp, Long endTimestamp, MetricInterval metricInterval) throws SQLException {
+        if (metricInterval == null) {
+            metricInterval = getEventDateProcessor();
+        }
+        Map<UUID, Map<DateTime, Double>> timelines = new HashMap<UUID, Map<DateTime, Double>>();
+        UUID dimensionId = getDimensionId(dimensionValue);
+
+        for (List<UUID> batch : Iterables.partition(new HashSet<UUID>(ids), MULTI_ID_BATCH_SIZE)) {
+            timelines.putAll(Static.getMetricTimelinesByIdsAndDimension(getDatabase(), batch, getTypeId(), getSymbolId(), dimensionId, startTimestamp, endTimestamp, metricInterval, false));
+
+            for (UUID id : batch) {
+                if (!timelines.containsKey(id)) {
+                    timelines.put(id, new CompactMap<DateTime, Double>());
+                }
+            }
+        }
+
+        return timelines;
+    }
+
     public void incrementMetric(UUID id, DateTime time, String dimensionValue, Double amount) throws SQLException {
         incrementMetricByDimensionId(id, time, getDimensionId(dimensionValue), amount);
     }
@@ -265,11 +349,25 @@ class MetricAccess {
         }
         boolean isImplicitEventDate = (time == null);
         long eventDate = getEventDate(time);
+        MetricWriteBuffer buffer = getDatabase().getMetricWriteBuffer();
+        if (buffer != null) {
+            buffer.add(this, id, dimensionId, eventDate, isImplicitEventDate, amount);
+            if (!dimensionId.equals(UuidUtils.ZERO_UUID)) {
+                buffer.add(this, id, UuidUtils.ZERO_UUID, eventDate, isImplicitEventDate, amount);
+            }
+            return;
+        }
         Static.doIncrementUpdateOrInsert(getDatabase(), id, getTypeId(), getSymbolId(), dimensionId, amount, eventDate, isImplicitEventDate);
         if (!dimensionId.equals(UuidUtils.ZERO_UUID)) {
             // Do an additional increment for the null dimension to maintain the sum
             Static.doIncrementUpdateOrInsert(getDatabase(), id, getTypeId(), getSymbolId(), UuidUtils.ZERO_UUID, amount, eventDate, isImplicitEventDate);
         }
+        afterIncrement(id);
+    }
+
+    // Called once the increments to the object with the given ID have been
+    // written, possibly in a batch by the MetricWriteBuffer.
+    void afterIncrement(UUID id) {
         clearCachedData(Static.getCachingDatabase(), id);
         recalculateImmediateIndexedMethods(id);
     }
@@ -405,6 +503,10 @@ class MetricAccess {
         // Methods that generate SQL statements
 
         private static String getDataSql(SqlDatabase db, UUID id, UUID typeId, Integer symbolId, UUID dimensionId, Long minEventDate, Long maxEventDate, boolean selectMinData, boolean doDecodeToBytes, String extraSelectSql, String extraGroupBySql, String extraWhereSql) {
+            return getDataSql(db, Collections.singletonList(id), typeId, symbolId, dimensionId, minEventDate, maxEventDate, selectMinData, doDecodeToBytes, extraSelectSql, extraGroupBySql, extraWhereSql);
+        }
+
+        private static String getDataSql(SqlDatabase db, Collection<UUID> ids, UUID typeId, Integer symbolId, UUID dimensionId, Long minEventDate, Long maxEventDate, boolean selectMinData, boolean doDecodeToBytes, String extraSelectSql, String extraGroupBySql, String extraWhereSql) {
             StringBuilder sqlBuilder = new StringBuilder();
             SqlVendor vendor = db.getVendor();
 
@@ -449,8 +551,18 @@ class MetricAccess {
             sqlBuilder.append(Static.getMetricTableIdentifier(db));
             sqlBuilder.append(" WHERE ");
             vendor.appendIdentifier(sqlBuilder, METRIC_ID_FIELD);
-            sqlBuilder.append(" = ");
-            vendor.appendValue(sqlBuilder, id);
+            if (ids.size() == 1) {
+                sqlBuilder.append(" = ");
+                vendor.appendValue(sqlBuilder, ids.iterator().next());
+            } else {
+                sqlBuilder.append(" IN (");
+                for (UUID id : ids) {
+                    vendor.appendValue(sqlBuilder, id);
+                    sqlBuilder.append(", ");
+                }
+                sqlBuilder.setLength(sqlBuilder.length() - 2);
+                sqlBuilder.append(')');
+            }
 
             if (symbolId != null) {
                 sqlBuilder.append(" AND ");
@@ -629,6 +741,11 @@ class MetricAccess {
         }
 
         private static String getTimelineSql(SqlDatabase db, UUID id, UUID typeId, int symbolId, UUID dimensionId, Long minEventDate, Long maxEventDate, MetricInterval metricInterval, boolean doDecodeToBytes) {
+            return getTimelineSql(db, Collections.singletonList(id), typeId, symbolId, dimensionId, minEventDate, maxEventDate, metricInterval, doDecodeToBytes, false);
+        }
+
+        // If groupById, the ID is selected as the last column.
+        private static String getTimelineSql(SqlDatabase db, Collection<UUID> ids, UUID typeId, int symbolId, UUID dimensionId, Long minEventDate, Long maxEventDate, MetricInterval metricInterval, boolean doDecodeToBytes, boolean groupById) {
 
             SqlVendor vendor = db.getVendor();
 
@@ -642,8 +759,15 @@ class MetricAccess {
             StringBuilder extraGroupBySqlBuilder = new StringBuilder();
             vendor.appendMetricDateFormatTimestampSql(extraGroupBySqlBuilder, METRIC_DATA_FIELD, metricInterval);
 
+            if (groupById) {
+                extraSelectSqlBuilder.append(", ");
+                vendor.appendIdentifier(extraSelectSqlBuilder, METRIC_ID_FIELD);
+                extraGroupBySqlBuilder.append(", ");
+                vendor.appendIdentifier(extraGroupBySqlBuilder, METRIC_ID_FIELD);
+            }
+
             StringBuilder sqlBuilder = new StringBuilder();
-            String innerSql = getDataSql(db, id, typeId, symbolId, dimensionId, minEventDate, maxEventDate, true, doDecodeToBytes, extraSelectSqlBuilder.toString(), extraGroupBySqlBuilder.toString(), null);
+            String innerSql = getDataSql(db, ids, typeId, symbolId, dimensionId, minEventDate, maxEventDate, true, doDecodeToBytes, extraSelectSqlBuilder.toString(), extraGroupBySqlBuilder.toString(), null);
             sqlBuilder.append(innerSql);
             sqlBuilder.append(" ORDER BY ");
             if (dimensionId == null) {
@@ -702,6 +826,10 @@ class MetricAccess {
             return updateBuilder.toString();
         }
 
+        static String getIncrementUpdateSql(SqlDatabase db, List<Object> parameters, UUID id, UUID typeId, int symbolId, UUID dimensionId, double amount, long eventDate) {
+            return getUpdateSql(db, parameters, id, typeId, symbolId, dimensionId, amount, eventDate, true, false);
+        }
+
         private static String getRepairTypeIdSql(SqlDatabase db, List<Object> parameters, UUID id, UUID typeId, UUID dimensionId, int symbolId, long eventDate) {
                 // String repairSql = getRepairTypeIdSql(db, repairParameters, id, typeId, symbolId, eventDate);
             StringBuilder updateBuilder = new StringBuilder("UPDATE ");
@@ -943,7 +1071,7 @@ class MetricAccess {
 
         // methods that actually touch the database
 
-        private static void doIncrementUpdateOrInsert(SqlDatabase db, UUID id, UUID typeId, int symbolId, UUID dimensionId, double incrementAmount, long eventDate, boolean isImplicitEventDate) throws SQLException {
+        static void doIncrementUpdateOrInsert(SqlDatabase db, UUID id, UUID typeId, int symbolId, UUID dimensionId, double incrementAmount, long eventDate, boolean isImplicitEventDate) throws SQLException {
             SqlVendor vendor = db.getVendor();
             Connection connection = db.openConnection();
             try {
@@ -1414,6 +1542,76 @@ class MetricAccess {
             return datas;
         }
 
+        // Returns the max and min data, in that order, for each of the given
+        // IDs that has any.
+        private static Map<UUID, byte[][]> getMaxMinDataByIdsAndDimension(SqlDatabase db, Collection<UUID> ids, UUID typeId, int symbolId, UUID dimensionId, Long minEventDate, Long maxEventDate, boolean master) throws SQLException {
+            SqlVendor vendor = db.getVendor();
+            StringBuilder idSqlBuilder = new StringBuilder();
+            vendor.appendIdentifier(idSqlBuilder, METRIC_ID_FIELD);
+            String idSql = idSqlBuilder.toString();
+            String sql = getDataSql(db, ids, typeId, symbolId, dimensionId, minEventDate, maxEventDate, true, true, idSql, idSql, null);
+            Map<UUID, byte[][]> datas = new HashMap<UUID, byte[][]>();
+            Connection connection = master ? db.openConnection() : db.openReadConnection();
+            try {
+                Statement statement = connection.createStatement();
+                try {
+                    ResultSet result = db.executeQueryBeforeTimeout(statement, sql, QUERY_TIMEOUT);
+                    try {
+                        while (result.next()) {
+                            datas.put(vendor.getUuid(result, 3), new byte[][] { result.getBytes(1), result.getBytes(2) });
+                        }
+                    } finally {
+                        result.close();
+                    }
+                } finally {
+                    statement.close();
+                }
+            } finally {
+                db.closeConnection(connection);
+            }
+            return datas;
+        }
+
+        private static Map<UUID, Map<DateTime, Double>> getMetricTimelinesByIdsAndDimension(SqlDatabase db, Collection<UUID> ids, UUID typeId, int symbolId, UUID dimensionId, Long minEventDate, Long maxEventDate, MetricInterval metricInterval, boolean master) throws SQLException {
+            SqlVendor vendor = db.getVendor();
+            String sql = getTimelineSql(db, ids, typeId, symbolId, dimensionId, minEventDate, maxEventDate, metricInterval, true, true);
+            Map<UUID, Map<DateTime, Double>> timelines = new HashMap<UUID, Map<DateTime, Double>>();
+            Connection connection = master ? db.openConnection() : db.openReadConnection();
+
+            try {
+                Statement statement = connection.createStatement();
+                try {
+                    ResultSet result = db.executeQueryBeforeTimeout(statement, sql, QUERY_TIMEOUT);
+                    try {
+                        while (result.next()) {
+                            byte[] maxData = result.getBytes(1);
+                            byte[] minData = result.getBytes(2);
+                            long timestamp = result.getLong(3);
+                            UUID id = vendor.getUuid(result, 4);
+                            timestamp = metricInterval.process(new DateTime(timestamp));
+                            double maxCumulativeAmount = amountFromBytes(maxData, CUMULATIVEAMOUNT_POSITION);
+                            double minCumulativeAmount = amountFromBytes(minData, CUMULATIVEAMOUNT_POSITION);
+                            double minAmount = amountFromBytes(minData, AMOUNT_POSITION);
+                            double intervalAmount = maxCumulativeAmount - (minCumulativeAmount - minAmount);
+                            Map<DateTime, Double> values = timelines.get(id);
+                            if (values == null) {
+                                values = new CompactMap<DateTime, Double>();
+                                timelines.put(id, values);
+                            }
+                            values.put(new DateTime(timestamp), intervalAmount);
+                        }
+                    } finally {
+                        result.close();
+                    }
+                } finally {
+                    statement.close();
+                }
+            } finally {
+                db.closeConnection(connection);
+            }
+            return timelines;
+        }
+
         private static class DistinctIdsIterator implements Iterator<Metric.DistinctIds> {
 
             private static final int QUERY_TIMEOUT = 0;
@@ -0,0 +1,468 @@
+package com.psddev.dari.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.psddev.dari.util.Stats;
+import com.psddev.dari.util.Task;
+import com.psddev.dari.util.UuidUtils;
+
+/**
+ * Per-node buffer that sums metric increments in memory and writes them to
+ * the database in batches, so that a hot metric costs one SQL update per
+ * flush instead of one per increment.
+ *
+ * <p>The increments are keyed on the ID, the type ID, the symbol ID, the
+ * dimension ID and the event date, which are all held as primitives. The
+ * buffer is flushed every {@link #getFlushInterval} seconds, or sooner once
+ * it holds {@link #getFlushSize} keys.</p>
+ *
+ * <p>Once the buffer holds {@link #getMaximumSize} keys, increments for new
+ * keys are either dropped, which bounds both the memory and the loss, or
+ * spilled, that is, written straight through to the database by the calling
+ * thread.</p>
+ */
+class MetricWriteBuffer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricWriteBuffer.class);
+    private static final Stats STATS = new Stats("Metric Write Buffer");
+
+    private static final String FLUSH_STATS_OPERATION = "Flush";
+    private static final String DROP_STATS_OPERATION = "Drop";
+    private static final String SPILL_STATS_OPERATION = "Spill";
+    private static final String FAILURE_STATS_OPERATION = "Failure";
+    private static final double CHECK_INTERVAL = 0.1;
+
+    private final SqlDatabase database;
+    private final double flushInterval;
+    private final int flushSize;
+    private final int maximumSize;
+    private final boolean spill;
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private final Object flushLock = new Object();
+    private final FlushTask task;
+
+    private volatile Map<Key, Value> increments = new ConcurrentHashMap<>();
+    private volatile long lastFlush = System.nanoTime();
+    private volatile boolean closed;
+
+    /**
+     * @param flushInterval Maximum number of seconds that an increment
+     *        waits before it's written.
+     * @param flushSize Number of keys that triggers a flush.
+     * @param maximumSize Maximum number of keys.
+     * @param spill {@code true} to write the increments for new keys
+     *        through when the buffer is full, or {@code false} to drop them.
+     */
+    public MetricWriteBuffer(SqlDatabase database, double flushInterval, int flushSize, int maximumSize, boolean spill) {
+        this.database = database;
+        this.flushInterval = flushInterval;
+        this.flushSize = flushSize;
+        this.maximumSize = maximumSize;
+        this.spill = spill;
+        this.task = new FlushTask(database.getName());
+
+        task.scheduleWithFixedDelay(CHECK_INTERVAL, CHECK_INTERVAL);
+    }
+
+    public double getFlushInterval() {
+        return flushInterval;
+    }
+
+    public int getFlushSize() {
+        return flushSize;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public boolean isSpill() {
+        return spill;
+    }
+
+    /** Returns the number of keys waiting to be written. */
+    public int getSize() {
+        return increments.size();
+    }
+
+    /**
+     * Adds the given {@code amount} to the metric identified by the given
+     * {@code metricAccess}, {@code id}, {@code dimensionId} and
+     * {@code eventDate}.
+     *
+     * @param isImplicitEventDate {@code true} if the event date is the
+     *        current date, which allows a cheaper update.
+     * @throws SQLException If the increment had to be written through and
+     *         couldn't be.
+     */
+    public void add(MetricAccess metricAccess, UUID id, UUID dimensionId, long eventDate, boolean isImplicitEventDate, double amount) throws SQLException {
+        Key key = new Key(id, metricAccess.getTypeId(), metricAccess.getSymbolId(), dimensionId, eventDate, isImplicitEventDate);
+
+        if (buffer(key, metricAccess, amount)) {
+            return;
+
+        // Nothing flushes the buffer once it's closed, so the late
+        // increments must be written through regardless.
+        } else if (spill || closed) {
+            STATS.startTimer().stop(SPILL_STATS_OPERATION);
+            MetricAccess.Static.doIncrementUpdateOrInsert(database, id, key.getTypeId(), key.symbolId, dimensionId, amount, eventDate, isImplicitEventDate);
+            metricAccess.afterIncrement(id);
+
+        } else {
+            STATS.startTimer().stop(DROP_STATS_OPERATION);
+        }
+    }
+
+    // Returns false if the buffer is closed or full.
+    private boolean buffer(Key key, MetricAccess metricAccess, double amount) {
+        swapLock.readLock().lock();
+
+        try {
+            if (closed) {
+                return false;
+            }
+
+            Map<Key, Value> current = increments;
+            Value value = current.get(key);
+
+            if (value == null && current.size() < maximumSize) {
+                value = current.computeIfAbsent(key, k -> new Value(metricAccess));
+            }
+
+            if (value == null) {
+                return false;
+            }
+
+            value.amount.add(amount);
+            return true;
+
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /** Writes all increments that have been added so far. */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<Key, Value> flushing;
+
+            swapLock.writeLock().lock();
+
+            try {
+                flushing = increments;
+                increments = new ConcurrentHashMap<>();
+                lastFlush = System.nanoTime();
+
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+
+            if (!flushing.isEmpty()) {
+                write(flushing);
+            }
+        }
+    }
+
+    /**
+     * Flushes and stops the background flushes. Any increments added
+     * afterwards are written through.
+     */
+    public void close() {
+        task.stop();
+
+        swapLock.writeLock().lock();
+
+        try {
+            closed = true;
+
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+
+        flush();
+    }
+
+    // Writes the implicit increments for the current event dates in
+    // batches, since they only touch one row each, and the rest one by
+    // one, since they may need to update the future cumulative amounts.
+    //
+    // The batches run in one transaction, so that they can all be put back
+    // into the buffer if any of them fails. The single writes can't be
+    // rolled back, so only the ones that weren't tried are put back, and
+    // the one that failed is lost rather than risk counting it twice.
+    private void write(Map<Key, Value> flushing) {
+        Stats.Timer timer = STATS.startTimer();
+        Map<String, List<List<Object>>> batchParameters = new LinkedHashMap<>();
+        Map<String, List<Map.Entry<Key, Value>>> batchEntries = new LinkedHashMap<>();
+        List<Map.Entry<Key, Value>> singleEntries = new ArrayList<>();
+        Map<MetricAccess, Set<UUID>> changedIds = new LinkedHashMap<>();
+        List<Map.Entry<Key, Value>> retries = new ArrayList<>();
+        int written = 0;
+        int lost = 0;
+        Exception error = null;
+
+        for (Map.Entry<Key, Value> entry : flushing.entrySet()) {
+            Key key = entry.getKey();
+            Value value = entry.getValue();
+            double amount = value.amount.sum();
+
+            if (amount == 0) {
+                ++ written;
+
+            } else if (key.isImplicitEventDate && key.eventDate == value.metricAccess.getEventDate(null)) {
+                List<Object> parameters = new ArrayList<>();
+                String sql = MetricAccess.Static.getIncrementUpdateSql(database, parameters, key.getId(), key.getTypeId(), key.symbolId, key.getDimensionId(), amount, key.eventDate);
+
+                batchParameters.computeIfAbsent(sql, s -> new ArrayList<>()).add(parameters);
+                batchEntries.computeIfAbsent(sql, s -> new ArrayList<>()).add(entry);
+
+            } else {
+                singleEntries.add(entry);
+            }
+        }
+
+        if (!batchParameters.isEmpty()) {
+            try {
+                List<Map.Entry<Key, Value>> batched = writeBatches(batchParameters, batchEntries, singleEntries);
+
+                written += batched.size();
+
+                for (Map.Entry<Key, Value> entry : batched) {
+                    changedIds.computeIfAbsent(entry.getValue().metricAccess, m -> new LinkedHashSet<>()).add(entry.getKey().getId());
+                }
+
+            } catch (SQLException | RuntimeException batchError) {
+                error = batchError;
+
+                batchEntries.values().forEach(retries::addAll);
+            }
+        }
+
+        for (Map.Entry<Key, Value> entry : singleEntries) {
+            if (error != null) {
+                retries.add(entry);
+                continue;
+            }
+
+            Key key = entry.getKey();
+            Value value = entry.getValue();
+
+            try {
+                MetricAccess.Static.doIncrementUpdateOrInsert(database, key.getId(), key.getTypeId(), key.symbolId, key.getDimensionId(), value.amount.sum(), key.eventDate, key.isImplicitEventDate);
+                ++ written;
+                changedIds.computeIfAbsent(value.metricAccess, m -> new LinkedHashSet<>()).add(key.getId());
+
+            } catch (SQLException | RuntimeException singleError) {
+                error = singleError;
+                ++ lost;
+            }
+        }
+
+        if (error != null) {
+            int retried = 0;
+
+            // Put the increments that are known not to have been written
+            // back so that they're retried on the next flush.
+            for (Map.Entry<Key, Value> entry : retries) {
+                if (buffer(entry.getKey(), entry.getValue().metricAccess, entry.getValue().amount.sum())) {
+                    ++ retried;
+
+                } else {
+                    ++ lost;
+                }
+            }
+
+            LOGGER.warn(String.format("Can't write buffered metric increments! Retrying [%d] and dropping [%d].", retried, lost), error);
+            STATS.startTimer().stop(FAILURE_STATS_OPERATION, lost);
+        }
+
+        timer.stop(FLUSH_STATS_OPERATION, written);
+
+        for (Map.Entry<MetricAccess, Set<UUID>> entry : changedIds.entrySet()) {
+            MetricAccess metricAccess = entry.getKey();
+
+            for (UUID id : entry.getValue()) {
+                try {
+                    metricAccess.afterIncrement(id);
+
+                } catch (RuntimeException afterError) {
+                    LOGGER.warn(String.format("Can't recalculate metric methods on [%s]!", id), afterError);
+                }
+            }
+        }
+    }
+
+    // Runs all batches in one transaction and returns the entries that
+    // were written. The entries without a row for the current event date
+    // yet are moved to the singleEntries so that they fall back to the
+    // insert.
+    private List<Map.Entry<Key, Value>> writeBatches(
+            Map<String, List<List<Object>>> batchParameters,
+            Map<String, List<Map.Entry<Key, Value>>> batchEntries,
+            List<Map.Entry<Key, Value>> singleEntries) throws SQLException {
+
+        List<Map.Entry<Key, Value>> batched = new ArrayList<>();
+        List<Map.Entry<Key, Value>> missing = new ArrayList<>();
+        Connection connection = database.openConnection();
+
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+
+            connection.setAutoCommit(false);
+
+            try {
+                for (Map.Entry<String, List<List<Object>>> batch : batchParameters.entrySet()) {
+                    String sql = batch.getKey();
+                    int[] affected = SqlDatabase.Static.executeBatchUpdate(connection, sql, batch.getValue());
+                    List<Map.Entry<Key, Value>> entries = batchEntries.get(sql);
+
+                    for (int i = 0, size = entries.size(); i < size; ++ i) {
+                        if (affected[i] == 0) {
+                            missing.add(entries.get(i));
+
+                        } else {
+                            batched.add(entries.get(i));
+                        }
+                    }
+                }
+
+                connection.commit();
+
+            } catch (SQLException | RuntimeException error) {
+                try {
+                    connection.rollback();
+
+                } catch (SQLException rollbackError) {
+                    error.addSuppressed(rollbackError);
+                }
+
+                throw error;
+
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+
+        } finally {
+            database.closeConnection(connection);
+        }
+
+        singleEntries.addAll(missing);
+        return batched;
+    }
+
+    private static final class Key {
+
+        private final long idMost;
+        private final long idLeast;
+        private final long typeIdMost;
+        private final long typeIdLeast;
+        private final long dimensionIdMost;
+        private final long dimensionIdLeast;
+        public final int symbolId;
+        public final long eventDate;
+        public final boolean isImplicitEventDate;
+        private final int hashCode;
+
+        public Key(UUID id, UUID typeId, int symbolId, UUID dimensionId, long eventDate, boolean isImplicitEventDate) {
+            this.idMost = id.getMostSignificantBits();
+            this.idLeast = id.getLeastSignificantBits();
+            this.typeIdMost = typeId.getMostSignificantBits();
+            this.typeIdLeast = typeId.getLeastSignificantBits();
+            this.dimensionIdMost = dimensionId.getMostSignificantBits();
+            this.dimensionIdLeast = dimensionId.getLeastSignificantBits();
+            this.symbolId = symbolId;
+            this.eventDate = eventDate;
+            this.isImplicitEventDate = isImplicitEventDate;
+
+            long hash = idMost ^ idLeast;
+
+            hash = hash * 31 + (dimensionIdMost ^ dimensionIdLeast);
+            hash = hash * 31 + symbolId;
+            hash = hash * 31 + eventDate;
+            this.hashCode = (int) (hash ^ (hash >>> 32));
+        }
+
+        public UUID getId() {
+            return new UUID(idMost, idLeast);
+        }
+
+        public UUID getTypeId() {
+            return new UUID(typeIdMost, typeIdLeast);
+        }
+
+        public UUID getDimensionId() {
+            return dimensionIdMost == 0L && dimensionIdLeast == 0L
+                    ? UuidUtils.ZERO_UUID
+                    : new UUID(dimensionIdMost, dimensionIdLeast);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+
+            } else if (other instanceof Key) {
+                Key otherKey = (Key) other;
+
+                return idMost == otherKey.idMost
+                        && idLeast == otherKey.idLeast
+                        && typeIdMost == otherKey.typeIdMost
+                        && typeIdLeast == otherKey.typeIdLeast
+                        && dimensionIdMost == otherKey.dimensionIdMost
+                        && dimensionIdLeast == otherKey.dimensionIdLeast
+                        && symbolId == otherKey.symbolId
+                        && eventDate == otherKey.eventDate
+                        && isImplicitEventDate == otherKey.isImplicitEventDate;
+
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class Value {
+
+        public final MetricAccess metricAccess;
+        public final DoubleAdder amount = new DoubleAdder();
+
+        public Value(MetricAccess metricAccess) {
+            this.metricAccess = metricAccess;
+        }
+    }
+
+    private class FlushTask extends Task {
+
+        public FlushTask(String databaseName) {
+            super(null, "Metric Write Buffer: " + databaseName);
+        }
+
+        @Override
+        protected void doTask() {
+            if (increments.size() >= flushSize
+                    || (System.nanoTime() - lastFlush) / 1e9 >= flushInterval) {
+
+                flush();
+            }
+        }
+    }
+}
@@ -65,6 +65,13 @@ class MySQLBinaryLogEventListener implements EventListener {
         return bytes16;
     }
 
+    // Checks without decoding the entry in the off-heap cache.
+    private boolean isCached(UUID id) {
+        return cache instanceof OffHeapReplicationCache
+                ? ((OffHeapReplicationCache) cache).containsKey(id)
+                : cache.getIfPresent(id) != null;
+    }
+
     private void updateCache(byte[] id, byte[] typeId, byte[] data) {
         id = confirm16Bytes(id);
         if (id != null) {
@@ -78,7 +85,7 @@ class MySQLBinaryLogEventListener implements EventListener {
             database.notifyUpdate(database.createSavedObjectFromReplicationCache((byte[]) value[0], bid, (byte[]) value[1], jsonData, null));
 
             // populate cache
-            if (cache.getIfPresent(bid) != null) {
+            if (isCached(bid)) {
                 cache.put(bid, value);
                 if (LOGGER.isInfoEnabled()) {
                     LOGGER.debug("[BINLOG] UPDATING CACHE: ID [{}]", StringUtils.hex(id));
@@ -91,7 +98,7 @@ class MySQLBinaryLogEventListener implements EventListener {
         id = confirm16Bytes(id);
         if (id != null) {
             UUID bid = ObjectUtils.to(UUID.class, id);
-            if (LOGGER.isInfoEnabled() && cache.getIfPresent(bid) != null) {
+            if (LOGGER.isInfoEnabled() && isCached(bid)) {
                 LOGGER.debug("[BINLOG] DELETING CACHE: ID [{}]", StringUtils.hex(id));
             }
             cache.invalidate(bid);
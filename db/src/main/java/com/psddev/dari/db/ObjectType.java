@@ -1065,11 +1065,12 @@ public class ObjectType extends Record implements ObjectStruct {
     }
 
     /**
-     * Modifies this type definition with the reflection data from the
-     * given {@code modificationClass}.
+     * Remembers whether the given {@code modificationClass} overrides the
+     * {@link Record#afterCreate} method for the object class of this type.
+     * This is normally done in {@link #modify}, but must also be done for
+     * the types that aren't initialized again because they haven't changed.
      */
-    @SuppressWarnings("deprecation")
-    public void modify(Class<?> modificationClass) {
+    void registerAfterCreate(Class<?> modificationClass) {
         if (Modification.class.isAssignableFrom(modificationClass)
                 && Modifier.isAbstract(modificationClass.getModifiers())) {
             return;
@@ -1087,7 +1088,20 @@ public class ObjectType extends Record implements ObjectStruct {
         } catch (NoSuchMethodException error) {
             // No afterCreate method available to run.
         }
+    }
+
+    /**
+     * Modifies this type definition with the reflection data from the
+     * given {@code modificationClass}.
+     */
+    @SuppressWarnings("deprecation")
+    public void modify(Class<?> modificationClass) {
+        if (Modification.class.isAssignableFrom(modificationClass)
+                && Modifier.isAbstract(modificationClass.getModifiers())) {
+            return;
+        }
 
+        registerAfterCreate(modificationClass);
         getModificationClassNames().add(modificationClass.getName());
 
         Database database = getState().getDatabase();
@@ -0,0 +1,178 @@
+package com.psddev.dari.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.xerial.snappy.Snappy;
+
+import com.google.common.cache.AbstractCache;
+import com.psddev.dari.util.UuidUtils;
+
+/**
+ * Replication cache that keeps the raw data outside of the heap, in direct
+ * byte buffers, and that's bounded by the total number of bytes instead of
+ * the number of entries.
+ *
+ * <p>The values are the same {@code [typeIdBytes, data, dataJson]} arrays
+ * that {@link SqlDatabase} uses with its on-heap cache. Only the type ID and
+ * the data are stored, Snappy compressed when that's smaller, and the
+ * {@code dataJson} is unserialized again on every hit.</p>
+ */
+class OffHeapReplicationCache extends AbstractCache<UUID, Object[]> {
+
+    private static final int TYPE_ID_LENGTH = 16;
+    private static final byte RAW_FLAG = 0;
+    private static final byte COMPRESSED_FLAG = 1;
+
+    private final long maximumBytes;
+    private final Map<UUID, ByteBuffer> buffers = new LinkedHashMap<UUID, ByteBuffer>(16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * @param maximumBytes Maximum number of bytes stored outside of the
+     *        heap. Must be positive.
+     */
+    public OffHeapReplicationCache(long maximumBytes) {
+        if (maximumBytes <= 0) {
+            throw new IllegalArgumentException("Maximum bytes must be positive!");
+        }
+
+        this.maximumBytes = maximumBytes;
+    }
+
+    /** Returns the number of bytes currently stored outside of the heap. */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns {@code true} if there's an entry for the given {@code key},
+     * without decoding it like {@link #getIfPresent} would.
+     */
+    public synchronized boolean containsKey(Object key) {
+        return buffers.containsKey(key);
+    }
+
+    @Override
+    public Object[] getIfPresent(Object key) {
+        ByteBuffer buffer;
+
+        synchronized (this) {
+            buffer = buffers.get(key);
+        }
+
+        if (buffer == null) {
+            return null;
+        }
+
+        // Evicted buffers are never modified, so it's safe to read outside
+        // of the lock.
+        buffer = buffer.duplicate();
+        buffer.clear();
+
+        byte[] typeIdBytes = new byte[TYPE_ID_LENGTH];
+        byte flag;
+        byte[] stored;
+
+        buffer.get(typeIdBytes);
+        flag = buffer.get();
+        stored = new byte[buffer.remaining()];
+        buffer.get(stored);
+
+        byte[] data;
+
+        try {
+            data = flag == COMPRESSED_FLAG ? Snappy.uncompress(stored) : stored;
+
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+
+        return new Object[] { typeIdBytes, data, SqlDatabase.unserializeData(data) };
+    }
+
+    @Override
+    public void put(UUID key, Object[] value) {
+        byte[] typeIdBytes = (byte[]) value[0];
+        byte[] data = (byte[]) value[1];
+
+        if (key == null || data == null) {
+            return;
+        }
+
+        if (typeIdBytes == null) {
+            typeIdBytes = UuidUtils.ZERO_BYTES;
+        }
+
+        byte flag = RAW_FLAG;
+        byte[] stored = data;
+
+        // Snappy compressed data starts with 's' and won't shrink further.
+        if (data.length > 0 && data[0] != 's') {
+            try {
+                byte[] compressed = Snappy.compress(data);
+
+                if (compressed.length < data.length) {
+                    flag = COMPRESSED_FLAG;
+                    stored = compressed;
+                }
+
+            } catch (IOException error) {
+                throw new IllegalStateException(error);
+            }
+        }
+
+        int length = TYPE_ID_LENGTH + 1 + stored.length;
+
+        if (length > maximumBytes) {
+            invalidate(key);
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+
+        buffer.put(typeIdBytes, 0, TYPE_ID_LENGTH);
+        buffer.put(flag);
+        buffer.put(stored);
+        buffer.flip();
+
+        synchronized (this) {
+            ByteBuffer old = buffers.put(key, buffer);
+
+            if (old != null) {
+                bytes -= old.capacity();
+            }
+
+            bytes += length;
+
+            for (Iterator<ByteBuffer> i = buffers.values().iterator(); bytes > maximumBytes && i.hasNext();) {
+                bytes -= i.next().capacity();
+                i.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void invalidate(Object key) {
+        ByteBuffer old = buffers.remove(key);
+
+        if (old != null) {
+            bytes -= old.capacity();
+        }
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        buffers.clear();
+        bytes = 0L;
+    }
+
+    @Override
+    public synchronized long size() {
+        return buffers.size();
+    }
+}
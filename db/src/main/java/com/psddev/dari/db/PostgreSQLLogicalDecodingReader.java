@@ -0,0 +1,276 @@
+package com.psddev.dari.db;
+
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.UuidUtils;
+
+/**
+ * Keeps the replication cache up to date by reading the changes to the
+ * {@code Record} table from a PostgreSQL logical replication slot, the same
+ * way {@link MySQLBinaryLogReader} does with the MySQL binary log.
+ *
+ * <p>Each reader creates its own temporary slot using the
+ * {@code test_decoding} plugin, so the server must run with
+ * {@code wal_level = logical} and a free replication slot for every
+ * application server. The slot is dropped automatically when its connection
+ * closes, and the cache is flushed whenever the reader reconnects, since any
+ * changes in between are lost.</p>
+ */
+class PostgreSQLLogicalDecodingReader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PostgreSQLLogicalDecodingReader.class);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final Pattern CHANGE_PATTERN = Pattern.compile("(?i)^table (?:\"?public\"?\\.)?\"?record\"?: (INSERT|UPDATE|DELETE): (.*)$", Pattern.DOTALL);
+    private static final Pattern ID_PATTERN = Pattern.compile("(?i)(?:^|\\s)id\\[uuid\\]:'([0-9a-f\\-]{36})'");
+    private static final Pattern DATA_PATTERN = Pattern.compile("(?i)(?:^|\\s)data\\[bytea\\]:'\\\\x([0-9a-f]*)'");
+
+    private static final int MAXIMUM_CHANGES = 10000;
+    private static final long POLL_INTERVAL = 100L;
+    private static final long RETRY_INTERVAL = 5000L;
+
+    private final SqlDatabase database;
+    private final Cache<UUID, Object[]> cache;
+    private final DataSource dataSource;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean connected;
+    private volatile Thread thread;
+
+    public PostgreSQLLogicalDecodingReader(SqlDatabase database, Cache<UUID, Object[]> cache, DataSource dataSource) {
+        this.database = database;
+        this.cache = cache;
+        this.dataSource = dataSource;
+    }
+
+    public void start() {
+        if (running.compareAndSet(false, true)) {
+            Thread readThread = new Thread() {
+
+                @Override
+                public void run() {
+                    read();
+                }
+            };
+
+            readThread.setName("PostgreSQL Logical Decoding Reader");
+            readThread.setDaemon(true);
+            thread = readThread;
+            readThread.start();
+        }
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public boolean isConnected() {
+        return isRunning() && connected;
+    }
+
+    public void stop() {
+        if (running.compareAndSet(true, false)) {
+            Thread readThread = thread;
+
+            if (readThread != null) {
+                readThread.interrupt();
+            }
+        }
+    }
+
+    // Reads the changes until stopped, reconnecting after any errors.
+    private void read() {
+        while (isRunning()) {
+            Connection connection = null;
+
+            try {
+                connection = dataSource.getConnection();
+                connection.setAutoCommit(true);
+
+                String slot = createSlot(connection);
+
+                cache.invalidateAll();
+                connected = true;
+                LOGGER.info("Reading PostgreSQL logical replication slot [{}]", slot);
+
+                while (isRunning()) {
+                    if (readChanges(connection, slot) == 0) {
+                        Thread.sleep(POLL_INTERVAL);
+                    }
+                }
+
+            } catch (InterruptedException error) {
+                break;
+
+            } catch (SQLException | RuntimeException error) {
+                if (isRunning()) {
+                    LOGGER.warn("Can't read PostgreSQL logical replication slot!", error);
+                }
+
+            } finally {
+                connected = false;
+                cache.invalidateAll();
+
+                if (connection != null) {
+                    try {
+                        connection.close();
+
+                    } catch (SQLException error) {
+                        // Not likely and probably harmless.
+                    }
+                }
+            }
+
+            try {
+                Thread.sleep(RETRY_INTERVAL);
+
+            } catch (InterruptedException error) {
+                break;
+            }
+        }
+
+        LOGGER.info("Stopped reading PostgreSQL logical replication slot");
+    }
+
+    // Creates a temporary slot that's tied to the given connection.
+    private String createSlot(Connection connection) throws SQLException {
+        String slot = "dari_" + Long.toHexString(RANDOM.nextLong() & Long.MAX_VALUE);
+
+        try (PreparedStatement statement = connection.prepareStatement("SELECT * FROM pg_create_logical_replication_slot(?, 'test_decoding', true)")) {
+            statement.setString(1, slot);
+            statement.executeQuery().close();
+        }
+
+        return slot;
+    }
+
+    // Consumes the pending changes from the slot and returns how many there
+    // were.
+    private int readChanges(Connection connection, String slot) throws SQLException {
+        int count = 0;
+
+        try (PreparedStatement statement = connection.prepareStatement("SELECT data FROM pg_logical_slot_get_changes(?, NULL, ?)")) {
+            statement.setString(1, slot);
+            statement.setInt(2, MAXIMUM_CHANGES);
+
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    ++ count;
+                    processChange(result.getString(1));
+                }
+            }
+        }
+
+        return count;
+    }
+
+    // Processes a single line of the test_decoding output.
+    private void processChange(String line) {
+        Change change = parseChange(line);
+
+        if (change == null) {
+            return;
+        }
+
+        UUID id = change.id;
+
+        if (change.data == null) {
+            LOGGER.debug("[LOGICAL] DELETING CACHE: ID [{}]", id);
+            cache.invalidate(id);
+            return;
+        }
+
+        byte[] data = change.data;
+        Map<String, Object> dataJson = SqlDatabase.unserializeData(data);
+        byte[] typeId = UuidUtils.toBytes(ObjectUtils.to(UUID.class, dataJson.get(StateValueUtils.TYPE_KEY)));
+
+        database.notifyUpdate(database.createSavedObjectFromReplicationCache(typeId, id, data, dataJson, null));
+
+        if (cache instanceof OffHeapReplicationCache
+                ? ((OffHeapReplicationCache) cache).containsKey(id)
+                : cache.getIfPresent(id) != null) {
+
+            LOGGER.debug("[LOGICAL] UPDATING CACHE: ID [{}]", id);
+            cache.put(id, new Object[] { typeId, data, dataJson });
+        }
+    }
+
+    /**
+     * Parses a single line of the {@code test_decoding} output, which looks
+     * like: {@code table public.record: UPDATE: id[uuid]:'...' typeid[uuid]:'...' data[bytea]:'\x...'}.
+     *
+     * @return {@code null} if the line isn't about a {@code Record} row.
+     */
+    static Change parseChange(String line) {
+        if (line == null) {
+            return null;
+        }
+
+        Matcher changeMatcher = CHANGE_PATTERN.matcher(line);
+
+        if (!changeMatcher.matches()) {
+            return null;
+        }
+
+        String action = changeMatcher.group(1);
+        String columns = changeMatcher.group(2);
+        Matcher idMatcher = ID_PATTERN.matcher(columns);
+
+        if (!idMatcher.find()) {
+            return null;
+        }
+
+        UUID id = ObjectUtils.to(UUID.class, idMatcher.group(1));
+
+        if (id == null) {
+            return null;
+        }
+
+        Matcher dataMatcher = DATA_PATTERN.matcher(columns);
+
+        return new Change(id, !"DELETE".equalsIgnoreCase(action) && dataMatcher.find()
+                ? hexToBytes(dataMatcher.group(1))
+                : null);
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+
+        for (int i = 0, length = bytes.length; i < length; ++ i) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Change to a {@code Record} row. The data is {@code null} if the row
+     * was deleted or if the change didn't include it, and the cached entry
+     * should be invalidated.
+     */
+    static final class Change {
+
+        public final UUID id;
+        public final byte[] data;
+
+        public Change(UUID id, byte[] data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+}
@@ -1,17 +1,19 @@
 package com.psddev.dari.db;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.psddev.dari.util.CollectionUtils;
 import com.psddev.dari.util.ObjectUtils;
 
@@ -43,6 +45,10 @@ import com.psddev.dari.util.ObjectUtils;
  * <li>{@value MATCHES_ANY_OPERATOR}
  * <li>{@value MATCHES_ALL_OPERATOR}
  * </ul>
+ *
+ * <p>Parsed predicate strings are cached as templates, so that parsing the
+ * same string again only binds the new parameters. Evaluated predicates are
+ * likewise cached in a {@linkplain #compile compiled} form.</p>
  */
 public class PredicateParser {
 
@@ -63,6 +69,13 @@ public class PredicateParser {
     public static final String MATCHES_EXACT_ANY_OPERATOR = "matchesexactany";
     public static final String MATCHES_EXACT_ALL_OPERATOR = "matchesexactall";
 
+    private static final long TEMPLATE_CACHE_SIZE = 10000L;
+    private static final long COMPILED_CACHE_SIZE = 1000L;
+    private static final Template NULL_TEMPLATE = parameters -> null;
+
+    private final Cache<String, Template> templates = CacheBuilder.newBuilder().maximumSize(TEMPLATE_CACHE_SIZE).build();
+    private final Cache<Predicate, Compiled> compiledPredicates = CacheBuilder.newBuilder().weakKeys().maximumSize(COMPILED_CACHE_SIZE).build();
+
     private final Map<String, String> compoundOperators; {
         Map<String, String> m = new ConcurrentHashMap<String, String>();
 
@@ -183,7 +196,26 @@ public class PredicateParser {
             return null;
         }
 
-        Queue<String> tokens = new LinkedList<String>();
+        Template template = templates.getIfPresent(predicateString);
+
+        if (template == null) {
+            template = readTemplate(predicateString);
+            templates.put(predicateString, template);
+        }
+
+        return template.bind(new ParameterList(parameters));
+    }
+
+    // Parsed predicate string that creates a new predicate object with the
+    // given parameters bound to it. The parameters must be consumed in the
+    // same order as they appear in the string.
+    private interface Template {
+
+        Predicate bind(ParameterList parameters);
+    }
+
+    private Template readTemplate(String predicateString) {
+        Queue<String> tokens = new ArrayDeque<String>();
 
         char[] predicateChars = predicateString.toCharArray();
         for (int i = 0, length = predicateChars.length; i < length; ++ i) {
@@ -231,7 +263,9 @@ public class PredicateParser {
             tokens.add(tokenBuilder.toString());
         }
 
-        return readPredicate(tokens, new ParameterList(parameters));
+        Template template = readPredicate(tokens);
+
+        return template != null ? template : NULL_TEMPLATE;
     }
 
     @SuppressWarnings("serial")
@@ -257,10 +291,10 @@ public class PredicateParser {
     }
 
     // Reads: group (compoundOperator group)*
-    private Predicate readPredicate(Queue<String> tokens, ParameterList parameters) {
-        Predicate predicate = readGroup(tokens, parameters);
+    private Template readPredicate(Queue<String> tokens) {
+        Template template = readGroup(tokens);
 
-        if (predicate != null) {
+        if (template != null) {
             for (String operator; (operator = tokens.peek()) != null;) {
 
                 operator = operator.toLowerCase(Locale.ENGLISH);
@@ -270,43 +304,50 @@ public class PredicateParser {
                 }
 
                 tokens.remove();
-                predicate = CompoundPredicate.combine(
+
+                Template left = template;
+                Template right = readGroup(tokens);
+
+                template = parameters -> CompoundPredicate.combine(
                         compoundOperator,
-                        predicate,
-                        readGroup(tokens, parameters));
+                        left.bind(parameters),
+                        right != null ? right.bind(parameters) : null);
             }
         }
 
-        return predicate;
+        return template;
     }
 
     // Reads: '(' predicate ')'
-    private Predicate readGroup(Queue<String> tokens, ParameterList parameters) {
-        Predicate predicate = null;
+    private Template readGroup(Queue<String> tokens) {
+        Template template = null;
         String nextToken = tokens.peek();
 
         if ("(".equals(nextToken)) {
             tokens.remove();
-            predicate = readPredicate(tokens, parameters);
-            if (predicate == null) {
+            template = readPredicate(tokens);
+            if (template == null) {
                 throw new IllegalArgumentException("Empty group!");
             } else if (!")".equals(tokens.poll())) {
                 throw new IllegalArgumentException(String.format(
-                        "Unmatched ( after [%s]!", predicate));
+                        "Unmatched ( after [%s]!", template.bind(new ParameterList())));
             }
 
         } else if ("not".equals(nextToken)
                 || NOT_OPERATOR.equals(nextToken)) {
             tokens.remove();
-            predicate = new CompoundPredicate(
+
+            Template child = readGroup(tokens);
+
+            template = parameters -> new CompoundPredicate(
                     NOT_OPERATOR,
-                    Arrays.asList(readGroup(tokens, parameters)));
+                    Arrays.asList(child != null ? child.bind(parameters) : null));
 
         } else {
-            predicate = readComparison(tokens, parameters);
+            template = readComparison(tokens);
         }
 
-        return predicate;
+        return template;
     }
 
     // Reads: value | '[' value1, value2, valueN ']'
@@ -341,7 +382,7 @@ public class PredicateParser {
     }
 
     // Reads: key operator value
-    private Predicate readComparison(Queue<String> tokens, ParameterList parameters) {
+    private Template readComparison(Queue<String> tokens) {
         String key = tokens.poll();
         if (key == null) {
             return null;
@@ -366,6 +407,8 @@ public class PredicateParser {
         }
 
         Object value = readValue(tokens);
+        Function<ParameterList, Object> parameter = null;
+
         if (value == null) {
             throw new IllegalArgumentException(String.format(
                     "No value after [%s] key and [%s] operator!",
@@ -376,7 +419,7 @@ public class PredicateParser {
 
             if (valueString.startsWith("?")) {
                 if (valueString.length() == 1) {
-                    value = parameters.poll();
+                    parameter = ParameterList::poll;
 
                 } else {
                     String path = valueString.substring(1);
@@ -411,20 +454,27 @@ public class PredicateParser {
                                 valueString.substring(1 + indexString.length())));
                     }
 
-                    // Obtain parameter from the specified ParameterList using the parameter index.
-                    value = index < parameters.size() ? parameters.get(index) : null;
+                    String parameterPath = path;
+
+                    parameter = parameters -> {
 
-                    if (value != null && path.length() > 0) {
+                        // Obtain parameter from the specified ParameterList using the parameter index.
+                        Object indexed = index < parameters.size() ? parameters.get(index) : null;
 
-                        // Produce a value using the specified parameter and path.
-                        if (value instanceof State) {
-                            value = ((State) value).getByPath(path);
-                        } else if (value instanceof Recordable) {
-                            value = ((Recordable) value).getState().getByPath(path);
-                        } else {
-                            value = CollectionUtils.getByPath(value, path);
+                        if (indexed != null && parameterPath.length() > 0) {
+
+                            // Produce a value using the specified parameter and path.
+                            if (indexed instanceof State) {
+                                indexed = ((State) indexed).getByPath(parameterPath);
+                            } else if (indexed instanceof Recordable) {
+                                indexed = ((Recordable) indexed).getState().getByPath(parameterPath);
+                            } else {
+                                indexed = CollectionUtils.getByPath(indexed, parameterPath);
+                            }
                         }
-                    }
+
+                        return indexed;
+                    };
                 }
 
             } else if ("true".equalsIgnoreCase(valueString)) {
@@ -443,20 +493,28 @@ public class PredicateParser {
 
         String comparisonOperator = getComparisonOperators().get(operator);
         if (comparisonOperator != null) {
-
-            if (value instanceof State) {
-                return new ComparisonPredicate(
-                        comparisonOperator,
-                        isIgnoreCase,
-                        key,
-                        Collections.singleton(value));
-            } else {
-                return new ComparisonPredicate(
-                        comparisonOperator,
-                        isIgnoreCase,
-                        key,
-                        ObjectUtils.to(Iterable.class, value));
-            }
+            String comparisonKey = key;
+            boolean comparisonIgnoreCase = isIgnoreCase;
+            Object literal = value;
+            Function<ParameterList, Object> comparisonParameter = parameter;
+
+            return parameters -> {
+                Object bound = comparisonParameter != null ? comparisonParameter.apply(parameters) : literal;
+
+                if (bound instanceof State) {
+                    return new ComparisonPredicate(
+                            comparisonOperator,
+                            comparisonIgnoreCase,
+                            comparisonKey,
+                            Collections.singleton(bound));
+                } else {
+                    return new ComparisonPredicate(
+                            comparisonOperator,
+                            comparisonIgnoreCase,
+                            comparisonKey,
+                            ObjectUtils.to(Iterable.class, bound));
+                }
+            };
 
         } else {
             throw new IllegalArgumentException(String.format(
@@ -474,19 +532,195 @@ public class PredicateParser {
      * operator isn't supported.
      */
     public boolean evaluate(Object object, Predicate predicate) {
+        return predicate == null || compile(predicate).evaluate(object);
+    }
+
+    /**
+     * Compiles the given {@code predicate} into a form that can be
+     * evaluated repeatedly, e.g. to filter many objects in memory, without
+     * looking up the evaluators or converting the comparison values again.
+     * The compiled forms are cached for as long as the predicates are in use.
+     *
+     * @param predicate If {@code null}, the compiled form always matches.
+     * @return Never {@code null}.
+     */
+    public Compiled compile(Predicate predicate) {
         if (predicate == null) {
-            return true;
+            return object -> true;
+        }
+
+        Compiled compiled = compiledPredicates.getIfPresent(predicate);
+
+        if (compiled == null) {
+            compiled = compileUncached(predicate);
+            compiledPredicates.put(predicate, compiled);
         }
 
+        return compiled;
+    }
+
+    private Compiled compileUncached(Predicate predicate) {
         String operator = predicate.getOperator();
         Evaluator evaluator = evaluators.get(operator);
 
-        if (evaluator == null) {
-            throw new UnsupportedOperationException(String.format(
-                    "[%s] operator not supported!", operator));
+        if (evaluator != null && predicate instanceof CompoundPredicate) {
+            List<Predicate> children = ((CompoundPredicate) predicate).getChildren();
+            Compiled[] compiledChildren = new Compiled[children.size()];
+
+            for (int i = 0, size = compiledChildren.length; i < size; ++ i) {
+                Predicate child = children.get(i);
+                compiledChildren[i] = child != null ? compileUncached(child) : object -> true;
+            }
+
+            Class<?> evaluatorClass = evaluator.getClass();
+
+            if (evaluatorClass == AndEvaluator.class) {
+                return new CompiledPredicate(this, predicate, evaluator) {
+
+                    @Override
+                    protected boolean evaluateCompiled(Object object) {
+                        for (Compiled child : compiledChildren) {
+                            if (!child.evaluate(object)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                };
+
+            } else if (evaluatorClass == OrEvaluator.class || evaluatorClass == NotEvaluator.class) {
+                boolean not = evaluatorClass == NotEvaluator.class;
+
+                return new CompiledPredicate(this, predicate, evaluator) {
+
+                    @Override
+                    protected boolean evaluateCompiled(Object object) {
+                        for (Compiled child : compiledChildren) {
+                            if (child.evaluate(object)) {
+                                return !not;
+                            }
+                        }
+                        return not;
+                    }
+                };
+            }
+
+        } else if (evaluator instanceof ComparisonEvaluator && predicate instanceof ComparisonPredicate) {
+            return new CompiledComparison(this, (ComparisonPredicate) predicate, (ComparisonEvaluator) evaluator);
+        }
+
+        return new CompiledPredicate(this, predicate, evaluator) {
+
+            @Override
+            protected boolean evaluateCompiled(Object object) {
+                return evaluator.evaluate(parser, object, predicate);
+            }
+        };
+    }
+
+    /** Compiled form of a predicate. */
+    @FunctionalInterface
+    public interface Compiled {
+
+        /** Returns {@code true} if the given {@code object} matches. */
+        boolean evaluate(Object object);
+    }
+
+    // Uses the compiled form as long as the evaluator for the operator
+    // hasn't been changed since the predicate was compiled.
+    private abstract static class CompiledPredicate implements Compiled {
+
+        protected final PredicateParser parser;
+        protected final Predicate predicate;
+        protected final Evaluator evaluator;
+
+        public CompiledPredicate(PredicateParser parser, Predicate predicate, Evaluator evaluator) {
+            this.parser = parser;
+            this.predicate = predicate;
+            this.evaluator = evaluator;
+        }
+
+        @Override
+        public boolean evaluate(Object object) {
+            String operator = predicate.getOperator();
+            Evaluator current = parser.getEvaluators().get(operator);
+
+            if (current == null) {
+                throw new UnsupportedOperationException(String.format(
+                        "[%s] operator not supported!", operator));
+
+            } else if (current != evaluator) {
+                return current.evaluate(parser, object, predicate);
+
+            } else {
+                return evaluateCompiled(object);
+            }
         }
 
-        return evaluator.evaluate(this, object, predicate);
+        protected abstract boolean evaluateCompiled(Object object);
+    }
+
+    // Keeps the comparison values that have been resolved against the last
+    // database, unless they contain sub-queries, along with their
+    // conversions to the types of the key values.
+    private static class CompiledComparison extends CompiledPredicate {
+
+        private final boolean resolveAlways;
+        private volatile ResolvedValues resolved;
+
+        public CompiledComparison(PredicateParser parser, ComparisonPredicate comparison, ComparisonEvaluator evaluator) {
+            super(parser, comparison, evaluator);
+
+            boolean resolveAlways = false;
+
+            for (Object value : comparison.getValues()) {
+                if (value instanceof Query) {
+                    resolveAlways = true;
+                    break;
+                }
+            }
+
+            this.resolveAlways = resolveAlways;
+        }
+
+        @Override
+        protected boolean evaluateCompiled(Object object) {
+            State state = State.getInstance(object);
+            ComparisonPredicate comparison = (ComparisonPredicate) predicate;
+
+            if (ComparisonEvaluator.isAnyWildcard(comparison)) {
+                return true;
+            }
+
+            Database database = state.getDatabase();
+            ResolvedValues values = resolved;
+
+            if (values == null || values.database != database) {
+                values = new ResolvedValues(database, comparison.resolveValues(database));
+
+                if (!resolveAlways) {
+                    resolved = values;
+                }
+            }
+
+            return ((ComparisonEvaluator) evaluator).evaluate(state, comparison, values.values, values::convert);
+        }
+    }
+
+    private static class ResolvedValues {
+
+        public final Database database;
+        public final List<Object> values;
+        private final Map<Class<?>, List<Object>> converted = new ConcurrentHashMap<>();
+
+        public ResolvedValues(Database database, List<Object> values) {
+            this.database = database;
+            this.values = values;
+        }
+
+        public List<Object> convert(Class<?> valueClass) {
+            return converted.computeIfAbsent(valueClass, c -> ComparisonEvaluator.convert(values, c));
+        }
     }
 
     public interface Evaluator {
@@ -534,50 +768,69 @@ public class PredicateParser {
         public final boolean evaluate(PredicateParser parser, Object object, Predicate predicate) {
             State state = State.getInstance(object);
             ComparisonPredicate comparison = (ComparisonPredicate) predicate;
+
+            if (isAnyWildcard(comparison)) {
+                return true;
+            }
+
+            List<Object> values = comparison.resolveValues(state.getDatabase());
+
+            return evaluate(state, comparison, values, c -> convert(values, c));
+        }
+
+        public static boolean isAnyWildcard(ComparisonPredicate comparison) {
+            return Query.ANY_KEY.equals(comparison.getKey())
+                    && Collections.singletonList("*").equals(comparison.getValues());
+        }
+
+        public static List<Object> convert(List<Object> values, Class<?> valueClass) {
+            List<Object> converted = new ArrayList<>(values.size());
+
+            for (Object value : values) {
+                converted.add(ObjectUtils.to(valueClass, value));
+            }
+
+            return converted;
+        }
+
+        // Compares the key value against the given values, which are
+        // converted to the types of the key values by the given converter.
+        public boolean evaluate(State state, ComparisonPredicate comparison, List<Object> values, Function<Class<?>, List<Object>> converter) {
             Object keyValue;
 
             if (Query.ANY_KEY.equals(comparison.getKey())) {
-                if (Collections.singletonList("*").equals(comparison.getValues())) {
-                    return true;
-                }
-                List<Object> values = new ArrayList<Object>();
+                List<Object> indexValues = new ArrayList<Object>();
                 for (ObjectIndex index : state.getIndexes()) {
                     for (String field : index.getFields()) {
-                        values.add(state.getByPath(field));
+                        indexValues.add(state.getByPath(field));
                     }
                 }
-                keyValue = values;
+                keyValue = indexValues;
 
             } else {
                 keyValue = state.getByPath(comparison.getKey());
             }
 
-            List<Object> values = comparison.resolveValues(state.getDatabase());
-
             if (ObjectUtils.isBlank(keyValue)) {
                 keyValue = Query.MISSING_VALUE;
                 return compare(state, keyValue, values);
 
             } else if (keyValue instanceof Iterable) {
                 for (Object item : (Iterable<?>) keyValue) {
-                    List<Object> valuesCopy = new ArrayList<>(values);
-                    if (evaluateOne(state, item, valuesCopy)) {
+                    if (evaluateOne(state, item, values, converter)) {
                         return true;
                     }
                 }
                 return false;
 
             } else {
-                return evaluateOne(state, keyValue, values);
+                return evaluateOne(state, keyValue, values, converter);
             }
         }
 
-        private boolean evaluateOne(State state, Object keyValue, List<Object> values) {
+        private boolean evaluateOne(State state, Object keyValue, List<Object> values, Function<Class<?>, List<Object>> converter) {
             if (!(keyValue instanceof Recordable || keyValue instanceof UUID) && keyValue != null) {
-                Class<?> keyValueClass = keyValue.getClass();
-                for (ListIterator<Object> i = values.listIterator(); i.hasNext();) {
-                    i.set(ObjectUtils.to(keyValueClass, i.next()));
-                }
+                values = converter.apply(keyValue.getClass());
             }
             return compare(state, keyValue, values);
         }
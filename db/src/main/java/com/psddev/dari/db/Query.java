@@ -1537,6 +1537,97 @@ public class Query<E> extends Record {
         return getDatabase().readPartial(this, offset, limit);
     }
 
+    /**
+     * Returns a partial list of all objects matching this query that come
+     * after the given {@code keyset} in the sort order, up to the given
+     * {@code limit}, in a {@linkplain #getDatabase database}.
+     *
+     * <p>Unlike {@link #select(long, int)}, this seeks to the start of the
+     * page using the sort key values instead of skipping over the rows, so
+     * the cost doesn't grow with the page number. Only ascending and
+     * descending sorters are allowed, and the sorted fields must not be
+     * {@code null}. The ID is always used as the final tiebreaker.</p>
+     *
+     * @param keyset If {@code null}, returns the first page. Otherwise, must
+     * be the result of {@link KeysetPaginatedResult#getNextKeyset} from the
+     * previous page.
+     * @param limit Must be greater than {@code 0}.
+     */
+    public KeysetPaginatedResult<E> selectAfter(List<?> keyset, int limit) {
+        Query<E> keysetQuery = clone();
+        List<Sorter> sorters = keysetQuery.getSorters();
+        List<String> keys = new ArrayList<String>();
+        List<Boolean> ascendings = new ArrayList<Boolean>();
+
+        for (Sorter sorter : sorters) {
+            String operator = sorter.getOperator();
+            boolean ascending = Sorter.ASCENDING_OPERATOR.equals(operator);
+
+            if (!ascending && !Sorter.DESCENDING_OPERATOR.equals(operator)) {
+                throw new IllegalArgumentException(String.format(
+                        "Keyset pagination doesn't support [%s] sorter!", operator));
+            }
+
+            keys.add((String) sorter.getOptions().get(0));
+            ascendings.add(ascending);
+        }
+
+        if (keys.isEmpty() || !ID_KEY.equals(keys.get(keys.size() - 1))) {
+            sorters.add(new Sorter(Sorter.ASCENDING_OPERATOR, Collections.singletonList(ID_KEY)));
+            keys.add(ID_KEY);
+            ascendings.add(Boolean.TRUE);
+        }
+
+        if (keyset != null) {
+            if (keyset.size() != keys.size()) {
+                throw new IllegalArgumentException(String.format(
+                        "Keyset must have [%s] values but has [%s]!", keys.size(), keyset.size()));
+            }
+
+            // (k0 > v0) OR (k0 = v0 AND k1 > v1) OR ... which is the same as
+            // (k0, k1, ...) > (v0, v1, ...) but also works when the sort
+            // directions are mixed.
+            List<Predicate> seeks = new ArrayList<Predicate>();
+
+            for (int i = 0, size = keys.size(); i < size; ++ i) {
+                List<Predicate> parts = new ArrayList<Predicate>();
+
+                for (int j = 0; j < i; ++ j) {
+                    parts.add(new ComparisonPredicate(
+                            PredicateParser.EQUALS_ANY_OPERATOR,
+                            false,
+                            keys.get(j),
+                            Collections.singletonList(keyset.get(j))));
+                }
+
+                parts.add(new ComparisonPredicate(
+                        ascendings.get(i) ? PredicateParser.GREATER_THAN_OPERATOR : PredicateParser.LESS_THAN_OPERATOR,
+                        false,
+                        keys.get(i),
+                        Collections.singletonList(keyset.get(i))));
+
+                seeks.add(parts.size() == 1 ? parts.get(0) : new CompoundPredicate(PredicateParser.AND_OPERATOR, parts));
+            }
+
+            keysetQuery.and(seeks.size() == 1 ? seeks.get(0) : new CompoundPredicate(PredicateParser.OR_OPERATOR, seeks));
+        }
+
+        PaginatedResult<E> result = keysetQuery.select(0, limit);
+        List<E> items = result.getItems();
+        List<Object> nextKeyset = null;
+
+        if (result.hasNext() && !items.isEmpty()) {
+            State last = State.getInstance(items.get(items.size() - 1));
+            nextKeyset = new ArrayList<Object>();
+
+            for (String key : keys) {
+                nextKeyset.add(ID_KEY.equals(key) ? last.getId() : last.getByPath(key));
+            }
+        }
+
+        return new KeysetPaginatedResult<E>(this, limit, items, nextKeyset);
+    }
+
     /**
      * Returns a list of all objects matching this query in a
      * {@linkplain #getDatabase database}.
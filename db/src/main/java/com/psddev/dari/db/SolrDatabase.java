@@ -13,11 +13,20 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,10 +43,12 @@ import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.apache.solr.common.params.MoreLikeThisParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.psddev.dari.util.Lazy;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.PaginatedResult;
@@ -79,6 +90,12 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
     public static final String NORMALIZED_SCORE_EXTRA = "solr.normalizedScore";
 
     private static final int INITIAL_FETCH_SIZE = 100;
+
+    private static final Pattern ID_SORT_PATTERN = Pattern.compile("(?:^|,)\\s*" + ID_FIELD + "\\s+(?:asc|desc)\\s*$");
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("Solr Cursor Prefetch %d")
+            .build());
     private static final Logger LOGGER = LoggerFactory.getLogger(SolrDatabase.class);
     private static final Pattern UUID_PATTERN = Pattern.compile("([A-Fa-f0-9]{8})-([A-Fa-f0-9]{4})-([A-Fa-f0-9]{4})-([A-Fa-f0-9]{4})-([A-Fa-f0-9]{12})");
 
@@ -1137,9 +1154,7 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
         List<T> objects = new ArrayList<T>();
         if (documents != null) {
             count = documents.getNumFound();
-            for (SolrDocument document : documents) {
-                objects.add(createSavedObjectWithDocument(document, documents, query));
-            }
+            objects = createSavedObjectsWithDocuments(documents, query);
         }
 
         return new SolrPaginatedResult<T>(
@@ -1161,13 +1176,53 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
         return queryPartialWithOptions(solrQuery, null);
     }
 
+    /**
+     * Creates previously saved objects using the given {@code documents},
+     * reading the data for the ones without it in {@link #DATA_FIELD} from
+     * their originating databases all at once.
+     */
+    private <T> List<T> createSavedObjectsWithDocuments(
+            SolrDocumentList documents,
+            Query<T> query) {
+
+        List<T> objects = new ArrayList<T>();
+        Map<Database, Map<UUID, State>> missingStatesByDatabase = new HashMap<Database, Map<UUID, State>>();
+
+        for (SolrDocument document : documents) {
+            objects.add(createSavedObjectWithDocument(document, documents, query, missingStatesByDatabase));
+        }
+
+        for (Map.Entry<Database, Map<UUID, State>> entry : missingStatesByDatabase.entrySet()) {
+            Map<UUID, State> missingStates = entry.getValue();
+
+            for (Object original : entry.getKey().readAll(Query.from(Object.class).where("_id = ?", missingStates.keySet()))) {
+                State originalState = State.getInstance(original);
+                State missingState = missingStates.get(originalState.getId());
+
+                if (missingState != null) {
+                    missingState.setValues(originalState.getSimpleValues());
+                }
+            }
+        }
+
+        for (ListIterator<T> i = objects.listIterator(); i.hasNext();) {
+            i.set(swapObjectType(query, i.next()));
+        }
+
+        return objects;
+    }
+
     /**
      * Creates a previously saved object using the given {@code document}.
+     * If the document doesn't have the data, the object state is put into
+     * the given {@code missingStatesByDatabase} instead, and the type isn't
+     * swapped until the data is set.
      */
     private <T> T createSavedObjectWithDocument(
             SolrDocument document,
             SolrDocumentList documents,
-            Query<T> query) {
+            Query<T> query,
+            Map<Database, Map<UUID, State>> missingStatesByDatabase) {
 
         T object = createSavedObject(document.get(TYPE_ID_FIELD), document.get(ID_FIELD), query);
         State objectState = State.getInstance(object);
@@ -1176,11 +1231,16 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
             String data = (String) document.get(DATA_FIELD);
 
             if (ObjectUtils.isBlank(data)) {
-                Object original = objectState.getDatabase().readFirst(Query.from(Object.class).where("_id = ?", objectState.getId()));
-                if (original != null) {
-                    objectState.setValues(State.getInstance(original).getSimpleValues());
+                Database database = objectState.getDatabase();
+                Map<UUID, State> missingStates = missingStatesByDatabase.get(database);
+
+                if (missingStates == null) {
+                    missingStates = new LinkedHashMap<UUID, State>();
+                    missingStatesByDatabase.put(database, missingStates);
                 }
 
+                missingStates.put(objectState.getId(), objectState);
+
             } else {
                 @SuppressWarnings("unchecked")
                 Map<String, Object> values = (Map<String, Object>) ObjectUtils.fromJson(data);
@@ -1197,7 +1257,7 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
             extras.put(NORMALIZED_SCORE_EXTRA, ((Number) score).floatValue() / maxScore);
         }
 
-        return swapObjectType(query, object);
+        return object;
     }
 
     /** Commits all pending writes in the underlying Solr server. */
@@ -1332,13 +1392,137 @@ public class SolrDatabase extends AbstractDatabase<SolrServer> {
         solrQuery.setRows(1);
         SolrDocumentList documents = queryWithOptions(solrQuery, query).getResults();
         if (documents != null) {
-            for (SolrDocument document : documents) {
-                return createSavedObjectWithDocument(document, documents, query);
+            for (T object : createSavedObjectsWithDocuments(documents, query)) {
+                return object;
             }
         }
         return null;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation pages through the results using the Solr
+     * {@code cursorMark}, so that reading deep into the results doesn't get
+     * slower, and fetches the next page in the background while the current
+     * one is being consumed.</p>
+     */
+    @Override
+    public <T> Iterable<T> readIterable(final Query<T> query, final int fetchSize) {
+        return new Iterable<T>() {
+
+            @Override
+            public Iterator<T> iterator() {
+                return new CursorIterator<T>(query, fetchSize);
+            }
+        };
+    }
+
+    private class CursorIterator<T> implements Iterator<T> {
+
+        private final Query<T> query;
+        private final SolrQuery solrQuery;
+        private String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+        private Future<QueryResponse> nextResponse;
+        private List<T> items;
+        private int index;
+
+        public CursorIterator(Query<T> query, int fetchSize) {
+            this.query = query;
+            this.solrQuery = buildQuery(query);
+
+            solrQuery.setStart(0);
+            solrQuery.setRows(fetchSize > 0 ? fetchSize : INITIAL_FETCH_SIZE);
+
+            // Cursor requires the unique key as the final tiebreaker.
+            String sort = solrQuery.get(CommonParams.SORT);
+
+            if (sort == null || !ID_SORT_PATTERN.matcher(sort).find()) {
+                solrQuery.addSortField(ID_FIELD, SolrQuery.ORDER.asc);
+            }
+
+            nextResponse = prefetch();
+        }
+
+        // Starts reading the page at the current cursor mark in the
+        // background.
+        private Future<QueryResponse> prefetch() {
+            final SolrQuery pageQuery = solrQuery.getCopy();
+
+            pageQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+
+            return PREFETCH_EXECUTOR.submit(new Callable<QueryResponse>() {
+
+                @Override
+                public QueryResponse call() {
+                    return queryWithOptions(pageQuery, query);
+                }
+            });
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (items == null || index >= items.size()) {
+                if (nextResponse == null) {
+                    return false;
+                }
+
+                QueryResponse response;
+
+                try {
+                    response = nextResponse.get();
+
+                } catch (ExecutionException error) {
+                    Throwable cause = error.getCause();
+
+                    throw cause instanceof RuntimeException
+                            ? (RuntimeException) cause
+                            : new DatabaseException(SolrDatabase.this, cause);
+
+                } catch (InterruptedException error) {
+                    Thread.currentThread().interrupt();
+                    throw new DatabaseException(SolrDatabase.this, error);
+                }
+
+                SolrDocumentList documents = response.getResults();
+                String nextCursorMark = response.getNextCursorMark();
+
+                nextResponse = null;
+
+                if (documents == null || documents.isEmpty()) {
+                    return false;
+                }
+
+                // Same cursor mark means that there aren't any more pages.
+                if (nextCursorMark != null && !nextCursorMark.equals(cursorMark)) {
+                    cursorMark = nextCursorMark;
+                    nextResponse = prefetch();
+                }
+
+                items = createSavedObjectsWithDocuments(documents, query);
+                index = 0;
+            }
+
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            T item = items.get(index);
+            ++ index;
+            return item;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     @Override
     public Date readLastUpdate(Query<?> query) {
         throw new UnsupportedOperationException();
@@ -0,0 +1,173 @@
+package com.psddev.dari.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.psddev.dari.util.Task;
+
+/**
+ * Re-encodes the {@link SqlDatabase#DATA_COLUMN} of every row in the
+ * {@link SqlDatabase#RECORD_TABLE} so that it matches the current
+ * {@link SqlDatabase#isBinaryData()} and {@link SqlDatabase#isCompressData()}
+ * settings.
+ *
+ * <p>Rows are read in ID order, a page at a time, and each row is only
+ * updated if its data hasn't changed since it was read, so it's safe to run
+ * this task while the database is in use.</p>
+ */
+public class SqlDataMigrationTask extends Task {
+
+    public static final String EXECUTOR_PREFIX = "SQL Data Migration";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqlDataMigrationTask.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 200;
+
+    private final SqlDatabase database;
+    private final int batchSize;
+
+    public SqlDataMigrationTask(SqlDatabase database, int batchSize) {
+        super(EXECUTOR_PREFIX, EXECUTOR_PREFIX + " " + database.getName());
+        this.database = database;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+    }
+
+    public SqlDataMigrationTask(SqlDatabase database) {
+        this(database, DEFAULT_BATCH_SIZE);
+    }
+
+    @Override
+    protected void doTask() throws Exception {
+        SqlVendor vendor = database.getVendor();
+        byte outerFormat = database.isCompressData() ? (byte) 's' : innerFormat();
+        UUID lastId = null;
+        long migrated = 0;
+
+        while (shouldContinue()) {
+            Map<UUID, byte[]> dataById = selectPage(vendor, lastId);
+
+            if (dataById.isEmpty()) {
+                break;
+            }
+
+            List<List<Object>> parameters = new ArrayList<List<Object>>();
+
+            for (Map.Entry<UUID, byte[]> entry : dataById.entrySet()) {
+                UUID id = entry.getKey();
+                byte[] data = entry.getValue();
+
+                lastId = id;
+                addProgressIndex(1);
+
+                if (data == null
+                        || data.length == 0
+                        || (data[0] == outerFormat && SqlDatabase.decodeData(data)[0] == innerFormat())) {
+                    continue;
+                }
+
+                List<Object> row = new ArrayList<Object>();
+                StringBuilder ignored = new StringBuilder();
+
+                vendor.appendBindValue(ignored, database.serializeData(SqlDatabase.unserializeData(data)), row);
+                vendor.appendBindValue(ignored, id, row);
+                vendor.appendBindValue(ignored, data, row);
+                parameters.add(row);
+            }
+
+            if (!parameters.isEmpty()) {
+                migrated += updatePage(vendor, parameters);
+            }
+        }
+
+        LOGGER.info("Migrated [{}] rows in [{}]", migrated, database.getName());
+    }
+
+    private byte innerFormat() {
+        return database.isBinaryData() ? BinaryDataUtils.FORMAT : (byte) '{';
+    }
+
+    // Selects the next page of rows after the given lastId.
+    private Map<UUID, byte[]> selectPage(SqlVendor vendor, UUID lastId) throws SQLException {
+        StringBuilder selectBuilder = new StringBuilder();
+
+        selectBuilder.append("SELECT ");
+        vendor.appendIdentifier(selectBuilder, SqlDatabase.ID_COLUMN);
+        selectBuilder.append(',');
+        vendor.appendIdentifier(selectBuilder, SqlDatabase.DATA_COLUMN);
+        selectBuilder.append(" FROM ");
+        vendor.appendIdentifier(selectBuilder, SqlDatabase.RECORD_TABLE);
+
+        if (lastId != null) {
+            selectBuilder.append(" WHERE ");
+            vendor.appendIdentifier(selectBuilder, SqlDatabase.ID_COLUMN);
+            selectBuilder.append(" > ");
+            vendor.appendValue(selectBuilder, lastId);
+        }
+
+        selectBuilder.append(" ORDER BY ");
+        vendor.appendIdentifier(selectBuilder, SqlDatabase.ID_COLUMN);
+
+        String sqlQuery = vendor.rewriteQueryWithLimitClause(selectBuilder.toString(), batchSize, 0);
+        Map<UUID, byte[]> dataById = new LinkedHashMap<UUID, byte[]>();
+        Connection connection = database.openConnection();
+        Statement statement = null;
+        ResultSet result = null;
+
+        try {
+            statement = connection.createStatement();
+            result = database.executeQueryBeforeTimeout(statement, sqlQuery, 0);
+
+            while (result.next()) {
+                dataById.put(vendor.getUuid(result, 1), result.getBytes(2));
+            }
+
+            return dataById;
+
+        } finally {
+            database.closeResources(null, connection, statement, result);
+        }
+    }
+
+    // Updates the rows, only if their data hasn't changed since they were
+    // read, and returns the number of rows that were actually updated.
+    private int updatePage(SqlVendor vendor, List<List<Object>> parameters) throws SQLException {
+        StringBuilder updateBuilder = new StringBuilder();
+
+        updateBuilder.append("UPDATE ");
+        vendor.appendIdentifier(updateBuilder, SqlDatabase.RECORD_TABLE);
+        updateBuilder.append(" SET ");
+        vendor.appendIdentifier(updateBuilder, SqlDatabase.DATA_COLUMN);
+        updateBuilder.append(" = ? WHERE ");
+        vendor.appendIdentifier(updateBuilder, SqlDatabase.ID_COLUMN);
+        updateBuilder.append(" = ? AND ");
+        vendor.appendIdentifier(updateBuilder, SqlDatabase.DATA_COLUMN);
+        updateBuilder.append(" = ?");
+
+        Connection connection = database.openConnection();
+
+        try {
+            int updated = 0;
+
+            for (int affected : SqlDatabase.Static.executeBatchUpdate(connection, updateBuilder.toString(), parameters)) {
+                if (affected > 0) {
+                    updated += affected;
+                }
+            }
+
+            return updated;
+
+        } finally {
+            database.closeConnection(connection);
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
@@ -34,6 +35,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -97,6 +99,8 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
     public static final String METRIC_CATALOG_SUB_SETTING = "metricCatalog";
     public static final String VENDOR_CLASS_SETTING = "vendorClass";
     public static final String COMPRESS_DATA_SUB_SETTING = "compressData";
+    public static final String BINARY_DATA_SUB_SETTING = "binaryData";
+    public static final String LAZY_DATA_SUB_SETTING = "lazyData";
 
     @Deprecated
     public static final String CACHE_DATA_SUB_SETTING = "cacheData";
@@ -107,7 +111,20 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
     public static final String ENABLE_REPLICATION_CACHE_SUB_SETTING = "enableReplicationCache";
     public static final String ENABLE_FUNNEL_CACHE_SUB_SETTING = "enableFunnelCache";
     public static final String REPLICATION_CACHE_SIZE_SUB_SETTING = "replicationCacheSize";
+    public static final String REPLICATION_CACHE_OFF_HEAP_BYTES_SUB_SETTING = "replicationCacheOffHeapBytes";
     public static final String INDEX_SPATIAL_SUB_SETTING = "indexSpatial";
+    public static final String DIFF_INDEXES_SUB_SETTING = "diffIndexes";
+    public static final String UPSERT_BATCH_SIZE_SUB_SETTING = "upsertBatchSize";
+    public static final String PREPARE_SELECTS_SUB_SETTING = "prepareSelects";
+    public static final String METRIC_WRITE_BUFFER_SUB_SETTING = "metricWriteBuffer";
+    public static final String METRIC_WRITE_BUFFER_FLUSH_INTERVAL_SUB_SETTING = "metricWriteBufferFlushInterval";
+    public static final String METRIC_WRITE_BUFFER_FLUSH_SIZE_SUB_SETTING = "metricWriteBufferFlushSize";
+    public static final String METRIC_WRITE_BUFFER_MAXIMUM_SIZE_SUB_SETTING = "metricWriteBufferMaximumSize";
+    public static final String METRIC_WRITE_BUFFER_SPILL_SUB_SETTING = "metricWriteBufferSpill";
+
+    private static final double DEFAULT_METRIC_WRITE_BUFFER_FLUSH_INTERVAL = 5.0;
+    private static final int DEFAULT_METRIC_WRITE_BUFFER_FLUSH_SIZE = 10000;
+    private static final int DEFAULT_METRIC_WRITE_BUFFER_MAXIMUM_SIZE = 100000;
 
     public static final String RECORD_TABLE = "Record";
     public static final String RECORD_UPDATE_TABLE = "RecordUpdate";
@@ -130,6 +147,7 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
     public static final String USE_JDBC_FETCH_SIZE_QUERY_OPTION = "sql.useJdbcFetchSize";
     public static final String USE_READ_DATA_SOURCE_QUERY_OPTION = "sql.useReadDataSource";
     public static final String DISABLE_REPLICATION_CACHE_QUERY_OPTION = "sql.disableReplicationCache";
+    public static final String PREFETCH_METRICS_QUERY_OPTION = "sql.prefetchMetrics";
     public static final String SKIP_INDEX_STATE_EXTRA = "sql.skipIndex";
 
     public static final String INDEX_TABLE_INDEX_OPTION = "sql.indexTable";
@@ -152,6 +170,8 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
     private static final String FUNNEL_CACHE_GET_PROFILER_EVENT = SHORT_NAME + " Funnel Cache Get";
     private static final String FUNNEL_CACHE_PUT_PROFILER_EVENT = SHORT_NAME + " Funnel Cache Put";
     private static final long NOW_EXPIRATION_SECONDS = 300;
+    private static final int EXTRA_SOURCE_BATCH_SIZE = 500;
+    private static final int SYMBOL_BATCH_SIZE = 500;
     public static final long DEFAULT_REPLICATION_CACHE_SIZE = 10000L;
     public static final long DEFAULT_DATA_CACHE_SIZE = 10000L;
 
@@ -168,15 +188,29 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
     private transient volatile String defaultCatalog;
     private volatile SqlVendor vendor;
     private volatile boolean compressData;
+    private volatile boolean binaryData;
+    private volatile boolean lazyData;
     private volatile boolean enableReplicationCache;
     private volatile boolean enableFunnelCache;
     private volatile long replicationCacheMaximumSize;
+    private volatile long replicationCacheOffHeapBytes;
     private volatile boolean indexSpatial;
+    private volatile boolean diffIndexes;
+    private volatile int upsertBatchSize;
+    private volatile boolean prepareSelects;
+    private volatile boolean metricWriteBuffer;
+    private volatile double metricWriteBufferFlushInterval = DEFAULT_METRIC_WRITE_BUFFER_FLUSH_INTERVAL;
+    private volatile int metricWriteBufferFlushSize = DEFAULT_METRIC_WRITE_BUFFER_FLUSH_SIZE;
+    private volatile int metricWriteBufferMaximumSize = DEFAULT_METRIC_WRITE_BUFFER_MAXIMUM_SIZE;
+    private volatile boolean metricWriteBufferSpill;
 
     private final transient ConcurrentMap<Class<?>, UUID> singletonIds = new ConcurrentHashMap<>();
     private transient volatile Cache<UUID, Object[]> replicationCache;
     private transient volatile MySQLBinaryLogReader mysqlBinaryLogReader;
+    private transient volatile PostgreSQLLogicalDecodingReader postgresqlLogicalDecodingReader;
     private transient volatile FunnelCache<SqlDatabase> funnelCache;
+    private transient volatile MetricWriteBuffer metricWriteBufferInstance;
+    private transient volatile boolean metricWriteBufferClosed;
     private final List<UpdateNotifier<?>> updateNotifiers = new ArrayList<>();
 
     /**
@@ -382,6 +416,44 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         this.compressData = compressData;
     }
 
+    /**
+     * Returns {@code true} if the data should be written in the compact
+     * binary format instead of JSON. Data in either format can always be
+     * read back.
+     */
+    public boolean isBinaryData() {
+        return binaryData;
+    }
+
+    /**
+     * Sets whether the data should be written in the compact binary format
+     * instead of JSON.
+     *
+     * @see SqlDataMigrationTask
+     */
+    public void setBinaryData(boolean binaryData) {
+        this.binaryData = binaryData;
+    }
+
+    /**
+     * Returns {@code true} if the objects read from this database should
+     * only convert each top-level value when it's first accessed.
+     * Combined with {@link #isBinaryData()}, the values are also only
+     * decoded on first access. This only applies to the types that are
+     * enhanced by {@link LazyLoadEnhancer}.
+     */
+    public boolean isLazyData() {
+        return lazyData;
+    }
+
+    /**
+     * Sets whether the objects read from this database should only
+     * convert each top-level value when it's first accessed.
+     */
+    public void setLazyData(boolean lazyData) {
+        this.lazyData = lazyData;
+    }
+
     @Deprecated
     public boolean isCacheData() {
         return false;
@@ -424,6 +496,23 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         return this.replicationCacheMaximumSize;
     }
 
+    /**
+     * Returns the maximum number of bytes that the replication cache should
+     * keep outside of the heap. If positive, this is used instead of
+     * {@link #getReplicationCacheMaximumSize()}.
+     */
+    public long getReplicationCacheOffHeapBytes() {
+        return replicationCacheOffHeapBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes that the replication cache should
+     * keep outside of the heap.
+     */
+    public void setReplicationCacheOffHeapBytes(long replicationCacheOffHeapBytes) {
+        this.replicationCacheOffHeapBytes = replicationCacheOffHeapBytes;
+    }
+
     public boolean isIndexSpatial() {
         return indexSpatial;
     }
@@ -432,6 +521,170 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         this.indexSpatial = indexSpatial;
     }
 
+    /**
+     * Returns {@code true} if saves should only rewrite the index rows
+     * that changed compared to the currently saved data.
+     *
+     * @see SqlIndex.Static#diffByStates
+     */
+    public boolean isDiffIndexes() {
+        return diffIndexes;
+    }
+
+    /**
+     * Sets whether saves should only rewrite the index rows that changed
+     * compared to the currently saved data.
+     *
+     * @see SqlIndex.Static#diffByStates
+     */
+    public void setDiffIndexes(boolean diffIndexes) {
+        this.diffIndexes = diffIndexes;
+    }
+
+    /**
+     * Returns the maximum number of new rows that should be written in a
+     * single multi-row statement when saving. Batches are only used when
+     * this is greater than {@code 1} and the vendor
+     * {@linkplain SqlVendor#supportsUpsert supports upserts}. Saved states
+     * are always updated one at a time.
+     */
+    public int getUpsertBatchSize() {
+        return upsertBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of new rows that should be written in a
+     * single multi-row statement when saving.
+     */
+    public void setUpsertBatchSize(int upsertBatchSize) {
+        this.upsertBatchSize = upsertBatchSize;
+    }
+
+    /**
+     * Returns {@code true} if the select statements should bind the
+     * comparison values as parameters and run through prepared statements,
+     * when the vendor {@linkplain SqlVendor#supportsBindComparisonValues
+     * supports it}.
+     */
+    public boolean isPrepareSelects() {
+        return prepareSelects;
+    }
+
+    /**
+     * Sets whether the select statements should bind the comparison values
+     * as parameters and run through prepared statements.
+     */
+    public void setPrepareSelects(boolean prepareSelects) {
+        this.prepareSelects = prepareSelects;
+    }
+
+    /**
+     * Returns {@code true} if the metric increments should be summed in
+     * memory and written in batches instead of one by one.
+     */
+    public boolean isMetricWriteBuffer() {
+        return metricWriteBuffer;
+    }
+
+    /**
+     * Sets whether the metric increments should be summed in memory and
+     * written in batches instead of one by one.
+     */
+    public void setMetricWriteBuffer(boolean metricWriteBuffer) {
+        this.metricWriteBuffer = metricWriteBuffer;
+    }
+
+    /**
+     * Returns the maximum number of seconds that a buffered metric increment
+     * waits before it's written.
+     */
+    public double getMetricWriteBufferFlushInterval() {
+        return metricWriteBufferFlushInterval;
+    }
+
+    public void setMetricWriteBufferFlushInterval(double metricWriteBufferFlushInterval) {
+        this.metricWriteBufferFlushInterval = metricWriteBufferFlushInterval;
+    }
+
+    /**
+     * Returns the number of distinct buffered metric increments that
+     * triggers a write before the flush interval.
+     */
+    public int getMetricWriteBufferFlushSize() {
+        return metricWriteBufferFlushSize;
+    }
+
+    public void setMetricWriteBufferFlushSize(int metricWriteBufferFlushSize) {
+        this.metricWriteBufferFlushSize = metricWriteBufferFlushSize;
+    }
+
+    /**
+     * Returns the maximum number of distinct metric increments that can be
+     * buffered at once.
+     */
+    public int getMetricWriteBufferMaximumSize() {
+        return metricWriteBufferMaximumSize;
+    }
+
+    public void setMetricWriteBufferMaximumSize(int metricWriteBufferMaximumSize) {
+        this.metricWriteBufferMaximumSize = metricWriteBufferMaximumSize;
+    }
+
+    /**
+     * Returns {@code true} if the metric increments that don't fit in the
+     * full buffer should be written through immediately instead of being
+     * dropped.
+     */
+    public boolean isMetricWriteBufferSpill() {
+        return metricWriteBufferSpill;
+    }
+
+    public void setMetricWriteBufferSpill(boolean metricWriteBufferSpill) {
+        this.metricWriteBufferSpill = metricWriteBufferSpill;
+    }
+
+    /**
+     * Returns the buffer for the metric increments.
+     *
+     * @return {@code null} if the metric increments aren't buffered, or if
+     *         this database has been closed.
+     */
+    MetricWriteBuffer getMetricWriteBuffer() {
+        if (!isMetricWriteBuffer()) {
+            return null;
+        }
+
+        MetricWriteBuffer buffer = metricWriteBufferInstance;
+
+        if (buffer == null) {
+            synchronized (this) {
+                buffer = metricWriteBufferInstance;
+
+                if (buffer == null && !metricWriteBufferClosed) {
+                    buffer = new MetricWriteBuffer(
+                            this,
+                            getMetricWriteBufferFlushInterval(),
+                            getMetricWriteBufferFlushSize(),
+                            getMetricWriteBufferMaximumSize(),
+                            isMetricWriteBufferSpill());
+
+                    metricWriteBufferInstance = buffer;
+                }
+            }
+        }
+
+        return buffer;
+    }
+
+    /** Writes all buffered metric increments immediately. */
+    public void flushMetricWrites() {
+        MetricWriteBuffer buffer = metricWriteBufferInstance;
+
+        if (buffer != null) {
+            buffer.flush();
+        }
+    }
+
     /**
      * Returns {@code true} if the {@link #RECORD_TABLE} in this database
      * has the {@link #IN_ROW_INDEX_COLUMN}.
@@ -562,12 +815,21 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             } finally {
                 closeConnection(connection);
             }
-            sqlQueryCache.invalidateAll();
+
+            // Statements built while the symbol was missing used -1.
+            if (id != null) {
+                invalidateSqlQueryCaches();
+            }
         }
 
         return id != null ? id : -1;
     }
 
+    private void invalidateSqlQueryCaches() {
+        sqlQueryCache.invalidateAll();
+        preparedSqlQueryCache.invalidateAll();
+    }
+
     /**
      * Returns an unique numeric ID for the given {@code symbol}.
      */
@@ -606,11 +868,150 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             } finally {
                 closeConnection(connection);
             }
+
+            invalidateSqlQueryCaches();
         }
 
         return id;
     }
 
+    /**
+     * Returns the unique numeric IDs for all the given {@code symbols},
+     * creating the missing ones in bulk instead of one at a time like
+     * {@link #getSymbolId} does.
+     *
+     * @param symbols Can't be {@code null}.
+     * @return Never {@code null}.
+     */
+    public Map<String, Integer> getSymbolIds(Collection<String> symbols) {
+        Map<String, Integer> cachedIds = this.symbols.get();
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        List<String> missing = new ArrayList<String>();
+
+        for (String symbol : new LinkedHashSet<String>(symbols)) {
+            if (symbol != null) {
+                Integer id = cachedIds.get(symbol);
+
+                if (id != null) {
+                    ids.put(symbol, id);
+
+                } else {
+                    missing.add(symbol);
+                }
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return ids;
+        }
+
+        Connection connection = openConnection();
+
+        try {
+            for (int offset = 0, size = missing.size(); offset < size; offset += SYMBOL_BATCH_SIZE) {
+                List<String> batch = missing.subList(offset, Math.min(offset + SYMBOL_BATCH_SIZE, size));
+
+                insertSymbols(connection, batch);
+                selectSymbolIds(connection, batch, ids);
+            }
+
+        } finally {
+            closeConnection(connection);
+        }
+
+        for (String symbol : missing) {
+            Integer id = ids.get(symbol);
+
+            if (id != null) {
+                cachedIds.put(symbol, id);
+            }
+        }
+
+        invalidateSqlQueryCaches();
+        return ids;
+    }
+
+    // Inserts all the given symbols in a single statement, falling back to
+    // one at a time if the vendor can't ignore the existing ones.
+    private void insertSymbols(Connection connection, List<String> symbols) {
+        SqlVendor vendor = getVendor();
+        List<Object> parameters = new ArrayList<Object>();
+        StringBuilder insertBuilder = new StringBuilder();
+
+        insertBuilder.append("INSERT /*! IGNORE */ INTO ");
+        vendor.appendIdentifier(insertBuilder, SYMBOL_TABLE);
+        insertBuilder.append(" (");
+        vendor.appendIdentifier(insertBuilder, VALUE_COLUMN);
+        insertBuilder.append(") VALUES ");
+
+        for (String symbol : symbols) {
+            insertBuilder.append('(');
+            vendor.appendBindValue(insertBuilder, symbol, parameters);
+            insertBuilder.append("), ");
+        }
+
+        insertBuilder.setLength(insertBuilder.length() - 2);
+
+        String insertSql = insertBuilder.toString();
+
+        try {
+            Static.executeUpdateWithList(vendor, connection, insertSql, parameters);
+
+        } catch (SQLException ex) {
+            if (!Static.isIntegrityConstraintViolation(ex)) {
+                throw createQueryException(ex, insertSql, null);
+
+            } else if (symbols.size() > 1) {
+                for (String symbol : symbols) {
+                    insertSymbols(connection, Collections.singletonList(symbol));
+                }
+            }
+        }
+    }
+
+    // Selects the IDs of all the given symbols into the given ids map.
+    private void selectSymbolIds(Connection connection, List<String> symbols, Map<String, Integer> ids) {
+        List<Object> parameters = new ArrayList<Object>();
+        StringBuilder selectBuilder = new StringBuilder();
+
+        selectBuilder.append("SELECT ");
+        vendor.appendIdentifier(selectBuilder, SYMBOL_ID_COLUMN);
+        selectBuilder.append(',');
+        vendor.appendIdentifier(selectBuilder, VALUE_COLUMN);
+        selectBuilder.append(" FROM ");
+        vendor.appendIdentifier(selectBuilder, SYMBOL_TABLE);
+        selectBuilder.append(" WHERE ");
+        vendor.appendIdentifier(selectBuilder, VALUE_COLUMN);
+        selectBuilder.append(" IN (");
+
+        for (String symbol : symbols) {
+            vendor.appendBindValue(selectBuilder, symbol, parameters);
+            selectBuilder.append(", ");
+        }
+
+        selectBuilder.setLength(selectBuilder.length() - 2);
+        selectBuilder.append(')');
+
+        String selectSql = selectBuilder.toString();
+        Statement statement = null;
+        ResultSet result = null;
+
+        try {
+            statement = createReadStatement(connection, selectSql, parameters);
+            result = executeQueryBeforeTimeout(statement, selectSql, 0);
+
+            while (result.next()) {
+                ids.put(new String(result.getBytes(2), StandardCharsets.UTF_8), result.getInt(1));
+            }
+
+        } catch (SQLException ex) {
+            throw createQueryException(ex, selectSql, null);
+
+        } finally {
+            closeResources(null, null, statement, result);
+        }
+    }
+
     private Integer selectSymbolId(Connection connection, String symbol) {
         Integer id = null;
 
@@ -749,6 +1150,20 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
     /** Closes any resources used by this database. */
     public void close() {
+        MetricWriteBuffer buffer;
+
+        // Stop getMetricWriteBuffer from starting a new buffer after this.
+        synchronized (this) {
+            metricWriteBufferClosed = true;
+            buffer = metricWriteBufferInstance;
+            metricWriteBufferInstance = null;
+        }
+
+        if (buffer != null) {
+            LOGGER.info("Flushing metric write buffer in {}", getName());
+            buffer.close();
+        }
+
         DataSource dataSource = getDataSource();
         if (dataSource instanceof HikariDataSource) {
             LOGGER.info("Closing connection pool in {}", getName());
@@ -769,6 +1184,12 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             mysqlBinaryLogReader.stop();
             mysqlBinaryLogReader = null;
         }
+
+        if (postgresqlLogicalDecodingReader != null) {
+            LOGGER.info("Stopping PostgreSQL logical decoding reader");
+            postgresqlLogicalDecodingReader.stop();
+            postgresqlLogicalDecodingReader = null;
+        }
     }
 
     private String addComment(String sql, Query<?> query) {
@@ -833,16 +1254,69 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
                 }
             });
 
+    /**
+     * Maintains a cache of Querys to parameterized SQL select statements.
+     */
+    private final LoadingCache<Query<?>, PreparedSelect> preparedSqlQueryCache = CacheBuilder
+            .newBuilder()
+            .maximumSize(5000)
+            .concurrencyLevel(20)
+            .build(new CacheLoader<Query<?>, PreparedSelect>() {
+                @Override
+                public PreparedSelect load(Query<?> query) throws Exception {
+                    List<Object> parameters = new ArrayList<Object>();
+                    String sqlQuery = new SqlQuery(SqlDatabase.this, query).selectStatement(parameters);
+
+                    return new PreparedSelect(sqlQuery, Collections.unmodifiableList(parameters));
+                }
+            });
+
+    private static final class PreparedSelect {
+
+        public final String sqlQuery;
+        public final List<Object> parameters;
+
+        public PreparedSelect(String sqlQuery, List<Object> parameters) {
+            this.sqlQuery = sqlQuery;
+            this.parameters = parameters;
+        }
+    }
+
     /**
      * Builds an SQL statement that can be used to list all rows
      * matching the given {@code query}.
      */
     public String buildSelectStatement(Query<?> query) {
+        return buildSelectStatement(query, null);
+    }
+
+    /**
+     * Builds an SQL statement that can be used to list all rows matching
+     * the given {@code query}, with the comparison values added to the
+     * given {@code parameters} if the select should be
+     * {@linkplain #isPrepareSelects prepared}.
+     *
+     * @param parameters If {@code null}, the values are always inlined.
+     */
+    String buildSelectStatement(Query<?> query, List<Object> parameters) {
         try {
             Query<?> strippedQuery = query.clone();
             // Remove any possibility that multiple CachingDatabases will be cached in the sqlQueryCache.
             strippedQuery.setDatabase(this);
             strippedQuery.getOptions().remove(State.REFERENCE_RESOLVING_QUERY_OPTION);
+
+            // Funnel cache is keyed by the SQL alone, so it needs the values inlined.
+            if (parameters != null
+                    && isPrepareSelects()
+                    && vendor.supportsBindComparisonValues()
+                    && !checkFunnelCache(query)) {
+
+                PreparedSelect prepared = preparedSqlQueryCache.getUnchecked(strippedQuery);
+
+                parameters.addAll(prepared.parameters);
+                return addComment(prepared.sqlQuery, query);
+            }
+
             return addComment(sqlQueryCache.getUnchecked(strippedQuery), query);
         } catch (UncheckedExecutionException e) {
             Throwable cause = e.getCause();
@@ -902,7 +1376,17 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             }
         }
 
-        byte[] dataBytes = ObjectUtils.toJson(values).getBytes(StandardCharsets.UTF_8);
+        return serializeData(values);
+    }
+
+    /**
+     * Serializes the given {@code values} into the format configured on
+     * this database.
+     */
+    byte[] serializeData(Map<String, Object> values) {
+        byte[] dataBytes = isBinaryData()
+                ? BinaryDataUtils.encode(values)
+                : ObjectUtils.toJson(values).getBytes(StandardCharsets.UTF_8);
 
         if (isCompressData()) {
             byte[] compressed = new byte[Snappy.maxCompressedLength(dataBytes.length)];
@@ -916,7 +1400,7 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         return dataBytes;
     }
 
-    private static byte[] decodeData(byte[] dataBytes) {
+    static byte[] decodeData(byte[] dataBytes) {
         char format;
 
         while (true) {
@@ -925,7 +1409,7 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             if (format == 's') {
                 dataBytes = Snappy.uncompress(dataBytes, 1, dataBytes.length - 1);
 
-            } else if (format == '{') {
+            } else if (format == '{' || format == BinaryDataUtils.FORMAT) {
                 return dataBytes;
 
             } else {
@@ -951,6 +1435,9 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             } else if (format == '{') {
                 return (Map<String, Object>) ObjectUtils.fromJson(dataBytes);
 
+            } else if (format == BinaryDataUtils.FORMAT) {
+                return BinaryDataUtils.decode(dataBytes);
+
             } else {
                 break;
             }
@@ -984,11 +1471,14 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         }
     }
 
-    // Creates a previously saved object using the given resultSet.
+    // Creates a previously saved object using the given resultSet. Extra
+    // columns from source index tables aren't loaded here. Instead, the
+    // state is added to extraSourceStates under each field that needs it,
+    // so that they can be loaded in bulk by #loadExtraSourceColumns.
     private <T> T createSavedObjectWithResultSet(
             ResultSet resultSet,
             Query<T> query,
-            ConnectionRef extraConnectionRef)
+            Map<ObjectField, List<State>> extraSourceStates)
             throws SQLException {
 
         T object = createSavedObject(resultSet.getObject(2), resultSet.getObject(1), query);
@@ -1003,10 +1493,16 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
             if (data != null) {
                 byte[] decodedData = decodeData(data);
-                @SuppressWarnings("unchecked")
-                Map<String, Object> unserializedData = (Map<String, Object>) ObjectUtils.fromJson(decodedData);
 
-                objectState.setValues(unserializedData);
+                if (isLazyData()) {
+                    objectState.setLazyValues(decodedData[0] == BinaryDataUtils.FORMAT
+                            ? BinaryDataUtils.decodeLazily(decodedData)
+                            : unserializeData(decodedData));
+
+                } else {
+                    objectState.setValues(unserializeData(decodedData));
+                }
+
                 objectState.getExtras().put(DATA_LENGTH_EXTRA, decodedData.length);
                 Boolean returnOriginal = ObjectUtils.to(Boolean.class, query.getOptions().get(RETURN_ORIGINAL_DATA_QUERY_OPTION));
                 if (returnOriginal == null) {
@@ -1069,10 +1565,60 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             }
         }
 
+        object = swapObjectType(query, object);
+
         if (!loadExtraFields.isEmpty()) {
-            Connection connection = extraConnectionRef.getOrOpen(query);
+            State swappedState = State.getInstance(object);
 
             for (ObjectField field : loadExtraFields) {
+                List<State> fieldStates = extraSourceStates.get(field);
+
+                if (fieldStates == null) {
+                    fieldStates = new ArrayList<State>();
+                    extraSourceStates.put(field, fieldStates);
+                }
+
+                fieldStates.add(swappedState);
+            }
+        }
+
+        return object;
+    }
+
+    // Loads the extra columns from source index tables for all states
+    // collected by #createSavedObjectWithResultSet, using one query per
+    // field for every EXTRA_SOURCE_BATCH_SIZE states.
+    private void loadExtraSourceColumns(
+            Query<?> query,
+            ConnectionRef extraConnectionRef,
+            Map<ObjectField, List<State>> extraSourceStates)
+            throws SQLException {
+
+        if (extraSourceStates.isEmpty()) {
+            return;
+        }
+
+        Connection connection = extraConnectionRef.getOrOpen(query);
+        int timeout = getQueryReadTimeout(query);
+
+        for (Map.Entry<ObjectField, List<State>> entry : extraSourceStates.entrySet()) {
+            ObjectField field = entry.getKey();
+            List<State> fieldStates = entry.getValue();
+
+            for (int offset = 0, size = fieldStates.size(); offset < size; offset += EXTRA_SOURCE_BATCH_SIZE) {
+                Map<UUID, List<State>> statesById = new LinkedHashMap<UUID, List<State>>();
+
+                for (State state : fieldStates.subList(offset, Math.min(offset + EXTRA_SOURCE_BATCH_SIZE, size))) {
+                    List<State> idStates = statesById.get(state.getId());
+
+                    if (idStates == null) {
+                        idStates = new ArrayList<State>();
+                        statesById.put(state.getId(), idStates);
+                    }
+
+                    idStates.add(state);
+                }
+
                 Statement extraStatement = null;
                 ResultSet extraResult = null;
 
@@ -1080,14 +1626,29 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
                     extraStatement = connection.createStatement();
                     extraResult = executeQueryBeforeTimeout(
                             extraStatement,
-                            extraSourceSelectStatementById(field, objectState.getId(), objectState.getTypeId()),
-                            getQueryReadTimeout(query));
+                            extraSourceSelectStatementByIds(field, statesById.keySet()),
+                            timeout);
 
-                    if (extraResult.next()) {
-                        meta = extraResult.getMetaData();
+                    ResultSetMetaData meta = extraResult.getMetaData();
+                    int count = meta.getColumnCount();
 
-                        for (int i = 1, count = meta.getColumnCount(); i <= count; ++ i) {
-                            objectState.put(meta.getColumnLabel(i), extraResult.getObject(i));
+                    while (extraResult.next()) {
+
+                        // Only use the first row per ID like a single
+                        // row select would.
+                        List<State> idStates = statesById.remove(vendor.getUuid(extraResult, 1));
+
+                        if (idStates == null) {
+                            continue;
+                        }
+
+                        for (int i = 2; i <= count; ++ i) {
+                            String label = meta.getColumnLabel(i);
+                            Object value = extraResult.getObject(i);
+
+                            for (State state : idStates) {
+                                state.put(label, value);
+                            }
                         }
                     }
 
@@ -1096,17 +1657,16 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
                 }
             }
         }
-
-        return swapObjectType(query, object);
     }
 
-    // Creates an SQL statement to return a single row from a FieldIndexTable
-    // used as a source table.
+    // Creates an SQL statement to return the rows for the given ids from a
+    // FieldIndexTable used as a source table. The first column is always
+    // the id.
     //
     // Maybe: move this to SqlQuery and use initializeClauses() and
-    // needsRecordTable=false instead of passing id to this method. Needs
+    // needsRecordTable=false instead of passing ids to this method. Needs
     // countperformance branch to do this.
-    private String extraSourceSelectStatementById(ObjectField field, UUID id, UUID typeId) {
+    private String extraSourceSelectStatementByIds(ObjectField field, Collection<UUID> ids) {
         FieldData fieldData = field.as(FieldData.class);
         ObjectType parentType = field.getParentType();
         StringBuilder keyName = new StringBuilder(parentType.getInternalName());
@@ -1133,6 +1693,8 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         int fieldIndex = 0;
 
         sql.append("SELECT ");
+        vendor.appendIdentifier(sql, "id");
+        sql.append(", ");
 
         for (String indexFieldName : useIndex.getFields()) {
             String indexColumnName = indexTable.getValueField(this, useIndex, fieldIndex);
@@ -1150,9 +1712,15 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         vendor.appendIdentifier(sql, sourceTableName);
         sql.append(" WHERE ");
         vendor.appendIdentifier(sql, "id");
-        sql.append(" = ");
-        vendor.appendValue(sql, id);
-        sql.append(" AND ");
+        sql.append(" IN (");
+
+        for (UUID id : ids) {
+            vendor.appendValue(sql, id);
+            sql.append(", ");
+        }
+
+        sql.setLength(sql.length() - 2);
+        sql.append(") AND ");
         vendor.appendIdentifier(sql, "symbolId");
         sql.append(" = ");
         sql.append(symbolId);
@@ -1160,6 +1728,102 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         return sql.toString();
     }
 
+    /**
+     * Selects the currently saved versions of the given {@code states}
+     * within the given {@code connection}, locking the rows until the end
+     * of the transaction. The returned states resolve their references
+     * as reference-only objects so that they never trigger extra reads.
+     *
+     * @return Never {@code null}. Keyed by the IDs.
+     */
+    Map<UUID, State> selectSavedStates(Connection connection, List<State> states) throws SQLException {
+        Map<UUID, State> savedStates = new HashMap<UUID, State>();
+
+        if (states.isEmpty()) {
+            return savedStates;
+        }
+
+        SqlVendor vendor = getVendor();
+        StringBuilder selectBuilder = new StringBuilder();
+
+        selectBuilder.append("SELECT ");
+        vendor.appendIdentifier(selectBuilder, ID_COLUMN);
+        selectBuilder.append(',');
+        vendor.appendIdentifier(selectBuilder, DATA_COLUMN);
+        selectBuilder.append(" FROM ");
+        vendor.appendIdentifier(selectBuilder, RECORD_TABLE);
+        selectBuilder.append(" WHERE ");
+        vendor.appendIdentifier(selectBuilder, ID_COLUMN);
+        selectBuilder.append(" IN (");
+
+        for (State state : states) {
+            vendor.appendUuid(selectBuilder, state.getId());
+            selectBuilder.append(',');
+        }
+
+        selectBuilder.setCharAt(selectBuilder.length() - 1, ')');
+        selectBuilder.append(" FOR UPDATE");
+
+        String selectSql = selectBuilder.toString();
+        DatabaseEnvironment environment = getEnvironment();
+        Statement statement = null;
+        ResultSet result = null;
+
+        try {
+            statement = connection.createStatement();
+            result = executeQueryBeforeTimeout(statement, selectSql, 0);
+
+            while (result.next()) {
+                UUID id = ObjectUtils.to(UUID.class, result.getObject(1));
+                byte[] data = result.getBytes(2);
+
+                if (id == null || data == null) {
+                    continue;
+                }
+
+                Map<String, Object> dataJson = unserializeData(data);
+                Object object = environment.createObject(ObjectUtils.to(UUID.class, dataJson.get(StateValueUtils.TYPE_KEY)), id);
+                State state = State.getInstance(object);
+
+                state.setDatabase(this);
+                state.setStatus(StateStatus.SAVED);
+                state.setResolveToReferenceOnly(true);
+                state.setValues(dataJson);
+                savedStates.put(id, state);
+            }
+
+        } finally {
+            closeResources(null, null, statement, result);
+        }
+
+        return savedStates;
+    }
+
+    // Creates a statement for reading with the given sqlQuery, which is
+    // prepared with the given parameters if there are any.
+    private Statement createReadStatement(Connection connection, String sqlQuery, List<Object> parameters) throws SQLException {
+        if (parameters == null || parameters.isEmpty()) {
+            return connection.createStatement();
+        }
+
+        PreparedStatement statement = connection.prepareStatement(sqlQuery);
+
+        try {
+            int index = 1;
+
+            for (Object parameter : parameters) {
+                Static.bindParameter(statement, index, parameter);
+                ++ index;
+            }
+
+            return statement;
+
+        } catch (SQLException | RuntimeException error) {
+            statement.close();
+            throw error;
+        }
+    }
+
     /**
      * Executes the given read {@code statement} (created from the given
      * {@code sqlQuery}) before the given {@code timeout} (in seconds).
@@ -1178,7 +1842,9 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         Profiler.Static.startThreadEvent(QUERY_PROFILER_EVENT);
 
         try {
-            return statement.executeQuery(sqlQuery);
+            return statement instanceof PreparedStatement
+                    ? ((PreparedStatement) statement).executeQuery()
+                    : statement.executeQuery(sqlQuery);
 
         } finally {
             double duration = timer.stop(QUERY_STATS_OPERATION);
@@ -1347,7 +2013,7 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
                     result = executeQueryBeforeTimeout(statement, sqlQuery.toString(), 0);
 
                     while (result.next()) {
-                        UUID id = ObjectUtils.to(UUID.class, result.getBytes(3));
+                        UUID id = vendor.getUuid(result, 3);
                         byte[] data = result.getBytes(2);
                         Map<String, Object> dataJson = unserializeData(data);
                         byte[] typeIdBytes = UuidUtils.toBytes(ObjectUtils.to(UUID.class, dataJson.get(StateValueUtils.TYPE_KEY)));
@@ -1422,6 +2088,12 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
      * with options from the given {@code query}.
      */
     public <T> T selectFirstWithOptions(String sqlQuery, Query<T> query) {
+        return selectFirstWithOptions(sqlQuery, null, query);
+    }
+
+    // Selects the first object that matches the given sqlQuery, which is
+    // prepared with the given parameters if there are any.
+    private <T> T selectFirstWithOptions(String sqlQuery, List<Object> parameters, Query<T> query) {
         sqlQuery = vendor.rewriteQueryWithLimitClause(sqlQuery, 1, 0);
         if (checkFunnelCache(query)) {
             List<T> objects = findObjectsFromFunnelCache(sqlQuery, query);
@@ -1437,9 +2109,18 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
         try {
             connection = openQueryConnection(query);
-            statement = connection.createStatement();
+            statement = createReadStatement(connection, sqlQuery, parameters);
             result = executeQueryBeforeTimeout(statement, sqlQuery, getQueryReadTimeout(query));
-            return result.next() ? createSavedObjectWithResultSet(result, query, extraConnectionRef) : null;
+
+            if (!result.next()) {
+                return null;
+            }
+
+            Map<ObjectField, List<State>> extraSourceStates = new HashMap<ObjectField, List<State>>();
+            T object = createSavedObjectWithResultSet(result, query, extraSourceStates);
+
+            loadExtraSourceColumns(query, extraConnectionRef, extraSourceStates);
+            return object;
 
         } catch (SQLException ex) {
             throw createQueryException(ex, sqlQuery, query);
@@ -1463,6 +2144,12 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
      * with options from the given {@code query}.
      */
     public <T> List<T> selectListWithOptions(String sqlQuery, Query<T> query) {
+        return selectListWithOptions(sqlQuery, null, query);
+    }
+
+    // Selects a list of objects that match the given sqlQuery, which is
+    // prepared with the given parameters if there are any.
+    private <T> List<T> selectListWithOptions(String sqlQuery, List<Object> parameters, Query<T> query) {
         if (checkFunnelCache(query)) {
             List<T> objects = findObjectsFromFunnelCache(sqlQuery, query);
             if (objects != null) {
@@ -1474,16 +2161,18 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         Statement statement = null;
         ResultSet result = null;
         List<T> objects = new ArrayList<T>();
+        Map<ObjectField, List<State>> extraSourceStates = new HashMap<ObjectField, List<State>>();
         int timeout = getQueryReadTimeout(query);
 
         try {
             connection = openQueryConnection(query);
-            statement = connection.createStatement();
+            statement = createReadStatement(connection, sqlQuery, parameters);
             result = executeQueryBeforeTimeout(statement, sqlQuery, timeout);
             while (result.next()) {
-                objects.add(createSavedObjectWithResultSet(result, query, extraConnectionRef));
+                objects.add(createSavedObjectWithResultSet(result, query, extraSourceStates));
             }
 
+            loadExtraSourceColumns(query, extraConnectionRef, extraSourceStates);
             return objects;
 
         } catch (SQLException ex) {
@@ -1512,10 +2201,22 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             final int fetchSize,
             final Query<T> query) {
 
+        return selectIterableWithOptions(sqlQuery, null, fetchSize, query);
+    }
+
+    // Returns an iterable that selects all objects matching the given
+    // sqlQuery, which is prepared with the given parameters if there are
+    // any.
+    private <T> Iterable<T> selectIterableWithOptions(
+            final String sqlQuery,
+            final List<Object> parameters,
+            final int fetchSize,
+            final Query<T> query) {
+
         return new Iterable<T>() {
             @Override
             public Iterator<T> iterator() {
-                return new SqlIterator<T>(sqlQuery, fetchSize, query);
+                return new SqlIterator<T>(sqlQuery, parameters, fetchSize, query);
             }
         };
     }
@@ -1532,18 +2233,20 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
 
         private boolean hasNext = true;
 
-        public SqlIterator(String initialSqlQuery, int fetchSize, Query<T> initialQuery) {
+        public SqlIterator(String initialSqlQuery, List<Object> parameters, int fetchSize, Query<T> initialQuery) {
             sqlQuery = initialSqlQuery;
             query = initialQuery;
             extraConnectionRef = new ConnectionRef();
 
             try {
                 connection = openQueryConnection(query);
-                statement = connection.createStatement();
+                statement = createReadStatement(connection, sqlQuery, parameters);
                 statement.setFetchSize(getVendor() instanceof SqlVendor.MySQL ? Integer.MIN_VALUE
                         : fetchSize <= 0 ? 200
                         : fetchSize);
-                result = statement.executeQuery(sqlQuery);
+                result = statement instanceof PreparedStatement
+                        ? ((PreparedStatement) statement).executeQuery()
+                        : statement.executeQuery(sqlQuery);
                 moveToNext();
 
             } catch (SQLException ex) {
@@ -1580,7 +2283,10 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             }
 
             try {
-                T object = createSavedObjectWithResultSet(result, query, extraConnectionRef);
+                Map<ObjectField, List<State>> extraSourceStates = new HashMap<ObjectField, List<State>>();
+                T object = createSavedObjectWithResultSet(result, query, extraSourceStates);
+
+                loadExtraSourceColumns(query, extraConnectionRef, extraSourceStates);
                 moveToNext();
                 return object;
 
@@ -1807,6 +2513,7 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
     @Override
     protected void doInitialize(String settingsKey, Map<String, Object> settings) {
         close();
+        metricWriteBufferClosed = false;
         setReadDataSource(createDataSource(
                 settings,
                 READ_DATA_SOURCE_SETTING,
@@ -1859,18 +2566,34 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             setCompressData(compressData);
         }
 
+        setBinaryData(ObjectUtils.to(boolean.class, settings.get(BINARY_DATA_SUB_SETTING)));
+        setLazyData(ObjectUtils.to(boolean.class, settings.get(LAZY_DATA_SUB_SETTING)));
+
         setEnableReplicationCache(ObjectUtils.to(boolean.class, settings.get(ENABLE_REPLICATION_CACHE_SUB_SETTING)));
         setEnableFunnelCache(ObjectUtils.to(boolean.class, settings.get(ENABLE_FUNNEL_CACHE_SUB_SETTING)));
         Long replicationCacheMaxSize = ObjectUtils.to(Long.class, settings.get(REPLICATION_CACHE_SIZE_SUB_SETTING));
         setReplicationCacheMaximumSize(replicationCacheMaxSize != null ? replicationCacheMaxSize : DEFAULT_REPLICATION_CACHE_SIZE);
+        setReplicationCacheOffHeapBytes(ObjectUtils.to(long.class, settings.get(REPLICATION_CACHE_OFF_HEAP_BYTES_SUB_SETTING)));
         setIndexSpatial(ObjectUtils.firstNonNull(ObjectUtils.to(Boolean.class, settings.get(INDEX_SPATIAL_SUB_SETTING)), Boolean.TRUE));
+        setDiffIndexes(ObjectUtils.to(boolean.class, settings.get(DIFF_INDEXES_SUB_SETTING)));
+        setUpsertBatchSize(ObjectUtils.to(int.class, settings.get(UPSERT_BATCH_SIZE_SUB_SETTING)));
+        setPrepareSelects(ObjectUtils.to(boolean.class, settings.get(PREPARE_SELECTS_SUB_SETTING)));
+        setMetricWriteBuffer(ObjectUtils.to(boolean.class, settings.get(METRIC_WRITE_BUFFER_SUB_SETTING)));
+        setMetricWriteBufferFlushInterval(ObjectUtils.firstNonNull(ObjectUtils.to(Double.class, settings.get(METRIC_WRITE_BUFFER_FLUSH_INTERVAL_SUB_SETTING)), DEFAULT_METRIC_WRITE_BUFFER_FLUSH_INTERVAL));
+        setMetricWriteBufferFlushSize(ObjectUtils.firstNonNull(ObjectUtils.to(Integer.class, settings.get(METRIC_WRITE_BUFFER_FLUSH_SIZE_SUB_SETTING)), DEFAULT_METRIC_WRITE_BUFFER_FLUSH_SIZE));
+        setMetricWriteBufferMaximumSize(ObjectUtils.firstNonNull(ObjectUtils.to(Integer.class, settings.get(METRIC_WRITE_BUFFER_MAXIMUM_SIZE_SUB_SETTING)), DEFAULT_METRIC_WRITE_BUFFER_MAXIMUM_SIZE));
+        setMetricWriteBufferSpill(ObjectUtils.to(boolean.class, settings.get(METRIC_WRITE_BUFFER_SPILL_SUB_SETTING)));
 
         if (isEnableReplicationCache()
                 && vendor instanceof SqlVendor.MySQL
                 && (mysqlBinaryLogReader == null
                 || !mysqlBinaryLogReader.isRunning())) {
 
-            replicationCache = CacheBuilder.newBuilder().maximumSize(getReplicationCacheMaximumSize()).build();
+            long offHeapBytes = getReplicationCacheOffHeapBytes();
+
+            replicationCache = offHeapBytes > 0L
+                    ? new OffHeapReplicationCache(offHeapBytes)
+                    : CacheBuilder.newBuilder().maximumSize(getReplicationCacheMaximumSize()).<UUID, Object[]>build();
 
             try {
                 LOGGER.info("Starting MySQL binary log reader");
@@ -1881,6 +2604,22 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
                 setEnableReplicationCache(false);
                 LOGGER.warn("Can't start MySQL binary log reader!", error);
             }
+
+        } else if (isEnableReplicationCache()
+                && vendor instanceof SqlVendor.PostgreSQL
+                && (postgresqlLogicalDecodingReader == null
+                || !postgresqlLogicalDecodingReader.isRunning())) {
+
+            long offHeapBytes = getReplicationCacheOffHeapBytes();
+
+            replicationCache = offHeapBytes > 0L
+                    ? new OffHeapReplicationCache(offHeapBytes)
+                    : CacheBuilder.newBuilder().maximumSize(getReplicationCacheMaximumSize()).<UUID, Object[]>build();
+
+            // Logical decoding is only available on the primary server.
+            LOGGER.info("Starting PostgreSQL logical decoding reader");
+            postgresqlLogicalDecodingReader = new PostgreSQLLogicalDecodingReader(this, replicationCache, getDataSource());
+            postgresqlLogicalDecodingReader.start();
         }
 
         if (isEnableFunnelCache()) {
@@ -2033,8 +2772,10 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         return query.isCache()
                 && isEnableReplicationCache()
                 && !Boolean.TRUE.equals(query.getOptions().get(DISABLE_REPLICATION_CACHE_QUERY_OPTION))
-                && mysqlBinaryLogReader != null
-                && mysqlBinaryLogReader.isConnected();
+                && ((mysqlBinaryLogReader != null
+                && mysqlBinaryLogReader.isConnected())
+                || (postgresqlLogicalDecodingReader != null
+                && postgresqlLogicalDecodingReader.isConnected()));
     }
 
     private boolean checkFunnelCache(Query<?> query) {
@@ -2053,11 +2794,31 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             if (ids != null && !ids.isEmpty()) {
                 List<T> objects = findObjectsFromReplicationCache(ids, query);
 
-                return objects != null ? objects : new ArrayList<T>();
+                if (objects == null) {
+                    return new ArrayList<T>();
+                }
+
+                preFetchMetrics(query, objects);
+                return objects;
             }
         }
 
-        return selectListWithOptions(buildSelectStatement(query), query);
+        List<Object> parameters = new ArrayList<Object>();
+        String sqlQuery = buildSelectStatement(query, parameters);
+        List<T> objects = selectListWithOptions(sqlQuery, parameters, query);
+
+        preFetchMetrics(query, objects);
+        return objects;
+    }
+
+    // Reads the metric sums of all the given objects in a batch if the
+    // query asks for it with PREFETCH_METRICS_QUERY_OPTION.
+    private void preFetchMetrics(Query<?> query, List<?> objects) {
+        if (!objects.isEmpty()
+                && ObjectUtils.to(boolean.class, query.getOptions().get(PREFETCH_METRICS_QUERY_OPTION))) {
+
+            Metric.Static.preFetchMetricValues(objects, null, null);
+        }
     }
 
     @Override
@@ -2136,7 +2897,10 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             }
         }
 
-        return selectFirstWithOptions(buildSelectStatement(query), query);
+        List<Object> parameters = new ArrayList<Object>();
+        String sqlQuery = buildSelectStatement(query, parameters);
+
+        return selectFirstWithOptions(sqlQuery, parameters, query);
     }
 
     @Override
@@ -2146,7 +2910,10 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             useJdbc = Boolean.TRUE;
         }
         if (useJdbc) {
-            return selectIterableWithOptions(buildSelectStatement(query), fetchSize, query);
+            List<Object> parameters = new ArrayList<Object>();
+            String sqlQuery = buildSelectStatement(query, parameters);
+
+            return selectIterableWithOptions(sqlQuery, parameters, fetchSize, query);
         } else {
             return new ByIdIterable<T>(query, fetchSize);
         }
@@ -2278,11 +3045,16 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         if (limit == Integer.MAX_VALUE) {
             limit --;
         }
+        List<Object> parameters = new ArrayList<Object>();
         List<T> objects = selectListWithOptions(
-                vendor.rewriteQueryWithLimitClause(buildSelectStatement(query), limit + 1, offset),
+                vendor.rewriteQueryWithLimitClause(buildSelectStatement(query, parameters), limit + 1, offset),
+                parameters,
                 query);
 
         int size = objects.size();
+
+        preFetchMetrics(query, size <= limit ? objects : objects.subList(0, limit));
+
         if (size <= limit) {
             return new PaginatedResult<T>(offset, limit, offset + size, objects);
 
@@ -2574,11 +3346,52 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
             indexStates = states;
         }
 
-        SqlIndex.Static.deleteByStates(this, connection, indexStates);
-        Map<State, String> inRowIndexes = SqlIndex.Static.insertByStates(this, connection, indexStates);
+        Map<State, String> inRowIndexes;
+
+        if (isDiffIndexes()) {
+            inRowIndexes = SqlIndex.Static.diffByStates(this, connection, indexStates);
+
+        } else {
+            SqlIndex.Static.deleteByStates(this, connection, indexStates);
+            inRowIndexes = SqlIndex.Static.insertByStates(this, connection, indexStates);
+        }
+
         boolean hasInRowIndex = hasInRowIndex();
         SqlVendor vendor = getVendor();
         double now = System.currentTimeMillis() / 1000.0;
+        int upsertBatchSize = getUpsertBatchSize();
+
+        if (upsertBatchSize > 1 && vendor.supportsUpsert()) {
+            List<State> newStates = new ArrayList<State>();
+            List<State> otherStates = new ArrayList<State>();
+            Set<UUID> newIds = new HashSet<UUID>();
+
+            // Only new states are batched, since the Record primary key
+            // includes the type ID, so saved states need the UPDATE by ID
+            // below in case their types changed. Repeated IDs are saved
+            // after the batch so that they update the rows instead.
+            for (State state : states) {
+                if (state.isNew()
+                        && state.getAtomicOperations().isEmpty()
+                        && newIds.add(state.getId())) {
+
+                    newStates.add(state);
+
+                } else {
+                    otherStates.add(state);
+                }
+            }
+
+            List<State> failedStates = insertNewRecords(connection, newStates, inRowIndexes, now, upsertBatchSize);
+
+            if (failedStates.isEmpty()) {
+                states = otherStates;
+
+            } else {
+                failedStates.addAll(otherStates);
+                states = failedStates;
+            }
+        }
 
         for (State state : states) {
             boolean isNew = state.isNew();
@@ -2813,6 +3626,155 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
         }
     }
 
+    // Inserts the given new states using multi-row INSERTs of at most
+    // batchSize rows each, and returns the states in the batches that
+    // conflicted with existing rows, which need the per-state INSERT or
+    // UPDATE with fallback in #doSaves instead.
+    private List<State> insertNewRecords(
+            Connection connection,
+            List<State> states,
+            Map<State, String> inRowIndexes,
+            double now,
+            int batchSize)
+            throws SQLException {
+
+        List<State> failedStates = new ArrayList<State>();
+
+        if (states.isEmpty()) {
+            return failedStates;
+        }
+
+        List<State> withInRowIndex = new ArrayList<State>();
+        List<State> withoutInRowIndex = new ArrayList<State>();
+
+        for (State state : states) {
+            if (hasInRowIndex() && !Boolean.TRUE.equals(state.getExtra(SKIP_INDEX_STATE_EXTRA))) {
+                withInRowIndex.add(state);
+
+            } else {
+                withoutInRowIndex.add(state);
+            }
+        }
+
+        List<State> insertedStates = new ArrayList<State>();
+
+        insertRecordBatches(connection, withInRowIndex, inRowIndexes, batchSize, insertedStates, failedStates);
+        insertRecordBatches(connection, withoutInRowIndex, null, batchSize, insertedStates, failedStates);
+
+        SqlVendor vendor = getVendor();
+
+        for (int offset = 0, size = insertedStates.size(); offset < size; offset += batchSize) {
+            List<Object> parameters = new ArrayList<Object>();
+            StringBuilder insertBuilder = new StringBuilder();
+
+            insertBuilder.append("INSERT INTO ");
+            vendor.appendIdentifier(insertBuilder, RECORD_UPDATE_TABLE);
+            insertBuilder.append(" (");
+            vendor.appendIdentifier(insertBuilder, ID_COLUMN);
+            insertBuilder.append(',');
+            vendor.appendIdentifier(insertBuilder, TYPE_ID_COLUMN);
+            insertBuilder.append(',');
+            vendor.appendIdentifier(insertBuilder, UPDATE_DATE_COLUMN);
+            insertBuilder.append(") VALUES ");
+
+            for (State state : insertedStates.subList(offset, Math.min(offset + batchSize, size))) {
+                insertBuilder.append('(');
+                vendor.appendBindValue(insertBuilder, state.getId(), parameters);
+                insertBuilder.append(',');
+                vendor.appendBindValue(insertBuilder, state.getVisibilityAwareTypeId(), parameters);
+                insertBuilder.append(',');
+                vendor.appendBindValue(insertBuilder, now, parameters);
+                insertBuilder.append("),");
+            }
+
+            // RecordUpdate is keyed by the ID alone.
+            insertBuilder.setLength(insertBuilder.length() - 1);
+            vendor.appendUpsertClause(insertBuilder, ID_COLUMN, Arrays.asList(TYPE_ID_COLUMN, UPDATE_DATE_COLUMN));
+            Static.executeUpdateWithList(vendor, connection, insertBuilder.toString(), parameters);
+        }
+
+        return failedStates;
+    }
+
+    private void insertRecordBatches(
+            Connection connection,
+            List<State> states,
+            Map<State, String> inRowIndexes,
+            int batchSize,
+            List<State> insertedStates,
+            List<State> failedStates)
+            throws SQLException {
+
+        for (int offset = 0, size = states.size(); offset < size; offset += batchSize) {
+            List<State> batch = states.subList(offset, Math.min(offset + batchSize, size));
+
+            try {
+                insertRecordBatch(connection, batch, inRowIndexes);
+                insertedStates.addAll(batch);
+
+            } catch (SQLException error) {
+                if (Static.isIntegrityConstraintViolation(error)) {
+                    failedStates.addAll(batch);
+
+                } else {
+                    throw error;
+                }
+            }
+        }
+    }
+
+    // Inserts the given states into the Record table using a single
+    // multi-row INSERT. If inRowIndexes is null, the in-row index column is
+    // left alone.
+    private void insertRecordBatch(
+            Connection connection,
+            List<State> states,
+            Map<State, String> inRowIndexes)
+            throws SQLException {
+
+        SqlVendor vendor = getVendor();
+        boolean saveInRowIndex = inRowIndexes != null;
+        List<Object> parameters = new ArrayList<Object>();
+        StringBuilder insertBuilder = new StringBuilder();
+
+        insertBuilder.append("INSERT INTO ");
+        vendor.appendIdentifier(insertBuilder, RECORD_TABLE);
+        insertBuilder.append(" (");
+        vendor.appendIdentifier(insertBuilder, ID_COLUMN);
+        insertBuilder.append(',');
+        vendor.appendIdentifier(insertBuilder, TYPE_ID_COLUMN);
+        insertBuilder.append(',');
+        vendor.appendIdentifier(insertBuilder, DATA_COLUMN);
+
+        if (saveInRowIndex) {
+            insertBuilder.append(',');
+            vendor.appendIdentifier(insertBuilder, IN_ROW_INDEX_COLUMN);
+        }
+
+        insertBuilder.append(") VALUES ");
+
+        for (State state : states) {
+            insertBuilder.append('(');
+            vendor.appendBindValue(insertBuilder, state.getId(), parameters);
+            insertBuilder.append(',');
+            vendor.appendBindValue(insertBuilder, state.getVisibilityAwareTypeId(), parameters);
+            insertBuilder.append(',');
+            vendor.appendBindValue(insertBuilder, serializeState(state), parameters);
+
+            if (saveInRowIndex) {
+                String inRowIndex = inRowIndexes.get(state);
+
+                insertBuilder.append(',');
+                vendor.appendBindValue(insertBuilder, inRowIndex != null ? inRowIndex.getBytes(StandardCharsets.UTF_8) : new byte[0], parameters);
+            }
+
+            insertBuilder.append("),");
+        }
+
+        insertBuilder.setLength(insertBuilder.length() - 1);
+        Static.executeUpdateWithList(vendor, connection, insertBuilder.toString(), parameters);
+    }
+
     @Override
     protected void doIndexes(Connection connection, boolean isImmediate, List<State> states) throws SQLException {
         SqlIndex.Static.deleteByStates(this, connection, states);
@@ -3101,9 +4063,9 @@ public class SqlDatabase extends AbstractDatabase<Connection> {
                     UUID typeId = ObjectUtils.to(UUID.class, result.getObject(2));
                     byte[] data = result.getBytes(3);
                     Map<String, Object> dataJson = unserializeData(data);
-                    Map<String, Object> extras = null;
+                    Map<String, Object> extras = new CompactMap<String, Object>();
+                    extras.put(DATA_LENGTH_EXTRA, data.length);
                     if (Boolean.TRUE.equals(ObjectUtils.to(Boolean.class, query.getOptions().get(RETURN_ORIGINAL_DATA_QUERY_OPTION)))) {
-                        extras = new CompactMap<String, Object>();
                         extras.put(ORIGINAL_DATA_EXTRA, data);
                     }
 
@@ -923,12 +923,57 @@ public enum SqlIndex {
                 ObjectIndex onlyIndex,
                 List<State> states)
                 throws SQLException {
+            return insertByStates(database, connection, onlyIndex, states, null, null);
+        }
+
+        private static Map<State, String> insertByStates(
+                SqlDatabase database,
+                Connection connection,
+                ObjectIndex onlyIndex,
+                List<State> states,
+                Map<State, List<IndexValue>> indexValuesByState,
+                Map<State, Set<String>> writeNamesByState)
+                throws SQLException {
 
             Map<State, String> inRowIndexes = new HashMap<State, String>();
             if (states == null || states.isEmpty()) {
                 return inRowIndexes;
             }
 
+            // Resolve all the symbols used by the in-row indexes at once.
+            if (database.hasInRowIndex()) {
+                Map<State, List<IndexValue>> resolvedIndexValuesByState = new HashMap<State, List<IndexValue>>();
+                Set<String> symbols = new HashSet<String>();
+
+                for (State state : states) {
+                    List<IndexValue> indexValues = indexValuesByState != null ? indexValuesByState.get(state) : null;
+
+                    if (indexValues == null) {
+                        indexValues = getIndexValues(state);
+                    }
+
+                    resolvedIndexValuesByState.put(state, indexValues);
+
+                    for (IndexValue indexValue : indexValues) {
+                        ObjectIndex index = indexValue.getIndex();
+
+                        if ((onlyIndex == null || onlyIndex.equals(index)) && index.isShortConstant()) {
+                            symbols.add(index.getUniqueName());
+
+                            for (Object[] values : indexValue.getValuesArray()) {
+                                symbols.add(values[0].toString());
+                            }
+                        }
+                    }
+                }
+
+                if (!symbols.isEmpty()) {
+                    database.getSymbolIds(symbols);
+                }
+
+                indexValuesByState = resolvedIndexValuesByState;
+            }
+
             Map<String, String> insertQueries = new HashMap<String, String>();
             Map<String, List<List<Object>>> insertParameters = new HashMap<String, List<List<Object>>>();
             Map<String, Set<String>> insertBindKeys = new HashMap<String, Set<String>>();
@@ -936,8 +981,14 @@ public enum SqlIndex {
             for (State state : states) {
                 UUID id = state.getId();
                 UUID typeId = state.getVisibilityAwareTypeId();
+                List<IndexValue> indexValues = indexValuesByState != null ? indexValuesByState.get(state) : null;
+                Set<String> writeNames = writeNamesByState != null ? writeNamesByState.get(state) : null;
+
+                if (indexValues == null) {
+                    indexValues = getIndexValues(state);
+                }
 
-                for (IndexValue indexValue : getIndexValues(state)) {
+                for (IndexValue indexValue : indexValues) {
                     ObjectIndex index = indexValue.getIndex();
                     if (onlyIndex != null && !onlyIndex.equals(index)) {
                         continue;
@@ -971,6 +1022,10 @@ public enum SqlIndex {
                         continue;
                     }
 
+                    if (writeNames != null && !writeNames.contains(indexValue.getUniqueName())) {
+                        continue;
+                    }
+
                     for (SqlIndex.Table table : getByIndex(index).getWriteTables(database, index)) {
                         String name = table.getName(database, index);
                         String sqlQuery = insertQueries.get(name);
@@ -1009,6 +1064,181 @@ public enum SqlIndex {
             return inRowIndexes;
         }
 
+        /**
+         * Updates the index rows associated with the given {@code states} by
+         * comparing them against the index values of the currently saved
+         * data, and only rewriting the rows of the indexes that changed.
+         * States without any saved data, or whose visibility-aware type ID
+         * changed, are fully reindexed as in {@link #deleteByStates} and
+         * {@link #insertByStates}.
+         *
+         * <p>The saved rows are selected {@code FOR UPDATE} so that the
+         * comparison can't race against another writer within the same
+         * transaction.</p>
+         *
+         * @return Same as {@link #insertByStates}.
+         */
+        public static Map<State, String> diffByStates(
+                SqlDatabase database,
+                Connection connection,
+                List<State> states)
+                throws SQLException {
+
+            if (states == null || states.isEmpty()) {
+                return new HashMap<State, String>();
+            }
+
+            Map<UUID, State> savedStates = database.selectSavedStates(connection, states);
+            List<State> fullStates = new ArrayList<State>();
+            List<State> diffStates = new ArrayList<State>();
+            Map<State, List<IndexValue>> indexValuesByState = new HashMap<State, List<IndexValue>>();
+            Map<State, Set<String>> changedNamesByState = new HashMap<State, Set<String>>();
+            Map<String, String> deleteQueries = new HashMap<String, String>();
+            Map<String, List<List<Object>>> deleteParameters = new HashMap<String, List<List<Object>>>();
+            SqlVendor vendor = database.getVendor();
+
+            for (State state : states) {
+                State savedState = savedStates.get(state.getId());
+
+                if (savedState == null
+                        || !ObjectUtils.equals(state.getVisibilityAwareTypeId(), savedState.getVisibilityAwareTypeId())) {
+                    fullStates.add(state);
+                    continue;
+                }
+
+                List<IndexValue> indexValues = getIndexValues(state);
+                Map<String, Set<String>> newRows = new HashMap<String, Set<String>>();
+                Map<String, Set<String>> oldRows = new HashMap<String, Set<String>>();
+                Map<String, ObjectIndex> indexesByName = new HashMap<String, ObjectIndex>();
+                Set<String> changedNames = new HashSet<String>();
+
+                collectIndexRows(database, indexValues, newRows, indexesByName);
+                collectIndexRows(database, getIndexValues(savedState), oldRows, indexesByName);
+
+                for (Map.Entry<String, Set<String>> entry : newRows.entrySet()) {
+                    String name = entry.getKey();
+
+                    if (!entry.getValue().equals(oldRows.get(name))) {
+                        changedNames.add(name);
+                    }
+                }
+
+                for (String name : oldRows.keySet()) {
+                    if (!newRows.containsKey(name)) {
+                        changedNames.add(name);
+                    }
+                }
+
+                diffStates.add(state);
+                indexValuesByState.put(state, indexValues);
+                changedNamesByState.put(state, changedNames);
+
+                // Only delete the rows of the indexes that changed.
+                for (String name : changedNames) {
+                    ObjectIndex index = indexesByName.get(name);
+
+                    for (Table table : getByIndex(index).getWriteTables(database, index)) {
+                        Object key = table.convertReadKey(database, index, name);
+
+                        if (key == null || (key instanceof Integer && ((Integer) key) < 0)) {
+                            continue;
+                        }
+
+                        String tableName = table.getName(database, index);
+                        String sqlQuery = deleteQueries.get(tableName);
+                        List<List<Object>> parameters = deleteParameters.get(tableName);
+
+                        if (sqlQuery == null) {
+                            StringBuilder deleteBuilder = new StringBuilder();
+
+                            deleteBuilder.append("DELETE FROM ");
+                            vendor.appendIdentifier(deleteBuilder, tableName);
+                            deleteBuilder.append(" WHERE ");
+                            vendor.appendIdentifier(deleteBuilder, table.getIdField(database, index));
+                            deleteBuilder.append(" = ? AND ");
+                            vendor.appendIdentifier(deleteBuilder, table.getKeyField(database, index));
+                            deleteBuilder.append(" = ?");
+
+                            sqlQuery = deleteBuilder.toString();
+                            deleteQueries.put(tableName, sqlQuery);
+
+                            parameters = new ArrayList<List<Object>>();
+                            deleteParameters.put(tableName, parameters);
+                        }
+
+                        List<Object> rowData = new ArrayList<Object>();
+                        StringBuilder ignored = new StringBuilder();
+
+                        vendor.appendBindValue(ignored, state.getId(), rowData);
+                        vendor.appendBindValue(ignored, key, rowData);
+                        parameters.add(rowData);
+                    }
+                }
+            }
+
+            for (Map.Entry<String, String> entry : deleteQueries.entrySet()) {
+                String sqlQuery = entry.getValue();
+                List<List<Object>> parameters = deleteParameters.get(entry.getKey());
+
+                try {
+                    SqlDatabase.Static.executeBatchUpdate(connection, sqlQuery, parameters);
+
+                } catch (BatchUpdateException bue) {
+                    SqlDatabase.Static.logBatchUpdateException(bue, sqlQuery, parameters);
+                    throw bue;
+                }
+            }
+
+            deleteByStates(database, connection, fullStates);
+
+            Map<State, String> inRowIndexes = insertByStates(database, connection, fullStates);
+
+            inRowIndexes.putAll(insertByStates(database, connection, null, diffStates, indexValuesByState, changedNamesByState));
+
+            return inRowIndexes;
+        }
+
+        // Collects the comparable form of the rows that would be written for
+        // the given indexValues, keyed by their unique names. In-row indexes
+        // are skipped, since they're always rewritten with the record.
+        private static void collectIndexRows(
+                SqlDatabase database,
+                List<IndexValue> indexValues,
+                Map<String, Set<String>> rows,
+                Map<String, ObjectIndex> indexesByName) {
+
+            SqlVendor vendor = database.getVendor();
+
+            for (IndexValue indexValue : indexValues) {
+                ObjectIndex index = indexValue.getIndex();
+
+                if (database.hasInRowIndex() && index.isShortConstant()) {
+                    continue;
+                }
+
+                String name = indexValue.getUniqueName();
+                Set<String> nameRows = rows.get(name);
+
+                if (nameRows == null) {
+                    nameRows = new HashSet<String>();
+                    rows.put(name, nameRows);
+                }
+
+                indexesByName.put(name, index);
+
+                for (Object[] values : indexValue.getValuesArray()) {
+                    StringBuilder rowBuilder = new StringBuilder();
+
+                    for (Object value : values) {
+                        vendor.appendValue(rowBuilder, value);
+                        rowBuilder.append(',');
+                    }
+
+                    nameRows.add(rowBuilder.toString());
+                }
+            }
+        }
+
         /**
          * Returns a list of indexable values in this state. This is a helper
          * method for database implementations and isn't meant for general
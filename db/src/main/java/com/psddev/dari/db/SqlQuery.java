@@ -27,6 +27,10 @@ import com.psddev.dari.util.StringUtils;
 class SqlQuery {
 
     private static final Pattern QUERY_KEY_PATTERN = Pattern.compile("\\$\\{([^}]+)\\}");
+
+    // Marks where the bind values go until all the clauses are assembled,
+    // since they're not always appended to the statement in order.
+    private static final char BIND_VALUE_MARKER = '\u0000';
     //private static final Logger LOGGER = LoggerFactory.getLogger(SqlQuery.class);
 
     private final SqlDatabase database;
@@ -74,6 +78,8 @@ class SqlQuery {
     private final List<Predicate> havingPredicates = new ArrayList<Predicate>();
     private final List<Predicate> parentHavingPredicates = new ArrayList<Predicate>();
 
+    private List<Object> bindValues;
+
     /**
      * Creates an instance that can translate the given {@code query}
      * with the given {@code database}.
@@ -156,12 +162,43 @@ class SqlQuery {
         if (subSqlQuery == null) {
             subSqlQuery = new SqlQuery(database, subQuery, aliasPrefix + "s" + subSqlQueries.size());
             subSqlQuery.forceLeftJoins = forceLeftJoins;
+            subSqlQuery.bindValues = bindValues;
             subSqlQuery.initializeClauses();
             subSqlQueries.put(subQuery, subSqlQuery);
         }
         return subSqlQuery;
     }
 
+    private SqlQuery createValueSqlQuery(Query<?> valueQuery) {
+        SqlQuery valueSqlQuery = new SqlQuery(database, valueQuery);
+        valueSqlQuery.bindValues = bindValues;
+        return valueSqlQuery;
+    }
+
+    // Appends the given value as a marker if the statement is being
+    // parameterized, or as a literal otherwise.
+    private void appendComparisonValue(StringBuilder builder, Object value) {
+        if (bindValues == null || value == null) {
+            vendor.appendValue(builder, value);
+
+        } else {
+
+            // Same conversion as SqlVendor#appendValue.
+            if (!(value instanceof Number
+                    || value instanceof UUID
+                    || value instanceof byte[]
+                    || value instanceof Location
+                    || value instanceof Region)) {
+                value = value.toString();
+            }
+
+            builder.append(BIND_VALUE_MARKER);
+            builder.append(bindValues.size());
+            builder.append(BIND_VALUE_MARKER);
+            bindValues.add(value);
+        }
+    }
+
     /** Initializes FROM, WHERE, and ORDER BY clauses. */
     private void initializeClauses() {
 
@@ -664,7 +701,7 @@ class SqlQuery {
                             whereBuilder.append(" NOT");
                         }
                         whereBuilder.append(" IN (");
-                        whereBuilder.append(new SqlQuery(database, valueQuery).subQueryStatement());
+                        whereBuilder.append(createValueSqlQuery(valueQuery).subQueryStatement());
                         whereBuilder.append(')');
 
                     } else {
@@ -807,7 +844,7 @@ class SqlQuery {
                     if (findSimilarComparison(mappedKey.getField(), query.getPredicate())) {
                         whereBuilder.append(joinValueField);
                         whereBuilder.append(" IN (");
-                        whereBuilder.append(new SqlQuery(database, valueQuery).subQueryStatement());
+                        whereBuilder.append(createValueSqlQuery(valueQuery).subQueryStatement());
                         whereBuilder.append(')');
 
                     } else {
@@ -1711,6 +1748,36 @@ class SqlQuery {
         return statementBuilder.toString();
     }
 
+    /**
+     * Returns an SQL statement that can be used to list all rows
+     * matching the query, with the comparison values replaced by
+     * {@code ?} placeholders and added to the given {@code parameters}
+     * in order.
+     */
+    public String selectStatement(List<Object> parameters) {
+        bindValues = new ArrayList<Object>();
+
+        String statement = selectStatement();
+        StringBuilder boundBuilder = new StringBuilder(statement.length());
+
+        for (int last = 0, length = statement.length(); last < length;) {
+            int start = statement.indexOf(BIND_VALUE_MARKER, last);
+
+            if (start < 0) {
+                boundBuilder.append(statement, last, length);
+                break;
+            }
+
+            int end = statement.indexOf(BIND_VALUE_MARKER, start + 1);
+
+            boundBuilder.append(statement, last, start);
+            vendor.appendBindValue(boundBuilder, bindValues.get(Integer.parseInt(statement.substring(start + 1, end))), parameters);
+            last = end + 1;
+        }
+
+        return boundBuilder.toString();
+    }
+
     /** Returns an SQL statement that can be used as a sub-query. */
     public String subQueryStatement() {
         StringBuilder statementBuilder = new StringBuilder();
@@ -2098,7 +2165,7 @@ class SqlQuery {
                 }
             }
 
-            vendor.appendValue(builder, value);
+            appendComparisonValue(builder, value);
         }
 
         public String getValueField(String queryKey, ComparisonPredicate comparison) {
@@ -247,6 +247,14 @@ public class SqlVendor {
         return true;
     }
 
+    /**
+     * Returns {@code true} if the UUID columns compare the most and least
+     * significant bits as signed longs instead of as unsigned bytes.
+     */
+    public boolean isUuidComparisonSigned() {
+        return false;
+    }
+
     public void appendIdentifier(StringBuilder builder, String identifier) {
         builder.append('"');
         builder.append(identifier.replace("\"", "\"\""));
@@ -399,6 +407,38 @@ public class SqlVendor {
         return "/*__LIMIT_OFFSET__*/";
     }
 
+    /**
+     * Returns {@code true} if comparing against a value bound using
+     * {@link #appendBindValue} is always the same as comparing against the
+     * literal from {@link #appendValue}, so that the queries can be run
+     * through prepared statements.
+     */
+    public boolean supportsBindComparisonValues() {
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if this vendor can turn a multi-row
+     * {@code INSERT} into an upsert using {@link #appendUpsertClause}.
+     */
+    public boolean supportsUpsert() {
+        return false;
+    }
+
+    /**
+     * Appends the clause that follows the {@code VALUES} of a multi-row
+     * {@code INSERT} so that rows that conflict on the given
+     * {@code keyColumn} are updated with the given {@code updateColumns}
+     * instead.
+     *
+     * @throws UnsupportedOperationException If {@link #supportsUpsert}
+     *         returns {@code false}.
+     */
+    public void appendUpsertClause(StringBuilder builder, String keyColumn, List<String> updateColumns) {
+        throw new UnsupportedOperationException(String.format(
+                "[%s] doesn't support upserts!", getClass().getName()));
+    }
+
     /**
      * Creates a table using the given parameters.
      *
@@ -819,6 +859,10 @@ public class SqlVendor {
             return "UTF8TOSTRING(" + field + ")";
         }
 
+        @Override
+        public boolean isUuidComparisonSigned() {
+            return true;
+        }
     }
 
     public static class MySQL extends SqlVendor {
@@ -830,6 +874,30 @@ public class SqlVendor {
 
         private static final Logger LOGGER = LoggerFactory.getLogger(MySQL.class);
 
+        @Override
+        public boolean supportsBindComparisonValues() {
+            return true;
+        }
+
+        @Override
+        public boolean supportsUpsert() {
+            return true;
+        }
+
+        @Override
+        public void appendUpsertClause(StringBuilder builder, String keyColumn, List<String> updateColumns) {
+            builder.append(" ON DUPLICATE KEY UPDATE ");
+
+            for (String column : updateColumns) {
+                appendIdentifier(builder, column);
+                builder.append("=VALUES(");
+                appendIdentifier(builder, column);
+                builder.append("),");
+            }
+
+            builder.setLength(builder.length() - 1);
+        }
+
         @Override
         public void setTransactionIsolation(Connection connection) throws SQLException {
             if (statementReplication == null) {
@@ -928,6 +996,13 @@ public class SqlVendor {
         protected void appendSelectFields(StringBuilder builder, List<String> fields) {
             SqlDatabase database = getDatabase();
 
+            // dari_get_fields() only understands JSON.
+            if (database.isBinaryData()) {
+                builder.append("r.");
+                appendIdentifier(builder, SqlDatabase.DATA_COLUMN);
+                return;
+            }
+
             if (hasUdfGetFields == null) {
                 Connection connection = database.openConnection();
 
@@ -1344,6 +1419,27 @@ public class SqlVendor {
             return "postgres/schema-12.sql";
         }
 
+        @Override
+        public boolean supportsUpsert() {
+            return true;
+        }
+
+        @Override
+        public void appendUpsertClause(StringBuilder builder, String keyColumn, List<String> updateColumns) {
+            builder.append(" ON CONFLICT (");
+            appendIdentifier(builder, keyColumn);
+            builder.append(") DO UPDATE SET ");
+
+            for (String column : updateColumns) {
+                appendIdentifier(builder, column);
+                builder.append("=EXCLUDED.");
+                appendIdentifier(builder, column);
+                builder.append(',');
+            }
+
+            builder.setLength(builder.length() - 1);
+        }
+
         @Override
         protected boolean hasTable(Connection connection, String tableName) throws SQLException {
             return getTables(connection).contains(tableName.toLowerCase(Locale.ENGLISH));
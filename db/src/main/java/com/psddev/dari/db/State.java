@@ -66,6 +66,9 @@ public class State implements Map<String, Object> {
 
     public static final String SUB_DATA_STATE_EXTRA_PREFIX = "dari.subDataState.";
 
+    /** Extra that holds the type ID that the state was last read or written as. */
+    static final String SAVED_TYPE_ID_EXTRA = "dari.savedTypeId";
+
     private static final String ATOMIC_OPERATIONS_EXTRA = "dari.atomicOperations";
     private static final String MODIFICATIONS_EXTRA = "dari.modifications";
 
@@ -84,6 +87,7 @@ public class State implements Map<String, Object> {
     private UUID id;
     private UUID typeId;
     private final Map<String, Object> rawValues = new CompactMap<>();
+    private volatile Map<String, Object> lazyValues;
     private Map<String, Object> extras;
     private Map<ObjectField, List<String>> errors;
     private volatile int flags;
@@ -427,6 +431,125 @@ public class State implements Map<String, Object> {
         putAll(values);
     }
 
+    /**
+     * Sets the map of all the values lazily, so that each top-level value
+     * is only converted and copied to the linked objects when it's first
+     * accessed. Anything that needs all the values, such as saving,
+     * converts the rest.
+     *
+     * <p>This only takes effect on states linked to a {@linkplain
+     * ObjectType#isLazyLoaded lazily loaded} type, since their field reads
+     * are the only ones that go through {@link #beforeFieldGet}. Otherwise,
+     * it's equivalent to {@link #setValues}.</p>
+     *
+     * @param values Must be modifiable, since it's consumed as the values
+     *        are converted.
+     */
+    void setLazyValues(Map<String, Object> values) {
+        ObjectType type = getType();
+
+        if (linkedObjects.isEmpty() || type == null || !type.isLazyLoaded()) {
+            setValues(values);
+            return;
+        }
+
+        clear();
+
+        Map<String, Object> metricObjects = new HashMap<>();
+        resolveMetricReferences(metricObjects);
+        for (Map.Entry<String, Object> e : metricObjects.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+
+        lazyValues = values;
+        flags &= ~ALL_RESOLVED_FLAG;
+
+        for (String key : new ArrayList<>(values.keySet())) {
+            if (key.startsWith("_")) {
+                convertLazyValue(key);
+            }
+        }
+    }
+
+    // Converts the lazy value associated with the given key, if any. The
+    // lazy values are only cleared after the last one is in the raw values,
+    // so that the readers that see null without the lock see everything.
+    private synchronized void convertLazyValue(String key) {
+        Map<String, Object> lazy = lazyValues;
+
+        if (lazy == null || key == null || !lazy.containsKey(key)) {
+            return;
+        }
+
+        putConvertedLazyValue(key, lazy.remove(key));
+
+        if (lazy.isEmpty()) {
+            lazyValues = null;
+        }
+    }
+
+    // Converts all remaining lazy values.
+    private synchronized void convertLazyValues() {
+        Map<String, Object> lazy = lazyValues;
+
+        if (lazy == null) {
+            return;
+        }
+
+        for (String key : new ArrayList<>(lazy.keySet())) {
+            if (lazy.containsKey(key)) {
+                putConvertedLazyValue(key, lazy.remove(key));
+            }
+        }
+
+        lazyValues = null;
+    }
+
+    // Same as #putAll on a lazily loaded type.
+    private void putConvertedLazyValue(String key, Object value) {
+        if (StateValueUtils.toIdIfReference(value) != null) {
+            rawValues.put(key, value);
+            moveLazyReferences();
+            flags &= ~ALL_RESOLVED_FLAG;
+
+        } else {
+            put(key, value);
+        }
+    }
+
+    // Moves all remaining lazy references to the raw values, so that they're
+    // resolved together in one read like the ones set through #putAll.
+    private void moveLazyReferences() {
+        Map<String, Object> lazy = lazyValues;
+
+        if (lazy == null) {
+            return;
+        }
+
+        for (String key : new ArrayList<>(lazy.keySet())) {
+            Object value = lazy.get(key);
+
+            if (StateValueUtils.toIdIfReference(value) != null) {
+                lazy.remove(key);
+                rawValues.put(key, value);
+            }
+        }
+    }
+
+    // Drops the lazy value associated with the given key, if any, because
+    // it's being overwritten.
+    private synchronized void removeLazyValue(String key) {
+        Map<String, Object> lazy = lazyValues;
+
+        if (lazy != null && lazy.containsKey(key)) {
+            lazy.remove(key);
+
+            if (lazy.isEmpty()) {
+                lazyValues = null;
+            }
+        }
+    }
+
     /**
      * Returns a map of all values converted to only simple types:
      * {@code null}, {@link java.lang.Boolean}, {@link java.lang.Number},
@@ -758,6 +881,7 @@ public class State implements Map<String, Object> {
     }
 
     public Map<String, Object> getRawValues() {
+        convertLazyValues();
         return rawValues;
     }
 
@@ -768,6 +892,11 @@ public class State implements Map<String, Object> {
      * database.
      */
     public Object getRawValue(String name) {
+        if (lazyValues != null && name != null) {
+            int slashAt = name.indexOf('/');
+            convertLazyValue(slashAt > -1 ? name.substring(0, slashAt) : name);
+        }
+
         Object value = rawValues;
 
         for (String part : StringUtils.split(name, "/")) {
@@ -1568,6 +1697,10 @@ public class State implements Map<String, Object> {
     }
 
     public void beforeFieldGet(String name) {
+        if (lazyValues != null) {
+            convertLazyJavaField(name);
+        }
+
         List<Listener> listeners = LISTENERS_LOCAL.get();
 
         if (listeners != null && !listeners.isEmpty()) {
@@ -1577,6 +1710,57 @@ public class State implements Map<String, Object> {
         }
     }
 
+    /**
+     * Drops the lazily loaded value associated with the given Java field
+     * {@code name}, so that it doesn't overwrite the value being set
+     * directly on the field. This method doesn't need to be used directly in
+     * typical cases, because it will be called automatically by
+     * {@link LazyLoadEnhancer}.
+     */
+    public void beforeFieldSet(String name) {
+        if (lazyValues != null) {
+            String key = findLazyKey(name);
+
+            if (key != null) {
+                removeLazyValue(key);
+            }
+        }
+    }
+
+    // Converts the lazy value associated with the given Java field name.
+    private void convertLazyJavaField(String name) {
+        String key = findLazyKey(name);
+
+        if (key != null) {
+            convertLazyValue(key);
+        }
+    }
+
+    // Finds the key of the lazy value associated with the given Java field
+    // name.
+    private synchronized String findLazyKey(String name) {
+        Map<String, Object> lazy = lazyValues;
+
+        if (lazy == null) {
+            return null;
+
+        } else if (lazy.containsKey(name)) {
+            return name;
+        }
+
+        ObjectType type = getType();
+
+        if (type != null) {
+            for (ObjectField field : type.getFields()) {
+                if (name.equals(field.getJavaFieldName())) {
+                    return field.getInternalName();
+                }
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Resolves the reference possibly stored in the given {@code field}.
      * This method doesn't need to be used directly in typical cases, because
@@ -1767,6 +1951,8 @@ public class State implements Map<String, Object> {
     }
 
     private void copyJavaFieldsToRawValues() {
+        convertLazyValues();
+
         DatabaseEnvironment environment = getDatabase().getEnvironment();
 
         for (Object object : linkedObjects.values()) {
@@ -1801,6 +1987,9 @@ public class State implements Map<String, Object> {
 
         for (ObjectField field : type.getFields()) {
             String key = field.getInternalName();
+
+            convertLazyValue(key);
+
             Object value = StateValueUtils.toJavaValue(getDatabase(), object, field, field.getInternalType(), rawValues.get(key));
             rawValues.put(key, value);
 
@@ -1896,6 +2085,7 @@ public class State implements Map<String, Object> {
 
     @Override
     public void clear() {
+        lazyValues = null;
         rawValues.clear();
 
         DatabaseEnvironment environment = getDatabase().getEnvironment();
@@ -1924,7 +2114,13 @@ public class State implements Map<String, Object> {
 
     @Override
     public boolean containsKey(Object key) {
-        return rawValues.containsKey(key);
+        return rawValues.containsKey(key) || (lazyValues != null && containsLazyKey(key));
+    }
+
+    private synchronized boolean containsLazyKey(Object key) {
+        Map<String, Object> lazy = lazyValues;
+
+        return lazy != null && lazy.containsKey(key);
     }
 
     @Override
@@ -1946,6 +2142,7 @@ public class State implements Map<String, Object> {
             return null;
         }
 
+        convertLazyValue((String) key);
         resolveReferences();
 
         Object originalObject = getOriginalObjectOrNull();
@@ -1996,6 +2193,7 @@ public class State implements Map<String, Object> {
     @Nonnull
     @Override
     public Set<String> keySet() {
+        convertLazyValues();
         return rawValues.keySet();
     }
 
@@ -2026,6 +2224,10 @@ public class State implements Map<String, Object> {
             return null;
         }
 
+        if (lazyValues != null) {
+            removeLazyValue(key);
+        }
+
         boolean first =  true;
         for (Object object : linkedObjects.values()) {
             ObjectField field = State.getInstance(object).getField(key);
@@ -2095,6 +2297,7 @@ public class State implements Map<String, Object> {
 
     @Override
     public int size() {
+        convertLazyValues();
         return rawValues.size() + 2;
     }
 
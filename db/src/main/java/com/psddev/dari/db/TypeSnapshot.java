@@ -0,0 +1,437 @@
+package com.psddev.dari.db;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.psddev.dari.util.IoUtils;
+import com.psddev.dari.util.ObjectUtils;
+import com.psddev.dari.util.StringUtils;
+import com.psddev.dari.util.TypeDefinition;
+
+/**
+ * Local record of how each type was last initialized from its Java class,
+ * so that {@link DatabaseEnvironment#refreshTypes} can skip the types whose
+ * classes haven't changed since.
+ *
+ * <p>A type is skipped only if the fingerprint of its class and
+ * modifications, the fingerprint of the environment, and the values stored
+ * in the database all match what was recorded the last time that it was
+ * initialized.</p>
+ */
+class TypeSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TypeSnapshot.class);
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private static final String ENVIRONMENT_KEY = "environment";
+    private static final String TYPES_KEY = "types";
+    private static final String ID_KEY = "id";
+    private static final String FINGERPRINT_KEY = "fingerprint";
+    private static final String VALUES_KEY = "values";
+
+    // Classes whose changes affect how every type is initialized.
+    private static final Class<?>[] CORE_CLASSES = {
+            DatabaseEnvironment.class,
+            ObjectField.class,
+            ObjectIndex.class,
+            ObjectType.class,
+            TypeDefinition.class };
+
+    private final File file;
+    private String environmentFingerprint;
+    private final Map<String, Map<String, Object>> entries = new HashMap<String, Map<String, Object>>();
+    private final Map<Class<?>, String> classHashes = new HashMap<Class<?>, String>();
+    private boolean changed;
+
+    private TypeSnapshot(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the snapshot in the given {@code file}, or creates an empty one
+     * if it doesn't exist or can't be read.
+     *
+     * @param file Can't be {@code null}.
+     * @return Never {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    public static TypeSnapshot read(File file) {
+        TypeSnapshot snapshot = new TypeSnapshot(file);
+
+        if (file.isFile()) {
+            try {
+                Object json = ObjectUtils.fromJson(IoUtils.toString(file, StringUtils.UTF_8));
+
+                if (json instanceof Map) {
+                    Map<String, Object> map = (Map<String, Object>) json;
+                    Object types = map.get(TYPES_KEY);
+
+                    snapshot.environmentFingerprint = ObjectUtils.to(String.class, map.get(ENVIRONMENT_KEY));
+
+                    if (types instanceof Map) {
+                        for (Map.Entry<String, Object> entry : ((Map<String, Object>) types).entrySet()) {
+                            if (entry.getValue() instanceof Map) {
+                                snapshot.entries.put(entry.getKey(), (Map<String, Object>) entry.getValue());
+                            }
+                        }
+                    }
+                }
+
+            } catch (IOException | RuntimeException error) {
+                LOGGER.warn(String.format("Can't read the type snapshot [%s]!", file), error);
+            }
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Writes this snapshot to its file if anything changed since it was
+     * read.
+     */
+    public void write() {
+        if (!changed) {
+            return;
+        }
+
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+
+        map.put(ENVIRONMENT_KEY, environmentFingerprint);
+        map.put(TYPES_KEY, new TreeMap<String, Object>(entries));
+
+        File temporaryFile = new File(file.getPath() + ".tmp");
+
+        try {
+            IoUtils.createParentDirectories(file);
+
+            OutputStream output = new FileOutputStream(temporaryFile);
+
+            try {
+                output.write(ObjectUtils.toJson(map).getBytes(StringUtils.UTF_8));
+
+            } finally {
+                output.close();
+            }
+
+            IoUtils.rename(temporaryFile, file);
+            changed = false;
+
+        } catch (IOException error) {
+            LOGGER.warn(String.format("Can't write the type snapshot [%s]!", file), error);
+        }
+    }
+
+    /**
+     * Sets the fingerprint of the environment, which invalidates all types
+     * if it's different from the one recorded before.
+     */
+    public void setEnvironmentFingerprint(String environmentFingerprint) {
+        if (!environmentFingerprint.equals(this.environmentFingerprint)) {
+            this.environmentFingerprint = environmentFingerprint;
+            entries.clear();
+            changed = true;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the given {@code type} was recorded with the
+     * given {@code fingerprint} and {@code valuesHash} before, which means
+     * that initializing it again would produce the same values.
+     */
+    public boolean isUnchanged(ObjectType type, String fingerprint, String valuesHash) {
+        Map<String, Object> entry = entries.get(type.getObjectClassName());
+
+        return entry != null
+                && type.getId().toString().equals(entry.get(ID_KEY))
+                && fingerprint.equals(entry.get(FINGERPRINT_KEY))
+                && valuesHash.equals(entry.get(VALUES_KEY));
+    }
+
+    /**
+     * Records that the given {@code type} was initialized with the given
+     * {@code fingerprint} to values with the given {@code valuesHash}.
+     */
+    public void put(ObjectType type, String fingerprint, String valuesHash) {
+        Map<String, Object> entry = new LinkedHashMap<String, Object>();
+
+        entry.put(ID_KEY, type.getId().toString());
+        entry.put(FINGERPRINT_KEY, fingerprint);
+        entry.put(VALUES_KEY, valuesHash);
+
+        if (!entry.equals(entries.put(type.getObjectClassName(), entry))) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Calculates the fingerprint of the environment from the core classes,
+     * the given {@code globalModifications}, the global fields and indexes,
+     * and the IDs of the given {@code types}. This should be called first
+     * on every refresh.
+     */
+    public String fingerprintEnvironment(DatabaseEnvironment environment, Collection<Class<?>> globalModifications, Collection<ObjectType> types) {
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        Set<String> typeIds = new TreeSet<String>();
+
+        // Classes may have been redefined since the last refresh.
+        classHashes.clear();
+
+        for (Class<?> coreClass : CORE_CLASSES) {
+            hasher.putUnencodedChars(hashClass(coreClass));
+        }
+
+        for (Class<?> modification : globalModifications) {
+            typeIds.add(modification.getName() + '=' + fingerprint(modification, null));
+        }
+
+        for (ObjectType type : types) {
+            typeIds.add(type.getObjectClassName() + '=' + type.getId());
+        }
+
+        for (String typeId : typeIds) {
+            hasher.putUnencodedChars(typeId);
+        }
+
+        State globals = environment.getGlobals();
+
+        if (globals != null) {
+            hasher.putUnencodedChars(hashValues(globals.get(DatabaseEnvironment.GLOBAL_FIELDS_FIELD)));
+            hasher.putUnencodedChars(hashValues(globals.get(DatabaseEnvironment.GLOBAL_INDEXES_FIELD)));
+        }
+
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Calculates the fingerprint of the given {@code objectClass} along with
+     * the given {@code modifications} from their bytecode, their super
+     * classes and interfaces, and the annotations on them and their fields.
+     * The bytecode of the field types, such as {@code Foo} in
+     * {@code List<Foo>}, and of their super classes and interfaces is
+     * included as well, since changes to them, like becoming
+     * {@link Recordable.Embedded}, change how the fields are initialized.
+     *
+     * @param modifications May be {@code null}.
+     */
+    public String fingerprint(Class<?> objectClass, List<Class<?>> modifications) {
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+
+        classes.add(objectClass);
+
+        if (modifications != null) {
+            classes.addAll(modifications);
+        }
+
+        for (Class<?> c : classes) {
+            Set<String> hashes = new TreeSet<String>();
+            Set<Class<?>> visited = new HashSet<Class<?>>();
+            Deque<Class<?>> queue = new ArrayDeque<Class<?>>();
+            Deque<Class<?>> fieldTypes = new ArrayDeque<Class<?>>();
+
+            queue.add(c);
+
+            for (Class<?> next; (next = queue.poll()) != null;) {
+                if (next.getClassLoader() == null || !visited.add(next)) {
+                    continue;
+                }
+
+                hashes.add(next.getName() + '=' + hashClass(next));
+
+                try {
+                    for (Annotation annotation : next.getDeclaredAnnotations()) {
+                        queue.add(annotation.annotationType());
+                    }
+
+                    for (Field field : next.getDeclaredFields()) {
+                        for (Annotation annotation : field.getDeclaredAnnotations()) {
+                            queue.add(annotation.annotationType());
+                        }
+
+                        addClasses(fieldTypes, field.getGenericType());
+                    }
+
+                } catch (LinkageError | RuntimeException error) {
+                    // Annotations can't be resolved, so the hash of the
+                    // class itself has to be enough.
+                }
+
+                Class<?> superClass = next.getSuperclass();
+
+                if (superClass != null) {
+                    queue.add(superClass);
+                }
+
+                for (Class<?> interfaceClass : next.getInterfaces()) {
+                    queue.add(interfaceClass);
+                }
+            }
+
+            // The field types aren't followed into their own fields, which
+            // would pull in most of the other classes.
+            for (Class<?> next; (next = fieldTypes.poll()) != null;) {
+                if (next.getClassLoader() == null || !visited.add(next)) {
+                    continue;
+                }
+
+                hashes.add(next.getName() + '=' + hashClass(next));
+
+                Class<?> superClass = next.getSuperclass();
+
+                if (superClass != null) {
+                    fieldTypes.add(superClass);
+                }
+
+                for (Class<?> interfaceClass : next.getInterfaces()) {
+                    fieldTypes.add(interfaceClass);
+                }
+            }
+
+            hasher.putUnencodedChars(c.getName());
+
+            for (String hash : hashes) {
+                hasher.putUnencodedChars(hash);
+            }
+        }
+
+        return hasher.hash().toString();
+    }
+
+    // Adds the classes that the given type is made of, such as List and Foo
+    // for List<Foo[]>. The bounds of the type variables are already in the
+    // bytecode of the class that declares them, so they're skipped.
+    static void addClasses(Collection<Class<?>> classes, Type type) {
+        if (type instanceof Class) {
+            Class<?> c = (Class<?>) type;
+
+            while (c.isArray()) {
+                c = c.getComponentType();
+            }
+
+            classes.add(c);
+
+        } else if (type instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+
+            addClasses(classes, parameterizedType.getRawType());
+
+            for (Type argument : parameterizedType.getActualTypeArguments()) {
+                addClasses(classes, argument);
+            }
+
+        } else if (type instanceof GenericArrayType) {
+            addClasses(classes, ((GenericArrayType) type).getGenericComponentType());
+
+        } else if (type instanceof WildcardType) {
+            WildcardType wildcardType = (WildcardType) type;
+
+            for (Type bound : wildcardType.getUpperBounds()) {
+                addClasses(classes, bound);
+            }
+
+            for (Type bound : wildcardType.getLowerBounds()) {
+                addClasses(classes, bound);
+            }
+        }
+    }
+
+    // Hashes the bytecode of the given class, or just its name if the
+    // bytecode isn't available.
+    private String hashClass(Class<?> c) {
+        String hash = classHashes.get(c);
+
+        if (hash == null) {
+            ClassLoader loader = c.getClassLoader();
+            InputStream input = loader != null ? loader.getResourceAsStream(c.getName().replace('.', '/') + ".class") : null;
+
+            if (input != null) {
+                try {
+                    try {
+                        hash = HASH_FUNCTION.hashBytes(IoUtils.toByteArray(input)).toString();
+
+                    } finally {
+                        input.close();
+                    }
+
+                } catch (IOException error) {
+                    // Fall back to using the name below.
+                }
+            }
+
+            if (hash == null) {
+                hash = HASH_FUNCTION.hashUnencodedChars(c.getName()).toString();
+            }
+
+            classHashes.put(c, hash);
+        }
+
+        return hash;
+    }
+
+    /**
+     * Hashes the given simple {@code values} after sorting all map keys, so
+     * that the values loaded from the database hash the same as the ones
+     * produced by initializing the type.
+     *
+     * @param values May be {@code null}.
+     * @return Never {@code null}.
+     */
+    public static String hashValues(Object values) {
+        return HASH_FUNCTION.hashUnencodedChars(ObjectUtils.toJson(sortKeys(values))).toString();
+    }
+
+    private static Object sortKeys(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> sorted = new TreeMap<String, Object>();
+
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                sorted.put(String.valueOf(entry.getKey()), sortKeys(entry.getValue()));
+            }
+
+            return sorted;
+
+        } else if (value instanceof Collection) {
+            List<Object> list = new ArrayList<Object>();
+
+            for (Object item : (Collection<?>) value) {
+                list.add(sortKeys(item));
+            }
+
+            return list;
+
+        } else if (value instanceof UUID) {
+            return value.toString();
+
+        } else {
+            return value;
+        }
+    }
+}
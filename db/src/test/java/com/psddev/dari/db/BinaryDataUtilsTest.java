@@ -0,0 +1,113 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.psddev.dari.util.ObjectUtils;
+
+public class BinaryDataUtilsTest {
+
+    private Map<String, Object> createValues() {
+        Map<String, Object> nested = new LinkedHashMap<String, Object>();
+        nested.put("_ref", UUID.randomUUID().toString());
+        nested.put("_type", UUID.randomUUID().toString());
+
+        List<Object> list = new ArrayList<Object>();
+        list.add(nested);
+        list.add("text");
+        list.add(-12L);
+        list.add(null);
+
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        values.put("_id", UUID.randomUUID().toString());
+        values.put("_type", UUID.randomUUID().toString());
+        values.put("string", "café ☃");
+        values.put("upperUuid", UUID.randomUUID().toString().toUpperCase());
+        values.put("long", Long.MIN_VALUE);
+        values.put("int", 42);
+        values.put("double", 1.5);
+        values.put("boolean", true);
+        values.put("null", null);
+        values.put("list", list);
+        values.put("map", nested);
+
+        return values;
+    }
+
+    @Test
+    public void roundTripMatchesJson() {
+        Map<String, Object> values = createValues();
+        Object json = ObjectUtils.fromJson(ObjectUtils.toJson(values).getBytes(StandardCharsets.UTF_8));
+        Map<String, Object> decoded = BinaryDataUtils.decode(BinaryDataUtils.encode(values));
+
+        assertEquals(json, decoded);
+        assertEquals(Long.class, decoded.get("int").getClass());
+        assertEquals(String.class, decoded.get("_id").getClass());
+    }
+
+    @Test
+    public void smallerThanJson() {
+        Map<String, Object> values = createValues();
+        byte[] binary = BinaryDataUtils.encode(values);
+
+        assertEquals(BinaryDataUtils.FORMAT, binary[0]);
+        assertTrue(binary.length < ObjectUtils.toJson(values).getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    public void unknownTypeIsNormalized() {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        values.put("array", Arrays.asList(1, 2, 3).toArray());
+
+        assertEquals(
+                ObjectUtils.fromJson(ObjectUtils.toJson(values)),
+                BinaryDataUtils.decode(BinaryDataUtils.encode(values)));
+    }
+
+    @Test
+    public void decodeLazilyMatchesDecode() {
+        byte[] binary = BinaryDataUtils.encode(createValues());
+        Map<String, Object> decoded = BinaryDataUtils.decode(binary);
+        Map<String, Object> lazy = BinaryDataUtils.decodeLazily(binary);
+
+        assertEquals(decoded.keySet(), lazy.keySet());
+        assertEquals(decoded.get("list"), lazy.get("list"));
+        assertEquals(decoded.get("map"), lazy.remove("map"));
+        assertTrue(!lazy.containsKey("map"));
+
+        decoded.remove("map");
+        assertEquals(decoded, lazy);
+    }
+
+    @Test
+    public void otherNumbersMatchJson() {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        values.put("decimal", new BigDecimal("1.50"));
+        values.put("integralDecimal", new BigDecimal("100.0"));
+        values.put("precise", new BigDecimal("0.12345678901234567890123"));
+        values.put("bigInteger", BigInteger.valueOf(Long.MAX_VALUE));
+        values.put("hugeInteger", BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE));
+        values.put("atomicLong", new AtomicLong(7));
+        values.put("atomicInteger", new AtomicInteger(-3));
+
+        Object json = ObjectUtils.fromJson(ObjectUtils.toJson(values));
+        Map<String, Object> decoded = BinaryDataUtils.decode(BinaryDataUtils.encode(values));
+
+        assertEquals(json, decoded);
+        assertEquals("1.50", decoded.get("decimal"));
+    }
+}
@@ -0,0 +1,126 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.psddev.dari.util.IoUtils;
+import com.psddev.dari.util.StringUtils;
+
+public class BootstrapExportTaskTest {
+
+    @Test
+    public void getRangeStart_splits_evenly() {
+        assertNull(BootstrapExportTask.getRangeStart(0, 4, false));
+        assertNull(BootstrapExportTask.getRangeStart(4, 4, false));
+        assertEquals(UUID.fromString("40000000-0000-0000-0000-000000000000"), BootstrapExportTask.getRangeStart(1, 4, false));
+        assertEquals(UUID.fromString("80000000-0000-0000-0000-000000000000"), BootstrapExportTask.getRangeStart(2, 4, false));
+        assertEquals(UUID.fromString("c0000000-0000-0000-0000-000000000000"), BootstrapExportTask.getRangeStart(3, 4, false));
+    }
+
+    @Test
+    public void getRangeStart_increases() {
+        for (int i = 2; i < 7; ++ i) {
+            assertTrue(Long.compareUnsigned(
+                    BootstrapExportTask.getRangeStart(i - 1, 7, false).getMostSignificantBits(),
+                    BootstrapExportTask.getRangeStart(i, 7, false).getMostSignificantBits()) < 0);
+        }
+    }
+
+    @Test
+    public void getRangeStart_signed_increases() {
+        assertEquals(UUID.fromString("c0000000-0000-0000-0000-000000000000"), BootstrapExportTask.getRangeStart(1, 4, true));
+        assertEquals(UUID.fromString("00000000-0000-0000-0000-000000000000"), BootstrapExportTask.getRangeStart(2, 4, true));
+        assertEquals(UUID.fromString("40000000-0000-0000-0000-000000000000"), BootstrapExportTask.getRangeStart(3, 4, true));
+
+        for (int i = 2; i < 7; ++ i) {
+            assertTrue(BootstrapExportTask.getRangeStart(i - 1, 7, true).getMostSignificantBits()
+                    < BootstrapExportTask.getRangeStart(i, 7, true).getMostSignificantBits());
+        }
+    }
+
+    @Test
+    public void ranges_cover_sign_boundary_once() {
+        TestDatabase testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        Database database = testDatabase.get();
+
+        Database.Static.overrideDefault(database);
+
+        try {
+            List<UUID> ids = Arrays.asList(
+                    UUID.fromString("00000000-0000-0000-0000-000000000000"),
+                    UUID.fromString("3fffffff-ffff-ffff-ffff-ffffffffffff"),
+                    UUID.fromString("7fffffff-ffff-ffff-0000-000000000000"),
+                    UUID.fromString("7fffffff-ffff-ffff-ffff-ffffffffffff"),
+                    UUID.fromString("80000000-0000-0000-0000-000000000000"),
+                    UUID.fromString("80000000-0000-0000-ffff-ffffffffffff"),
+                    UUID.fromString("c0000000-0000-0000-0000-000000000000"),
+                    UUID.fromString("ffffffff-ffff-ffff-ffff-ffffffffffff"));
+
+            for (UUID id : ids) {
+                ExportRecord record = new ExportRecord();
+
+                record.getState().setDatabase(database);
+                record.getState().setId(id);
+                record.saveImmediately();
+            }
+
+            // H2 compares the IDs as signed longs.
+            boolean signed = BootstrapExportTask.isIdComparisonSigned(database);
+
+            assertTrue(signed);
+
+            for (int ranges = 1; ranges <= 7; ++ ranges) {
+                List<UUID> found = new ArrayList<UUID>();
+
+                for (int i = 0; i < ranges; ++ i) {
+                    Query<ExportRecord> query = Query.from(ExportRecord.class).using(database).noCache();
+
+                    BootstrapExportTask.addRangePredicates(
+                            query,
+                            BootstrapExportTask.getRangeStart(i, ranges, signed),
+                            BootstrapExportTask.getRangeStart(i + 1, ranges, signed));
+
+                    for (ExportRecord record : query.selectAll()) {
+                        found.add(record.getId());
+                    }
+                }
+
+                assertEquals("ranges: " + ranges, ids.size(), found.size());
+                assertEquals("ranges: " + ranges, new HashSet<UUID>(ids), new HashSet<UUID>(found));
+            }
+
+        } finally {
+            Database.Static.restoreDefault();
+            testDatabase.close();
+        }
+    }
+
+    @Test
+    public void gzip_round_trip() throws Exception {
+        BootstrapExportTask.Compression compression = BootstrapExportTask.Compression.fromFileName("partition-00000-00000.jsonl.gz");
+        String contents = "{\"_id\":\"" + UUID.randomUUID() + "\"}\n";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream output = compression.compress(bytes);
+
+        output.write(contents.getBytes(StringUtils.UTF_8));
+        output.close();
+
+        assertEquals(BootstrapExportTask.Compression.GZIP, compression);
+        assertEquals(contents, IoUtils.toString(compression.decompress(new ByteArrayInputStream(bytes.toByteArray())), StringUtils.UTF_8));
+    }
+
+    public static class ExportRecord extends Record {
+    }
+}
@@ -0,0 +1,109 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.psddev.dari.util.StringUtils;
+
+public class BootstrapImportTaskTest {
+
+    @Test
+    public void indexOfUuid_finds_each_uuid() {
+        String first = UUID.randomUUID().toString();
+        String second = UUID.randomUUID().toString().toUpperCase();
+        String line = "{\"_id\":\"" + first + "\",\"ref\":{\"_ref\":\"" + second + "\"}}";
+        int firstIndex = line.indexOf(first);
+        int secondIndex = line.indexOf(second);
+
+        assertEquals(firstIndex, BootstrapImportTask.indexOfUuid(line, 0));
+        assertEquals(secondIndex, BootstrapImportTask.indexOfUuid(line, firstIndex + first.length()));
+        assertEquals(-1, BootstrapImportTask.indexOfUuid(line, secondIndex + second.length()));
+    }
+
+    @Test
+    public void indexOfUuid_skips_almost_uuids() {
+        String uuid = UUID.randomUUID().toString();
+        String line = "-- 0000000g-0000-0000-0000-000000000000 " + uuid.substring(0, 35) + " 2015-01-01 " + uuid;
+
+        assertEquals(line.lastIndexOf(uuid), BootstrapImportTask.indexOfUuid(line, 0));
+    }
+
+    @Test
+    public void importContents_translates_type_mapped_ids() throws Exception {
+        TestDatabase testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        Database database = testDatabase.get();
+
+        Database.Static.overrideDefault(database);
+
+        try {
+            ImportSingleton local = new ImportSingleton();
+
+            local.getState().setDatabase(database);
+            local.save();
+
+            DatabaseEnvironment environment = database.getEnvironment();
+            ObjectType singletonType = environment.getTypeByClass(ImportSingleton.class);
+            ObjectType referrerType = environment.getTypeByClass(ImportReferrer.class);
+            UUID remoteId = UUID.randomUUID();
+            List<UUID> referrerIds = new ArrayList<UUID>();
+            StringBuilder contents = new StringBuilder();
+
+            contents.append(BootstrapPackage.Static.TYPES_HEADER).append(": ")
+                    .append(singletonType.getInternalName()).append(',')
+                    .append(referrerType.getInternalName()).append("\n\n");
+
+            // The mapping record comes first, as written by the export.
+            contents.append("{\"_id\":\"").append(remoteId)
+                    .append("\",\"_type\":\"").append(singletonType.getInternalName())
+                    .append("\",\"dari.singleton.key\":\"").append(ImportSingleton.class.getName())
+                    .append("\"}\n");
+
+            for (int i = 0; i < 100; ++ i) {
+                UUID referrerId = UUID.randomUUID();
+
+                referrerIds.add(referrerId);
+                contents.append("{\"_id\":\"").append(referrerId)
+                        .append("\",\"_type\":\"").append(referrerType.getInternalName())
+                        .append("\",\"singleton\":{\"_ref\":\"").append(remoteId)
+                        .append("\",\"_type\":\"").append(singletonType.getId())
+                        .append("\"}}\n");
+            }
+
+            new BootstrapImportTask(
+                    database,
+                    "test",
+                    new ByteArrayInputStream(contents.toString().getBytes(StringUtils.UTF_8)),
+                    false,
+                    1,
+                    10,
+                    4).doTask();
+
+            for (UUID referrerId : referrerIds) {
+                ImportReferrer referrer = Query.from(ImportReferrer.class).using(database).where("_id = ?", referrerId).noCache().first();
+
+                assertNotNull(referrer);
+                assertNotNull(referrer.singleton);
+                assertEquals(local.getId(), referrer.singleton.getId());
+            }
+
+        } finally {
+            Database.Static.restoreDefault();
+            testDatabase.close();
+        }
+    }
+
+    public static class ImportSingleton extends Record implements Singleton {
+    }
+
+    public static class ImportReferrer extends Record {
+
+        public ImportSingleton singleton;
+    }
+}
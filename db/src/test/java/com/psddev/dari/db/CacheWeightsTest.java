@@ -0,0 +1,58 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.Weigher;
+
+public class CacheWeightsTest {
+
+    private static final Weigher<Object, Object> WEIGHER = (key, value) -> CacheWeights.weighInt(value);
+
+    private CacheWeights.Summary findSummary(String name) {
+        for (CacheWeights.Summary summary : CacheWeights.getAll()) {
+            if (summary.getName().equals(name)) {
+                return summary;
+            }
+        }
+
+        return null;
+    }
+
+    @Test
+    public void getAll_uses_cache_stats() {
+        String name = "Test Cache Stats";
+        Cache<Object, Object> cache = CacheWeights.register(name, CacheWeights.newBuilder(null, 10L, WEIGHER).build(), WEIGHER);
+
+        cache.put("a", "a");
+        cache.getIfPresent("a");
+        cache.getIfPresent("b");
+
+        CacheWeights.Summary summary = findSummary(name);
+
+        assertEquals(1L, summary.getHitCount());
+        assertEquals(1L, summary.getMissCount());
+    }
+
+    @Test
+    public void getAll_prefers_recorded_lookups() {
+        String name = "Test Recorded Lookups";
+        Cache<Object, Object> cache = CacheWeights.register(name, CacheWeights.newBuilder(null, 10L, WEIGHER).build(), WEIGHER);
+
+        // The cache itself only sees misses, e.g. because the values are
+        // looked up in nested maps.
+        cache.getIfPresent("a");
+        cache.getIfPresent("b");
+        CacheWeights.recordLookup(name, true);
+        CacheWeights.recordLookup(name, true);
+        CacheWeights.recordLookup(name, false);
+
+        CacheWeights.Summary summary = findSummary(name);
+
+        assertEquals(2L, summary.getHitCount());
+        assertEquals(1L, summary.getMissCount());
+        assertEquals(2.0 / 3.0, summary.getHitRate(), 0.0001);
+    }
+}
@@ -0,0 +1,229 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.psddev.dari.util.UuidUtils;
+
+public class MetricTest {
+
+    private static final String KEY = "dari.metric.value.test";
+
+    // Minutes since the epoch whose bytes all sort the same as signed and
+    // unsigned, since H2 compares binary values as signed bytes.
+    private static final long FIRST_EVENT_DATE = 0x01000000L * MetricAccess.DATE_DECIMAL_SHIFT;
+    private static final long SECOND_EVENT_DATE = 0x01000100L * MetricAccess.DATE_DECIMAL_SHIFT;
+
+    private State state;
+
+    @Before
+    public void before() {
+        state = new State();
+    }
+
+    @Test
+    public void findPreFetchedValue_missing() {
+        assertNull(Metric.Static.findPreFetchedValue(state, KEY, System.nanoTime()));
+    }
+
+    @Test
+    public void findPreFetchedValue_fresh() {
+        long now = System.nanoTime();
+
+        state.getExtras().put(KEY, new Metric.Static.PreFetchedValue(3.0, now + 1000L));
+
+        assertEquals(3.0, Metric.Static.findPreFetchedValue(state, KEY, now).value, 0.0);
+    }
+
+    @Test
+    public void findPreFetchedValue_expired() {
+        long now = System.nanoTime();
+
+        state.getExtras().put(KEY, new Metric.Static.PreFetchedValue(3.0, now));
+
+        assertNull(Metric.Static.findPreFetchedValue(state, KEY, now));
+        assertFalse(state.getExtras().containsKey(KEY));
+    }
+
+    @Test
+    public void getMetrics_matches_getMetric() throws SQLException {
+        TestDatabase testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        SqlDatabase database = createMetricDatabase(testDatabase);
+
+        try {
+            List<MetricRecord> records = createRecords(database);
+            MetricAccess access = getMetricAccess(records.get(0));
+            List<UUID> ids = new ArrayList<UUID>();
+
+            for (MetricRecord record : records) {
+                ids.add(record.getId());
+            }
+
+            for (Long start : Arrays.asList(null, SECOND_EVENT_DATE)) {
+                Map<UUID, Double> values = access.getMetrics(ids, null, start, null);
+                Map<UUID, Double> sums = access.getMetricSums(ids, start, null);
+
+                for (UUID id : ids) {
+                    assertEquals(access.getMetric(id, null, start, null), values.get(id));
+                    assertEquals(access.getMetric(id, null, start, null), sums.get(id));
+                }
+            }
+
+            Map<UUID, Double> values = access.getMetrics(ids, null, null, null);
+
+            assertEquals(5.0, values.get(ids.get(0)), 0.0);
+            assertEquals(4.0, values.get(ids.get(1)), 0.0);
+            assertFalse(values.containsKey(ids.get(2)));
+
+        } finally {
+            testDatabase.close();
+        }
+    }
+
+    @Test
+    public void preFetchMetricValues_matches_per_object_reads() throws SQLException {
+        TestDatabase testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+        SqlDatabase database = createMetricDatabase(testDatabase);
+
+        try {
+            List<MetricRecord> records = createRecords(database);
+            List<Double> sums = new ArrayList<Double>();
+            List<Boolean> empties = new ArrayList<Boolean>();
+
+            for (MetricRecord record : records) {
+                sums.add(record.getViews().getSum());
+                empties.add(record.getViews().isEmpty());
+            }
+
+            Metric.Static.preFetchMetricValues(records, null, null);
+            execute(database, "DROP TABLE Metric");
+
+            // Reading the table again would fail, so these come from the batch.
+            for (int i = 0, size = records.size(); i < size; ++ i) {
+                assertEquals(sums.get(i), records.get(i).getViews().getSum(), 0.0);
+                assertEquals(empties.get(i), records.get(i).getViews().isEmpty());
+            }
+
+            assertTrue(empties.get(2));
+
+        } finally {
+            testDatabase.close();
+        }
+    }
+
+    private SqlDatabase createMetricDatabase(TestDatabase testDatabase) throws SQLException {
+        SqlDatabase database = (SqlDatabase) testDatabase.get();
+
+        database.setVendor(new MetricH2());
+        execute(database, "CREATE TABLE Metric ("
+                + "id UUID NOT NULL, "
+                + "typeId UUID NOT NULL, "
+                + "symbolId INT NOT NULL, "
+                + "dimensionId UUID NOT NULL, "
+                + "data BINARY(20) NOT NULL)");
+
+        return database;
+    }
+
+    // Creates one record with two events, one with one event, and one
+    // without any rows.
+    private List<MetricRecord> createRecords(SqlDatabase database) throws SQLException {
+        List<MetricRecord> records = new ArrayList<MetricRecord>();
+
+        for (int i = 0; i < 3; ++ i) {
+            MetricRecord record = new MetricRecord();
+
+            record.getState().setDatabase(database);
+            records.add(record);
+        }
+
+        MetricAccess access = getMetricAccess(records.get(0));
+
+        insert(access, records.get(0).getId(), FIRST_EVENT_DATE, 2.0, 2.0);
+        insert(access, records.get(0).getId(), SECOND_EVENT_DATE, 5.0, 3.0);
+        insert(access, records.get(1).getId(), SECOND_EVENT_DATE, 4.0, 4.0);
+
+        return records;
+    }
+
+    private MetricAccess getMetricAccess(MetricRecord record) {
+        State state = record.getState();
+
+        return MetricAccess.Static.getMetricAccess(state.getDatabase(), state.getType(), state.getField("views"));
+    }
+
+    private void insert(MetricAccess access, UUID id, long eventDate, double cumulativeAmount, double amount) throws SQLException {
+        execute(access.getDatabase(), "INSERT INTO Metric VALUES ("
+                + "'" + id + "', "
+                + "'" + access.getTypeId() + "', "
+                + access.getSymbolId() + ", "
+                + "'" + UuidUtils.ZERO_UUID + "', "
+                + "X'" + String.format("%08x%016x%016x",
+                        (int) (eventDate / MetricAccess.DATE_DECIMAL_SHIFT),
+                        (long) (cumulativeAmount * MetricAccess.AMOUNT_DECIMAL_SHIFT),
+                        (long) (amount * MetricAccess.AMOUNT_DECIMAL_SHIFT)) + "')");
+    }
+
+    private void execute(SqlDatabase database, String sql) throws SQLException {
+        Connection connection = database.openConnection();
+
+        try {
+            Statement statement = connection.createStatement();
+
+            try {
+                statement.execute(sql);
+
+            } finally {
+                statement.close();
+            }
+
+        } finally {
+            database.closeConnection(connection);
+        }
+    }
+
+    public static class MetricRecord extends Record {
+
+        private Metric views;
+
+        public Metric getViews() {
+            if (views == null) {
+                views = new Metric(getState(), getState().getField("views"));
+            }
+            return views;
+        }
+    }
+
+    // Encodes the timestamps as binary literals, since H2 doesn't otherwise
+    // implement the metric SQL.
+    private static class MetricH2 extends SqlVendor.H2 {
+
+        @Override
+        public void appendMetricEncodeTimestampSql(StringBuilder str, List<Object> parameters, long timestamp, Character rpadHexChar) {
+            str.append("X'");
+            str.append(String.format("%08x", (int) (timestamp / MetricAccess.DATE_DECIMAL_SHIFT)));
+
+            if (rpadHexChar != null) {
+                for (int i = MetricAccess.DATE_BYTE_SIZE * 2; i < (MetricAccess.DATE_BYTE_SIZE + MetricAccess.AMOUNT_BYTE_SIZE * 2) * 2; ++ i) {
+                    str.append(rpadHexChar);
+                }
+            }
+
+            str.append('\'');
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.psddev.dari.util.UuidUtils;
+
+public class MetricWriteBufferTest {
+
+    private static final long EVENT_DATE = 1451606400000L;
+
+    private SqlDatabase database;
+    private MetricAccess metricAccess;
+    private MetricWriteBuffer buffer;
+
+    @Before
+    public void before() {
+        database = mock(SqlDatabase.class);
+        metricAccess = mock(MetricAccess.class);
+
+        when(database.getVendor()).thenReturn(new SqlVendor.H2());
+        when(metricAccess.getTypeId()).thenReturn(UUID.randomUUID());
+        when(metricAccess.getSymbolId()).thenReturn(1);
+        when(metricAccess.getEventDate(null)).thenReturn(EVENT_DATE);
+    }
+
+    @After
+    public void after() {
+        if (buffer != null) {
+            doThrow(new IllegalStateException()).when(database).openConnection();
+            buffer.close();
+        }
+    }
+
+    private void createBuffer(int maximumSize) {
+        buffer = new MetricWriteBuffer(database, Double.MAX_VALUE, Integer.MAX_VALUE, maximumSize, false);
+    }
+
+    @Test
+    public void add_same_key() throws SQLException {
+        createBuffer(10);
+        UUID id = UUID.randomUUID();
+
+        buffer.add(metricAccess, id, UuidUtils.ZERO_UUID, EVENT_DATE, true, 1.0);
+        buffer.add(metricAccess, id, UuidUtils.ZERO_UUID, EVENT_DATE, true, 2.0);
+
+        assertEquals(1, buffer.getSize());
+    }
+
+    @Test
+    public void add_drops_when_full() throws SQLException {
+        createBuffer(1);
+
+        buffer.add(metricAccess, UUID.randomUUID(), UuidUtils.ZERO_UUID, EVENT_DATE, true, 1.0);
+        buffer.add(metricAccess, UUID.randomUUID(), UuidUtils.ZERO_UUID, EVENT_DATE, true, 1.0);
+
+        assertEquals(1, buffer.getSize());
+        verify(database, never()).openConnection();
+    }
+
+    @Test
+    public void flush_failed_batch_rolls_back_and_retries() throws SQLException {
+        createBuffer(10);
+        Connection connection = mock(Connection.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+
+        when(database.openConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeBatch()).thenThrow(new SQLException());
+
+        buffer.add(metricAccess, UUID.randomUUID(), UuidUtils.ZERO_UUID, EVENT_DATE, true, 1.0);
+        buffer.add(metricAccess, UUID.randomUUID(), UuidUtils.ZERO_UUID, EVENT_DATE, true, 1.0);
+        buffer.flush();
+
+        verify(connection).rollback();
+        verify(connection, never()).commit();
+        verify(metricAccess, never()).afterIncrement(any(UUID.class));
+        assertEquals(2, buffer.getSize());
+    }
+
+    @Test
+    public void flush_failed_single_is_not_retried() throws SQLException {
+        createBuffer(10);
+
+        when(database.openConnection()).thenThrow(new IllegalStateException());
+
+        buffer.add(metricAccess, UUID.randomUUID(), UuidUtils.ZERO_UUID, EVENT_DATE, false, 1.0);
+        buffer.add(metricAccess, UUID.randomUUID(), UuidUtils.ZERO_UUID, EVENT_DATE, false, 1.0);
+        buffer.flush();
+
+        // The failed write may have run, so only the other one is retried.
+        verify(database, times(1)).openConnection();
+        assertEquals(1, buffer.getSize());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void add_after_close_writes_through() throws SQLException {
+        createBuffer(10);
+
+        buffer.close();
+        when(database.openConnection()).thenThrow(new IllegalStateException());
+        buffer.add(metricAccess, UUID.randomUUID(), UuidUtils.ZERO_UUID, EVENT_DATE, false, 1.0);
+    }
+}
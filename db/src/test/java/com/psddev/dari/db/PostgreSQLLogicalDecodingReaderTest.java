@@ -0,0 +1,63 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class PostgreSQLLogicalDecodingReaderTest {
+
+    private final UUID id = UUID.randomUUID();
+    private final UUID typeId = UUID.randomUUID();
+
+    @Test
+    public void parseChange_insert() {
+        PostgreSQLLogicalDecodingReader.Change change = PostgreSQLLogicalDecodingReader.parseChange(
+                "table public.record: INSERT: id[uuid]:'" + id + "' typeid[uuid]:'" + typeId + "' data[bytea]:'\\x7b7d'");
+
+        assertEquals(id, change.id);
+        assertArrayEquals("{}".getBytes(StandardCharsets.UTF_8), change.data);
+    }
+
+    @Test
+    public void parseChange_delete() {
+        PostgreSQLLogicalDecodingReader.Change change = PostgreSQLLogicalDecodingReader.parseChange(
+                "table public.record: DELETE: typeid[uuid]:'" + typeId + "' id[uuid]:'" + id + "'");
+
+        assertEquals(id, change.id);
+        assertNull(change.data);
+    }
+
+    @Test
+    public void parseChange_update_without_data() {
+        PostgreSQLLogicalDecodingReader.Change change = PostgreSQLLogicalDecodingReader.parseChange(
+                "table public.record: UPDATE: id[uuid]:'" + id + "' typeid[uuid]:'" + typeId + "' data[bytea]:unchanged-toast-datum");
+
+        assertEquals(id, change.id);
+        assertNull(change.data);
+    }
+
+    @Test
+    public void parseChange_other_table() {
+        assertNull(PostgreSQLLogicalDecodingReader.parseChange(
+                "table public.recordupdate: UPDATE: id[uuid]:'" + id + "' typeid[uuid]:'" + typeId + "' updatedate[numeric]:1"));
+        assertNull(PostgreSQLLogicalDecodingReader.parseChange("BEGIN 1234"));
+    }
+
+    @Test
+    public void getUuid_text_column() throws Exception {
+        ResultSet result = mock(ResultSet.class);
+
+        when(result.getString(3)).thenReturn(id.toString());
+        when(result.getBytes(3)).thenReturn(id.toString().getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(id, new SqlVendor.PostgreSQL().getUuid(result, 3));
+    }
+}
@@ -1,6 +1,7 @@
 package com.psddev.dari.db;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayDeque;
@@ -94,6 +95,18 @@ public class PredicateParserTest {
     	assertEquals(expect, pred);
     }
 
+    @Test
+    public void parse_cached_binds_new_parameters() {
+    	Predicate first = parser.parse("a = ? and b = ?1", "x", "y");
+    	Predicate second = parser.parse("a = ? and b = ?1", "z", "w");
+    	Predicate expect = CompoundPredicate.combine(
+    	        PredicateParser.AND_OPERATOR,
+    	        new ComparisonPredicate(PredicateParser.EQUALS_ANY_OPERATOR, false, "a", Arrays.asList("z")),
+    	        new ComparisonPredicate(PredicateParser.EQUALS_ANY_OPERATOR, false, "b", Arrays.asList("w")));
+    	assertEquals(expect, second);
+    	assertTrue(first != second && !first.equals(second));
+    }
+
     @Test (expected=IllegalArgumentException.class)
     public void parse_nospace() {
     	parser.parse("a=1");
@@ -451,6 +464,68 @@ public class PredicateParserTest {
         }
     }
 
+    @Test
+    public void compile_matches_evaluators() {
+        TestDatabase testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+
+        try {
+            TestRecord first = TestRecord.getInstance(testDatabase.get());
+            TestRecord second = TestRecord.getInstance(testDatabase.get());
+            first.setName("foo");
+            second.setName("bar");
+            first.setOther(second);
+
+            List<Predicate> predicates = Arrays.asList(
+                    parser.parse("name = foo"),
+                    parser.parse("name != foo"),
+                    parser.parse("name startsWith b or name = foo"),
+                    parser.parse("name = foo and other/name = bar"),
+                    parser.parse("not name = bar"),
+                    parser.parse("name = missing"));
+
+            for (Predicate predicate : predicates) {
+                PredicateParser.Evaluator evaluator = parser.getEvaluators().get(predicate.getOperator());
+                for (TestRecord record : Arrays.asList(first, second)) {
+                    boolean expected = evaluator.evaluate(parser, record, predicate);
+                    assertEquals(predicate + " on " + record.getName(), expected, parser.compile(predicate).evaluate(record));
+                    assertEquals(predicate + " on " + record.getName(), expected, parser.evaluate(record, predicate));
+                }
+            }
+
+            assertTrue(parser.compile(predicates.get(3)).evaluate(first));
+            assertFalse(parser.compile(predicates.get(3)).evaluate(second));
+
+        } finally {
+            testDatabase.close();
+        }
+    }
+
+    @Test
+    public void compile_uses_replaced_evaluator() {
+        TestDatabase testDatabase = DatabaseTestUtils.getSqlTestDatabase();
+
+        try {
+            TestRecord record = TestRecord.getInstance(testDatabase.get());
+            record.setName("foo");
+
+            Predicate predicate = parser.parse("name = foo and name != bar");
+            PredicateParser.Compiled compiled = parser.compile(predicate);
+            assertTrue(compiled.evaluate(record));
+
+            // Replacing a child's evaluator after compiling.
+            parser.getEvaluators().put(PredicateParser.EQUALS_ANY_OPERATOR, (p, object, child) -> false);
+            assertFalse(compiled.evaluate(record));
+            assertFalse(parser.evaluate(record, predicate));
+
+            // Replacing the compound evaluator after compiling.
+            parser.getEvaluators().put(PredicateParser.AND_OPERATOR, (p, object, compound) -> true);
+            assertTrue(compiled.evaluate(record));
+
+        } finally {
+            testDatabase.close();
+        }
+    }
+
     /**
      * For use in testing {@link PredicateParser.Static#evaluate} against hysteresis
      * effects of evaluating successive incompatibly-typed fields.
@@ -0,0 +1,56 @@
+package com.psddev.dari.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TypeSnapshotTest {
+
+    @Test
+    public void hashValues_ignores_key_order() {
+        Map<String, Object> first = new LinkedHashMap<String, Object>();
+        Map<String, Object> second = new LinkedHashMap<String, Object>();
+
+        first.put("internalName", "foo");
+        first.put("fields", Arrays.asList(Collections.singletonMap("name", "bar")));
+        second.put("fields", Arrays.asList(Collections.singletonMap("name", "bar")));
+        second.put("internalName", "foo");
+
+        assertEquals(TypeSnapshot.hashValues(first), TypeSnapshot.hashValues(second));
+    }
+
+    @Test
+    public void hashValues_keeps_list_order() {
+        Map<String, Object> first = new HashMap<String, Object>();
+        Map<String, Object> second = new HashMap<String, Object>();
+
+        first.put("labelFields", Arrays.asList("a", "b"));
+        second.put("labelFields", Arrays.asList("b", "a"));
+
+        assertNotEquals(TypeSnapshot.hashValues(first), TypeSnapshot.hashValues(second));
+    }
+
+    @Test
+    public void addClasses_generic_field() throws NoSuchFieldException {
+        Set<Class<?>> classes = new HashSet<Class<?>>();
+
+        TypeSnapshot.addClasses(classes, GenericFields.class.getDeclaredField("values").getGenericType());
+
+        assertEquals(new HashSet<Class<?>>(Arrays.<Class<?>>asList(List.class, Map.class, String.class, Number.class)), classes);
+    }
+
+    private static class GenericFields {
+
+        public List<Map<String, ? extends Number[]>> values;
+    }
+}
@@ -0,0 +1,299 @@
+package com.psddev.dari.elasticsearch;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.psddev.dari.util.Stats;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Writes to Elasticsearch in the background using a {@link BulkProcessor}
+ * that coalesces the requests from all threads by count, size and age.
+ *
+ * <p>The number of requests that haven't completed yet is bounded, so
+ * {@link #add} blocks when the cluster can't keep up. Items rejected by the
+ * cluster are retried with an exponential backoff, unless a newer request
+ * for the same document has been added in the meantime, so that a retry
+ * never overwrites a later write.</p>
+ */
+@SuppressWarnings("rawtypes")
+class ElasticsearchBulkWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ElasticsearchBulkWriter.class);
+    private static final Stats STATS = new Stats("Elasticsearch Bulk");
+
+    private static final String BULK_STATS_OPERATION = "Bulk";
+    private static final String RETRY_STATS_OPERATION = "Retry";
+    private static final String FAILURE_STATS_OPERATION = "Failure";
+    private static final String SUPERSEDED_STATS_OPERATION = "Superseded";
+    private static final long INITIAL_RETRY_DELAY = 100L;
+
+    private final BulkProcessor processor;
+    private final ScheduledExecutorService retryExecutor;
+    private final int maximumRetries;
+    private final Semaphore permits;
+    private final int maximumPending;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Map<Long, Stats.Timer> timers = new ConcurrentHashMap<>();
+    private final Map<ActionRequest, Integer> attempts = new ConcurrentHashMap<>();
+    private final Map<String, ActionRequest> latestRequests = new ConcurrentHashMap<>();
+    private final Object flushLock = new Object();
+
+    /**
+     * @param bulkActions Maximum number of requests in a bulk.
+     * @param bulkBytes Maximum number of bytes in a bulk.
+     * @param flushInterval Maximum number of seconds that a request waits
+     *        before its bulk is sent.
+     * @param concurrentRequests Number of bulks that can be in flight at
+     *        the same time.
+     * @param maximumPending Maximum number of requests that haven't
+     *        completed yet.
+     * @param maximumRetries Maximum number of times that a rejected request
+     *        is retried.
+     */
+    public ElasticsearchBulkWriter(
+            Client client,
+            int bulkActions,
+            long bulkBytes,
+            double flushInterval,
+            int concurrentRequests,
+            int maximumPending,
+            int maximumRetries) {
+
+        this(listener -> BulkProcessor.builder(client, listener)
+                .setName("Dari Elasticsearch Bulk")
+                .setBulkActions(bulkActions)
+                .setBulkSize(new ByteSizeValue(bulkBytes))
+                .setFlushInterval(TimeValue.timeValueMillis((long) (flushInterval * 1000)))
+                .setConcurrentRequests(concurrentRequests)
+                .build(),
+                maximumPending,
+                maximumRetries);
+    }
+
+    /**
+     * @param processorFactory Creates the processor that sends the bulks
+     *        and reports them back to the given listener.
+     */
+    ElasticsearchBulkWriter(Function<BulkProcessor.Listener, BulkProcessor> processorFactory, int maximumPending, int maximumRetries) {
+        this.processor = processorFactory.apply(new Listener());
+
+        this.retryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("Elasticsearch Bulk Retry %d")
+                .build());
+
+        this.maximumRetries = maximumRetries;
+        this.permits = new Semaphore(maximumPending);
+        this.maximumPending = maximumPending;
+    }
+
+    /** Returns the number of requests that haven't completed yet. */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /** Returns the maximum number of requests that haven't completed yet. */
+    public int getMaximumPending() {
+        return maximumPending;
+    }
+
+    /**
+     * Adds the given {@code request}, waiting if there are already too many
+     * pending.
+     */
+    public void add(ActionRequest request) throws InterruptedException {
+        permits.acquire();
+        pending.incrementAndGet();
+
+        String key = getDocumentKey(request);
+
+        if (key != null) {
+            latestRequests.put(key, request);
+        }
+
+        processor.add(request);
+    }
+
+    /**
+     * Sends all the requests that have been added so far, and waits until
+     * they've all completed, including their retries.
+     */
+    public void flush() throws InterruptedException {
+        synchronized (flushLock) {
+            while (pending.get() > 0) {
+                processor.flush();
+                flushLock.wait(INITIAL_RETRY_DELAY);
+            }
+        }
+    }
+
+    /** Flushes and stops writing. */
+    public void close() throws InterruptedException {
+        try {
+            flush();
+
+        } finally {
+            processor.close();
+            retryExecutor.shutdownNow();
+        }
+    }
+
+    // Marks the given request as done, successful or not.
+    private void complete(ActionRequest request) {
+        String key = getDocumentKey(request);
+
+        if (key != null) {
+            latestRequests.remove(key, request);
+        }
+
+        attempts.remove(request);
+        permits.release();
+
+        if (pending.decrementAndGet() <= 0) {
+            synchronized (flushLock) {
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    // Returns the key that identifies the document written by the given
+    // request, or null if it doesn't write a single document.
+    private static String getDocumentKey(ActionRequest request) {
+        if (request instanceof IndexRequest) {
+            IndexRequest indexRequest = (IndexRequest) request;
+
+            return indexRequest.index() + '/' + indexRequest.type() + '/' + indexRequest.id();
+
+        } else if (request instanceof DeleteRequest) {
+            DeleteRequest deleteRequest = (DeleteRequest) request;
+
+            return deleteRequest.index() + '/' + deleteRequest.type() + '/' + deleteRequest.id();
+
+        } else {
+            return null;
+        }
+    }
+
+    // Returns true if a newer request for the same document has been added
+    // since the given request. A request stays mapped until it completes,
+    // so a missing entry means that a newer one has completed since.
+    private boolean isSuperseded(ActionRequest request) {
+        String key = getDocumentKey(request);
+
+        return key != null && latestRequests.get(key) != request;
+    }
+
+    // Adds the given request back after a delay that doubles with every
+    // attempt, or gives up after too many attempts. The request is dropped
+    // instead if a newer one for the same document has been added, either
+    // before the retry is scheduled or while it's waiting.
+    private void retry(ActionRequest request) {
+        if (isSuperseded(request)) {
+            STATS.startTimer().stop(SUPERSEDED_STATS_OPERATION);
+            complete(request);
+            return;
+        }
+
+        int attempt = attempts.merge(request, 1, Integer::sum);
+
+        if (attempt > maximumRetries) {
+            LOGGER.warn("Giving up on [{}] after [{}] retries!", request, maximumRetries);
+            STATS.startTimer().stop(FAILURE_STATS_OPERATION);
+            complete(request);
+            return;
+        }
+
+        STATS.startTimer().stop(RETRY_STATS_OPERATION);
+        retryExecutor.schedule(() -> {
+            if (isSuperseded(request)) {
+                STATS.startTimer().stop(SUPERSEDED_STATS_OPERATION);
+                complete(request);
+
+            } else {
+                processor.add(request);
+            }
+        }, INITIAL_RETRY_DELAY << (attempt - 1), TimeUnit.MILLISECONDS);
+    }
+
+    private class Listener implements BulkProcessor.Listener {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            timers.put(executionId, STATS.startTimer());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            stopTimer(executionId, request);
+
+            List<ActionRequest> requests = request.requests();
+
+            for (BulkItemResponse item : response.getItems()) {
+                ActionRequest itemRequest = requests.get(item.getItemId());
+
+                if (!item.isFailed()) {
+                    complete(itemRequest);
+
+                } else if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                    retry(itemRequest);
+
+                } else {
+                    LOGGER.warn("Can't write [{}] to Elasticsearch! ({})", itemRequest, item.getFailureMessage());
+                    STATS.startTimer().stop(FAILURE_STATS_OPERATION);
+                    complete(itemRequest);
+                }
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            stopTimer(executionId, request);
+
+            boolean rejected = failure instanceof EsRejectedExecutionException;
+
+            if (!rejected) {
+                LOGGER.warn("Can't write bulk to Elasticsearch!", failure);
+            }
+
+            for (ActionRequest itemRequest : request.requests()) {
+                if (rejected) {
+                    retry(itemRequest);
+
+                } else {
+                    STATS.startTimer().stop(FAILURE_STATS_OPERATION);
+                    complete(itemRequest);
+                }
+            }
+        }
+
+        private void stopTimer(long executionId, BulkRequest request) {
+            Stats.Timer timer = timers.remove(executionId);
+
+            if (timer != null) {
+                timer.stop(BULK_STATS_OPERATION, request.numberOfActions());
+            }
+        }
+    }
+}
@@ -2,18 +2,25 @@ package com.psddev.dari.elasticsearch;
 
 import com.google.common.base.Preconditions;
 import com.psddev.dari.db.AbstractDatabase;
+import com.psddev.dari.db.AbstractGrouping;
 import com.psddev.dari.db.ComparisonPredicate;
 import com.psddev.dari.db.CompoundPredicate;
+import com.psddev.dari.db.Grouping;
+import com.psddev.dari.db.Location;
 import com.psddev.dari.db.Predicate;
 import com.psddev.dari.db.PredicateParser;
 import com.psddev.dari.db.Query;
+import com.psddev.dari.db.Sorter;
 import com.psddev.dari.db.State;
 import com.psddev.dari.db.UnsupportedPredicateException;
+import com.psddev.dari.db.UnsupportedSorterException;
 import com.psddev.dari.util.ObjectUtils;
 import com.psddev.dari.util.PaginatedResult;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
@@ -21,27 +28,67 @@ import org.elasticsearch.node.Node;
 import org.elasticsearch.node.NodeBuilder;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.range.Range;
+import org.elasticsearch.search.aggregations.bucket.range.RangeBuilder;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsBuilder;
+import org.elasticsearch.search.aggregations.metrics.stats.Stats;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.regex.Matcher;
 
 public class ElasticsearchDatabase extends AbstractDatabase<Client> {
 
     public static final String CLUSTER_NAME_SUB_SETTING = "clusterName";
     public static final String INDEX_NAME_SUB_SETTING = "indexName";
     public static final String TYPE_NAME_SUB_SETTING = "typeName";
+    public static final String BULK_PROCESSOR_SUB_SETTING = "bulkProcessor";
+    public static final String BULK_ACTIONS_SUB_SETTING = "bulkActions";
+    public static final String BULK_SIZE_SUB_SETTING = "bulkSize";
+    public static final String BULK_FLUSH_INTERVAL_SUB_SETTING = "bulkFlushInterval";
+    public static final String BULK_CONCURRENT_REQUESTS_SUB_SETTING = "bulkConcurrentRequests";
+    public static final String BULK_MAXIMUM_PENDING_SUB_SETTING = "bulkMaximumPending";
+    public static final String BULK_MAXIMUM_RETRIES_SUB_SETTING = "bulkMaximumRetries";
+
+    private static final int DEFAULT_FETCH_SIZE = 200;
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+    private static final String GROUP_AGGREGATION_PREFIX = "group";
+    private static final String STATS_AGGREGATION = "stats";
+
+    private static final int DEFAULT_BULK_ACTIONS = 1000;
+    private static final long DEFAULT_BULK_SIZE = 5L * 1024L * 1024L;
+    private static final double DEFAULT_BULK_FLUSH_INTERVAL = 1.0;
+    private static final int DEFAULT_BULK_CONCURRENT_REQUESTS = 1;
+    private static final int DEFAULT_BULK_MAXIMUM_PENDING = 10000;
+    private static final int DEFAULT_BULK_MAXIMUM_RETRIES = 5;
 
     private String indexName;
     private String typeName;
+    private boolean bulkProcessor;
+    private int bulkActions = DEFAULT_BULK_ACTIONS;
+    private long bulkSize = DEFAULT_BULK_SIZE;
+    private double bulkFlushInterval = DEFAULT_BULK_FLUSH_INTERVAL;
+    private int bulkConcurrentRequests = DEFAULT_BULK_CONCURRENT_REQUESTS;
+    private int bulkMaximumPending = DEFAULT_BULK_MAXIMUM_PENDING;
+    private int bulkMaximumRetries = DEFAULT_BULK_MAXIMUM_RETRIES;
 
     private transient Node node;
+    private transient volatile ElasticsearchBulkWriter bulkWriter;
 
     public String getIndexName() {
         return indexName;
@@ -59,6 +106,114 @@ public class ElasticsearchDatabase extends AbstractDatabase<Client> {
         this.typeName = typeName;
     }
 
+    public boolean isBulkProcessor() {
+        return bulkProcessor;
+    }
+
+    public void setBulkProcessor(boolean bulkProcessor) {
+        this.bulkProcessor = bulkProcessor;
+    }
+
+    public int getBulkActions() {
+        return bulkActions;
+    }
+
+    public void setBulkActions(int bulkActions) {
+        this.bulkActions = bulkActions;
+    }
+
+    public long getBulkSize() {
+        return bulkSize;
+    }
+
+    public void setBulkSize(long bulkSize) {
+        this.bulkSize = bulkSize;
+    }
+
+    public double getBulkFlushInterval() {
+        return bulkFlushInterval;
+    }
+
+    public void setBulkFlushInterval(double bulkFlushInterval) {
+        this.bulkFlushInterval = bulkFlushInterval;
+    }
+
+    public int getBulkConcurrentRequests() {
+        return bulkConcurrentRequests;
+    }
+
+    public void setBulkConcurrentRequests(int bulkConcurrentRequests) {
+        this.bulkConcurrentRequests = bulkConcurrentRequests;
+    }
+
+    public int getBulkMaximumPending() {
+        return bulkMaximumPending;
+    }
+
+    public void setBulkMaximumPending(int bulkMaximumPending) {
+        this.bulkMaximumPending = bulkMaximumPending;
+    }
+
+    public int getBulkMaximumRetries() {
+        return bulkMaximumRetries;
+    }
+
+    public void setBulkMaximumRetries(int bulkMaximumRetries) {
+        this.bulkMaximumRetries = bulkMaximumRetries;
+    }
+
+    /**
+     * Returns the number of writes that are waiting in the bulk processor.
+     *
+     * @return Always {@code 0} if the bulk processor isn't enabled.
+     */
+    public int getBulkPending() {
+        ElasticsearchBulkWriter writer = bulkWriter;
+
+        return writer != null ? writer.getPending() : 0;
+    }
+
+    /**
+     * Waits until all the writes that are in the bulk processor have
+     * completed. Does nothing if the bulk processor isn't enabled.
+     */
+    public void flushWrites() {
+        ElasticsearchBulkWriter writer = bulkWriter;
+
+        if (writer != null) {
+            try {
+                writer.flush();
+
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Flushes the bulk processor and releases all resources held by this
+     * database.
+     */
+    public void close() {
+        ElasticsearchBulkWriter writer = bulkWriter;
+
+        bulkWriter = null;
+
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+
+        } finally {
+            if (node != null) {
+                node.close();
+            }
+        }
+    }
+
     @Override
     public Client openConnection() {
         return node.client();
@@ -87,6 +242,41 @@ public class ElasticsearchDatabase extends AbstractDatabase<Client> {
                 .clusterName(clusterName)
                 .client(true)
                 .node();
+
+        this.bulkProcessor = ObjectUtils.to(boolean.class, settings.get(BULK_PROCESSOR_SUB_SETTING));
+        this.bulkActions = ObjectUtils.firstNonNull(ObjectUtils.to(Integer.class, settings.get(BULK_ACTIONS_SUB_SETTING)), DEFAULT_BULK_ACTIONS);
+        this.bulkSize = ObjectUtils.firstNonNull(ObjectUtils.to(Long.class, settings.get(BULK_SIZE_SUB_SETTING)), DEFAULT_BULK_SIZE);
+        this.bulkFlushInterval = ObjectUtils.firstNonNull(ObjectUtils.to(Double.class, settings.get(BULK_FLUSH_INTERVAL_SUB_SETTING)), DEFAULT_BULK_FLUSH_INTERVAL);
+        this.bulkConcurrentRequests = ObjectUtils.firstNonNull(ObjectUtils.to(Integer.class, settings.get(BULK_CONCURRENT_REQUESTS_SUB_SETTING)), DEFAULT_BULK_CONCURRENT_REQUESTS);
+        this.bulkMaximumPending = ObjectUtils.firstNonNull(ObjectUtils.to(Integer.class, settings.get(BULK_MAXIMUM_PENDING_SUB_SETTING)), DEFAULT_BULK_MAXIMUM_PENDING);
+        this.bulkMaximumRetries = ObjectUtils.firstNonNull(ObjectUtils.to(Integer.class, settings.get(BULK_MAXIMUM_RETRIES_SUB_SETTING)), DEFAULT_BULK_MAXIMUM_RETRIES);
+    }
+
+    // Creates the bulk writer on first use so that the settings can also be
+    // changed through the setters.
+    private ElasticsearchBulkWriter getBulkWriter() {
+        ElasticsearchBulkWriter writer = bulkWriter;
+
+        if (writer == null) {
+            synchronized (this) {
+                writer = bulkWriter;
+
+                if (writer == null) {
+                    writer = new ElasticsearchBulkWriter(
+                            node.client(),
+                            getBulkActions(),
+                            getBulkSize(),
+                            getBulkFlushInterval(),
+                            getBulkConcurrentRequests(),
+                            getBulkMaximumPending(),
+                            getBulkMaximumRetries());
+
+                    bulkWriter = writer;
+                }
+            }
+        }
+
+        return writer;
     }
 
     @Override
@@ -99,15 +289,7 @@ public class ElasticsearchDatabase extends AbstractDatabase<Client> {
         Client client = openConnection();
 
         try {
-            Set<UUID> typeIds = query.getConcreteTypeIds(this);
-            String[] typeIdStrings = typeIds.size() == 0
-                    ? new String[] { "_all" }
-                    : typeIds.stream().map(UUID::toString).toArray(String[]::new);
-
-            SearchResponse response = client.prepareSearch(getIndexName())
-                    .setFetchSource(!query.isReferenceOnly())
-                    .setTypes(typeIdStrings)
-                    .setQuery(predicateToQueryBuilder(query.getPredicate()))
+            SearchResponse response = prepareSearch(client, query)
                     .setFrom((int) offset)
                     .setSize(limit)
                     .execute()
@@ -127,6 +309,299 @@ public class ElasticsearchDatabase extends AbstractDatabase<Client> {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation uses a scroll, so that reading deep into the
+     * results doesn't get slower.</p>
+     */
+    @Override
+    public <T> Iterable<T> readIterable(Query<T> query, int fetchSize) {
+        return () -> new ScrollIterator<>(query, fetchSize > 0 ? fetchSize : DEFAULT_FETCH_SIZE);
+    }
+
+    private class ScrollIterator<T> implements Iterator<T> {
+
+        private final Query<T> query;
+        private final int fetchSize;
+        private String scrollId;
+        private SearchHit[] hits;
+        private int index;
+        private boolean done;
+
+        public ScrollIterator(Query<T> query, int fetchSize) {
+            this.query = query;
+            this.fetchSize = fetchSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (hits != null && index < hits.length) {
+                return true;
+
+            } else if (done) {
+                return false;
+            }
+
+            Client client = openConnection();
+
+            try {
+                SearchResponse response = scrollId == null
+                        ? prepareSearch(client, query)
+                                .setScroll(SCROLL_KEEP_ALIVE)
+                                .setSize(fetchSize)
+                                .execute()
+                                .actionGet()
+                        : client.prepareSearchScroll(scrollId)
+                                .setScroll(SCROLL_KEEP_ALIVE)
+                                .execute()
+                                .actionGet();
+
+                scrollId = response.getScrollId();
+                hits = response.getHits().getHits();
+                index = 0;
+
+                if (hits.length == 0) {
+                    done = true;
+
+                    if (scrollId != null) {
+                        client.prepareClearScroll().addScrollId(scrollId).execute().actionGet();
+                    }
+
+                    return false;
+                }
+
+                return true;
+
+            } finally {
+                closeConnection(client);
+            }
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            T item = createSavedObjectWithHit(hits[index], query);
+            ++ index;
+            return item;
+        }
+    }
+
+    @Override
+    public <T> PaginatedResult<Grouping<T>> readPartialGrouped(Query<T> query, long offset, int limit, String... fields) {
+        if (fields == null || fields.length == 0) {
+            return super.readPartialGrouped(query, offset, limit, fields);
+        }
+
+        Client client = openConnection();
+
+        try {
+            SearchResponse response = prepareSearch(client, query)
+                    .setSize(0)
+                    .addAggregation(groupAggregation(fields, 0))
+                    .execute()
+                    .actionGet();
+
+            List<Grouping<T>> groupings = new ArrayList<>();
+
+            addGroupings(groupings, new ArrayList<>(), response.getAggregations(), query, fields, 0);
+            return new PaginatedResult<>(offset, limit, groupings);
+
+        } finally {
+            closeConnection(client);
+        }
+    }
+
+    // Creates nested aggregations for grouping by all the fields starting at
+    // the given index. Numeric ranges, like field(start, end, gap), become
+    // range buckets and everything else becomes terms.
+    private AbstractAggregationBuilder groupAggregation(String[] fields, int index) {
+        String name = GROUP_AGGREGATION_PREFIX + index;
+        String field = fields[index];
+        Matcher rangeMatcher = Query.RANGE_PATTERN.matcher(field);
+        AbstractAggregationBuilder aggregation;
+
+        if (rangeMatcher.find()) {
+            double start = ObjectUtils.to(double.class, rangeMatcher.group(2).trim());
+            double end = ObjectUtils.to(double.class, rangeMatcher.group(3).trim());
+            double gap = ObjectUtils.to(double.class, rangeMatcher.group(4).trim());
+
+            if (gap <= 0) {
+                throw new IllegalArgumentException(String.format("Gap must be positive in [%s]!", field));
+            }
+
+            RangeBuilder range = AggregationBuilders.range(name).field(rangeMatcher.group(1));
+
+            for (double from = start; from < end; from += gap) {
+                range.addRange(from, Math.min(from + gap, end));
+            }
+
+            aggregation = range;
+
+            if (index + 1 < fields.length) {
+                range.subAggregation(groupAggregation(fields, index + 1));
+            }
+
+        } else {
+            TermsBuilder terms = AggregationBuilders.terms(name).field(field).size(0);
+
+            aggregation = terms;
+
+            if (index + 1 < fields.length) {
+                terms.subAggregation(groupAggregation(fields, index + 1));
+            }
+        }
+
+        return aggregation;
+    }
+
+    // Flattens the nested group aggregations into groupings.
+    private <T> void addGroupings(
+            List<Grouping<T>> groupings,
+            List<Object> keys,
+            Aggregations aggregations,
+            Query<T> query,
+            String[] fields,
+            int index) {
+
+        Object aggregation = aggregations.get(GROUP_AGGREGATION_PREFIX + index);
+        List<Object> bucketKeys = new ArrayList<>();
+        List<Long> bucketCounts = new ArrayList<>();
+        List<Aggregations> bucketAggregations = new ArrayList<>();
+
+        if (aggregation instanceof Range) {
+            for (Range.Bucket bucket : ((Range) aggregation).getBuckets()) {
+                bucketKeys.add(bucket.getFrom());
+                bucketCounts.add(bucket.getDocCount());
+                bucketAggregations.add(bucket.getAggregations());
+            }
+
+        } else if (aggregation instanceof Terms) {
+            for (Terms.Bucket bucket : ((Terms) aggregation).getBuckets()) {
+                bucketKeys.add(bucket.getKey());
+                bucketCounts.add(bucket.getDocCount());
+                bucketAggregations.add(bucket.getAggregations());
+            }
+        }
+
+        for (int i = 0, size = bucketKeys.size(); i < size; ++ i) {
+            long count = bucketCounts.get(i);
+
+            if (count <= 0) {
+                continue;
+            }
+
+            List<Object> bucketKeysPath = new ArrayList<>(keys);
+
+            bucketKeysPath.add(bucketKeys.get(i));
+
+            if (index + 1 < fields.length) {
+                addGroupings(groupings, bucketKeysPath, bucketAggregations.get(i), query, fields, index + 1);
+
+            } else {
+                groupings.add(new ElasticsearchGrouping<>(bucketKeysPath, query, fields, count));
+            }
+        }
+    }
+
+    /** Elasticsearch-specific implementation of {@link Grouping}. */
+    private class ElasticsearchGrouping<T> extends AbstractGrouping<T> {
+
+        private final long count;
+
+        public ElasticsearchGrouping(List<Object> keys, Query<T> query, String[] fields, long count) {
+            super(keys, query, fields);
+            this.count = count;
+        }
+
+        // --- AbstractGrouping support ---
+
+        @Override
+        protected Aggregate createAggregate(String field) {
+            Client client = openConnection();
+
+            try {
+                SearchResponse response = prepareSearch(client, createItemsQuery())
+                        .setSize(0)
+                        .addAggregation(AggregationBuilders.stats(STATS_AGGREGATION).field(field))
+                        .execute()
+                        .actionGet();
+
+                Stats stats = response.getAggregations().get(STATS_AGGREGATION);
+                // Aggregate constructor is protected.
+                Aggregate aggregate = new Aggregate() { };
+
+                if (stats.getCount() > 0) {
+                    aggregate.setMaximum(stats.getMax());
+                    aggregate.setMinimum(stats.getMin());
+                    aggregate.setSum(stats.getSum());
+                }
+
+                aggregate.setNonNullCount(stats.getCount());
+                return aggregate;
+
+            } finally {
+                closeConnection(client);
+            }
+        }
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+    }
+
+    // Prepares a search for all the documents matching the given query,
+    // sorted according to its sorters.
+    private SearchRequestBuilder prepareSearch(Client client, Query<?> query) {
+        Set<UUID> typeIds = query.getConcreteTypeIds(this);
+        String[] typeIdStrings = typeIds.size() == 0
+                ? new String[] { "_all" }
+                : typeIds.stream().map(UUID::toString).toArray(String[]::new);
+
+        Predicate predicate = query.getPredicate();
+        SearchRequestBuilder builder = client.prepareSearch(getIndexName())
+                .setFetchSource(!query.isReferenceOnly())
+                .setTypes(typeIdStrings)
+                .setQuery(predicate != null ? predicateToQueryBuilder(predicate) : QueryBuilders.matchAllQuery());
+
+        for (Sorter sorter : query.getSorters()) {
+            String operator = sorter.getOperator();
+            List<Object> options = sorter.getOptions();
+
+            switch (operator) {
+                case Sorter.ASCENDING_OPERATOR :
+                case Sorter.DESCENDING_OPERATOR :
+                    builder.addSort(
+                            (String) options.get(0),
+                            Sorter.ASCENDING_OPERATOR.equals(operator) ? SortOrder.ASC : SortOrder.DESC);
+                    break;
+
+                case Sorter.CLOSEST_OPERATOR :
+                case Sorter.FARTHEST_OPERATOR :
+                    Location location = (Location) options.get(1);
+
+                    builder.addSort(SortBuilders
+                            .geoDistanceSort((String) options.get(0))
+                            .point(location.getX(), location.getY())
+                            .order(Sorter.CLOSEST_OPERATOR.equals(operator) ? SortOrder.ASC : SortOrder.DESC));
+                    break;
+
+                case Sorter.RELEVANT_OPERATOR :
+                    builder.addSort(SortBuilders.scoreSort());
+                    break;
+
+                default :
+                    throw new UnsupportedSorterException(this, sorter);
+            }
+        }
+
+        return builder;
+    }
+
     private QueryBuilder predicateToQueryBuilder(Predicate predicate) {
         if (predicate instanceof CompoundPredicate) {
             CompoundPredicate compound = (CompoundPredicate) predicate;
@@ -224,9 +699,33 @@ public class ElasticsearchDatabase extends AbstractDatabase<Client> {
 
     @Override
     protected void doWrites(Client client, boolean isImmediate, List<State> saves, List<State> indexes, List<State> deletes) throws Exception {
-        BulkRequestBuilder bulk = client.prepareBulk();
         String indexName = getIndexName();
 
+        if (!isImmediate && isBulkProcessor()) {
+            ElasticsearchBulkWriter writer = getBulkWriter();
+
+            if (saves != null) {
+                for (State state : saves) {
+                    writer.add(client
+                            .prepareIndex(indexName, state.getTypeId().toString(), state.getId().toString())
+                            .setSource(state.getSimpleValues())
+                            .request());
+                }
+            }
+
+            if (deletes != null) {
+                for (State state : deletes) {
+                    writer.add(client
+                            .prepareDelete(indexName, state.getTypeId().toString(), state.getId().toString())
+                            .request());
+                }
+            }
+
+            return;
+        }
+
+        BulkRequestBuilder bulk = client.prepareBulk();
+
         if (saves != null) {
             for (State state : saves) {
                 bulk.add(client
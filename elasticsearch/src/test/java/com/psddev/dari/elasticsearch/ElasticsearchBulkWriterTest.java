@@ -0,0 +1,60 @@
+package com.psddev.dari.elasticsearch;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("rawtypes")
+public class ElasticsearchBulkWriterTest {
+
+    private BulkProcessor processor;
+    private BulkProcessor.Listener listener;
+    private ElasticsearchBulkWriter writer;
+
+    @Before
+    public void before() {
+        processor = mock(BulkProcessor.class);
+        writer = new ElasticsearchBulkWriter(l -> {
+            listener = l;
+            return processor;
+        }, 10, 5);
+    }
+
+    @After
+    public void after() throws InterruptedException {
+        writer.close();
+    }
+
+    @Test
+    public void retry_superseded_by_completed_request() throws InterruptedException {
+        IndexRequest older = new IndexRequest("index", "type", "id");
+        IndexRequest newer = new IndexRequest("index", "type", "id");
+
+        // The older request is rejected, so its retry is scheduled.
+        writer.add(older);
+        listener.afterBulk(1L, new BulkRequest().add(older), new EsRejectedExecutionException("rejected"));
+
+        // The newer request completes before the retry runs.
+        writer.add(newer);
+        listener.afterBulk(2L, new BulkRequest().add(newer), new IllegalStateException());
+
+        for (int i = 0; i < 50 && writer.getPending() > 0; ++ i) {
+            Thread.sleep(100L);
+        }
+
+        // Only the first attempt, since the retry would overwrite the
+        // newer document.
+        assertEquals(0, writer.getPending());
+        verify(processor, times(1)).add((ActionRequest) older);
+    }
+}
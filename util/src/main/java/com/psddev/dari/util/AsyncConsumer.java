@@ -1,5 +1,8 @@
 package com.psddev.dari.util;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,6 +19,7 @@ import org.slf4j.LoggerFactory;
  *
  * <ul>
  * <li>{@link #beforeStart}
+ * <li>{@link #getDrainSize}
  * <li>{@link #handleError}
  * <li>{@link #finished}
  */
@@ -76,6 +80,15 @@ public abstract class AsyncConsumer<E> extends Task {
     protected void beforeStart() {
     }
 
+    /**
+     * Returns the maximum number of items to remove from the input queue
+     * at once. Default implementation returns {@code 1} so that the items
+     * are spread evenly across multiple consumers.
+     */
+    protected int getDrainSize() {
+        return 1;
+    }
+
     /** Called to consume the given {@code item}. */
     protected abstract void consume(E item) throws Exception;
 
@@ -103,23 +116,30 @@ public abstract class AsyncConsumer<E> extends Task {
         beforeStart();
 
         try {
-            for (E item;
-                    shouldContinue() && (item = input.remove()) != null;
-                    addProgressIndex(1)) {
+            List<E> items = new ArrayList<E>();
+
+            while (shouldContinue()
+                    && input.drainTo(items, Math.max(1, getDrainSize())) > 0) {
 
-                try {
-                    long startTime = System.nanoTime();
+                for (E item : items) {
                     try {
-                        consume(item);
-                        ++ consumeCount;
-                    } finally {
-                        consumeDuration += System.nanoTime() - startTime;
+                        long startTime = System.nanoTime();
+                        try {
+                            consume(item);
+                            ++ consumeCount;
+                        } finally {
+                            consumeDuration += System.nanoTime() - startTime;
+                        }
+
+                    } catch (Exception ex) {
+                        ++ errorCount;
+                        handleError(item, ex);
                     }
 
-                } catch (Exception ex) {
-                    ++ errorCount;
-                    handleError(item, ex);
+                    addProgressIndex(1);
                 }
+
+                items.clear();
             }
 
         } finally {
@@ -1,17 +1,25 @@
 package com.psddev.dari.util;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Blocking queue to be used with the asynchronous task classes. */
+/**
+ * Blocking queue to be used with the asynchronous task classes.
+ *
+ * <p>At high throughputs, consumers should use {@link #drainTo} to remove
+ * items in bulk, and the queue should be backed by a
+ * {@link RingBufferQueue}, which lets the waiting threads be woken up
+ * directly instead of polling.</p>
+ */
 public class AsyncQueue<E> {
 
     /** Default capacity of the underlying {@link BlockingQueue}. */
@@ -19,17 +27,22 @@ public class AsyncQueue<E> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AsyncQueue.class);
 
+    private static final long POLL_TIMEOUT = 10L;
+    private static final long SIGNALED_POLL_TIMEOUT = 1000L;
+
     private final String id = UUID.randomUUID().toString();
     private final BlockingQueue<E> queue;
     private boolean isCloseAutomatically;
     private final Map<Object, Boolean> producers = new ConcurrentHashMap<Object, Boolean>();
     private volatile boolean isClosed;
 
-    private final AtomicLong addSuccessCount = new AtomicLong();
-    private final AtomicLong addFailureCount = new AtomicLong();
-    private final AtomicLong addWait = new AtomicLong();
-    private final AtomicLong removeCount = new AtomicLong();
-    private final AtomicLong removeWait = new AtomicLong();
+    private final long pollTimeout;
+
+    private final LongAdder addSuccessCount = new LongAdder();
+    private final LongAdder addFailureCount = new LongAdder();
+    private final LongAdder addWait = new LongAdder();
+    private final LongAdder removeCount = new LongAdder();
+    private final LongAdder removeWait = new LongAdder();
 
     /** Creates an instance with the given blocking {@code queue}. */
     public AsyncQueue(BlockingQueue<E> queue) {
@@ -37,6 +50,12 @@ public class AsyncQueue<E> {
         this.queue = queue == null
                 ? new ArrayBlockingQueue<E>(DEFAULT_QUEUE_CAPACITY)
                 : queue;
+
+        // Waiting threads only need to wake up periodically to check
+        // whether this queue has been closed if they can't be signaled.
+        this.pollTimeout = this.queue instanceof RingBufferQueue
+                ? SIGNALED_POLL_TIMEOUT
+                : POLL_TIMEOUT;
     }
 
     /** Creates an instance with a new blocking queue. */
@@ -64,8 +83,8 @@ public class AsyncQueue<E> {
             if (item != null) {
                 while (true) {
                     try {
-                        if (queue.offer(item, 10, TimeUnit.MILLISECONDS)) {
-                            addSuccessCount.incrementAndGet();
+                        if (queue.offer(item, pollTimeout, TimeUnit.MILLISECONDS)) {
+                            addSuccessCount.increment();
                             return true;
                         }
                     } catch (InterruptedException ex) {
@@ -74,11 +93,11 @@ public class AsyncQueue<E> {
                 }
             }
 
-            addFailureCount.incrementAndGet();
+            addFailureCount.increment();
             return false;
 
         } finally {
-            addWait.addAndGet(System.nanoTime() - startTime);
+            addWait.add(System.nanoTime() - startTime);
         }
     }
 
@@ -98,15 +117,15 @@ public class AsyncQueue<E> {
                 if (isClosed()) {
                     E item = queue.poll();
                     if (item != null) {
-                        removeCount.incrementAndGet();
+                        removeCount.increment();
                     }
                     return item;
 
                 } else {
                     try {
-                        E item = queue.poll(10, TimeUnit.MILLISECONDS);
+                        E item = queue.poll(pollTimeout, TimeUnit.MILLISECONDS);
                         if (item != null) {
-                            removeCount.incrementAndGet();
+                            removeCount.increment();
                             return item;
                         }
                     } catch (InterruptedException ex) {
@@ -116,7 +135,56 @@ public class AsyncQueue<E> {
             }
 
         } finally {
-            removeWait.addAndGet(System.nanoTime() - startTime);
+            removeWait.add(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Removes at most the given {@code maximum} number of items from this
+     * queue and adds them to the given {@code items}. This method may block
+     * until at least one item becomes available in this queue, but never
+     * waits for more. If interrupted while blocked, this queue will be
+     * closed.
+     *
+     * @param items Can't be {@code null}.
+     * @param maximum Must be positive.
+     * @return Number of items removed. {@code 0} if there aren't any more
+     *         items, which also implies that this queue is closed.
+     * @throws IllegalArgumentException If the given {@code maximum} isn't
+     *         positive.
+     */
+    public int drainTo(Collection<? super E> items, int maximum) {
+        if (maximum <= 0) {
+            throw new IllegalArgumentException("Maximum must be positive!");
+        }
+
+        long startTime = System.nanoTime();
+        int count = 0;
+        try {
+
+            while (true) {
+                boolean closed = isClosed();
+                count = queue.drainTo(items, maximum);
+
+                if (count > 0 || closed) {
+                    return count;
+                }
+
+                try {
+                    E item = queue.poll(pollTimeout, TimeUnit.MILLISECONDS);
+                    if (item != null) {
+                        items.add(item);
+                        count = 1 + queue.drainTo(items, maximum - 1);
+                        return count;
+                    }
+                } catch (InterruptedException ex) {
+                    handleInterrupt(null, ex);
+                }
+            }
+
+        } finally {
+            removeCount.add(count);
+            removeWait.add(System.nanoTime() - startTime);
         }
     }
 
@@ -154,26 +222,30 @@ public class AsyncQueue<E> {
     public void close() {
         LOGGER.debug("Closing [{}]", this);
         isClosed = true;
+
+        if (queue instanceof RingBufferQueue) {
+            ((RingBufferQueue<?>) queue).signalAll();
+        }
     }
 
     public long getAddSuccessCount() {
-        return addSuccessCount.get();
+        return addSuccessCount.sum();
     }
 
     public long getAddFailureCount() {
-        return addFailureCount.get();
+        return addFailureCount.sum();
     }
 
     public long getAddWait() {
-        return addWait.get();
+        return addWait.sum();
     }
 
     public long getRemoveCount() {
-        return removeCount.get();
+        return removeCount.sum();
     }
 
     public long getRemoveWait() {
-        return removeWait.get();
+        return removeWait.sum();
     }
 
     /**
@@ -1,24 +1,19 @@
 package com.psddev.dari.util;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Modifier;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
-import java.util.jar.Manifest;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -31,8 +26,6 @@ import com.google.common.base.Preconditions;
 import com.psddev.dari.util.reflections.Reflections;
 import com.psddev.dari.util.reflections.serializers.JsonSerializer;
 import com.psddev.dari.util.reflections.util.ConfigurationBuilder;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -49,8 +42,14 @@ public class ClassFinder {
      */
     public static final String INCLUDE_ATTRIBUTE = "Dari-ClassFinder-Include";
 
+    /**
+     * Setting for the path to the directory where the class headers read
+     * from each JAR file are saved, so that they can be reused as long as
+     * the JAR file doesn't change.
+     */
+    public static final String INDEX_DIRECTORY_SETTING = "dari/classFinderIndexDirectory";
+
     private static final String CLASS_FILE_SUFFIX = JavaFileObject.Kind.CLASS.extension;
-    private static final Logger LOGGER = LoggerFactory.getLogger(ClassFinder.class);
 
     private static final ThreadLocalStack<ClassFinder> THREAD_DEFAULT = new ThreadLocalStack<>();
     private static final ClassFinder DEFAULT = new ClassFinder();
@@ -90,6 +89,26 @@ public class ClassFinder {
                 }
             });
 
+    private static final LoadingCache<ClassFinder, LoadingCache<ClassLoader, ClassHeaderIndex>> INDEX_BY_LOADER_BY_FINDER = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<ClassFinder, LoadingCache<ClassLoader, ClassHeaderIndex>>() {
+
+                @Override
+                @ParametersAreNonnullByDefault
+                public LoadingCache<ClassLoader, ClassHeaderIndex> load(ClassFinder finder) {
+                    return CacheBuilder.newBuilder()
+                            .weakKeys()
+                            .build(new CacheLoader<ClassLoader, ClassHeaderIndex>() {
+
+                                @Override
+                                @ParametersAreNonnullByDefault
+                                public ClassHeaderIndex load(ClassLoader loader) {
+                                    return finder.createIndex(loader);
+                                }
+                            });
+                }
+            });
+
     private static final Lazy<URL> REFLECTIONS_URL = new Lazy<URL>() {
 
         @Override
@@ -126,7 +145,10 @@ public class ClassFinder {
             });
 
     static {
-        CodeUtils.addRedefineClassesListener(classes -> CLASSES_BY_BASE_CLASS_BY_LOADER_BY_FINDER.invalidateAll());
+        CodeUtils.addRedefineClassesListener(classes -> {
+            INDEX_BY_LOADER_BY_FINDER.invalidateAll();
+            CLASSES_BY_BASE_CLASS_BY_LOADER_BY_FINDER.invalidateAll();
+        });
     }
 
     private Set<String> classLoaderExclusions = new HashSet<>(Arrays.asList(
@@ -135,6 +157,8 @@ public class ClassFinder {
             "org.apache.catalina.loader.StandardClassLoader",
             "org.apache.jasper.servlet.JasperLoader"));
 
+    private File indexDirectory;
+
     /**
      * Returns the thread local stack for overriding the default ServletContext.
      *
@@ -242,6 +266,37 @@ public class ClassFinder {
         this.classLoaderExclusions = classLoaderExclusions;
     }
 
+    /**
+     * Returns the directory where the class headers read from each JAR file
+     * are saved, keyed by the checksum of the JAR file, so that they don't
+     * have to be read again on the next startup.
+     *
+     * @return If not set explicitly, the directory in the
+     *         {@value #INDEX_DIRECTORY_SETTING} setting. {@code null} if
+     *         the headers shouldn't be saved.
+     */
+    public File getIndexDirectory() {
+        if (indexDirectory == null) {
+            String path = Settings.get(String.class, INDEX_DIRECTORY_SETTING);
+
+            return ObjectUtils.isBlank(path) ? null : new File(path);
+        }
+
+        return indexDirectory;
+    }
+
+    /**
+     * Sets the directory where the class headers read from each JAR file
+     * are saved.
+     *
+     * @param indexDirectory
+     *        {@code null} to use the {@value #INDEX_DIRECTORY_SETTING}
+     *        setting.
+     */
+    public void setIndexDirectory(File indexDirectory) {
+        this.indexDirectory = indexDirectory;
+    }
+
     /**
      * Finds all classes that are compatible with the given {@code baseClass}
      * within the given {@code loader}.
@@ -258,46 +313,9 @@ public class ClassFinder {
         Preconditions.checkNotNull(loader);
         Preconditions.checkNotNull(baseClass);
 
-        Set<String> classNames = new TreeSet<>();
-
-        for (ClassLoader l = loader; l != null; l = l.getParent()) {
-            if (l instanceof URLClassLoader
-                    && !getClassLoaderExclusions().contains(l.getClass().getName())) {
-                for (URL url : ((URLClassLoader) l).getURLs()) {
-                    processUrl(classNames, url);
-                }
-            }
-        }
-
-        String classPath = System.getProperty("java.class.path");
-
-        if (!ObjectUtils.isBlank(classPath)) {
-            for (String path : StringUtils.split(classPath, Pattern.quote(File.pathSeparator))) {
-                try {
-                    processUrl(classNames, new File(path).toURI().toURL());
-
-                } catch (MalformedURLException error) {
-                    // Ignore JARs in the class path that can't be found.
-                }
-            }
-        }
-
-        if (classNames.isEmpty()) {
-            ServletContext context = findServletContext();
-            if (context != null) {
-                for (String path : RESOURCE_PATHS) {
-                    processResourcePath(classNames, context, path);
-                }
-            }
-
-            if (classNames.isEmpty()) {
-                throw new RuntimeException("No classes were found.");
-            }
-        }
-
         Set<Class<? extends T>> classes = new LinkedHashSet<>();
 
-        for (String className : classNames) {
+        for (String className : INDEX_BY_LOADER_BY_FINDER.getUnchecked(this).getUnchecked(loader).findCompatibleClassNames(loader, baseClass)) {
             try {
                 Class<?> c = Class.forName(className, false, loader);
 
@@ -318,77 +336,62 @@ public class ClassFinder {
         return classes;
     }
 
-    // Processes the given url and adds all associated class files to the
-    // given classNames.
-    private void processUrl(Set<String> classNames, URL url) {
-        if (url.getPath().endsWith(".jar")) {
-            try (InputStream urlInput = url.openStream()) {
-                JarInputStream jarInput = new JarInputStream(urlInput);
-                Manifest manifest = jarInput.getManifest();
+    // Reads the headers of all classes within the given loader, scanning
+    // the JAR files and the directories in parallel.
+    private ClassHeaderIndex createIndex(ClassLoader loader) {
+        Map<String, URL> urls = new LinkedHashMap<>();
 
-                if (manifest != null) {
-                    Attributes attributes = manifest.getMainAttributes();
+        for (ClassLoader l = loader; l != null; l = l.getParent()) {
+            if (l instanceof URLClassLoader
+                    && !getClassLoaderExclusions().contains(l.getClass().getName())) {
+                for (URL url : ((URLClassLoader) l).getURLs()) {
+                    urls.putIfAbsent(url.toExternalForm(), url);
+                }
+            }
+        }
 
-                    if (attributes != null
-                            && Boolean.parseBoolean(attributes.getValue(INCLUDE_ATTRIBUTE))) {
+        String classPath = System.getProperty("java.class.path");
 
-                        for (JarEntry entry; (entry = jarInput.getNextJarEntry()) != null;) {
-                            String name = entry.getName();
+        if (!ObjectUtils.isBlank(classPath)) {
+            for (String path : StringUtils.split(classPath, Pattern.quote(File.pathSeparator))) {
+                try {
+                    URL url = new File(path).toURI().toURL();
 
-                            if (name.endsWith(CLASS_FILE_SUFFIX)) {
-                                String className = name.substring(0, name.length() - CLASS_FILE_SUFFIX.length());
-                                className = className.replace('/', '.');
+                    urls.putIfAbsent(url.toExternalForm(), url);
 
-                                classNames.add(className);
-                            }
-                        }
-                    }
+                } catch (MalformedURLException error) {
+                    // Ignore JARs in the class path that can't be found.
                 }
-
-            } catch (IOException error) {
-                LOGGER.debug(String.format(
-                        "Can't read [%s] to scan its classes!", url),
-                        error);
-            }
-
-        } else {
-            File file = IoUtils.toFile(url, StandardCharsets.UTF_8);
-
-            if (file != null && file.isDirectory()) {
-                processFile(classNames, file, "");
             }
         }
-    }
 
-    // Processes the given path under the given root and adds all associated
-    // class files to the given classNames.
-    private void processFile(Set<String> classNames, File root, String path) {
-        File file = new File(root, path);
+        File indexDirectory = getIndexDirectory();
+        ClassHeaderIndex index = new ClassHeaderIndex();
 
-        if (file.isDirectory()) {
-            File[] children = file.listFiles();
+        urls.values().parallelStream()
+                .map(url -> ClassHeaderIndex.read(url, indexDirectory))
+                .collect(Collectors.toList())
+                .forEach(index::addAll);
 
-            if (children != null) {
-                for (File child : children) {
-                    processFile(classNames, root, path.isEmpty()
-                            ? child.getName()
-                            : path + File.separator + child.getName());
+        if (index.isEmpty()) {
+            ServletContext context = findServletContext();
+            if (context != null) {
+                for (String path : RESOURCE_PATHS) {
+                    processResourcePath(index, context, path);
                 }
             }
 
-        } else {
-            if (path.endsWith(CLASS_FILE_SUFFIX)) {
-                String className = path.substring(0, path.length() - CLASS_FILE_SUFFIX.length());
-                className = StringUtils.replaceAll(className, Pattern.quote(File.separator), ".");
-
-                classNames.add(className);
+            if (index.isEmpty()) {
+                throw new RuntimeException("No classes were found.");
             }
         }
+
+        return index;
     }
 
     // Process a path within a given ServletContext and add all found class
-    // files to the given classNames
-    private void processResourcePath(Set<String> classNames, ServletContext context, String path) {
+    // files to the given index
+    private void processResourcePath(ClassHeaderIndex index, ServletContext context, String path) {
         if (path == null) {
             return;
         }
@@ -400,26 +403,26 @@ public class ClassFinder {
             return;
         }
 
-        processUrl(classNames, url);
+        index.addAll(ClassHeaderIndex.read(url, null));
 
-        processFilename(classNames, path);
+        processFilename(index, path);
 
         Set<String> paths = context.getResourcePaths(path);
         if (paths != null) {
             for (String p : paths) {
-                processResourcePath(classNames, context, p);
+                processResourcePath(index, context, p);
             }
         }
     }
 
-    // Processes a String filename and add the matching class name to the given classNames.
-    private void processFilename(Set<String> classNames, String filename) {
+    // Processes a String filename and add the matching class name to the given index.
+    private void processFilename(ClassHeaderIndex index, String filename) {
         if (filename.endsWith(CLASS_FILE_SUFFIX)) {
             for (String resourcePath : RESOURCE_PATHS) {
                 int chr = filename.lastIndexOf(resourcePath);
                 if (chr > -1) {
                     String className = filename.substring(chr + resourcePath.length() + 1, filename.length() - CLASS_FILE_SUFFIX.length());
-                    classNames.add(className.replace('/', '.'));
+                    index.addName(className.replace('/', '.'));
                     break;
                 }
             }
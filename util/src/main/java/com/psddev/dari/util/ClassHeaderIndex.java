@@ -0,0 +1,416 @@
+package com.psddev.dari.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+
+import javax.tools.JavaFileObject;
+
+import com.google.common.hash.Hashing;
+import com.psddev.dari.util.asm.ClassReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Names of the classes available to a class loader along with their super
+ * classes and interfaces, which are read from the class file headers so
+ * that the hierarchy can be resolved without loading the classes.
+ *
+ * <p>Classes that couldn't be read, e.g. because they're too new for ASM,
+ * and the super types that are outside of the index are loaded as
+ * necessary instead.</p>
+ */
+class ClassHeaderIndex {
+
+    private static final String CLASS_FILE_SUFFIX = JavaFileObject.Kind.CLASS.extension;
+    private static final String INDEX_FILE_SUFFIX = ".classes";
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClassHeaderIndex.class);
+
+    // Null values are for the classes whose headers couldn't be read.
+    private final Map<String, Header> headers = new LinkedHashMap<>();
+
+    /**
+     * Adds all given {@code headers} that aren't already in this index.
+     *
+     * @param headers
+     *        Can't be {@code null}.
+     */
+    public void addAll(Map<String, Header> headers) {
+        headers.forEach(this::add);
+    }
+
+    /**
+     * Adds the given {@code className} without a header if it isn't already
+     * in this index, so that it's loaded to check its hierarchy.
+     *
+     * @param className
+     *        Can't be {@code null}.
+     */
+    public void addName(String className) {
+        add(className, null);
+    }
+
+    private void add(String className, Header header) {
+        if (!headers.containsKey(className)) {
+            headers.put(className, header);
+        }
+    }
+
+    public boolean isEmpty() {
+        return headers.isEmpty();
+    }
+
+    /**
+     * Finds the names of all classes in this index that are compatible
+     * with the given {@code baseClass}, sorted by name.
+     *
+     * @param loader
+     *        Can't be {@code null}.
+     *
+     * @param baseClass
+     *        Can't be {@code null}.
+     *
+     * @return Never {@code null}.
+     */
+    public List<String> findCompatibleClassNames(ClassLoader loader, Class<?> baseClass) {
+        Map<String, Boolean> compatibilities = new HashMap<>();
+        List<String> classNames = new ArrayList<>();
+
+        for (String className : headers.keySet()) {
+            if (!className.equals(baseClass.getName())
+                    && isCompatible(loader, baseClass, className, compatibilities)) {
+
+                classNames.add(className);
+            }
+        }
+
+        Collections.sort(classNames);
+
+        return classNames;
+    }
+
+    // Walks up the hierarchy of the given className using the headers, and
+    // only loads the classes at the edges of the index.
+    private boolean isCompatible(ClassLoader loader, Class<?> baseClass, String className, Map<String, Boolean> compatibilities) {
+        if (className.equals(baseClass.getName())) {
+            return true;
+        }
+
+        Boolean compatible = compatibilities.get(className);
+
+        if (compatible != null) {
+            return compatible;
+        }
+
+        Header header = headers.get(className);
+
+        if (header == null) {
+            compatible = isAssignable(loader, baseClass, className);
+
+        } else {
+
+            // Guards against circular hierarchies in broken class files.
+            compatibilities.put(className, Boolean.FALSE);
+
+            compatible = header.superName != null
+                    && isCompatible(loader, baseClass, header.superName, compatibilities);
+
+            // Only interfaces can extend interfaces.
+            if (!compatible && baseClass.isInterface()) {
+                for (String interfaceName : header.interfaceNames) {
+                    if (isCompatible(loader, baseClass, interfaceName, compatibilities)) {
+                        compatible = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        compatibilities.put(className, compatible);
+
+        return compatible;
+    }
+
+    private boolean isAssignable(ClassLoader loader, Class<?> baseClass, String className) {
+        try {
+            return baseClass.isAssignableFrom(Class.forName(className, false, loader));
+
+        } catch (ClassNotFoundException
+                | NoClassDefFoundError error) {
+
+            // Ignore classes that can't be somehow resolved at runtime.
+            return false;
+        }
+    }
+
+    /**
+     * Reads the headers of all classes in the JAR file or the directory at
+     * the given {@code url}.
+     *
+     * @param url
+     *        Can't be {@code null}.
+     *
+     * @param indexDirectory
+     *        If not {@code null}, the headers in each JAR file are saved
+     *        there, keyed by the checksum of the JAR file, and reused the
+     *        next time.
+     *
+     * @return Never {@code null}.
+     */
+    public static Map<String, Header> read(URL url, File indexDirectory) {
+        File file = IoUtils.toFile(url, StandardCharsets.UTF_8);
+
+        try {
+            if (url.getPath().endsWith(".jar")) {
+                return file != null && file.isFile()
+                        ? readJarFile(file, indexDirectory)
+                        : readJarStream(url);
+
+            } else if (file != null && file.isDirectory()) {
+                Map<String, Header> headers = new LinkedHashMap<>();
+
+                readDirectory(headers, file, "");
+                return headers;
+            }
+
+        } catch (IOException error) {
+            LOGGER.debug(String.format(
+                    "Can't read [%s] to scan its classes!", url),
+                    error);
+        }
+
+        return Collections.emptyMap();
+    }
+
+    private static boolean isIncluded(Manifest manifest) {
+        if (manifest != null) {
+            Attributes attributes = manifest.getMainAttributes();
+
+            return attributes != null
+                    && Boolean.parseBoolean(attributes.getValue(ClassFinder.INCLUDE_ATTRIBUTE));
+        }
+
+        return false;
+    }
+
+    private static Map<String, Header> readJarFile(File file, File indexDirectory) throws IOException {
+        try (JarFile jar = new JarFile(file)) {
+            if (!isIncluded(jar.getManifest())) {
+                return Collections.emptyMap();
+            }
+
+            File indexFile = null;
+
+            if (indexDirectory != null) {
+                indexFile = new File(indexDirectory, com.google.common.io.Files.asByteSource(file).hash(Hashing.murmur3_128()) + INDEX_FILE_SUFFIX);
+
+                if (indexFile.isFile()) {
+                    try {
+                        return readIndexFile(indexFile);
+
+                    } catch (IOException error) {
+                        LOGGER.debug(String.format(
+                                "Can't read the class index [%s]!", indexFile),
+                                error);
+                    }
+                }
+            }
+
+            Map<String, Header> headers = new LinkedHashMap<>();
+
+            for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();) {
+                JarEntry entry = entries.nextElement();
+                String name = entry.getName();
+
+                if (name.endsWith(CLASS_FILE_SUFFIX)) {
+                    try (InputStream entryInput = jar.getInputStream(entry)) {
+                        headers.put(toClassName(name, "/"), readHeader(entryInput));
+                    }
+                }
+            }
+
+            if (indexFile != null) {
+                try {
+                    writeIndexFile(indexFile, headers);
+
+                } catch (IOException error) {
+                    LOGGER.debug(String.format(
+                            "Can't write the class index [%s]!", indexFile),
+                            error);
+                }
+            }
+
+            return headers;
+        }
+    }
+
+    private static Map<String, Header> readJarStream(URL url) throws IOException {
+        try (InputStream urlInput = url.openStream()) {
+            JarInputStream jarInput = new JarInputStream(urlInput);
+
+            if (!isIncluded(jarInput.getManifest())) {
+                return Collections.emptyMap();
+            }
+
+            Map<String, Header> headers = new LinkedHashMap<>();
+
+            for (JarEntry entry; (entry = jarInput.getNextJarEntry()) != null;) {
+                String name = entry.getName();
+
+                if (name.endsWith(CLASS_FILE_SUFFIX)) {
+                    headers.put(toClassName(name, "/"), readHeader(jarInput));
+                }
+            }
+
+            return headers;
+        }
+    }
+
+    private static void readDirectory(Map<String, Header> headers, File root, String path) throws IOException {
+        File file = new File(root, path);
+
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+
+            if (children != null) {
+                for (File child : children) {
+                    readDirectory(headers, root, path.isEmpty()
+                            ? child.getName()
+                            : path + File.separator + child.getName());
+                }
+            }
+
+        } else if (path.endsWith(CLASS_FILE_SUFFIX)) {
+            try (InputStream fileInput = new FileInputStream(file)) {
+                headers.put(toClassName(path, File.separator), readHeader(fileInput));
+            }
+        }
+    }
+
+    private static String toClassName(String path, String separator) {
+        String className = path.substring(0, path.length() - CLASS_FILE_SUFFIX.length());
+
+        return StringUtils.replaceAll(className, Pattern.quote(separator), ".");
+    }
+
+    /**
+     * Reads the header of the class file in the given {@code input}.
+     *
+     * @return {@code null} if the class file can't be read.
+     */
+    static Header readHeader(InputStream input) throws IOException {
+        ClassReader reader;
+
+        try {
+            reader = new ClassReader(input);
+
+        } catch (RuntimeException error) {
+            return null;
+        }
+
+        String superName = reader.getSuperName();
+        String[] interfaceNames = reader.getInterfaces();
+
+        for (int i = 0, length = interfaceNames.length; i < length; ++ i) {
+            interfaceNames[i] = interfaceNames[i].replace('/', '.');
+        }
+
+        return new Header(superName != null ? superName.replace('/', '.') : null, interfaceNames);
+    }
+
+    // Each line is the class name, then the super class name, then the
+    // interface names separated by commas, all separated by tabs. A line
+    // with just the class name means that its header couldn't be read.
+    private static Map<String, Header> readIndexFile(File indexFile) throws IOException {
+        Map<String, Header> headers = new LinkedHashMap<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null;) {
+                String[] parts = line.split("\t", -1);
+
+                if (parts.length == 1) {
+                    headers.put(parts[0], null);
+
+                } else if (parts.length == 3) {
+                    headers.put(parts[0], new Header(
+                            parts[1].isEmpty() ? null : parts[1],
+                            parts[2].isEmpty() ? new String[0] : parts[2].split(",")));
+
+                } else {
+                    throw new IOException(String.format("Invalid line [%s]!", line));
+                }
+            }
+        }
+
+        return headers;
+    }
+
+    private static void writeIndexFile(File indexFile, Map<String, Header> headers) throws IOException {
+        IoUtils.createDirectories(indexFile.getParentFile());
+
+        File tempFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getParentFile());
+
+        try {
+            try (Writer writer = new BufferedWriter(Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, Header> entry : headers.entrySet()) {
+                    Header header = entry.getValue();
+
+                    writer.write(entry.getKey());
+
+                    if (header != null) {
+                        writer.write('\t');
+
+                        if (header.superName != null) {
+                            writer.write(header.superName);
+                        }
+
+                        writer.write('\t');
+                        writer.write(String.join(",", header.interfaceNames));
+                    }
+
+                    writer.write('\n');
+                }
+            }
+
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    /**
+     * Super class name and interface names of a class.
+     */
+    static final class Header {
+
+        private final String superName;
+        private final String[] interfaceNames;
+
+        public Header(String superName, String[] interfaceNames) {
+            this.superName = superName;
+            this.interfaceNames = interfaceNames;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -68,100 +69,92 @@ public class Converter {
     public <F> ConversionFunction<F, Object> getFunction(Class<F> fromClass, Type toType) {
         if (fromClass == null || toType == null) {
             return null;
-        } else {
-            return (ConversionFunction<F, Object>) functionCache.getUnchecked(new FunctionCacheKey(fromClass, toType));
         }
-    }
-
-    private static class FunctionCacheKey {
 
-        public final Class<?> fromClass;
-        public final Type toType;
+        Map<Class<?>, Map<Type, ConversionFunction<?, ?>>> table = functionTable;
+        Map<Type, ConversionFunction<?, ?>> functions = table.get(fromClass);
 
-        public FunctionCacheKey(Class<?> fromClass, Type toType) {
-            this.fromClass = fromClass;
-            this.toType = toType;
+        if (functions == null) {
+            functions = table.computeIfAbsent(fromClass, c -> new ConcurrentHashMap<Type, ConversionFunction<?, ?>>());
         }
 
-        @Override
-        public boolean equals(Object other) {
-            if (this == other) {
-                return true;
-            } else if (other instanceof FunctionCacheKey) {
-                FunctionCacheKey otherKey = (FunctionCacheKey) other;
-                return fromClass.equals(otherKey.fromClass) && toType.equals(otherKey.toType);
-            } else {
-                return false;
+        ConversionFunction<?, ?> function = functions.get(toType);
+
+        if (function == null) {
+            function = findFunction(fromClass, toType);
+
+            if (function == null) {
+                function = NO_FUNCTION;
             }
-        }
 
-        @Override
-        public int hashCode() {
-            return ObjectUtils.hashCode(fromClass, toType);
+            functions.put(toType, function);
         }
-    }
 
-    private final LoadingCache<FunctionCacheKey, ConversionFunction<?, ?>> functionCache = CacheBuilder
-            .newBuilder()
-            .build(new CacheLoader<FunctionCacheKey, ConversionFunction<?, ?>>() {
+        return function != NO_FUNCTION ? (ConversionFunction<F, Object>) function : null;
+    }
 
-        @Override
-        @SuppressWarnings("all")
-        public ConversionFunction<?, ?> load(FunctionCacheKey cacheKey) {
-            List<Class<?>> fromAssignables = cacheKey.fromClass != null
-                    ? (List) TypeDefinition.getInstance(cacheKey.fromClass).getAssignableClasses()
-                    : Collections.<Class<?>>singletonList(null);
-
-            Map<? extends Type, ConversionFunction<?, ?>> functions;
-            ConversionFunction<?, ?> function;
-
-            for (Class<?> assignable : fromAssignables) {
-                functions = directFunctions.get(assignable);
-                if (functions != null) {
-                    function = functions.get(cacheKey.toType);
-                    if (function != null) {
-                        return function;
-                    }
+    // Marks the pairs that don't have any functions in the function table.
+    private static final ConversionFunction<Object, Object> NO_FUNCTION = (converter, returnType, object) -> null;
+
+    // Functions already found for each source class, keyed by the target
+    // type, so that the common path doesn't allocate anything. Replaced as a
+    // whole whenever a function is put. Owned by this instance rather than a
+    // ClassValue, which would keep the source classes' loaders reachable
+    // after a redeploy (JDK-8136353).
+    private volatile Map<Class<?>, Map<Type, ConversionFunction<?, ?>>> functionTable = new ConcurrentHashMap<Class<?>, Map<Type, ConversionFunction<?, ?>>>();
+
+    @SuppressWarnings("all")
+    private ConversionFunction<?, ?> findFunction(Class<?> fromClass, Type toType) {
+        List<Class<?>> fromAssignables = (List) TypeDefinition.getInstance(fromClass).getAssignableClasses();
+        Map<? extends Type, ConversionFunction<?, ?>> functions;
+        ConversionFunction<?, ?> function;
+
+        for (Class<?> assignable : fromAssignables) {
+            functions = directFunctions.get(assignable);
+            if (functions != null) {
+                function = functions.get(toType);
+                if (function != null) {
+                    return function;
                 }
             }
+        }
 
-            for (Class<?> assignable : fromAssignables) {
-                functions = inheritableFunctions.get(assignable);
-                if (functions != null) {
+        for (Class<?> assignable : fromAssignables) {
+            functions = inheritableFunctions.get(assignable);
+            if (functions != null) {
 
-                    List<Class<?>> keys = new ArrayList<Class<?>>((Collection<Class<?>>) functions.keySet());
-                    Collections.sort(keys, new Comparator<Class<?>>() {
+                List<Class<?>> keys = new ArrayList<Class<?>>((Collection<Class<?>>) functions.keySet());
+                Collections.sort(keys, new Comparator<Class<?>>() {
 
-                        @Override
-                        public int compare(Class<?> x, Class<?> y) {
-                            return getDepth(y).compareTo(getDepth(x));
-                        }
+                    @Override
+                    public int compare(Class<?> x, Class<?> y) {
+                        return getDepth(y).compareTo(getDepth(x));
+                    }
 
-                        private Integer getDepth(Class<?> objectClass) {
-                            if (objectClass == Object.class) {
-                                return Integer.valueOf(-1);
-                            } else {
-                                int depth = 0;
-                                for (Class<?> parent = objectClass; (parent = parent.getSuperclass()) != null;) {
-                                    ++ depth;
-                                }
-                                return Integer.valueOf(depth);
+                    private Integer getDepth(Class<?> objectClass) {
+                        if (objectClass == Object.class) {
+                            return Integer.valueOf(-1);
+                        } else {
+                            int depth = 0;
+                            for (Class<?> parent = objectClass; (parent = parent.getSuperclass()) != null;) {
+                                ++ depth;
                             }
+                            return Integer.valueOf(depth);
                         }
-                    });
+                    }
+                });
 
-                    Class<?> toClass = TypeDefinition.getInstance(cacheKey.toType).getObjectClass();
-                    for (Class<?> key : keys) {
-                        if (key.isAssignableFrom(toClass)) {
-                            return functions.get(key);
-                        }
+                Class<?> toClass = TypeDefinition.getInstance(toType).getObjectClass();
+                for (Class<?> key : keys) {
+                    if (key.isAssignableFrom(toClass)) {
+                        return functions.get(key);
                     }
                 }
             }
-
-            return null;
         }
-    });
+
+        return null;
+    }
 
     /**
      * Puts the function used to convert an instance of the given
@@ -178,7 +171,7 @@ public class Converter {
             directFunctions.put(fromClass, functions);
         }
         functions.put(toType, function);
-        functionCache.invalidateAll();
+        functionTable = new ConcurrentHashMap<Class<?>, Map<Type, ConversionFunction<?, ?>>>();
     }
 
     public <F, T> void putDirectFunction(
@@ -212,7 +205,7 @@ public class Converter {
             inheritableFunctions.put(fromClass, functions);
         }
         functions.put(toClass, function);
-        functionCache.invalidateAll();
+        functionTable = new ConcurrentHashMap<Class<?>, Map<Type, ConversionFunction<?, ?>>>();
     }
 
     public void putAllStandardFunctions() {
@@ -487,19 +480,27 @@ public class Converter {
 
         @Override
         public Date convert(Converter converter, Type returnType, Object object) {
-            try {
-                Long millis = converter.convert(Long.class, object);
-
-                if (millis != null) {
-                    return new Date(millis);
-                }
-
-            } catch (ConversionException error) {
-                // Try a different conversion below.
+            if (object instanceof Number) {
+                return new Date(((Number) object).longValue());
             }
 
             String objectString = object.toString().trim();
 
+            // Formatted dates in strings would only fail the conversion to
+            // millis with an exception, so skip it.
+            if (!(object instanceof String) || isInteger(objectString)) {
+                try {
+                    Long millis = converter.convert(Long.class, object);
+
+                    if (millis != null) {
+                        return new Date(millis);
+                    }
+
+                } catch (ConversionException error) {
+                    // Try a different conversion below.
+                }
+            }
+
             for (String format : STANDARD_FORMATS) {
                 try {
                     return new Date(FORMATTERS.getUnchecked(format).parseMillis(objectString));
@@ -520,6 +521,25 @@ public class Converter {
             throw new ConversionException(String.format(
                     "Can't convert [%s] to Date instance!", objectString));
         }
+
+        private boolean isInteger(String string) {
+            int length = string.length();
+            int index = length > 1 && (string.charAt(0) == '-' || string.charAt(0) == '+') ? 1 : 0;
+
+            if (index == length) {
+                return false;
+            }
+
+            for (; index < length; ++ index) {
+                char letter = string.charAt(index);
+
+                if (letter < '0' || letter > '9') {
+                    return false;
+                }
+            }
+
+            return true;
+        }
     }
 
     private static class ObjectToDateTime implements ConversionFunction<Object, DateTime> {
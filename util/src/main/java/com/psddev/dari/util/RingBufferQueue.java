@@ -0,0 +1,310 @@
+package com.psddev.dari.util;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock-free {@link BlockingQueue} backed by a ring buffer, for use
+ * with {@link AsyncQueue} at high throughputs.
+ *
+ * <p>Each slot in the buffer carries a sequence number that tells the
+ * producers and the consumers whether it's ready to be written or read, so
+ * that neither side needs a lock. Threads that have to wait are parked and
+ * unparked directly instead of polling.</p>
+ *
+ * <p>The capacity is rounded up to the nearest power of two. Iteration is
+ * weakly consistent, and removing arbitrary items isn't supported.</p>
+ */
+public class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> items;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final Queue<Thread> waitingConsumers = new ConcurrentLinkedQueue<Thread>();
+    private final Queue<Thread> waitingProducers = new ConcurrentLinkedQueue<Thread>();
+
+    /**
+     * Creates an instance that can hold at least the given number of items.
+     *
+     * @param capacity Must be positive.
+     * @throws IllegalArgumentException If the given {@code capacity} isn't
+     *         positive.
+     */
+    public RingBufferQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive!");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.capacity = size;
+        this.mask = size - 1;
+        this.items = new AtomicReferenceArray<E>(size);
+        this.sequences = new AtomicLongArray(size);
+
+        for (int i = 0; i < size; ++ i) {
+            sequences.set(i, i);
+        }
+    }
+
+    /** Returns the maximum number of items that this queue can hold. */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Wakes up all threads that are waiting to add or remove items, e.g.
+     * when the owner of this queue is closed.
+     */
+    public void signalAll() {
+        for (Thread thread; (thread = waitingConsumers.poll()) != null;) {
+            LockSupport.unpark(thread);
+        }
+
+        for (Thread thread; (thread = waitingProducers.poll()) != null;) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void signal(Queue<Thread> waiters) {
+        Thread thread = waiters.poll();
+
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // Parks the current thread until it's signaled, the given deadline
+    // passes, or the given check succeeds after registering as a waiter,
+    // which prevents a lost signal.
+    private boolean park(Queue<Thread> waiters, long deadline, boolean timed) throws InterruptedException {
+        Thread current = Thread.currentThread();
+
+        waiters.add(current);
+
+        try {
+            if (waiters == waitingConsumers ? !isEmpty() : remainingCapacity() > 0) {
+                return true;
+            }
+
+            if (timed) {
+                long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0L) {
+                    return false;
+                }
+
+                LockSupport.parkNanos(this, remaining);
+
+            } else {
+                LockSupport.park(this);
+            }
+
+        } finally {
+            waiters.remove(current);
+        }
+
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        return true;
+    }
+
+    // --- BlockingQueue support ---
+
+    @Override
+    public boolean offer(E item) {
+        if (item == null) {
+            throw new NullPointerException();
+        }
+
+        for (long position = tail.get();;) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0L) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    items.lazySet(index, item);
+                    sequences.set(index, position + 1);
+                    signal(waitingConsumers);
+                    return true;
+                }
+
+                position = tail.get();
+
+            } else if (difference < 0L) {
+                return false;
+
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    @Override
+    public boolean offer(E item, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while (!offer(item)) {
+            if (!park(waitingProducers, deadline, true)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void put(E item) throws InterruptedException {
+        while (!offer(item)) {
+            park(waitingProducers, 0L, false);
+        }
+    }
+
+    @Override
+    public E poll() {
+        for (long position = head.get();;) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+
+            if (difference == 0L) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E item = items.get(index);
+
+                    items.lazySet(index, null);
+                    sequences.set(index, position + capacity);
+                    signal(waitingProducers);
+                    return item;
+                }
+
+                position = head.get();
+
+            } else if (difference < 0L) {
+                return null;
+
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        E item;
+
+        while ((item = poll()) == null) {
+            if (!park(waitingConsumers, deadline, true)) {
+                return null;
+            }
+        }
+
+        signalIfNotEmpty();
+        return item;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E item;
+
+        while ((item = poll()) == null) {
+            park(waitingConsumers, 0L, false);
+        }
+
+        signalIfNotEmpty();
+        return item;
+    }
+
+    // Another consumer may have taken the signal meant for this one, so
+    // pass it on if there are more items.
+    private void signalIfNotEmpty() {
+        if (!isEmpty()) {
+            signal(waitingConsumers);
+        }
+    }
+
+    @Override
+    public E peek() {
+        long position = head.get();
+        int index = (int) position & mask;
+
+        return sequences.get(index) == position + 1 ? items.get(index) : null;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        if (collection == this) {
+            throw new IllegalArgumentException();
+        }
+
+        int count = 0;
+
+        for (E item; count < maxElements && (item = poll()) != null; ++ count) {
+            collection.add(item);
+        }
+
+        return count;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public int size() {
+        long size = tail.get() - head.get();
+
+        return size < 0L ? 0 : (int) Math.min(size, capacity);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<E>();
+
+        for (long position = head.get(), end = tail.get(); position < end; ++ position) {
+            int index = (int) position & mask;
+
+            if (sequences.get(index) == position + 1) {
+                E item = items.get(index);
+
+                if (item != null) {
+                    snapshot.add(item);
+                }
+            }
+        }
+
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+}
@@ -1,6 +1,5 @@
 package com.psddev.dari.util;
 
-import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.util.UUID;
 
@@ -164,7 +163,6 @@ public final class UuidUtils {
         int length = string.length();
 
         if (length == 32 || length == 36) {
-            byte[] letters = string.getBytes(StandardCharsets.UTF_8);
             int read = 0;
             int letterIndex = 0;
             int letterDigit;
@@ -173,7 +171,7 @@ public final class UuidUtils {
             long lsb = 0;
 
             for (; read < 16 && letterIndex < length; ++ letterIndex) {
-                letterDigit = HEX_CHARACTERS[letters[letterIndex]];
+                letterDigit = hexDigit(string.charAt(letterIndex));
 
                 if (letterDigit >= 0) {
                     msb = (msb << 4) | letterDigit;
@@ -183,7 +181,7 @@ public final class UuidUtils {
 
             if (read == 16) {
                 for (; read < 32 && letterIndex < length; ++ letterIndex) {
-                    letterDigit = HEX_CHARACTERS[letters[letterIndex]];
+                    letterDigit = hexDigit(string.charAt(letterIndex));
 
                     if (letterDigit >= 0) {
                         lsb = (lsb << 4) | letterDigit;
@@ -200,6 +198,10 @@ public final class UuidUtils {
         throw new UuidFormatException("[" + string + "] isn't a valid UUID!");
     }
 
+    private static int hexDigit(char letter) {
+        return letter < HEX_CHARACTERS.length ? HEX_CHARACTERS[letter] : -1;
+    }
+
     // --- Deprecated ---
 
     /**
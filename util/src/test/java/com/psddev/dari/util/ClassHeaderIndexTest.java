@@ -0,0 +1,49 @@
+package com.psddev.dari.util;
+
+import java.io.InputStream;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ClassHeaderIndexTest {
+
+    @Test
+    public void findCompatibleClassNames() throws Exception {
+        ClassHeaderIndex index = new ClassHeaderIndex();
+
+        for (Class<?> c : new Class<?>[] { Interface.class, SubInterface.class, ConcreteClass.class, SubClass.class, Unrelated.class }) {
+            try (InputStream input = c.getResourceAsStream("/" + c.getName().replace('.', '/') + ".class")) {
+                index.addAll(Collections.singletonMap(c.getName(), ClassHeaderIndex.readHeader(input)));
+            }
+        }
+
+        assertThat(
+                index.findCompatibleClassNames(getClass().getClassLoader(), Interface.class),
+                contains(
+                        ConcreteClass.class.getName(),
+                        SubClass.class.getName(),
+                        SubInterface.class.getName()));
+
+        assertThat(
+                index.findCompatibleClassNames(getClass().getClassLoader(), ConcreteClass.class),
+                contains(SubClass.class.getName()));
+    }
+
+    private interface Interface {
+    }
+
+    private interface SubInterface extends Interface {
+    }
+
+    private static class ConcreteClass implements SubInterface {
+    }
+
+    private static class SubClass extends ConcreteClass {
+    }
+
+    private static class Unrelated {
+    }
+}
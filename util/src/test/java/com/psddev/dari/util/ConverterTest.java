@@ -237,6 +237,26 @@ public class ConverterTest {
     	assertEquals(1000, output);
     }
 
+    @Test // Putting a function replaces the ones that were already looked up
+    public void putDirectFunction_after_convert() throws Exception {
+    	assertEquals(15, converter.convert(int.class, "15"));
+    	converter.putDirectFunction(String.class, int.class, (c, t, o) -> o.length());
+    	assertEquals(2, converter.convert(int.class, "15"));
+    }
+
+    @Test // Strings with either millis or formatted dates
+    public void convert_string_date() throws Exception {
+    	assertEquals(new Date(1000L), converter.convert(Date.class, " 1000 "));
+    	assertEquals(new Date(0L), converter.convert(Date.class, "1970-01-01T00:00:00Z"));
+    }
+
+    @Test // Non-ASCII characters aren't valid in an UUID
+    public void convert_string_uuid() throws Exception {
+    	UUID id = UUID.randomUUID();
+    	assertEquals(id, converter.convert(UUID.class, id.toString()));
+    	assertNull(converter.convert(UUID.class, "\u0101" + id.toString().replace("-", "").substring(1)));
+    }
+
     /**
      * public <F> ConversionFunction<F, Object> getFunction(Class<F> fromClass, Type toType)
      *
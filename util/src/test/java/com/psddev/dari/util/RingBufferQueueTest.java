@@ -0,0 +1,93 @@
+package com.psddev.dari.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class RingBufferQueueTest {
+
+    @Test
+    public void testCapacity() {
+        assertEquals(1, new RingBufferQueue<Object>(1).getCapacity());
+        assertEquals(8, new RingBufferQueue<Object>(5).getCapacity());
+        assertEquals(8, new RingBufferQueue<Object>(8).getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacity() {
+        new RingBufferQueue<Object>(0);
+    }
+
+    @Test
+    public void testOrderAndBounds() throws InterruptedException {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(4);
+
+        for (int i = 0; i < 4; ++ i) {
+            assertTrue(queue.offer(i));
+        }
+
+        assertFalse(queue.offer(4));
+        assertFalse(queue.offer(4, 10, TimeUnit.MILLISECONDS));
+        assertEquals(4, queue.size());
+        assertEquals(Integer.valueOf(0), queue.peek());
+
+        List<Integer> drained = new ArrayList<Integer>();
+
+        assertEquals(3, queue.drainTo(drained, 3));
+        assertEquals(3, drained.size());
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testConcurrency() throws InterruptedException {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(16);
+        AtomicLong sum = new AtomicLong();
+        int producerCount = 4;
+        int itemCount = 10000;
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int p = 0; p < producerCount; ++ p) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 1; i <= itemCount; ++ i) {
+                        queue.put(i);
+                    }
+                } catch (InterruptedException error) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+
+        for (int c = 0; c < 4; ++ c) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (Integer item; (item = queue.poll(500, TimeUnit.MILLISECONDS)) != null;) {
+                        sum.addAndGet(item);
+                    }
+                } catch (InterruptedException error) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals((long) producerCount * itemCount * (itemCount + 1) / 2, sum.get());
+    }
+}